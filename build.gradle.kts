@@ -9,6 +9,8 @@ repositories {
     mavenCentral()
 }
 
+val jmhVersion = "1.37"
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
@@ -16,4 +18,111 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+sourceSets {
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+dependencies {
+    "benchmarkImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "benchmarkAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("editorBenchmark") {
+    description = "Types into a 5 MB note and compares per-keystroke copying with the live Document model."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.EditorTypingBenchmark")
+    jvmArgs("-Xmx1g")
+}
+
+// -Pjmh.include=<regex> picks benchmarks, -Pjmh.notes=<n> picks one corpus size
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks and writes a JSON report."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val report = layout.buildDirectory.file("reports/jmh/results.json")
+    outputs.file(report)
+    doFirst {
+        report.get().asFile.parentFile.mkdirs()
+    }
+    val jmhArgs = mutableListOf("-rf", "json", "-rff", report.get().asFile.path)
+    findProperty("jmh.notes")?.let { jmhArgs += listOf("-p", "notes=$it") }
+    findProperty("jmh.include")?.let { jmhArgs += it.toString() }
+    args(jmhArgs)
+}
+
+tasks.register<JavaExec>("storeStress") {
+    description = "Runs a multi-threaded stress test of NotesStore against a throughput target."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.NotesStoreStressTest")
+    jvmArgs("-Xmx2g")
+    findProperty("stress.target")?.let { systemProperty("stress.target", it) }
+    findProperty("stress.threads")?.let { systemProperty("stress.threads", it) }
+}
+
+tasks.register<JavaExec>("coldStartBenchmark") {
+    description = "Times opening a store of 1M notes from the memory-mapped note database."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.ColdStartBenchmark")
+    jvmArgs("-Xmx2g")
+    findProperty("coldstart.notes")?.let { systemProperty("coldstart.notes", it) }
+    findProperty("coldstart.target")?.let { systemProperty("coldstart.target", it) }
+}
+
+tasks.register<JavaExec>("syncBenchmark") {
+    description = "Replicates 100k notes through a local sync server and reports bytes on the wire and latency."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.SyncBenchmark")
+    jvmArgs("-Xmx2g")
+    findProperty("sync.notes")?.let { systemProperty("sync.notes", it) }
+}
+
+tasks.register<JavaExec>("replicatedTextBenchmark") {
+    description = "Measures typing, merging and memory per char of the replicated note text model."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.ReplicatedTextBenchmark")
+    jvmArgs("-Xmx1g")
+}
+
+tasks.register<JavaExec>("schedulerBenchmark") {
+    description = "Measures search latency through the background task scheduler, idle and under background load."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.SchedulerBenchmark")
+    jvmArgs("-Xmx2g")
+    systemProperty("java.awt.headless", "true")
+}
+
+tasks.register<JavaExec>("coldTierBenchmark") {
+    description = "Measures disk footprint and read cost of compressing notes that have gone cold."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.ColdTierBenchmark")
+    jvmArgs("-Xmx2g")
+}
+
+tasks.register<JavaExec>("fuzzySearchBenchmark") {
+    description = "Times typo, prefix and substring searches over notes with a 200k-word vocabulary."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.FuzzySearchBenchmark")
+    jvmArgs("-Xmx3g")
+}
+
+tasks.register<JavaExec>("dedupBenchmark") {
+    description = "Measures the dedup ratio of note bodies stored as content-defined chunks."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("eng.veltic.DedupBenchmark")
+    jvmArgs("-Xmx2g")
+}
@@ -0,0 +1,79 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes a note database of {@link #NOTES} synthetic notes, then times how
+ * long a NotesStore takes to open it and hand back a list ready for the
+ * sidebar. Exits with status 1 if the slowest open misses the target.
+ *
+ * Run with {@code gradle coldStartBenchmark}; {@code -Pcoldstart.notes} and
+ * {@code -Pcoldstart.target} (milliseconds) override the defaults.
+ */
+public class ColdStartBenchmark {
+    private static final int NOTES = 1_000_000;
+    private static final long TARGET_MILLIS = 1000;
+    private static final int OPENS = 5;
+    private static final long BODY_CACHE_CHARS = 8L << 20;
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("coldstart.notes", NOTES);
+        long target = Long.getLong("coldstart.target", TARGET_MILLIS);
+
+        Path dir = Files.createTempDirectory("notes-coldstart");
+        try {
+            long began = System.nanoTime();
+            List<NoteItem> notes = Corpus.notes(count);
+            try (NoteDatabase.Writer out = new NoteDatabase.Writer(dir.resolve("snapshot-00000001.db"), count)) {
+                for (NoteItem note : notes) {
+                    out.add(note.getId(), note.getCreated(), note.getModified(), note.getTitle(), note.getTags(),
+                            note.getContent());
+                }
+                out.finish();
+            }
+            System.out.printf("wrote %,d notes (%,d KB) in %d ms%n", count,
+                    Files.size(dir.resolve("snapshot-00000001.db")) >> 10, (System.nanoTime() - began) / 1_000_000);
+            String firstTitle = notes.get(0).getTitle();
+            notes = null;
+
+            long slowest = 0;
+            for (int i = 0; i < OPENS; i++) {
+                System.gc();
+                began = System.nanoTime();
+                try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+                    List<NoteItem> listed = store.notes();
+                    String title = listed.get(0).getTitle();
+                    long millis = (System.nanoTime() - began) / 1_000_000;
+                    System.out.printf("open %d: %,d notes listed in %d ms%n", i + 1, listed.size(), millis);
+                    if (listed.size() != count || !title.equals(firstTitle)) {
+                        System.out.println("FAIL: the store did not list the notes that were written");
+                        System.exit(1);
+                    }
+                    slowest = Math.max(slowest, millis);
+                }
+            }
+
+            System.out.printf("slowest open %d ms (target %d ms)%n", slowest, target);
+            if (slowest > target) {
+                System.out.println("FAIL: cold start is slower than the target");
+                System.exit(1);
+            }
+            System.out.println("OK");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Stores {@link #NOTES} notes untouched for years, a third of them filled in
+ * from a meeting template, and reports what the bodies take on disk as
+ * written, once compaction has compressed the cold ones, and once it has
+ * trained a dictionary for them. Then times reading bodies back from a
+ * freshly opened store, compressed next to the same notes kept as is because
+ * they were edited today, and shows what the body cache holds on the heap.
+ * Exits with status 1 if a body reads back different.
+ *
+ * Run with {@code gradle coldTierBenchmark}.
+ */
+public class ColdTierBenchmark {
+    private static final int NOTES = 100_000;
+    private static final int READS = 20_000;
+    private static final long BODY_CACHE_CHARS = 8L << 20;
+    private static final String[] PEOPLE = {"Sarah", "Mike", "Jennifer", "Omar", "Priya", "Lena", "Tomás", "Yuki"};
+
+    public static void main(String[] args) throws Exception {
+        List<NoteItem> notes = notes(NOTES);
+        long now = System.currentTimeMillis();
+        Path cold = Files.createTempDirectory("notes-cold");
+        Path hot = Files.createTempDirectory("notes-hot");
+        try {
+            try (NotesStore store = NotesStore.open(cold, BODY_CACHE_CHARS)) {
+                store.addAll(copies(notes, -1));
+                store.sync().join();
+                print("as written", store.footprint());
+                store.compactCold().join();
+                print("cold bodies compressed", store.footprint());
+                store.compactCold().join();
+                print("with a trained dictionary", store.footprint());
+            }
+            try (NotesStore store = NotesStore.open(hot, BODY_CACHE_CHARS)) {
+                store.addAll(copies(notes, now));
+                store.sync().join();
+                store.compactCold().join();
+                print("edited today, kept as is", store.footprint());
+            }
+
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;
+                long compressed = read(cold, notes, print ? "reads, compressed" : null);
+                long plain = read(hot, notes, print ? "reads, as is" : null);
+                if (print) {
+                    System.out.printf("%-30s %+.1f us a body%n", "inflating costs", (compressed - plain) / 1e3 / READS);
+                }
+            }
+        } finally {
+            delete(cold);
+            delete(hot);
+        }
+    }
+
+    // Nanoseconds to read READS bodies, evenly spread, from a store just opened
+    private static long read(Path dir, List<NoteItem> expected, String label) throws IOException {
+        try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+            List<NoteItem> listed = store.notes();
+            long start = System.nanoTime();
+            long chars = 0;
+            for (int i = 0; i < READS; i++) {
+                chars += listed.get((int) ((long) i * listed.size() / READS)).getContent().length();
+            }
+            long elapsed = System.nanoTime() - start;
+            for (int i = 0; i < listed.size(); i += 997) {
+                if (!listed.get(i).getContent().equals(expected.get(i).getContent())) {
+                    System.out.println("FAIL: note " + i + " reads back different");
+                    System.exit(1);
+                }
+            }
+            if (label != null) {
+                System.out.printf("%-30s %8.1f us a body (%,d KB of text)%n", label, elapsed / 1e3 / READS,
+                        chars * 2 >> 10);
+                NotesStore.Footprint footprint = store.footprint();
+                System.out.printf("%-30s %,8d bodies, %,d KB (cache holds up to %,d chars)%n", "  on the heap after",
+                        footprint.bodiesInHeap, footprint.heapBytes >> 10, BODY_CACHE_CHARS);
+            }
+            return elapsed;
+        }
+    }
+
+    private static void print(String what, NotesStore.Footprint footprint) {
+        StorageEngine.Footprint disk = footprint.disk;
+        System.out.printf("%-30s snapshot %,8d KB, log %,8d KB, bodies %,8d KB stored / %,8d KB as text,"
+                        + " %,d of %,d chunks compressed, dictionary %,d B%n", what, disk.snapshotBytes >> 10,
+                disk.logBytes >> 10, disk.storedBodyBytes >> 10, disk.rawBodyBytes >> 10, disk.compressedChunks,
+                disk.chunks, disk.dictionaryBytes);
+    }
+
+    private static List<NoteItem> copies(List<NoteItem> notes, long modified) {
+        List<NoteItem> copies = new ArrayList<>(notes.size());
+        for (NoteItem note : notes) {
+            copies.add(new NoteItem(note.getTitle(), note.getContent(), note.getCreated(),
+                    modified < 0 ? note.getModified() : modified));
+        }
+        return copies;
+    }
+
+    // The benchmark corpus, with every third body replaced by a filled-in meeting template
+    private static List<NoteItem> notes(int count) {
+        List<NoteItem> notes = Corpus.notes(count);
+        SplittableRandom random = new SplittableRandom(24);
+        for (int i = 0; i < count; i += 3) {
+            NoteItem note = notes.get(i);
+            String a = PEOPLE[random.nextInt(PEOPLE.length)];
+            String b = PEOPLE[random.nextInt(PEOPLE.length)];
+            String c = PEOPLE[random.nextInt(PEOPLE.length)];
+            int day = 1 + random.nextInt(28);
+            String body = "Date: March " + day + ", 2024\nAttendees: " + a + ", " + b + ", " + c + "\n\n"
+                    + "• Key Discussion Points:\n    • Budget allocation for Q" + (1 + random.nextInt(4)) + "\n"
+                    + "    • New project timeline\n    • Team resource planning\n\n"
+                    + "• Action Items:\n    1. " + a + ": Review budget proposal by Friday\n"
+                    + "    2. " + b + ": Update project roadmap\n    3. " + c + ": Schedule team meetings\n\n"
+                    + "• Next Steps:\n    • Follow-up meeting scheduled for March " + Math.min(28, day + 7) + "\n"
+                    + "    • Quarterly review preparation\n" + note.getContent();
+            NoteItem meeting = new NoteItem("📋 " + note.getTitle(), body, note.getCreated(), note.getModified());
+            notes.set(i, meeting);
+        }
+        return notes;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic notes for the benchmarks. The same size always
+ * produces the same titles, bodies and timestamps, so reports from different
+ * builds compare like with like.
+ */
+final class Corpus {
+    private static final String[] WORDS = {
+            "meeting", "project", "deadline", "review", "budget", "design", "notes", "draft",
+            "release", "backlog", "customer", "ideas", "groceries", "travel", "recipe", "book",
+            "garden", "invoice", "schedule", "plan", "weekly", "todo", "call", "email",
+            "the", "a", "and", "of", "to", "with", "for", "on", "at", "from", "by", "about"
+    };
+    private static final String[] TAGS = {
+            "work", "personal", "ideas", "todo", "reading", "finance", "health", "archive"
+    };
+    private static final long START_MILLIS = 1_600_000_000_000L;
+
+    private Corpus() {}
+
+    static List<NoteItem> notes(int count) {
+        SplittableRandom random = new SplittableRandom(count);
+        // Its own stream, so adding tags left titles and bodies as they were
+        SplittableRandom tagRandom = new SplittableRandom(~count);
+        List<NoteItem> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = words(random, 2 + random.nextInt(4), " ");
+            // Mostly short notes with a long tail, like a real archive
+            int bodyWords = random.nextInt(100) < 95 ? 5 + random.nextInt(40) : 200 + random.nextInt(800);
+            NoteItem note = new NoteItem(title, words(random, bodyWords, random.nextInt(8) == 0 ? "\n" : " "),
+                    START_MILLIS + i * 60_000L, START_MILLIS + i * 60_000L + random.nextInt(86_400_000));
+            long modified = note.getModified();
+            note.setTags(tags(tagRandom));
+            note.setModified(modified);
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    // Two notes in five untagged, the rest with one to three tags
+    private static List<String> tags(SplittableRandom random) {
+        int count = random.nextInt(5) < 2 ? 0 : 1 + random.nextInt(3);
+        List<String> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(TAGS[random.nextInt(TAGS.length)]);
+        }
+        return tags;
+    }
+
+    private static String words(SplittableRandom random, int count, String separator) {
+        StringBuilder text = new StringBuilder(count * 7);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(random.nextInt(12) == 0 ? "\n" : separator);
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
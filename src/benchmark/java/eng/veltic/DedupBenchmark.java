@@ -0,0 +1,132 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Stores {@link #NOTES} notes, a fifth of them started from one of a few
+ * templates and a tenth of them duplicated, folds them into a snapshot and
+ * reports what the chunk store makes of them: bodies as text next to their
+ * distinct chunks (the dedup ratio), the chunk table that costs, titles as
+ * text next to what they take shared, and how long compaction took. Then
+ * reads every body back from a freshly opened store and reports the heap the
+ * body cache takes with equal bodies shared. Exits with status 1 if a body
+ * reads back different.
+ *
+ * Run with {@code gradle dedupBenchmark}.
+ */
+public class DedupBenchmark {
+    private static final int NOTES = 100_000;
+    private static final long BODY_CACHE_CHARS = 256L << 20;
+    private static final String[] TEMPLATES = {"Weekly report", "Project kickoff", "Recipe"};
+
+    public static void main(String[] args) throws Exception {
+        List<NoteItem> notes = notes(NOTES);
+        Path dir = Files.createTempDirectory("notes-dedup");
+        try {
+            List<String> expected;
+            try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+                store.addAll(notes);
+                List<NoteItem> listed = store.notes();
+                for (int i = 0; i < listed.size(); i += 10) {
+                    store.duplicate(listed.get(i));
+                }
+                store.sync().join();
+                long start = System.nanoTime();
+                store.compactCold().join();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                print(store.footprint().disk, millis);
+                expected = contents(store);
+            }
+
+            try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+                long start = System.nanoTime();
+                List<String> read = contents(store);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                if (!read.equals(expected)) {
+                    System.out.println("FAIL: bodies read back different after reopening");
+                    System.exit(1);
+                }
+                NotesStore.Footprint footprint = store.footprint();
+                System.out.printf("%-24s %,d bodies in %,d ms, %,d KB on the heap, %,d KB unshared%n",
+                        "read back", read.size(), millis, footprint.heapBytes >> 10,
+                        footprint.referencedHeapBytes >> 10);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void print(StorageEngine.Footprint disk, long millis) {
+        System.out.printf("%-24s %,d notes, snapshot %,d KB, compacted in %,d ms%n", "stored", disk.bodies,
+                disk.snapshotBytes >> 10, millis);
+        System.out.printf("%-24s %,d KB as text, %,d KB of distinct chunks, dedup %.2fx%n", "bodies",
+                disk.rawBodyBytes >> 10, disk.distinctBodyBytes >> 10, disk.dedupRatio());
+        System.out.printf("%-24s %,d, %,d shared, table and references %,d KB%n", "chunks", disk.chunks,
+                disk.sharedChunks, disk.chunkTableBytes >> 10);
+        System.out.printf("%-24s %,d KB as text, %,d KB stored%n", "titles and tags", disk.titleBytes >> 10,
+                disk.storedTitleBytes >> 10);
+    }
+
+    // In id order, which reopening lists the notes in
+    private static List<String> contents(NotesStore store) {
+        List<NoteItem> notes = new ArrayList<>(store.notes());
+        notes.sort(Comparator.comparingLong(NoteItem::getId));
+        List<String> contents = new ArrayList<>(notes.size());
+        for (NoteItem note : notes) {
+            contents.add(note.getContent());
+        }
+        return contents;
+    }
+
+    // The benchmark corpus, with every fifth note started from a template
+    private static List<NoteItem> notes(int count) {
+        List<NoteItem> notes = Corpus.notes(count);
+        String[] templates = new String[TEMPLATES.length];
+        for (int t = 0; t < templates.length; t++) {
+            templates[t] = template(TEMPLATES[t], new SplittableRandom(25 + t));
+        }
+        for (int i = 0; i < count; i += 5) {
+            NoteItem note = notes.get(i);
+            int t = i / 5 % TEMPLATES.length;
+            NoteItem filled = new NoteItem(TEMPLATES[t], templates[t] + note.getContent(), note.getCreated(),
+                    note.getModified());
+            filled.setTags(note.getTags());
+            filled.setModified(note.getModified());
+            notes.set(i, filled);
+        }
+        return notes;
+    }
+
+    // A checklist of a couple of KB, the kind of boilerplate a template fills every note with
+    private static String template(String name, SplittableRandom random) {
+        StringBuilder text = new StringBuilder("# " + name + "\n\n");
+        String[] steps = {"Review", "Confirm", "Update", "Share", "Check", "Prepare", "Schedule", "Collect"};
+        String[] things = {"the goals for this week", "open questions with the team", "the status page",
+                "notes with stakeholders", "budget against plan", "the next milestone", "a follow-up meeting",
+                "feedback from customers"};
+        for (int section = 1; section <= 4; section++) {
+            text.append("## Section ").append(section).append("\n");
+            for (int item = 0; item < 8; item++) {
+                text.append("- [ ] ").append(steps[random.nextInt(steps.length)]).append(' ')
+                        .append(things[random.nextInt(things.length)]).append('\n');
+            }
+            text.append('\n');
+        }
+        return text.append("---\n\n").toString();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
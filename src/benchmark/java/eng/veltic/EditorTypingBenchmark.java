@@ -0,0 +1,98 @@
+package eng.veltic;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Types into a 5 MB note the way the editor used to handle keystrokes (copy
+ * the whole document into the note and re-split it for the word count) and
+ * the way it does now (incremental word count, copy only on auto-save).
+ *
+ * Run with {@code gradle editorBenchmark}.
+ */
+public class EditorTypingBenchmark {
+    private static final int NOTE_CHARS = 5 << 20;
+    private static final int KEYSTROKES = 300;
+    // Keystrokes between auto-save commits in the live-document run
+    private static final int COMMIT_EVERY = 100;
+
+    public static void main(String[] args) throws Exception {
+        String note = buildNote();
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warm-up" : "measured";
+            run(label + " copy-per-keystroke", note, false);
+            run(label + " live-document", note, true);
+        }
+    }
+
+    private static void run(String label, String text, boolean liveDocument) throws BadLocationException {
+        PlainDocument doc = new PlainDocument();
+        doc.insertString(0, text, null);
+        NoteItem note = new NoteItem("Benchmark", text);
+        WordCounter counter = new WordCounter();
+        counter.recount(doc);
+        int[] keystrokes = {0};
+        int[] words = {0};
+
+        doc.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                try {
+                    if (liveDocument) {
+                        counter.inserted(doc, e.getOffset(), e.getLength());
+                        words[0] = counter.getWords();
+                        if (++keystrokes[0] % COMMIT_EVERY == 0) {
+                            note.setContent(doc.getText(0, doc.getLength()));
+                        }
+                    } else {
+                        String current = doc.getText(0, doc.getLength());
+                        note.setContent(current);
+                        words[0] = current.trim().isEmpty() ? 0 : current.trim().split("\\s+").length;
+                    }
+                } catch (BadLocationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {}
+            @Override
+            public void changedUpdate(DocumentEvent e) {}
+        });
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        String typed = "the quick brown fox ";
+        int caret = doc.getLength() / 2;
+        for (int i = 0; i < KEYSTROKES; i++) {
+            doc.insertString(caret++, String.valueOf(typed.charAt(i % typed.length())), null);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        System.out.printf("%-32s %9.1f us/keystroke %10.1f KB/keystroke (%d words)%n",
+                label,
+                elapsed / 1000.0 / KEYSTROKES,
+                allocated / 1024.0 / KEYSTROKES,
+                words[0]);
+    }
+
+    private static String buildNote() {
+        String[] vocabulary = {"budget", "meeting", "roadmap", "groceries", "review", "garden", "deadline",
+                "•", "-", "1.", "notes", "planning", "quarterly", "follow-up", "draft"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(NOTE_CHARS + 64);
+        while (sb.length() < NOTE_CHARS) {
+            sb.append(vocabulary[random.nextInt(vocabulary.length)]);
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes the whole corpus with each export format into a channel that
+ * discards the bytes, so the numbers reflect formatting and encoding rather
+ * than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ExportBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    @Param({"txt", "md", "jsonl", "zip"})
+    public String format;
+
+    private List<NoteItem> corpus;
+    private ExportFormat exportFormat;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = Corpus.notes(notes);
+        for (ExportFormat candidate : ExportFormat.ALL) {
+            if (candidate.extension().equals(format)) {
+                exportFormat = candidate;
+            }
+        }
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        DiscardingChannel channel = new DiscardingChannel();
+        try (ExportFormat.Sink sink = exportFormat.open(channel)) {
+            for (NoteItem note : corpus) {
+                sink.write(note, note.loadContent());
+            }
+        }
+        return channel.written;
+    }
+
+    private static class DiscardingChannel implements WritableByteChannel {
+        private long written;
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            written += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
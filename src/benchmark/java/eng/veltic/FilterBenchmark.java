@@ -0,0 +1,59 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Substring matching: the trigram index behind NoteIndex.search against the
+ * linear title/content scan it replaced. The search box itself is ranked, see
+ * RankedSearchBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FilterBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    // A short prefix, a common word, a rare phrase and a miss
+    @Param({"me", "budget", "recipe book", "zzyzx"})
+    public String query;
+
+    private List<NoteItem> corpus;
+    private NoteIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = Corpus.notes(notes);
+        index = new NoteIndex();
+        for (NoteItem note : corpus) {
+            index.add(note);
+        }
+        // The first search applies the queued adds; keep that out of the measurement
+        index.search("warm");
+    }
+
+    @Benchmark
+    public List<NoteItem> indexSearch() {
+        return index.search(query);
+    }
+
+    @Benchmark
+    public List<NoteItem> linearScan() {
+        String needle = query.toLowerCase().trim();
+        List<NoteItem> matches = new ArrayList<>();
+        for (NoteItem note : corpus) {
+            if (note.getTitle().toLowerCase().contains(needle)
+                    || note.getContent().toLowerCase().contains(needle)) {
+                matches.add(note);
+            }
+        }
+        return matches;
+    }
+}
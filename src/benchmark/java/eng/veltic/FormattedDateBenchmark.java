@@ -0,0 +1,67 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NoteItem.getFormattedDate over every note, as a full repaint of the list
+ * would ask for it: once with the per-note cache warm and once with every
+ * note freshly modified. The relative labels the list shows are measured
+ * warm and right after a clock tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FormattedDateBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    private List<NoteItem> corpus;
+    private long tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = Corpus.notes(notes);
+        for (NoteItem note : corpus) {
+            note.getFormattedDate();
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole blackhole) {
+        for (NoteItem note : corpus) {
+            blackhole.consume(note.getFormattedDate());
+        }
+    }
+
+    @Benchmark
+    public void relativeCached(Blackhole blackhole) {
+        for (NoteItem note : corpus) {
+            blackhole.consume(note.getRelativeDate());
+        }
+    }
+
+    @Benchmark
+    public void relativeAfterTick(Blackhole blackhole) {
+        NoteDates.tick();
+        for (NoteItem note : corpus) {
+            blackhole.consume(note.getRelativeDate());
+        }
+    }
+
+    @Benchmark
+    public void modified(Blackhole blackhole) {
+        // A minute apart so the formatted text really changes
+        tick += 60_000L;
+        for (NoteItem note : corpus) {
+            note.setModified(note.getCreated() + tick);
+            blackhole.consume(note.getFormattedDate());
+        }
+    }
+}
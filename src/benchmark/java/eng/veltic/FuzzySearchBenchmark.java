@@ -0,0 +1,133 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Times the search box over {@link #NOTES} notes written from a realistic
+ * vocabulary rather than the few dozen words of {@link Corpus}: {@link #WORDS}
+ * distinct words of two to five syllables, used with Zipf frequencies, so a
+ * few words are in most notes and most words are in a handful. The typo
+ * queries go through the BK-tree's one- and two-edit neighbourhoods over the
+ * whole vocabulary; prefixes, fragments inside words and single letters go
+ * through the prefix scan and the n-gram index. Prints the median and 99th
+ * percentile per kind of query.
+ *
+ * Run with {@code gradle fuzzySearchBenchmark}.
+ */
+public class FuzzySearchBenchmark {
+    private static final int NOTES = 100_000;
+    private static final int WORDS = 200_000;
+    private static final int QUERIES = 200;
+    private static final String[] ONSETS = {"b", "br", "c", "ch", "d", "f", "g", "gr", "h", "j", "k", "l", "m",
+            "n", "p", "pl", "r", "s", "sh", "st", "t", "tr", "v", "w", "z"};
+    private static final String[] VOWELS = {"a", "e", "i", "o", "u", "ai", "ea", "ou"};
+    private static final String[] CODAS = {"", "", "", "n", "r", "s", "t", "l", "ck", "nd"};
+
+    public static void main(String[] args) {
+        SplittableRandom random = new SplittableRandom(19);
+        String[] vocabulary = vocabulary(random);
+        double[] cumulative = zipf(vocabulary.length);
+
+        long start = System.nanoTime();
+        NoteIndex index = new NoteIndex();
+        for (int i = 0; i < NOTES; i++) {
+            index.add(new NoteItem(text(random, vocabulary, cumulative, 2 + random.nextInt(4)),
+                    text(random, vocabulary, cumulative, 10 + random.nextInt(60))));
+        }
+        index.catchUp(() -> false);
+        System.out.printf("%-26s %,d notes, %,d-word vocabulary, indexed in %,d ms%n", "corpus", NOTES,
+                vocabulary.length, (System.nanoTime() - start) / 1_000_000);
+
+        // Words from the whole frequency range, most of them rare as in real queries
+        String[] picked = new String[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            picked[q] = vocabulary[random.nextInt(vocabulary.length)];
+        }
+        time(index, "exact word", picked, word -> word);
+        time(index, "one typo, 4-7 letters", longer(picked, 4, 7), word -> typo(word, random));
+        time(index, "two typos, 8+ letters", longer(picked, 8, 64), word -> typo(typo(word, random), random));
+        time(index, "prefix", longer(picked, 4, 64), word -> word.substring(0, 3));
+        time(index, "inside a word", longer(picked, 6, 64), word -> word.substring(2, 6));
+        time(index, "single letter", picked, word -> word.substring(0, 1));
+    }
+
+    private static void time(NoteIndex index, String label, String[] words, Query query) {
+        for (String word : words) {
+            index.filter(query.of(word), Set.of(), () -> false);
+        }
+        long[] nanos = new long[words.length];
+        long matches = 0;
+        for (int q = 0; q < words.length; q++) {
+            String text = query.of(words[q]);
+            long start = System.nanoTime();
+            matches += index.filter(text, Set.of(), () -> false).total;
+            nanos[q] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-26s median %6.2f ms, p99 %6.2f ms, %,d matches on average%n", label,
+                nanos[nanos.length / 2] / 1e6, nanos[nanos.length * 99 / 100] / 1e6, matches / words.length);
+    }
+
+    private static String[] vocabulary(SplittableRandom random) {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < WORDS) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + random.nextInt(4);
+            for (int s = 0; s < syllables; s++) {
+                word.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+            }
+            words.add(word.append(CODAS[random.nextInt(CODAS.length)]).toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    // Cumulative Zipf weights: the word of rank r is used in proportion to 1 / r
+    private static double[] zipf(int count) {
+        double[] cumulative = new double[count];
+        double total = 0;
+        for (int r = 0; r < count; r++) {
+            total += 1.0 / (r + 1);
+            cumulative[r] = total;
+        }
+        for (int r = 0; r < count; r++) {
+            cumulative[r] /= total;
+        }
+        return cumulative;
+    }
+
+    private static String text(SplittableRandom random, String[] vocabulary, double[] cumulative, int count) {
+        StringBuilder text = new StringBuilder(count * 9);
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            text.append(i > 0 ? " " : "").append(vocabulary[Math.min(rank < 0 ? -rank - 1 : rank,
+                    vocabulary.length - 1)]);
+        }
+        return text.toString();
+    }
+
+    private static String[] longer(String[] words, int min, int max) {
+        List<String> kept = new ArrayList<>();
+        for (String word : words) {
+            if (word.length() >= min && word.length() <= max) {
+                kept.add(word);
+            }
+        }
+        return kept.toArray(new String[0]);
+    }
+
+    // Replaces one letter with another
+    private static String typo(String word, SplittableRandom random) {
+        int at = random.nextInt(word.length());
+        char replaced = (char) ('a' + (word.charAt(at) - 'a' + 1 + random.nextInt(25)) % 26);
+        return word.substring(0, at) + replaced + word.substring(at + 1);
+    }
+
+    private interface Query {
+        String of(String word);
+    }
+}
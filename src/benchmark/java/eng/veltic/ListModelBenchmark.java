@@ -0,0 +1,64 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling the notes list model: one addElement per note, which fires an event
+ * per note to the attached list, against a single addAll.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class ListModelBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    private List<NoteItem> corpus;
+    private int events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = Corpus.notes(notes);
+    }
+
+    @Benchmark
+    public int addElement() {
+        DefaultListModel<NoteItem> model = newModel();
+        for (NoteItem note : corpus) {
+            model.addElement(note);
+        }
+        return events;
+    }
+
+    @Benchmark
+    public int addAll() {
+        DefaultListModel<NoteItem> model = newModel();
+        model.addAll(corpus);
+        return events;
+    }
+
+    // Stands in for the JList's listener so each event costs a little, as it does in the app
+    private DefaultListModel<NoteItem> newModel() {
+        DefaultListModel<NoteItem> model = new DefaultListModel<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events += e.getIndex1() - e.getIndex0() + 1;
+            }
+            @Override
+            public void intervalRemoved(ListDataEvent e) {}
+            @Override
+            public void contentsChanged(ListDataEvent e) {}
+        });
+        return model;
+    }
+}
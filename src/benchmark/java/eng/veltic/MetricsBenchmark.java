@@ -0,0 +1,35 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What instrumenting a hot path costs: reading the clock alone against
+ * reading it and recording the sample, with no Flight Recorder running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+    private final Metrics.Latency latency = Metrics.latency("benchmark", 1_000_000);
+
+    @Benchmark
+    public long clockOnly() {
+        return System.nanoTime() - System.nanoTime();
+    }
+
+    @Benchmark
+    public void record() {
+        latency.record(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        latency.record(System.nanoTime());
+    }
+}
@@ -0,0 +1,62 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the headless NotesStore (in memory, no storage) with four
+ * threads hammering it at once: lookups, content updates and create/delete
+ * pairs on a pre-filled store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Threads(4)
+public class NotesStoreBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    private NotesStore store;
+    private NoteItem[] corpus;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<NoteItem> generated = Corpus.notes(notes);
+        corpus = generated.toArray(new NoteItem[0]);
+        store = NotesStore.inMemory();
+        store.addAll(generated);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Benchmark
+    public NoteItem get(ThreadState thread) {
+        return store.get(corpus[thread.random.nextInt(corpus.length)].getId());
+    }
+
+    @Benchmark
+    public boolean updateContent(ThreadState thread) {
+        NoteItem note = corpus[thread.random.nextInt(corpus.length)];
+        return store.updateContent(note, "edited");
+    }
+
+    @Benchmark
+    public boolean createDelete() {
+        return store.delete(store.create("scratch", "body"));
+    }
+}
@@ -0,0 +1,167 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers an in-memory NotesStore from many threads with a mix of lookups,
+ * snapshot scans, edits, renames, create/delete pairs and bulk inserts, then
+ * checks the store is still consistent and that the throughput target was met.
+ * Exits with status 1 on any failure.
+ *
+ * Run with {@code gradle storeStress}. The target defaults to
+ * {@link #TARGET_PER_THREAD} operations per second per worker thread; the total
+ * target and the thread count can be set with {@code -Pstress.target} and
+ * {@code -Pstress.threads}.
+ */
+public class NotesStoreStressTest {
+    private static final int INITIAL_NOTES = 100_000;
+    private static final int OPS_PER_THREAD = 500_000;
+    private static final int IMPORT_BATCH = 500;
+    private static final long TARGET_PER_THREAD = 75_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("stress.threads", Runtime.getRuntime().availableProcessors());
+        long target = Long.getLong("stress.target", TARGET_PER_THREAD * threads);
+
+        NotesStore store = NotesStore.inMemory();
+        store.addAll(Corpus.notes(INITIAL_NOTES));
+        AtomicLong added = new AtomicLong(INITIAL_NOTES);
+        AtomicLong removed = new AtomicLong();
+        AtomicLong events = new AtomicLong();
+        store.addListener(change -> events.incrementAndGet());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers.add(pool.submit(() -> {
+                start.await();
+                return run(store, new SplittableRandom(seed), seed, added, removed);
+            }));
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        List<String> failures = new ArrayList<>();
+        for (Future<String> worker : workers) {
+            String failure = worker.get();
+            if (failure != null) {
+                failures.add(failure);
+            }
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+        pool.shutdown();
+
+        long ops = (long) threads * OPS_PER_THREAD;
+        long throughput = (long) (ops / seconds);
+        System.out.printf("%d threads, %,d ops in %.2f s: %,d ops/s (target %,d), %,d events%n",
+                threads, ops, seconds, throughput, target, events.get());
+
+        failures.addAll(checkConsistency(store, added.get() - removed.get()));
+        if (throughput < target) {
+            failures.add("throughput " + throughput + " ops/s is below the target of " + target);
+        }
+        store.close();
+
+        if (!failures.isEmpty()) {
+            failures.forEach(failure -> System.out.println("FAIL: " + failure));
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static String run(NotesStore store, SplittableRandom random, int thread,
+                              AtomicLong added, AtomicLong removed) {
+        String marker = "thread" + thread + "marker";
+        for (int i = 0; i < OPS_PER_THREAD; i++) {
+            int op = random.nextInt(1000);
+            List<NoteItem> snapshot = store.notes();
+            NoteItem note = snapshot.get(random.nextInt(snapshot.size()));
+            if (op < 650) {
+                NoteItem found = store.get(note.getId());
+                if (found != null && found != note) {
+                    return "lookup of " + note.getId() + " returned a different note";
+                }
+            } else if (op < 850) {
+                store.updateContent(note, marker + " " + i);
+            } else if (op < 900) {
+                store.rename(note, "Renamed " + i);
+            } else if (op < 998) {
+                NoteItem scratch = store.create("Scratch " + i, "body");
+                if (store.get(scratch.getId()) != scratch) {
+                    return "created note " + scratch.getId() + " is not visible";
+                }
+                if (store.delete(scratch)) {
+                    added.incrementAndGet();
+                    removed.incrementAndGet();
+                } else {
+                    return "created note " + scratch.getId() + " could not be deleted";
+                }
+            } else if (op < 999) {
+                // A snapshot must be internally consistent however it races with writers
+                int counted = 0;
+                for (NoteItem ignored : snapshot) {
+                    counted++;
+                }
+                if (counted != snapshot.size()) {
+                    return "snapshot iterated " + counted + " notes but reports " + snapshot.size();
+                }
+            } else {
+                List<NoteItem> batch = new ArrayList<>(IMPORT_BATCH);
+                for (int n = 0; n < IMPORT_BATCH; n++) {
+                    batch.add(new NoteItem("Imported " + n, "imported by " + marker));
+                }
+                store.addAll(batch);
+                added.addAndGet(IMPORT_BATCH);
+            }
+        }
+        return null;
+    }
+
+    private static List<String> checkConsistency(NotesStore store, long expected) {
+        List<String> failures = new ArrayList<>();
+        List<NoteItem> snapshot = store.notes();
+        if (snapshot.size() != expected || store.size() != expected) {
+            failures.add("expected " + expected + " notes, snapshot has " + snapshot.size()
+                    + " and size() reports " + store.size());
+        }
+
+        Set<Long> ids = new HashSet<>();
+        long previousId = -1;
+        boolean restoredOrder = true;
+        for (int i = 0; i < snapshot.size(); i++) {
+            NoteItem note = snapshot.get(i);
+            if (!ids.add(note.getId())) {
+                failures.add("note " + note.getId() + " appears twice");
+            }
+            if (store.get(note.getId()) != note) {
+                failures.add("note " + note.getId() + " is listed but not found by id");
+            }
+            if (i < INITIAL_NOTES) {
+                restoredOrder &= note.getId() > previousId;
+                previousId = note.getId();
+            }
+        }
+        if (!restoredOrder) {
+            failures.add("the initial notes lost their insertion order");
+        }
+
+        String query = "thread0marker";
+        long matching = snapshot.stream().filter(note -> note.getContent().contains(query)).count();
+        int found = store.search(query).size();
+        if (found != matching) {
+            failures.add("search found " + found + " notes for \"" + query + "\", expected " + matching);
+        }
+        return failures;
+    }
+}
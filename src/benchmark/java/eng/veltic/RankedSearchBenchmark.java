@@ -0,0 +1,47 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search box: whole-word matching ranked by BM25, with and without a tag
+ * filter, over corpora where every vocabulary word is in about half the notes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class RankedSearchBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    // A prefix, a common word, two common words, a typo and a miss
+    @Param({"me", "budget", "recipe book", "budgte", "zzyzx"})
+    public String query;
+
+    private NoteIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new NoteIndex();
+        for (NoteItem note : Corpus.notes(notes)) {
+            index.add(note);
+        }
+        // The first filter catches the index up on the queued adds; keep that out of the measurement
+        index.filter("warm", Set.of(), () -> false);
+    }
+
+    @Benchmark
+    public NoteIndex.Result rank() {
+        return index.filter(query, Set.of(), () -> false);
+    }
+
+    @Benchmark
+    public NoteIndex.Result rankTagged() {
+        return index.filter(query, Set.of("work"), () -> false);
+    }
+}
@@ -0,0 +1,170 @@
+package eng.veltic;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Measures {@link ReplicatedText}: keystrokes per second typed into a 5 MB
+ * note next to the Swing document the editor types into today, scattered
+ * edits per second, how fast one copy merges thousands of another's edits,
+ * and heap bytes per char of text. Exits with status 1 if copies that
+ * merged each other's edits disagree.
+ *
+ * Run with {@code gradle replicatedTextBenchmark}.
+ */
+public class ReplicatedTextBenchmark {
+    private static final int NOTE_CHARS = 5 << 20;
+    private static final int KEYSTROKES = 200_000;
+    private static final int EDITS = 20_000;
+    private static final int SMALL_NOTE_CHARS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        String note = buildNote(NOTE_CHARS);
+        String small = buildNote(SMALL_NOTE_CHARS);
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            typing(note, print);
+            scattered(small, print);
+            merging(small, print);
+        }
+        memory(note);
+    }
+
+    // Sequential typing in the middle, with a backspace every so often
+    private static void typing(String note, boolean print) throws BadLocationException {
+        PlainDocument doc = new PlainDocument();
+        doc.insertString(0, note, null);
+        String typed = "the quick brown fox jumps over the lazy dog ";
+        long start = System.nanoTime();
+        int caret = note.length() / 2;
+        for (int i = 0; i < KEYSTROKES; i++) {
+            if (i % 50 == 49) {
+                doc.remove(--caret, 1);
+            } else {
+                doc.insertString(caret++, String.valueOf(typed.charAt(i % typed.length())), null);
+            }
+        }
+        long document = System.nanoTime() - start;
+
+        ReplicatedText text = ReplicatedText.fromBase(note, 1);
+        start = System.nanoTime();
+        caret = note.length() / 2;
+        for (int i = 0; i < KEYSTROKES; i++) {
+            if (i % 50 == 49) {
+                text.delete(--caret, 1);
+            } else {
+                text.insert(caret++, String.valueOf(typed.charAt(i % typed.length())));
+            }
+        }
+        long replicated = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("typing, Swing document        %,12.0f keystrokes/s%n", KEYSTROKES * 1e9 / document);
+            System.out.printf("typing, replicated text       %,12.0f keystrokes/s (%,d runs)%n",
+                    KEYSTROKES * 1e9 / replicated, text.runs());
+        }
+    }
+
+    private static void scattered(String note, boolean print) {
+        ReplicatedText text = ReplicatedText.fromBase(note, 1);
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        edit(text, random, EDITS);
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("scattered edits, 100 KB note  %,12.0f edits/s (%,d runs)%n",
+                    EDITS * 1e9 / elapsed, text.runs());
+        }
+    }
+
+    // Two copies edit the same note apart, then each takes in the other's edits
+    private static void merging(String note, boolean print) throws Exception {
+        ReplicatedText first = ReplicatedText.fromBase(note, 1);
+        ReplicatedText second = ReplicatedText.fromBase(note, 2);
+        edit(first, new Random(11), EDITS);
+        edit(second, new Random(13), EDITS);
+        byte[] firstOps = first.encodeOps();
+        byte[] secondOps = second.encodeOps();
+
+        long start = System.nanoTime();
+        first.merge(secondOps);
+        long elapsed = System.nanoTime() - start;
+        second.merge(firstOps);
+        if (!first.toString().equals(second.toString())) {
+            System.out.println("FAIL: copies differ after merging each other's edits");
+            System.exit(1);
+        }
+        if (print) {
+            System.out.printf("merging %,d remote edits     %,12.0f edits/s (%,d bytes of ops, %.1f ms)%n", EDITS,
+                    EDITS * 1e9 / elapsed, secondOps.length, elapsed / 1e6);
+        }
+    }
+
+    private static void memory(String note) {
+        MemoryMXBean heap = ManagementFactory.getMemoryMXBean();
+        long before = used(heap);
+        ReplicatedText typed = ReplicatedText.fromBase("", 1);
+        for (int i = 0; i < note.length(); i++) {
+            typed.insert(i, String.valueOf(note.charAt(i)));
+        }
+        long after = used(heap);
+        System.out.printf("memory, 5 MB typed            %,12.2f bytes/char (%,d runs)%n",
+                (after - before) / (double) typed.length(), typed.runs());
+
+        // The base string is the note itself, so only what the edits add is counted
+        before = used(heap);
+        ReplicatedText edited = ReplicatedText.fromBase(note, 2);
+        edit(edited, new Random(17), EDITS);
+        after = used(heap);
+        System.out.printf("memory, 5 MB + %,d edits     %,12.2f bytes/char beyond the base (%,d runs)%n", EDITS,
+                (after - before) / (double) edited.length(), edited.runs());
+        System.out.printf("memory, the note as a String  %,12.2f bytes/char%n",
+                stringBytes(note) / (double) note.length());
+    }
+
+    // Words typed and deleted at random spots, with a bias towards continuing the previous edit
+    private static void edit(ReplicatedText text, Random random, int edits) {
+        int caret = text.length() / 2;
+        for (int i = 0; i < edits; i++) {
+            if (random.nextInt(8) == 0 || caret > text.length()) {
+                caret = random.nextInt(text.length() + 1);
+            }
+            if (random.nextInt(4) == 0 && caret > 0) {
+                int count = Math.min(caret, 1 + random.nextInt(6));
+                text.delete(caret - count, count);
+                caret -= count;
+            } else {
+                String word = random.nextBoolean() ? "note " : "x";
+                text.insert(caret, word);
+                caret += word.length();
+            }
+        }
+    }
+
+    private static long used(MemoryMXBean heap) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return heap.getHeapMemoryUsage().getUsed();
+    }
+
+    // Compact strings keep Latin-1 text at a byte a char
+    private static long stringBytes(String text) {
+        boolean latin1 = text.chars().allMatch(c -> c < 256);
+        return 24 + 16 + (long) text.length() * (latin1 ? 1 : 2);
+    }
+
+    private static String buildNote(int chars) {
+        String[] vocabulary = {"budget", "meeting", "roadmap", "groceries", "review", "garden", "deadline",
+                "•", "-", "1.", "notes", "planning", "quarterly", "follow-up", "draft"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(chars + 64);
+        while (sb.length() < chars) {
+            sb.append(vocabulary[random.nextInt(vocabulary.length)]);
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return sb.toString();
+    }
+}
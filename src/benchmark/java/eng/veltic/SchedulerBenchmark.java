@@ -0,0 +1,166 @@
+package eng.veltic;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+
+/**
+ * Measures how long a search takes from submit until its result reaches the
+ * EDT through a {@link TaskScheduler}, over {@link #NOTES} synthetic notes:
+ * with nothing else running, with exports and CPU-bound indexing work
+ * saturating the background lanes, and, for comparison, with the search
+ * queued in the export lane behind that same work, as a single shared
+ * background executor would have it. Also reports how many of a burst of
+ * keyed submits run, and how many EDT events a flood of progress updates
+ * costs.
+ *
+ * Run with {@code gradle schedulerBenchmark}.
+ */
+public class SchedulerBenchmark {
+    private static final int NOTES = 100_000;
+    private static final int SEARCHES = 100;
+    private static final int BACKGROUND_TASKS = 40;
+    private static final String[] QUERIES = {"budget", "meeting notes", "roadmap review", "garden", "draft plan"};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(TaskScheduler.virtualThreads() ? "virtual threads" : "platform threads (no virtual threads)");
+        NotesStore store = NotesStore.inMemory();
+        store.addAll(Corpus.notes(NOTES));
+        Path dir = Files.createTempDirectory("notes-scheduler");
+        TaskScheduler scheduler = new TaskScheduler(failure ->
+                System.out.println("FAIL: " + failure.lane + " task threw " + failure.error));
+        try {
+            store.search("warm");
+            search(scheduler, store, TaskScheduler.Lane.SEARCH, SEARCHES / 4);
+            print("search, idle", search(scheduler, store, TaskScheduler.Lane.SEARCH, SEARCHES));
+
+            AtomicInteger done = new AtomicInteger();
+            List<TaskScheduler.Token> load = background(scheduler, store, dir, done);
+            print("search, background lanes saturated", search(scheduler, store, TaskScheduler.Lane.SEARCH, SEARCHES));
+            System.out.printf("  (%d of %d background tasks still queued)%n", scheduler.queued(), BACKGROUND_TASKS);
+            print("search, queued behind them", search(scheduler, store, TaskScheduler.Lane.EXPORT, SEARCHES / 10));
+            load.forEach(TaskScheduler.Token::cancel);
+
+            coalescing(scheduler);
+            bridge(scheduler);
+        } finally {
+            scheduler.shutdown(5000);
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        System.exit(0);
+    }
+
+    // Submit-to-EDT latency of each search, one after the other, sorted
+    private static long[] search(TaskScheduler scheduler, NotesStore store, TaskScheduler.Lane lane, int count)
+            throws InterruptedException {
+        long[] nanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            String query = QUERIES[i % QUERIES.length];
+            CountDownLatch published = new CountDownLatch(1);
+            long start = System.nanoTime();
+            scheduler.submit(lane, token -> {
+                NoteIndex.Result result = store.filter(query, List.of(), 100, token);
+                scheduler.publish(token, () -> {
+                    if (result.notes != null) {
+                        published.countDown();
+                    }
+                });
+            });
+            if (!published.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("search never published");
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    // Half exports to disk, half CPU-bound chunks standing in for indexing
+    private static List<TaskScheduler.Token> background(TaskScheduler scheduler, NotesStore store, Path dir,
+                                                        AtomicInteger done) {
+        List<NoteItem> notes = store.notes();
+        TaskScheduler.Token[] tokens = new TaskScheduler.Token[BACKGROUND_TASKS];
+        for (int i = 0; i < BACKGROUND_TASKS; i++) {
+            Path target = dir.resolve("export-" + i + ".txt");
+            int first = i * 997 % notes.size();
+            tokens[i] = i % 2 == 0
+                    ? scheduler.submit(TaskScheduler.Lane.EXPORT, token -> {
+                        store.export(target, ExportFormat.ALL.get(0), 1024, written -> {}, token);
+                        Files.deleteIfExists(target);
+                        done.incrementAndGet();
+                    })
+                    : scheduler.submit(TaskScheduler.Lane.INDEXING, token -> {
+                        compress(notes, first, token);
+                        done.incrementAndGet();
+                    });
+        }
+        return List.of(tokens);
+    }
+
+    private static void compress(List<NoteItem> notes, int first, TaskScheduler.Token token) {
+        Deflater deflater = new Deflater(9);
+        byte[] out = new byte[1 << 16];
+        for (int i = 0; i < 20_000 && !token.isCancelled(); i++) {
+            deflater.reset();
+            deflater.setInput(notes.get((first + i) % notes.size()).getContent().getBytes());
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflater.deflate(out);
+            }
+        }
+        deflater.end();
+    }
+
+    // Keystroke-fast keyed submits, as the search box makes them
+    private static void coalescing(TaskScheduler scheduler) throws InterruptedException {
+        AtomicInteger ran = new AtomicInteger();
+        Object key = new Object();
+        int bursts = 2000;
+        for (int i = 0; i < bursts; i++) {
+            scheduler.submit(TaskScheduler.Lane.SEARCH, key, 20, token -> ran.incrementAndGet());
+            if (i % 100 == 99) {
+                Thread.sleep(40);
+            }
+        }
+        Thread.sleep(100);
+        System.out.printf("%-40s %,d submitted, %,d ran%n", "keyed submits, 100 per pause", bursts, ran.get());
+    }
+
+    // A progress counter bumped far faster than the EDT could show it
+    private static void bridge(TaskScheduler scheduler) throws InterruptedException {
+        AtomicInteger shown = new AtomicInteger();
+        AtomicInteger last = new AtomicInteger();
+        int updates = 1_000_000;
+        CountDownLatch finished = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.Lane.EXPORT, token -> {
+            IntConsumer progress = scheduler.progress(token, value -> {
+                shown.incrementAndGet();
+                last.set(value);
+            });
+            for (int i = 1; i <= updates; i++) {
+                progress.accept(i);
+            }
+            scheduler.publish(null, finished::countDown);
+        });
+        finished.await();
+        System.out.printf("%-40s %,d updates, %,d EDT runs, last %,d%n", "progress through the EDT bridge",
+                updates, shown.get(), last.get());
+    }
+
+    private static void print(String what, long[] nanos) {
+        System.out.printf("%-40s p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n", what,
+                nanos[nanos.length / 2] / 1e6, nanos[Math.min(nanos.length - 1, nanos.length * 99 / 100)] / 1e6,
+                nanos[nanos.length - 1] / 1e6);
+    }
+}
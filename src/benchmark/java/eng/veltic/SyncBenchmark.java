@@ -0,0 +1,114 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replicates {@link #NOTES} synthetic notes between two in-memory replicas
+ * through a local {@link SyncServer} that logs to a temp directory, and
+ * reports bytes on the wire and latency for each kind of sync: the first
+ * upload, a fresh replica catching up, a handful of edits, a sync with
+ * nothing to do, and edits to the same notes on both sides, which merge.
+ * Exits with status 1 if the replicas end up different.
+ *
+ * Run with {@code gradle syncBenchmark}; {@code -Psync.notes} overrides the
+ * note count.
+ */
+public class SyncBenchmark {
+    private static final int NOTES = 100_000;
+    private static final int EDITS = 100;
+    private static final int CONFLICTS = 10;
+    private static final String SECRET = "sync-benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("sync.notes", NOTES);
+        Path dir = Files.createTempDirectory("notes-sync");
+        try (SyncServer server = SyncServer.start(new InetSocketAddress("127.0.0.1", 0), dir, SECRET)) {
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/");
+            NotesStore first = NotesStore.inMemory();
+            NotesStore second = NotesStore.inMemory();
+            List<NoteItem> notes = Corpus.notes(count);
+            long raw = 0;
+            for (NoteItem note : notes) {
+                raw += note.getTitle().getBytes(StandardCharsets.UTF_8).length
+                        + note.getContent().getBytes(StandardCharsets.UTF_8).length;
+            }
+            first.addAll(notes);
+            System.out.printf("%,d notes, %,d KB of titles and bodies%n", count, raw >> 10);
+
+            SyncClient a = SyncClient.attach(first, uri, SECRET, null);
+            SyncClient b = SyncClient.attach(second, uri, SECRET, null);
+            print("initial upload", a.sync());
+            print("fresh replica", b.sync());
+
+            List<NoteItem> listed = first.notes();
+            for (int i = 0; i < EDITS; i++) {
+                NoteItem note = listed.get(i * (listed.size() / EDITS));
+                first.updateContent(note, note.getContent() + "\nEdited on the first replica.");
+            }
+            print(EDITS + " edits, sent", a.sync());
+            print(EDITS + " edits, received", b.sync());
+            print("nothing to do", a.sync());
+
+            // The same notes on both sides, matched by what they hold
+            Map<String, NoteItem> byText = new HashMap<>();
+            for (NoteItem note : second.notes()) {
+                byText.put(note.getTitle() + '\0' + note.getContent(), note);
+            }
+            for (int i = 0; i < CONFLICTS; i++) {
+                NoteItem mine = listed.get(i * 7 + 1);
+                NoteItem theirs = byText.get(mine.getTitle() + '\0' + mine.getContent());
+                first.updateContent(mine, mine.getContent() + "\nAdded on the first replica.");
+                second.updateContent(theirs, "Added on the second replica.\n" + theirs.getContent());
+            }
+            print(CONFLICTS + " concurrent edits, first", a.sync());
+            print(CONFLICTS + " concurrent edits, second", b.sync());
+            print(CONFLICTS + " concurrent edits, first again", a.sync());
+
+            System.out.printf("server received %,d KB, sent %,d KB%n",
+                    server.bytesReceived() >> 10, server.bytesSent() >> 10);
+            if (!sameNotes(first, second)) {
+                System.out.println("FAIL: the replicas differ after syncing");
+                System.exit(1);
+            }
+            System.out.println("OK: replicas match, " + first.size() + " notes each");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void print(String what, SyncClient.Report report) {
+        System.out.printf("%-36s %,7d down %,7d up %,3d merged %,3d conflicts %,9d B sent %,11d B received"
+                + " %,7d ms%n", what, report.pulled, report.pushed, report.merged, report.conflicts,
+                report.bytesSent, report.bytesReceived, report.millis);
+    }
+
+    private static boolean sameNotes(NotesStore first, NotesStore second) {
+        return view(first).equals(view(second));
+    }
+
+    private static List<String> view(NotesStore store) {
+        try (Stream<NoteItem> notes = store.notes().stream()) {
+            return notes.map(n -> n.getTitle() + '\0' + n.getTags() + '\0' + n.getContent()).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package eng.veltic;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Word counting over a document holding the whole corpus: the regex split
+ * updateWordCount used to do, a full WordCounter pass, and one incremental
+ * keystroke (insert and delete a character) in the middle of the text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class WordCountBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    private String text;
+    private PlainDocument document;
+    private WordCounter counter;
+    private int middle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws BadLocationException {
+        List<NoteItem> corpus = Corpus.notes(notes);
+        StringBuilder joined = new StringBuilder();
+        for (NoteItem note : corpus) {
+            joined.append(note.getContent()).append('\n');
+        }
+        text = joined.toString();
+        document = new PlainDocument();
+        document.insertString(0, text, null);
+        counter = new WordCounter();
+        counter.recount(document);
+        middle = text.indexOf(' ', text.length() / 2);
+    }
+
+    @Benchmark
+    public int regexSplit() {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+    }
+
+    @Benchmark
+    public int recount() {
+        counter.recount(document);
+        return counter.getWords();
+    }
+
+    @Benchmark
+    public int keystroke() throws BadLocationException {
+        document.insertString(middle, "x", null);
+        counter.inserted(document, middle, 1);
+        counter.removing(document, middle, 1);
+        document.remove(middle, 1);
+        return counter.getWords();
+    }
+}
@@ -0,0 +1,81 @@
+package eng.veltic;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+
+/**
+ * Splits note bodies into content-defined chunks for {@link NoteDatabase}, so
+ * that the same run of text ends up in the same chunks wherever it appears:
+ * a duplicated note, or the boilerplate every note made from a template
+ * starts with.
+ *
+ * A boundary falls wherever a gear hash (a rolling hash over the last
+ * {@link #WINDOW} bytes) has its top {@link #BOUNDARY_BITS} bits clear.
+ * Since it depends on nothing but those bytes, an edit only moves the
+ * boundaries around it and the chunks after it line up again. Chunks are
+ * kept between {@link #MIN_CHUNK} and {@link #MAX_CHUNK} bytes.
+ */
+final class BodyChunker {
+    // Below this a chunk's entry in the chunk table costs too much next to what sharing it saves
+    static final int MIN_CHUNK = 256;
+    static final int MAX_CHUNK = 8 << 10;
+    // One position in 256 past the minimum is a boundary, so chunks average about 512 bytes
+    private static final int BOUNDARY_BITS = 8;
+    // Bytes the hash depends on: each step shifts the oldest one out of the top bit
+    private static final int WINDOW = 64;
+    // Fixed for good: other values would chunk new bodies unlike those already stored
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x4E4F544553L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private BodyChunker() {}
+
+    /**
+     * Where the chunk starting at {@code start} ends.
+     */
+    static int end(byte[] body, int start) {
+        int limit = Math.min(body.length, start + MAX_CHUNK);
+        if (limit - start <= MIN_CHUNK) {
+            return limit;
+        }
+        long hash = 0;
+        for (int i = start + MIN_CHUNK - WINDOW; i < limit; i++) {
+            hash = (hash << 1) + GEAR[body[i] & 0xFF];
+            if (i >= start + MIN_CHUNK - 1 && hash >>> (64 - BOUNDARY_BITS) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * A chunk's content address: the first 128 bits of its SHA-256, high
+     * half first.
+     */
+    static long[] address(MessageDigest sha256, byte[] chunk, int offset, int length) {
+        sha256.reset();
+        sha256.update(chunk, offset, length);
+        byte[] digest = sha256.digest();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | (digest[i] & 0xFF);
+            low = low << 8 | (digest[8 + i] & 0xFF);
+        }
+        return new long[] {high, low};
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java runtime has SHA-256", e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package eng.veltic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the bodies of cold notes for {@link NoteDatabase}: raw DEFLATE,
+ * optionally primed with a preset dictionary shared by every body in the
+ * file.
+ *
+ * A note body is short next to the 32 KB window DEFLATE looks back over, so
+ * on its own it compresses poorly; the dictionary gives every body the text
+ * that notes keep repeating (template headings, checklists, signatures) to
+ * refer back to. {@link #train} builds one from the lines and words that
+ * recur across the most notes.
+ */
+final class BodyCodec {
+    // The window, so every byte of the dictionary stays reachable
+    static final int MAX_DICTIONARY = 32 << 10;
+    // Shorter bodies cost more to inflate than they save
+    static final int MIN_BODY = 96;
+    private static final int LEVEL = 6;
+    private static final int MIN_LINE = 8;
+    private static final int MAX_LINE = 512;
+    private static final int MIN_WORD = 3;
+
+    private BodyCodec() {}
+
+    /**
+     * The body deflated, or null if that would save less than an eighth.
+     */
+    static byte[] deflate(byte[] body, byte[] dictionary) {
+        if (body.length < MIN_BODY) {
+            return null;
+        }
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(body);
+            deflater.finish();
+            int limit = body.length - body.length / 8;
+            byte[] out = new byte[limit];
+            int length = 0;
+            while (!deflater.finished() && length < limit) {
+                length += deflater.deflate(out, length, limit - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(out, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] stored, int rawLength, byte[] dictionary) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary.length > 0) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(stored);
+            byte[] body = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength) {
+                int read = inflater.inflate(body, length, rawLength - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rawLength) {
+                throw new IOException("Compressed body inflated to " + length + " of " + rawLength + " bytes");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A dictionary of the lines, then the words, found in at least two of the
+     * samples, most widespread last, where DEFLATE reaches them with the
+     * shortest distances. Empty if nothing recurs.
+     */
+    static byte[] train(List<String> samples) {
+        Map<String, Integer> notesWith = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (String sample : samples) {
+            seen.clear();
+            int start = 0;
+            while (start < sample.length()) {
+                int end = sample.indexOf('\n', start);
+                end = end < 0 ? sample.length() : end + 1;
+                if (end - start >= MIN_LINE && end - start <= MAX_LINE) {
+                    count(sample.substring(start, end), seen, notesWith);
+                }
+                start = end;
+            }
+            // Words with the separator that follows them, for text that never repeats a whole line
+            start = 0;
+            for (int i = 0; i < sample.length(); i++) {
+                if (Character.isWhitespace(sample.charAt(i))) {
+                    if (i - start >= MIN_WORD) {
+                        count(sample.substring(start, i + 1), seen, notesWith);
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> recurring = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : notesWith.entrySet()) {
+            if (entry.getValue() >= 2) {
+                recurring.add(entry);
+            }
+        }
+        // What a string saves is roughly its length times how many notes repeat it
+        recurring.sort((a, b) -> Long.compare((long) b.getValue() * b.getKey().length(),
+                (long) a.getValue() * a.getKey().length()));
+        List<byte[]> picked = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : recurring) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length <= MAX_DICTIONARY) {
+                picked.add(bytes);
+                size += bytes.length;
+            }
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            dictionary.write(picked.get(i), 0, picked.get(i).length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static void count(String text, Set<String> seen, Map<String, Integer> notesWith) {
+        if (seen.add(text)) {
+            notesWith.merge(text, 1, Integer::sum);
+        }
+    }
+}
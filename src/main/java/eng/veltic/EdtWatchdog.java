@@ -0,0 +1,113 @@
+package eng.veltic;
+
+import java.awt.EventQueue;
+import java.util.function.Consumer;
+
+/**
+ * Watches the event dispatch thread for stalls.
+ *
+ * A daemon thread posts a heartbeat to the EDT every {@link #INTERVAL_MS}
+ * and records how long each one waited into {@link Metrics#EDT_LAG}. When a
+ * heartbeat is still waiting after the hang threshold, the EDT's stack is
+ * captured then, while it is still stuck, and once the EDT comes back the hang
+ * is counted, handed to the listener with that stack, and committed as a
+ * {@link Metrics.EdtHangEvent}.
+ */
+class EdtWatchdog {
+    private static final int INTERVAL_MS = 100;
+    private static final int MAX_FRAMES = 40;
+
+    /**
+     * One stall: how long the EDT went without running events and where it
+     * was stuck when the hang threshold passed.
+     */
+    static final class Hang {
+        final long stalledMillis;
+        final String stack;
+
+        Hang(long stalledMillis, String stack) {
+            this.stalledMillis = stalledMillis;
+            this.stack = stack;
+        }
+    }
+
+    private final long hangNanos;
+    // Called on the watchdog thread
+    private final Consumer<Hang> onHang;
+    private final Thread thread;
+    private volatile Thread edt;
+    private volatile boolean running = true;
+    // nanoTime the pending heartbeat was posted at, 0 once it ran
+    private volatile long postedAt;
+
+    EdtWatchdog(long hangMillis, Consumer<Hang> onHang) {
+        this.hangNanos = hangMillis * 1_000_000;
+        this.onHang = onHang;
+        this.thread = new Thread(this::watch, "edt-watchdog");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void watch() {
+        while (running) {
+            long posted = System.nanoTime();
+            postedAt = posted;
+            EventQueue.invokeLater(() -> {
+                edt = Thread.currentThread();
+                postedAt = 0;
+                Metrics.EDT_LAG.record(posted);
+            });
+            String stack = null;
+            try {
+                // Wait out the interval, then keep waiting while the heartbeat is stuck
+                Thread.sleep(INTERVAL_MS);
+                while (running && postedAt == posted) {
+                    if (stack == null && System.nanoTime() - posted >= hangNanos) {
+                        stack = edtStack();
+                    }
+                    Thread.sleep(INTERVAL_MS / 4);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (stack != null) {
+                reportHang((System.nanoTime() - posted) / 1_000_000, stack);
+            }
+        }
+    }
+
+    private String edtStack() {
+        Thread current = edt;
+        if (current == null) {
+            return "(EDT not seen yet)";
+        }
+        StringBuilder text = new StringBuilder();
+        StackTraceElement[] frames = current.getStackTrace();
+        for (int i = 0; i < Math.min(frames.length, MAX_FRAMES); i++) {
+            text.append("\tat ").append(frames[i]).append('\n');
+        }
+        if (frames.length > MAX_FRAMES) {
+            text.append("\t... ").append(frames.length - MAX_FRAMES).append(" more\n");
+        }
+        return text.toString();
+    }
+
+    private void reportHang(long stalledMillis, String stack) {
+        Metrics.EDT_HANGS.increment();
+        onHang.accept(new Hang(stalledMillis, stack));
+        Metrics.EdtHangEvent event = new Metrics.EdtHangEvent();
+        if (event.isEnabled()) {
+            event.stalled = stalledMillis;
+            event.stack = stack;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package eng.veltic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An output format for {@link NoteExporter}. A format opens a sink on the
+ * target channel and is then fed one note at a time, so nothing has to hold
+ * the whole export in memory.
+ */
+interface ExportFormat {
+    List<ExportFormat> ALL = Arrays.asList(
+            new ExportFormats.PlainText(),
+            new ExportFormats.Markdown(),
+            new ExportFormats.JsonLines(),
+            new ExportFormats.ZipBundle());
+
+    String description();
+
+    String extension();
+
+    Sink open(WritableByteChannel channel) throws IOException;
+
+    interface Sink extends Closeable {
+        void write(NoteItem note, String content) throws IOException;
+    }
+}
@@ -0,0 +1,228 @@
+package eng.veltic;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The built-in export formats. Text formats write through a channel writer
+ * with a 64 KB buffer, so the disk sees large sequential writes.
+ */
+final class ExportFormats {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String SEPARATOR = "==================================================";
+
+    private ExportFormats() {}
+
+    private static Writer writer(WritableByteChannel channel) {
+        return Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+    }
+
+    /**
+     * The original export layout: a separator-framed header per note.
+     */
+    static class PlainText implements ExportFormat {
+        @Override
+        public String description() {
+            return "Plain text (*.txt)";
+        }
+
+        @Override
+        public String extension() {
+            return "txt";
+        }
+
+        @Override
+        public Sink open(WritableByteChannel channel) {
+            Writer out = writer(channel);
+            return new Sink() {
+                @Override
+                public void write(NoteItem note, String content) throws IOException {
+                    out.write(SEPARATOR);
+                    out.write(System.lineSeparator());
+                    out.write("Title: ");
+                    out.write(note.getTitle());
+                    out.write(System.lineSeparator());
+                    out.write("Created: ");
+                    out.write(note.getFormattedDate());
+                    out.write(System.lineSeparator());
+                    out.write(SEPARATOR);
+                    out.write(System.lineSeparator());
+                    out.write(content);
+                    out.write(System.lineSeparator());
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * All notes in one Markdown document, one section per note.
+     */
+    static class Markdown implements ExportFormat {
+        @Override
+        public String description() {
+            return "Markdown bundle (*.md)";
+        }
+
+        @Override
+        public String extension() {
+            return "md";
+        }
+
+        @Override
+        public Sink open(WritableByteChannel channel) {
+            Writer out = writer(channel);
+            return new Sink() {
+                private boolean first = true;
+
+                @Override
+                public void write(NoteItem note, String content) throws IOException {
+                    if (!first) {
+                        out.write("\n---\n\n");
+                    }
+                    first = false;
+                    writeNote(out, note, content);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        static void writeNote(Writer out, NoteItem note, String content) throws IOException {
+            out.write("# ");
+            out.write(note.getTitle());
+            out.write("\n\n_Modified ");
+            out.write(note.getFormattedDate());
+            out.write("_\n\n");
+            out.write(content);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * One JSON object per line with id, title, timestamps and content.
+     */
+    static class JsonLines implements ExportFormat {
+        @Override
+        public String description() {
+            return "JSON Lines (*.jsonl)";
+        }
+
+        @Override
+        public String extension() {
+            return "jsonl";
+        }
+
+        @Override
+        public Sink open(WritableByteChannel channel) {
+            Writer out = writer(channel);
+            return new Sink() {
+                @Override
+                public void write(NoteItem note, String content) throws IOException {
+                    out.write("{\"id\":");
+                    out.write(Long.toString(note.getId()));
+                    out.write(",\"title\":");
+                    writeJsonString(out, note.getTitle());
+                    out.write(",\"created\":");
+                    out.write(Long.toString(note.getCreated()));
+                    out.write(",\"modified\":");
+                    out.write(Long.toString(note.getModified()));
+                    out.write(",\"content\":");
+                    writeJsonString(out, content);
+                    out.write("}\n");
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        private static void writeJsonString(Writer out, String value) throws IOException {
+            out.write('"');
+            int runStart = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c != '"' && c != '\\' && c >= 0x20) {
+                    continue;
+                }
+                out.write(value, runStart, i - runStart);
+                switch (c) {
+                    case '"': out.write("\\\""); break;
+                    case '\\': out.write("\\\\"); break;
+                    case '\n': out.write("\\n"); break;
+                    case '\r': out.write("\\r"); break;
+                    case '\t': out.write("\\t"); break;
+                    default: out.write(String.format("\\u%04x", (int) c));
+                }
+                runStart = i + 1;
+            }
+            out.write(value, runStart, value.length() - runStart);
+            out.write('"');
+        }
+    }
+
+    /**
+     * A zip archive with one Markdown file per note.
+     */
+    static class ZipBundle implements ExportFormat {
+        private static final int MAX_NAME = 80;
+
+        @Override
+        public String description() {
+            return "Zip archive of Markdown files (*.zip)";
+        }
+
+        @Override
+        public String extension() {
+            return "zip";
+        }
+
+        @Override
+        public Sink open(WritableByteChannel channel) {
+            ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            Writer out = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            return new Sink() {
+                @Override
+                public void write(NoteItem note, String content) throws IOException {
+                    zip.putNextEntry(new ZipEntry(entryName(note)));
+                    Markdown.writeNote(out, note, content);
+                    out.flush();
+                    zip.closeEntry();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        // Titles are free text; keep them readable but safe as file names, and unique via the id
+        private static String entryName(NoteItem note) {
+            StringBuilder name = new StringBuilder();
+            String title = note.getTitle();
+            for (int i = 0; i < title.length() && name.length() < MAX_NAME; i++) {
+                char c = title.charAt(i);
+                name.append(Character.isLetterOrDigit(c) || c == ' ' || c == '-' || c == '.' ? c : '_');
+            }
+            return name.toString().trim() + "-" + note.getId() + ".md";
+        }
+    }
+}
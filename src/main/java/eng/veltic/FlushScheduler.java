@@ -0,0 +1,129 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Autosave for notes marked dirty.
+ *
+ * A flush runs once edits pause for the idle delay, but never later than the
+ * max latency after the first unsaved change, so a long typing session still
+ * saves regularly. A flush first runs the commit hook on the EDT (handing the
+ * editor text to the store), then waits for the store to sync on its writer
+ * thread and reports what it cost. Notes changed while a flush is in flight
+ * are picked up by the next one. If the sync fails the notes stay dirty, and
+ * the next flush's sync only succeeds once storage has written them, since
+ * it writes a failed batch again before anything else. All methods are EDT
+ * only.
+ */
+class FlushScheduler {
+    /**
+     * What one flush did: how many notes were dirty, how many log bytes were
+     * written while it ran, and how long the sync took.
+     */
+    static final class Report {
+        final int notes;
+        final long bytes;
+        final long latencyMillis;
+        final Throwable error;
+
+        Report(int notes, long bytes, long latencyMillis, Throwable error) {
+            this.notes = notes;
+            this.bytes = bytes;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+        }
+    }
+
+    private final NotesStore store;
+    private final TaskScheduler scheduler;
+    private final Runnable commit;
+    private final Consumer<Report> onFlushed;
+    private final int idleMillis;
+    private final int maxLatencyMillis;
+    private final Set<NoteItem> dirty = new LinkedHashSet<>();
+    private final Object key = new Object();
+    private TaskScheduler.Token pending;
+    private long firstDirtyAt;
+
+    FlushScheduler(NotesStore store, TaskScheduler scheduler, Runnable commit, Consumer<Report> onFlushed,
+                   int idleMillis, int maxLatencyMillis) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.commit = commit;
+        this.onFlushed = onFlushed;
+        this.idleMillis = idleMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public void markDirty(NoteItem note) {
+        long now = System.currentTimeMillis();
+        if (dirty.isEmpty()) {
+            firstDirtyAt = now;
+        }
+        note.setDirty(true);
+        dirty.add(note);
+
+        // Restarting on every change would starve the flush while typing; the deadline caps it
+        long untilDeadline = firstDirtyAt + maxLatencyMillis - now;
+        pending = scheduler.submit(TaskScheduler.Lane.AUTOSAVE, key, Math.max(0, Math.min(idleMillis, untilDeadline)),
+                token -> scheduler.publish(token, this::flush));
+    }
+
+    /**
+     * Drops a note that no longer needs saving, such as a deleted one.
+     */
+    public void forget(NoteItem note) {
+        note.setDirty(false);
+        dirty.remove(note);
+    }
+
+    public boolean hasPending() {
+        return !dirty.isEmpty();
+    }
+
+    public void flush() {
+        stop();
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<NoteItem> flushing = new ArrayList<>(dirty);
+        dirty.clear();
+        for (NoteItem note : flushing) {
+            note.setDirty(false);
+        }
+
+        long bytesBefore = store.bytesWritten();
+        long started = System.nanoTime();
+        commit.run();
+        scheduler.submit(TaskScheduler.Lane.AUTOSAVE, token -> {
+            Throwable error = null;
+            try {
+                store.sync().join();
+            } catch (CompletionException e) {
+                error = e.getCause();
+            }
+            long latency = (System.nanoTime() - started) / 1_000_000;
+            long bytes = store.bytesWritten() - bytesBefore;
+            Throwable failure = error;
+            scheduler.publish(null, () -> {
+                if (failure != null) {
+                    // Storage writes the failed records again with the next sync; this schedules that sync
+                    flushing.forEach(this::markDirty);
+                }
+                onFlushed.accept(new Report(flushing.size(), bytes, latency, failure));
+            });
+        });
+    }
+
+    public void stop() {
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+    }
+}
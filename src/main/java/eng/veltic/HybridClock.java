@@ -0,0 +1,48 @@
+package eng.veltic;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A hybrid logical clock: timestamps that follow wall-clock milliseconds but
+ * never run backwards, and that move past every timestamp seen from another
+ * replica, so an edit made after receiving a change always orders after it.
+ *
+ * A timestamp packs the milliseconds into the high 48 bits and a counter
+ * into the low 16, which breaks ties within one millisecond and carries the
+ * order forward while the wall clock lags behind a remote one.
+ */
+final class HybridClock {
+    private static final int LOGICAL_BITS = 16;
+
+    private final LongSupplier wallClock;
+    private long last;
+
+    HybridClock(long last) {
+        this(last, System::currentTimeMillis);
+    }
+
+    HybridClock(long last, LongSupplier wallClock) {
+        this.last = last;
+        this.wallClock = wallClock;
+    }
+
+    /**
+     * A timestamp for a local event, later than any handed out or observed.
+     */
+    synchronized long now() {
+        long physical = wallClock.getAsLong() << LOGICAL_BITS;
+        last = physical > last ? physical : last + 1;
+        return last;
+    }
+
+    /**
+     * Moves the clock past a timestamp received from another replica.
+     */
+    synchronized void observe(long remote) {
+        last = Math.max(last, remote);
+    }
+
+    synchronized long last() {
+        return last;
+    }
+}
@@ -0,0 +1,236 @@
+package eng.veltic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency recorders for the hot paths of the app.
+ *
+ * A caller takes {@code System.nanoTime()} before the work and hands it to
+ * {@link Latency#record} afterwards; recording is a handful of uncontended
+ * atomic adds, and allocates nothing unless a recording takes the events
+ * described below. Latencies go into log-linear buckets the way HdrHistogram
+ * lays them out, 32 per power of two, so any percentile is read back to
+ * within about 3% at every scale from nanoseconds to hours.
+ *
+ * Each recorded operation slower than its recorder's event threshold is also
+ * committed as an {@link OperationEvent} when a Flight Recorder recording is
+ * running, so a session started with {@code -XX:StartFlightRecording} can be
+ * profiled afterwards with the app's own timings next to the JVM's.
+ */
+final class Metrics {
+    private static final List<Latency> LATENCIES = Collections.synchronizedList(new ArrayList<>());
+    private static final List<Counter> COUNTERS = Collections.synchronizedList(new ArrayList<>());
+
+    static final Latency FILTER_NOTES = latency("filterNotes", 0);
+    static final Latency SEARCH = latency("search", 0);
+    static final Latency SELECT_NOTE = latency("selectNote", 0);
+    static final Latency CONTENT_CHANGE = latency("handleContentChange", 0);
+    static final Latency WORD_COUNT = latency("wordCount", 0);
+    // Thousands a second while scrolling, so only the slow ones reach the recording
+    static final Latency RENDER_CELL = latency("renderCell", 1_000_000);
+    static final Latency EXPORT = latency("exportNotes", 0);
+    // Time from posting an event to the EDT until it runs
+    static final Latency EDT_LAG = latency("edtLag", Long.MAX_VALUE);
+    // Time a background task waited for a thread once it was due
+    static final Latency TASK_WAIT = latency("taskWait", Long.MAX_VALUE);
+
+    static final Counter EDT_HANGS = counter("edtHangs");
+    static final Counter SEARCHES_CANCELLED = counter("searchesCancelled");
+    static final Counter TASKS_COALESCED = counter("tasksCoalesced");
+    static final Counter TASKS_FAILED = counter("tasksFailed");
+
+    private Metrics() {}
+
+    static Latency latency(String name, long eventThresholdNanos) {
+        Latency latency = new Latency(name, eventThresholdNanos);
+        LATENCIES.add(latency);
+        return latency;
+    }
+
+    static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    static List<Latency> latencies() {
+        synchronized (LATENCIES) {
+            return List.copyOf(LATENCIES);
+        }
+    }
+
+    static List<Counter> counters() {
+        synchronized (COUNTERS) {
+            return List.copyOf(COUNTERS);
+        }
+    }
+
+    static final class Counter {
+        final String name;
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        void increment() {
+            count.increment();
+        }
+
+        long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds. Safe to record from any thread.
+     */
+    static final class Latency {
+        // Values below 2^SUB_BITS get a bucket each; above, each power of two splits into HALF buckets
+        private static final int SUB_BITS = 6;
+        private static final int HALF = 1 << (SUB_BITS - 1);
+        private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * HALF + HALF;
+        // Asked before making an event, so nothing is allocated while no recording wants them
+        private static final EventType OPERATION_EVENT = EventType.getEventType(OperationEvent.class);
+
+        final String name;
+        private final long eventThresholdNanos;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Latency(String name, long eventThresholdNanos) {
+            this.name = name;
+            this.eventThresholdNanos = eventThresholdNanos;
+        }
+
+        /**
+         * Records the time since {@code startNanos}, a {@code System.nanoTime()} reading.
+         */
+        void record(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        void recordNanos(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+            if (nanos >= eventThresholdNanos && OPERATION_EVENT.isEnabled()) {
+                OperationEvent event = new OperationEvent();
+                event.operation = name;
+                event.elapsed = nanos;
+                event.commit();
+            }
+        }
+
+        /**
+         * Counts and percentiles as of now. Recording may carry on meanwhile,
+         * so the figures can be a few samples apart from each other.
+         */
+        Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            return new Snapshot(name, counts, n, total.sum(), max.get());
+        }
+
+        static int bucket(long value) {
+            int magnitude = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS);
+            return magnitude * HALF + (int) (value >>> magnitude);
+        }
+
+        // The largest value that lands in the bucket
+        static long highestIn(int bucket) {
+            if (bucket < 2 * HALF) {
+                return bucket;
+            }
+            int magnitude = bucket / HALF - 1;
+            long sub = bucket % HALF + HALF;
+            return ((sub + 1) << magnitude) - 1;
+        }
+    }
+
+    static final class Snapshot {
+        final String name;
+        final long count;
+        final long totalNanos;
+        final long maxNanos;
+        private final long[] counts;
+
+        private Snapshot(String name, long[] counts, long count, long totalNanos, long maxNanos) {
+            this.name = name;
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * The duration at or below which the given fraction of samples fall,
+         * 0 when nothing was recorded.
+         */
+        long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Latency.highestIn(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+    }
+
+    @Name("eng.veltic.Operation")
+    @Label("Operation")
+    @Category("Noted")
+    @Description("One timed run of an instrumented operation, committed when it ends")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("eng.veltic.EdtHang")
+    @Label("EDT Hang")
+    @Category("Noted")
+    @Description("The event dispatch thread went without processing events for longer than the hang threshold")
+    static final class EdtHangEvent extends Event {
+        @Label("Stalled")
+        @Timespan(Timespan.MILLISECONDS)
+        long stalled;
+
+        @Label("EDT Stack")
+        String stack;
+    }
+}
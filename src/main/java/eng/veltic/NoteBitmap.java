@@ -0,0 +1,410 @@
+package eng.veltic;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the Roaring layout: values are split
+ * by their high 16 bits into chunks, and each chunk is kept either as a sorted
+ * array of its low 16 bits or, once it holds more than {@link #ARRAY_LIMIT}
+ * values, as a 65536-bit bitmap. Sparse sets therefore cost two bytes a value
+ * and dense ones at most one bit, and intersections run chunk by chunk with
+ * the cheapest method the two representations allow. Not thread-safe.
+ */
+final class NoteBitmap {
+    // Past this many values a bitmap chunk (8 KB) is no bigger than an array chunk
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+
+    // Sorted high halves and the chunk holding each
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int size;
+
+    /**
+     * A bitmap of the first {@code count} values, which must be ascending.
+     */
+    static NoteBitmap of(int[] sorted, int count) {
+        NoteBitmap bitmap = new NoteBitmap();
+        int start = 0;
+        while (start < count) {
+            char key = (char) (sorted[start] >>> 16);
+            int end = start + 1;
+            while (end < count && sorted[end] >>> 16 == key) {
+                end++;
+            }
+            Chunk chunk;
+            if (end - start > ARRAY_LIMIT) {
+                long[] words = new long[WORDS];
+                for (int i = start; i < end; i++) {
+                    words[(char) sorted[i] >>> 6] |= 1L << sorted[i];
+                }
+                chunk = new BitsChunk(words, end - start);
+            } else {
+                char[] values = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    values[i - start] = (char) sorted[i];
+                }
+                chunk = new ArrayChunk(values, values.length);
+            }
+            bitmap.insertChunk(bitmap.size, key, chunk);
+            start = end;
+        }
+        return bitmap;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += chunks[i].cardinality();
+        }
+        return total;
+    }
+
+    public boolean contains(int value) {
+        int i = find((char) (value >>> 16));
+        return i >= 0 && chunks[i].contains((char) value);
+    }
+
+    /**
+     * @return false if the value was already present
+     */
+    public boolean add(int value) {
+        char key = (char) (value >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key, new ArrayChunk(new char[4], 0));
+        }
+        Chunk chunk = chunks[i];
+        if (chunk.contains((char) value)) {
+            return false;
+        }
+        chunks[i] = chunk.add((char) value);
+        return true;
+    }
+
+    /**
+     * @return false if the value was absent
+     */
+    public boolean remove(int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0 || !chunks[i].contains((char) value)) {
+            return false;
+        }
+        Chunk chunk = chunks[i].remove((char) value);
+        if (chunk.cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+            chunks[--size] = null;
+        } else {
+            chunks[i] = chunk;
+        }
+        return true;
+    }
+
+    /**
+     * A new bitmap of the values in both this and {@code other}.
+     */
+    public NoteBitmap and(NoteBitmap other) {
+        NoteBitmap result = new NoteBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality() > 0) {
+                    result.insertChunk(result.size, keys[i], chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The size of the intersection with {@code other}, without building it.
+     */
+    public int andCardinality(NoteBitmap other) {
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += chunks[i].andCardinality(other.chunks[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Calls {@code action} with every value in ascending order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            chunks[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    private int find(char key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertChunk(int i, char key, Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(chunks, i, chunks, i + 1, size - i);
+        keys[i] = key;
+        chunks[i] = chunk;
+        size++;
+    }
+
+    // One 65536-value chunk; add and remove may hand back the other representation
+    private abstract static class Chunk {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Chunk add(char value);
+
+        abstract Chunk remove(char value);
+
+        abstract Chunk and(Chunk other);
+
+        abstract int andCardinality(Chunk other);
+
+        abstract void forEach(int high, IntConsumer action);
+    }
+
+    private static final class ArrayChunk extends Chunk {
+        char[] values;
+        int count;
+
+        ArrayChunk(char[] values, int count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, count, value) >= 0;
+        }
+
+        @Override
+        Chunk add(char value) {
+            if (count == ARRAY_LIMIT) {
+                return toBits().add(value);
+            }
+            int pos = count == 0 || values[count - 1] < value
+                    ? count : -Arrays.binarySearch(values, 0, count, value) - 1;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, count * 2));
+            }
+            System.arraycopy(values, pos, values, pos + 1, count - pos);
+            values[pos] = value;
+            count++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(char value) {
+            int pos = Arrays.binarySearch(values, 0, count, value);
+            System.arraycopy(values, pos + 1, values, pos, count - pos - 1);
+            count--;
+            return this;
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            char[] result = new char[count];
+            int kept = 0;
+            if (other instanceof BitsChunk) {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        result[kept++] = values[i];
+                    }
+                }
+            } else {
+                ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < count && j < array.count) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[kept++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ArrayChunk(result, kept);
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            int total = 0;
+            if (other instanceof BitsChunk) {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        total++;
+                    }
+                }
+                return total;
+            }
+            ArrayChunk array = (ArrayChunk) other;
+            int i = 0;
+            int j = 0;
+            while (i < count && j < array.count) {
+                if (values[i] < array.values[j]) {
+                    i++;
+                } else if (values[i] > array.values[j]) {
+                    j++;
+                } else {
+                    total++;
+                    i++;
+                    j++;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < count; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        private BitsChunk toBits() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < count; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitsChunk(words, count);
+        }
+    }
+
+    private static final class BitsChunk extends Chunk {
+        final long[] words;
+        int count;
+
+        BitsChunk(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Chunk add(char value) {
+            words[value >>> 6] |= 1L << value;
+            count++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(char value) {
+            words[value >>> 6] &= ~(1L << value);
+            count--;
+            return count > ARRAY_LIMIT ? this : toArray(words, count);
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            long[] result = new long[WORDS];
+            long[] otherWords = ((BitsChunk) other).words;
+            int total = 0;
+            for (int i = 0; i < WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                total += Long.bitCount(result[i]);
+            }
+            return total > ARRAY_LIMIT ? new BitsChunk(result, total) : toArray(result, total);
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.andCardinality(this);
+            }
+            long[] otherWords = ((BitsChunk) other).words;
+            int total = 0;
+            for (int i = 0; i < WORDS; i++) {
+                total += Long.bitCount(words[i] & otherWords[i]);
+            }
+            return total;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private static ArrayChunk toArray(long[] words, int count) {
+            char[] values = new char[count];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayChunk(values, count);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of note bodies. Misses are loaded from storage, so
+ * resident heap is capped at roughly {@code maxChars} characters no matter how
+ * many notes exist. Storage treats whatever is cached as recently read and
+ * keeps it out of the compressed cold tier.
+ *
+ * Notes holding the same String, such as a note and its duplicate, count it
+ * once against the cap, and it is dropped with the last of them. Bodies read
+ * from storage are also matched by content against those read before, so
+ * equal ones share a String; edits are not, so a put costs no more than its
+ * map entries.
+ */
+class NoteBodies {
+    interface Source {
+        String loadBody(long id) throws IOException;
+    }
+
+    // Header and array header of a String and its value array
+    private static final int STRING_OVERHEAD = 40;
+
+    private final Source source;
+    private final long maxChars;
+    private final LinkedHashMap<Long, String> cache = new LinkedHashMap<>(256, 0.75f, true);
+    // Every cached String, by identity, with the notes holding it
+    private final IdentityHashMap<String, Shared> held = new IdentityHashMap<>();
+    // The ones read from storage, by content
+    private final HashMap<String, Shared> loaded = new HashMap<>();
+    private long residentChars;
+
+    private static final class Shared {
+        final String body;
+        final boolean loaded;
+        int notes;
+        // Worked out the first time the footprint is asked for
+        long bytes = -1;
+
+        Shared(String body, boolean loaded) {
+            this.body = body;
+            this.loaded = loaded;
+        }
+
+        long bytes() {
+            if (bytes < 0) {
+                bytes = heapBytes(body);
+            }
+            return bytes;
+        }
+    }
+
+    NoteBodies(Source source, long maxChars) {
+        this.source = source;
+        this.maxChars = maxChars;
+    }
+
+    public String get(long id) {
+        synchronized (this) {
+            String body = cache.get(id);
+            if (body != null) {
+                return body;
+            }
+        }
+        // Load outside the lock so a slow read doesn't stall other threads
+        String body;
+        try {
+            body = source.loadBody(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load note " + id, e);
+        }
+        synchronized (this) {
+            String current = cache.get(id);
+            if (current != null) {
+                return current;
+            }
+            return store(id, body, true);
+        }
+    }
+
+    /**
+     * Returns the cached body or reads it from storage, leaving the cache as is.
+     */
+    public String peek(long id) {
+        synchronized (this) {
+            String body = cache.get(id);
+            if (body != null) {
+                return body;
+            }
+        }
+        try {
+            return source.loadBody(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load note " + id, e);
+        }
+    }
+
+    public synchronized void put(long id, String body) {
+        store(id, body, false);
+    }
+
+    public synchronized void evict(long id) {
+        String removed = cache.remove(id);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    public synchronized boolean isCached(long id) {
+        return cache.containsKey(id);
+    }
+
+    public synchronized int cachedBodies() {
+        return cache.size();
+    }
+
+    public synchronized long residentChars() {
+        return residentChars;
+    }
+
+    /**
+     * Roughly what the cached bodies take on the heap.
+     */
+    public synchronized long residentBytes() {
+        long bytes = 0;
+        for (Shared shared : held.values()) {
+            bytes += shared.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * What the cached bodies would take if no two notes shared one.
+     */
+    public synchronized long referencedBytes() {
+        long bytes = 0;
+        for (Shared shared : held.values()) {
+            bytes += shared.bytes() * shared.notes;
+        }
+        return bytes;
+    }
+
+    /**
+     * A String's heap size: a byte a char while every char fits in Latin-1,
+     * two once any does not (an emoji turns the whole body to UTF-16).
+     */
+    static long heapBytes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return STRING_OVERHEAD + 2L * text.length();
+            }
+        }
+        return STRING_OVERHEAD + text.length();
+    }
+
+    // Caches the body, or for one read from storage an equal one already read, and returns whichever that is
+    private String store(long id, String body, boolean fromStorage) {
+        Shared shared = held.get(body);
+        if (shared == null && fromStorage) {
+            shared = loaded.get(body);
+        }
+        if (shared == null) {
+            shared = new Shared(body, fromStorage);
+            held.put(body, shared);
+            if (fromStorage) {
+                loaded.put(body, shared);
+            }
+            residentChars += body.length();
+        }
+        shared.notes++;
+        String previous = cache.put(id, shared.body);
+        if (previous != null) {
+            release(previous);
+        }
+
+        Iterator<Map.Entry<Long, String>> eldest = cache.entrySet().iterator();
+        while (residentChars > maxChars && cache.size() > 1) {
+            Map.Entry<Long, String> entry = eldest.next();
+            if (entry.getKey() == id) {
+                continue;
+            }
+            eldest.remove();
+            release(entry.getValue());
+        }
+        return shared.body;
+    }
+
+    private void release(String body) {
+        Shared shared = held.get(body);
+        if (--shared.notes == 0) {
+            held.remove(body);
+            if (shared.loaded) {
+                loaded.remove(body);
+            }
+            residentChars -= body.length();
+        }
+    }
+}
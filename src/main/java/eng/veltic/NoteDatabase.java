@@ -0,0 +1,750 @@
+package eng.veltic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only single-file note database, opened with {@link FileChannel#map} so
+ * a store with a million notes can list them without parsing or reading any
+ * body.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   header      magic, version, note count, title region length, CRC32 of
+ *               everything from the table on except the chunks, dictionary
+ *               length, chunk count, reference count
+ *   table       one fixed-width entry per note: id, created, modified, first
+ *               reference, chunk count, title offset, title length, body
+ *               length, flags, tags length, shared title number
+ *   chunks      the distinct body chunks back to back
+ *   chunk table one fixed-width entry per chunk: offset, content address,
+ *               stored length, raw length, CRC32, reference count
+ *   references  the chunk numbers each body is made of, in table order
+ *   dictionary  the preset dictionary of the compressed chunks, if any
+ *   titles      UTF-8 titles back to back, each followed by its note's tags
+ *               joined with '\n'
+ * </pre>
+ * Bodies are cut into chunks by {@link BodyChunker} and each distinct chunk
+ * is stored once, however many bodies hold it, with the number that do.
+ * Likewise a title and tags run shared by several notes is stored once, and
+ * the entries holding it are flagged {@link #SHARED_TITLE} and numbered
+ * alike, so listing can share one String too.
+ *
+ * A raw chunk length above zero marks a chunk of a cold note stored deflated
+ * by {@link BodyCodec}; zero means stored as is, and a negative one means
+ * stored as is because it was cold but didn't compress.
+ *
+ * Versions 1 to 3 stored each body whole, at the table entry's body offset,
+ * which reads them as a store of one unshared chunk per note. Version 1
+ * files have no tags and 48-byte entries, versions 1 and 2 no compressed
+ * bodies. All are still read. Entries are sorted by id, so a note is found
+ * by binary search over the table. Opening checks everything but the chunks;
+ * a chunk is only touched when it is read and is checked against its own CRC
+ * then.
+ */
+final class NoteDatabase {
+    private static final long MAGIC = 0x4E4F544544423031L; // "NOTEDB01"
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 40;
+    private static final int V3_HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 56;
+    private static final int V1_ENTRY_SIZE = 48;
+    private static final int CHUNK_SIZE = 40;
+    static final int SHARED_TITLE = 1;
+    // Bodies are mapped in windows that overlap by one step, so a body of up to
+    // one step always lies inside a single window however the region is laid out
+    private static final long WINDOW_STEP = 1L << 30;
+    private static final long WINDOW_SIZE = Integer.MAX_VALUE;
+
+    private final Path file;
+    private final int count;
+    private final int entrySize;
+    private final boolean chunked;
+    private final int chunkCount;
+    private final ByteBuffer table;
+    private final ByteBuffer chunkTable;
+    private final ByteBuffer references;
+    private final ByteBuffer titles;
+    private final ByteBuffer[] windows;
+    private final byte[] dictionary;
+
+    private NoteDatabase(Path file, int count, int entrySize, boolean chunked, int chunkCount, ByteBuffer table,
+                         ByteBuffer chunkTable, ByteBuffer references, ByteBuffer titles, ByteBuffer[] windows,
+                         byte[] dictionary) {
+        this.file = file;
+        this.count = count;
+        this.entrySize = entrySize;
+        this.chunked = chunked;
+        this.chunkCount = chunkCount;
+        this.table = table;
+        this.chunkTable = chunkTable;
+        this.references = references;
+        this.titles = titles;
+        this.windows = windows;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Maps the file. The channel is closed again before returning; the
+     * mappings stay valid until the database is garbage collected.
+     */
+    public static NoteDatabase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < V3_HEADER_SIZE) {
+                throw new IOException("Truncated note database " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, V3_HEADER_SIZE);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a note database: " + file);
+            }
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported note database version " + version + ": " + file);
+            }
+            boolean chunked = version >= 4;
+            int headerSize = chunked ? HEADER_SIZE : V3_HEADER_SIZE;
+            int entrySize = version == 1 ? V1_ENTRY_SIZE : ENTRY_SIZE;
+            int count = header.getInt();
+            long titlesLength = header.getLong();
+            int checksum = header.getInt();
+            int dictionaryLength = header.getInt();
+            int chunkCount = 0;
+            int referenceCount = 0;
+            if (chunked) {
+                if (size < HEADER_SIZE) {
+                    throw new IOException("Truncated note database " + file);
+                }
+                ByteBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, V3_HEADER_SIZE,
+                        HEADER_SIZE - V3_HEADER_SIZE);
+                chunkCount = counts.getInt();
+                referenceCount = counts.getInt();
+            }
+
+            long tableLength = (long) count * entrySize;
+            long chunkTableLength = (long) chunkCount * CHUNK_SIZE;
+            long referencesLength = (long) referenceCount * 4;
+            long bodiesStart = headerSize + tableLength;
+            long titlesStart = size - titlesLength;
+            long dictionaryStart = titlesStart - dictionaryLength;
+            long referencesStart = dictionaryStart - referencesLength;
+            long chunkTableStart = referencesStart - chunkTableLength;
+            if (count < 0 || tableLength > Integer.MAX_VALUE || titlesLength < 0
+                    || titlesLength > Integer.MAX_VALUE || dictionaryLength < 0
+                    || dictionaryLength > BodyCodec.MAX_DICTIONARY || chunkCount < 0
+                    || chunkTableLength > Integer.MAX_VALUE || referenceCount < 0
+                    || chunkTableStart < bodiesStart) {
+                throw new IOException("Corrupt note database " + file);
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, tableLength);
+            ByteBuffer chunkTable = channel.map(FileChannel.MapMode.READ_ONLY, chunkTableStart, chunkTableLength);
+            ByteBuffer references = channel.map(FileChannel.MapMode.READ_ONLY, referencesStart, referencesLength);
+            ByteBuffer titles = channel.map(FileChannel.MapMode.READ_ONLY, titlesStart, titlesLength);
+            byte[] dictionary = new byte[dictionaryLength];
+            if (dictionaryLength > 0) {
+                channel.map(FileChannel.MapMode.READ_ONLY, dictionaryStart, dictionaryLength).get(dictionary);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(table.duplicate());
+            crc.update(chunkTable.duplicate());
+            crc.update(references.duplicate());
+            crc.update(dictionary);
+            crc.update(titles.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt note database " + file);
+            }
+
+            long bodiesLength = chunkTableStart - bodiesStart;
+            ByteBuffer[] windows = new ByteBuffer[(int) ((bodiesLength + WINDOW_STEP - 1) / WINDOW_STEP)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = i * WINDOW_STEP;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, bodiesStart + start,
+                        Math.min(WINDOW_SIZE, bodiesLength - start));
+            }
+            return new NoteDatabase(file, count, entrySize, chunked, chunkCount, table, chunkTable, references,
+                    titles, windows, dictionary);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * The entry holding the note with this id, or -1 if there is none.
+     */
+    public int find(long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = id(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public long id(int entry) {
+        return table.getLong(entry * entrySize);
+    }
+
+    public long created(int entry) {
+        return table.getLong(entry * entrySize + 8);
+    }
+
+    public long modified(int entry) {
+        return table.getLong(entry * entrySize + 16);
+    }
+
+    public String title(int entry) {
+        return new String(titleBytes(entry), StandardCharsets.UTF_8);
+    }
+
+    public List<String> tags(int entry) {
+        byte[] bytes = tagBytes(entry);
+        return bytes.length == 0 ? List.of() : List.of(new String(bytes, StandardCharsets.UTF_8).split("\n"));
+    }
+
+    /**
+     * The number, counting from zero in order of first appearance, of the
+     * title and tags the entry shares with other entries, or -1 if no other
+     * entry has the same.
+     */
+    int sharedTitle(int entry) {
+        int base = entry * entrySize;
+        return chunked && (table.getInt(base + 44) & SHARED_TITLE) != 0 ? table.getInt(base + 52) : -1;
+    }
+
+    /**
+     * The note's body, put back together from its chunks.
+     */
+    public String body(int entry) throws IOException {
+        int chunks = chunks(entry);
+        if (chunks == 1) {
+            return new String(chunk(chunk(entry, 0)), StandardCharsets.UTF_8);
+        }
+        byte[] body = new byte[bodyLength(entry)];
+        int length = 0;
+        for (int i = 0; i < chunks; i++) {
+            byte[] chunk = chunk(chunk(entry, i));
+            if (chunk.length > body.length - length) {
+                throw new IOException("Corrupt body of note " + id(entry) + " in " + file);
+            }
+            System.arraycopy(chunk, 0, body, length, chunk.length);
+            length += chunk.length;
+        }
+        if (length != body.length) {
+            throw new IOException("Corrupt body of note " + id(entry) + " in " + file);
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The body's length as UTF-8 text.
+     */
+    int bodyLength(int entry) {
+        if (chunked) {
+            return table.getInt(entry * entrySize + 40);
+        }
+        int rawLength = chunkRawLength(entry);
+        return rawLength > 0 ? rawLength : chunkStoredLength(entry);
+    }
+
+    boolean isChunked() {
+        return chunked;
+    }
+
+    int chunkCount() {
+        return chunked ? chunkCount : count;
+    }
+
+    /**
+     * How many chunks the entry's body is made of.
+     */
+    int chunks(int entry) {
+        return chunked ? table.getInt(entry * entrySize + 28) : 1;
+    }
+
+    /**
+     * The number of the entry's {@code i}th chunk.
+     */
+    int chunk(int entry, int i) {
+        return chunked ? references.getInt((table.getInt(entry * entrySize + 24) + i) * 4) : entry;
+    }
+
+    long chunkAddressHigh(int chunk) {
+        return chunkTable.getLong(chunk * CHUNK_SIZE + 8);
+    }
+
+    long chunkAddressLow(int chunk) {
+        return chunkTable.getLong(chunk * CHUNK_SIZE + 16);
+    }
+
+    int chunkStoredLength(int chunk) {
+        return chunked ? chunkTable.getInt(chunk * CHUNK_SIZE + 24) : table.getInt(chunk * entrySize + 40);
+    }
+
+    /**
+     * The length the chunk inflates to if it is stored compressed, zero if
+     * stored as is, or below zero if it was cold but kept as is.
+     */
+    int chunkRawLength(int chunk) {
+        if (chunked) {
+            return chunkTable.getInt(chunk * CHUNK_SIZE + 28);
+        }
+        return entrySize == V1_ENTRY_SIZE ? 0 : table.getInt(chunk * entrySize + 52);
+    }
+
+    /**
+     * How many bodies hold the chunk.
+     */
+    int chunkReferences(int chunk) {
+        return chunked ? chunkTable.getInt(chunk * CHUNK_SIZE + 36) : 1;
+    }
+
+    /**
+     * The chunk as text, inflated if it is stored compressed.
+     */
+    byte[] chunk(int chunk) throws IOException {
+        byte[] stored = chunkBytes(chunk);
+        int rawLength = chunkRawLength(chunk);
+        return rawLength > 0 ? BodyCodec.inflate(stored, rawLength, dictionary) : stored;
+    }
+
+    /**
+     * The chunk as stored, compressed or not.
+     */
+    byte[] chunkBytes(int chunk) throws IOException {
+        long offset;
+        int checksum;
+        if (chunked) {
+            offset = chunkTable.getLong(chunk * CHUNK_SIZE);
+            checksum = chunkTable.getInt(chunk * CHUNK_SIZE + 32);
+        } else {
+            offset = table.getLong(chunk * entrySize + 24);
+            checksum = table.getInt(chunk * entrySize + 44);
+        }
+        byte[] bytes = new byte[chunkStoredLength(chunk)];
+        int window = (int) (offset / WINDOW_STEP);
+        windows[window].get((int) (offset - window * WINDOW_STEP), bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt chunk " + chunk + " in " + file);
+        }
+        return bytes;
+    }
+
+    byte[] dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * The title region's size, each shared title and tags run counted once.
+     */
+    int titleRegionLength() {
+        return titles.capacity();
+    }
+
+    /**
+     * The entry's title and tags together, in bytes.
+     */
+    int titleRunLength(int entry) {
+        int base = entry * entrySize;
+        return table.getInt(base + 36) + (entrySize == V1_ENTRY_SIZE ? 0 : table.getInt(base + 48));
+    }
+
+    /**
+     * What the chunk table and the references to it take, zero before
+     * version 4.
+     */
+    long chunkTableLength() {
+        return (long) chunkTable.capacity() + references.capacity();
+    }
+
+    byte[] titleBytes(int entry) {
+        int base = entry * entrySize;
+        byte[] bytes = new byte[table.getInt(base + 36)];
+        titles.get(table.getInt(base + 32), bytes);
+        return bytes;
+    }
+
+    byte[] tagBytes(int entry) {
+        if (entrySize == V1_ENTRY_SIZE) {
+            return new byte[0];
+        }
+        int base = entry * entrySize;
+        byte[] bytes = new byte[table.getInt(base + 48)];
+        titles.get(table.getInt(base + 32) + table.getInt(base + 36), bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a database of exactly {@code count} notes, which must be added in
+     * ascending id order. Chunks stream straight to the file as they are first
+     * seen; the tables and titles are kept in memory and written by
+     * {@link #finish()}, the header last. The chunks of cold notes are
+     * compressed with the dictionary the writer was given.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int count;
+        private final ByteBuffer table;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32 crc = new CRC32();
+        private final MessageDigest sha256 = BodyChunker.sha256();
+        private final byte[] dictionary;
+        private ByteBuffer chunkTable = ByteBuffer.allocate(CHUNK_SIZE * 1024);
+        private int chunkCount;
+        private int[] references = new int[1024];
+        private int referenceCount;
+        private final Slots chunksByAddress = new Slots();
+        private byte[] titles = new byte[1 << 12];
+        private int titlesLength;
+        // Per distinct title and tags run: where it starts, its length and how many notes have it
+        private int[] runOffsets = new int[1024];
+        private int[] runLengths = new int[1024];
+        private int[] runNotes = new int[1024];
+        private int runCount;
+        private final Slots runsByText = new Slots();
+        private final int[] noteRuns;
+        private long bodyOffset;
+        private long lastId = Long.MIN_VALUE;
+        private int added;
+        // The last database copied from, and whether it compressed with the same dictionary
+        private NoteDatabase copiedFrom;
+        private boolean sameDictionary;
+
+        Writer(Path file, int count) throws IOException {
+            this(file, count, new byte[0]);
+        }
+
+        Writer(Path file, int count, byte[] dictionary) throws IOException {
+            if (dictionary.length > BodyCodec.MAX_DICTIONARY) {
+                throw new IllegalArgumentException("Dictionary of " + dictionary.length + " bytes is too large");
+            }
+            this.dictionary = dictionary;
+            if ((long) count * ENTRY_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Too many notes for one database: " + count);
+            }
+            this.count = count;
+            this.table = ByteBuffer.allocate(count * ENTRY_SIZE);
+            this.noteRuns = new int[count];
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_SIZE + (long) count * ENTRY_SIZE);
+        }
+
+        public void add(long id, long created, long modified, String title, List<String> tags, String body)
+                throws IOException {
+            add(id, created, modified, title.getBytes(StandardCharsets.UTF_8),
+                    String.join("\n", tags).getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8),
+                    false);
+        }
+
+        /**
+         * Adds a note, storing whichever of its body's chunks aren't stored
+         * yet; compressed, if that saves enough, when the note is cold.
+         */
+        public void add(long id, long created, long modified, byte[] title, byte[] tags, byte[] body, boolean cold)
+                throws IOException {
+            checkNext(id);
+            int firstReference = referenceCount;
+            int start = 0;
+            do {
+                int end = BodyChunker.end(body, start);
+                long[] address = BodyChunker.address(sha256, body, start, end - start);
+                int chunk = find(address);
+                if (chunk < 0) {
+                    byte[] raw = Arrays.copyOfRange(body, start, end);
+                    chunk = cold ? storeCold(address, raw) : store(address, raw, 0);
+                }
+                reference(chunk);
+                start = end;
+            } while (start < body.length);
+            addEntry(id, created, modified, title, tags, firstReference, body.length);
+        }
+
+        /**
+         * Adds an entry of another database. Its chunks are carried over as
+         * they are stored there where the dictionary stays the same, and
+         * otherwise compressed again with this one; a chunk stored as is gets
+         * compressed once the note that brings it along is cold.
+         */
+        public void copy(NoteDatabase base, int entry, boolean cold) throws IOException {
+            long id = base.id(entry);
+            if (!base.isChunked()) {
+                add(id, base.created(entry), base.modified(entry), base.titleBytes(entry), base.tagBytes(entry),
+                        base.body(entry).getBytes(StandardCharsets.UTF_8), cold || base.chunkRawLength(entry) != 0);
+                return;
+            }
+            if (base != copiedFrom) {
+                copiedFrom = base;
+                sameDictionary = Arrays.equals(base.dictionary(), dictionary);
+            }
+            checkNext(id);
+            int firstReference = referenceCount;
+            for (int i = 0; i < base.chunks(entry); i++) {
+                int from = base.chunk(entry, i);
+                long[] address = {base.chunkAddressHigh(from), base.chunkAddressLow(from)};
+                int chunk = find(address);
+                if (chunk < 0) {
+                    int rawLength = base.chunkRawLength(from);
+                    if (rawLength != 0 && sameDictionary) {
+                        chunk = store(address, base.chunkBytes(from), rawLength);
+                    } else if (rawLength != 0 || cold) {
+                        chunk = storeCold(address, base.chunk(from));
+                    } else {
+                        chunk = store(address, base.chunkBytes(from), 0);
+                    }
+                }
+                reference(chunk);
+            }
+            addEntry(id, base.created(entry), base.modified(entry), base.titleBytes(entry), base.tagBytes(entry),
+                    firstReference, base.bodyLength(entry));
+        }
+
+        /**
+         * Writes the tables, dictionary and titles, then the header, and
+         * forces them to disk.
+         */
+        public void finish() throws IOException {
+            if (added != count) {
+                throw new IllegalStateException("Expected " + count + " notes, got " + added);
+            }
+            int[] sharedNumbers = new int[runCount];
+            int shared = 0;
+            for (int entry = 0; entry < count; entry++) {
+                int run = noteRuns[entry];
+                if (runNotes[run] > 1) {
+                    if (sharedNumbers[run] == 0) {
+                        sharedNumbers[run] = ++shared;
+                    }
+                    table.putInt(entry * ENTRY_SIZE + 44, SHARED_TITLE);
+                    table.putInt(entry * ENTRY_SIZE + 52, sharedNumbers[run] - 1);
+                }
+            }
+            drain();
+            ByteBuffer chunks = ByteBuffer.wrap(chunkTable.array(), 0, chunkCount * CHUNK_SIZE);
+            ByteBuffer refs = ByteBuffer.allocate(referenceCount * 4);
+            refs.asIntBuffer().put(references, 0, referenceCount);
+            ByteBuffer titleRegion = ByteBuffer.wrap(titles, 0, titlesLength);
+            table.flip();
+            crc.reset();
+            crc.update(table.duplicate());
+            crc.update(chunks.duplicate());
+            crc.update(refs.duplicate());
+            crc.update(dictionary);
+            crc.update(titleRegion.duplicate());
+            writeFully(chunks, -1);
+            writeFully(refs, -1);
+            writeFully(ByteBuffer.wrap(dictionary), -1);
+            writeFully(titleRegion, -1);
+            writeFully(table, HEADER_SIZE);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putInt(VERSION).putInt(count).putLong(titlesLength)
+                    .putInt((int) crc.getValue()).putInt(dictionary.length).putInt(chunkCount).putInt(referenceCount);
+            header.flip();
+            writeFully(header, 0);
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void checkNext(long id) {
+            if (added == count) {
+                throw new IllegalStateException("Database is full");
+            }
+            if (added > 0 && id <= lastId) {
+                throw new IllegalArgumentException("Note " + id + " added after note " + lastId);
+            }
+        }
+
+        private void addEntry(long id, long created, long modified, byte[] title, byte[] tags, int firstReference,
+                              int bodyLength) throws IOException {
+            if ((long) titlesLength + title.length + tags.length > Integer.MAX_VALUE) {
+                throw new IOException("Note " + id + " does not fit in the database");
+            }
+            int run = run(title, tags);
+            noteRuns[added] = run;
+            table.putLong(id).putLong(created).putLong(modified).putInt(firstReference)
+                    .putInt(referenceCount - firstReference).putInt(runOffsets[run]).putInt(title.length)
+                    .putInt(bodyLength).putInt(0).putInt(tags.length).putInt(0);
+            lastId = id;
+            added++;
+        }
+
+        // The run holding this title and these tags, added unless one already does
+        private int run(byte[] title, byte[] tags) {
+            int hash = 31 * Arrays.hashCode(title) + Arrays.hashCode(tags);
+            int length = title.length + tags.length;
+            int run = runsByText.find(hash, candidate -> runLengths[candidate] == length
+                    && Arrays.equals(titles, runOffsets[candidate], runOffsets[candidate] + title.length,
+                            title, 0, title.length)
+                    && Arrays.equals(titles, runOffsets[candidate] + title.length, runOffsets[candidate] + length,
+                            tags, 0, tags.length));
+            if (run < 0) {
+                if (runCount == runOffsets.length) {
+                    runOffsets = Arrays.copyOf(runOffsets, runCount * 2);
+                    runLengths = Arrays.copyOf(runLengths, runCount * 2);
+                    runNotes = Arrays.copyOf(runNotes, runCount * 2);
+                }
+                if (titlesLength + length > titles.length) {
+                    titles = Arrays.copyOf(titles, (int) Math.min(Integer.MAX_VALUE,
+                            Math.max((long) titles.length * 2, (long) titlesLength + length)));
+                }
+                System.arraycopy(title, 0, titles, titlesLength, title.length);
+                System.arraycopy(tags, 0, titles, titlesLength + title.length, tags.length);
+                run = runCount++;
+                runOffsets[run] = titlesLength;
+                runLengths[run] = length;
+                titlesLength += length;
+                runsByText.put(hash, run);
+            }
+            runNotes[run]++;
+            return run;
+        }
+
+        private int find(long[] address) {
+            return chunksByAddress.find((int) (address[0] ^ address[0] >>> 32), candidate ->
+                    chunkTable.getLong(candidate * CHUNK_SIZE + 8) == address[0]
+                            && chunkTable.getLong(candidate * CHUNK_SIZE + 16) == address[1]);
+        }
+
+        private int storeCold(long[] address, byte[] raw) throws IOException {
+            byte[] compressed = BodyCodec.deflate(raw, dictionary);
+            return compressed != null ? store(address, compressed, raw.length) : store(address, raw, -1);
+        }
+
+        private int store(long[] address, byte[] stored, int rawLength) throws IOException {
+            if (chunkCount == Integer.MAX_VALUE / CHUNK_SIZE) {
+                throw new IOException("Too many chunks for one database");
+            }
+            if (chunkTable.remaining() < CHUNK_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate((int) Math.min((long) chunkTable.capacity() * 2,
+                        Integer.MAX_VALUE / CHUNK_SIZE * CHUNK_SIZE));
+                chunkTable.flip();
+                chunkTable = grown.put(chunkTable);
+            }
+            crc.reset();
+            crc.update(stored);
+            chunkTable.putLong(bodyOffset).putLong(address[0]).putLong(address[1]).putInt(stored.length)
+                    .putInt(rawLength).putInt((int) crc.getValue()).putInt(0);
+
+            if (stored.length > buffer.remaining()) {
+                drain();
+            }
+            if (stored.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(stored), -1);
+            } else {
+                buffer.put(stored);
+            }
+            bodyOffset += stored.length;
+            int chunk = chunkCount++;
+            chunksByAddress.put((int) (address[0] ^ address[0] >>> 32), chunk);
+            return chunk;
+        }
+
+        private void reference(int chunk) throws IOException {
+            if (referenceCount == Integer.MAX_VALUE / 4) {
+                throw new IOException("Too many chunk references for one database");
+            }
+            if (referenceCount == references.length) {
+                references = Arrays.copyOf(references, (int) Math.min((long) referenceCount * 2,
+                        Integer.MAX_VALUE / 4));
+            }
+            references[referenceCount++] = chunk;
+            int notes = chunk * CHUNK_SIZE + 36;
+            chunkTable.putInt(notes, chunkTable.getInt(notes) + 1);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            writeFully(buffer, -1);
+            buffer.clear();
+        }
+
+        // A negative position appends at the channel's position
+        private void writeFully(ByteBuffer source, long position) throws IOException {
+            while (source.hasRemaining()) {
+                if (position < 0) {
+                    channel.write(source);
+                } else {
+                    position += channel.write(source, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open addressing from a hash to small ints, for the writer's lookups by
+     * content, which then only compare the candidates with a matching hash.
+     */
+    private static final class Slots {
+        private int[] hashes = new int[1024];
+        // Value plus one, zero for an empty slot
+        private int[] values = new int[1024];
+        private int size;
+
+        int find(int hash, IntPredicate matches) {
+            int mask = values.length - 1;
+            for (int slot = mix(hash) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matches.test(values[slot] - 1)) {
+                    return values[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        void put(int hash, int value) {
+            if (++size * 2 > values.length) {
+                int[] oldHashes = hashes;
+                int[] oldValues = values;
+                hashes = new int[oldValues.length * 2];
+                values = new int[oldValues.length * 2];
+                for (int slot = 0; slot < oldValues.length; slot++) {
+                    if (oldValues[slot] != 0) {
+                        insert(oldHashes[slot], oldValues[slot]);
+                    }
+                }
+            }
+            insert(hash, value + 1);
+        }
+
+        private void insert(int hash, int stored) {
+            int mask = values.length - 1;
+            int slot = mix(hash) & mask;
+            while (values[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            values[slot] = stored;
+        }
+
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ h >>> 16;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package eng.veltic;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared date formatting for notes.
+ *
+ * The formatters are built once. Relative labels ("5 min ago") are computed
+ * against a coarse clock that only moves when {@link #tick()} is called, so a
+ * label can be cached until either the note changes or the clock ticks, and
+ * painting never reads the system time.
+ */
+final class NoteDates {
+    private static final DateTimeFormatter ABSOLUTE = DateTimeFormatter.ofPattern("MMMM d, yyyy 'at' h:mm a");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("h:mm a");
+    private static final DateTimeFormatter SHORT_DATE = DateTimeFormatter.ofPattern("MMM d, yyyy");
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static volatile Clock clock = new Clock(System.currentTimeMillis(), 0);
+
+    private NoteDates() {}
+
+    /**
+     * A formatted date together with what it was computed for, so a holder
+     * can cache it in a single field and check whether it is still current.
+     */
+    static final class Label {
+        final long millis;
+        final long tick;
+        final String text;
+
+        Label(long millis, long tick, String text) {
+            this.millis = millis;
+            this.tick = tick;
+            this.text = text;
+        }
+    }
+
+    private static final class Clock {
+        final long now;
+        final long tick;
+
+        Clock(long now, long tick) {
+            this.now = now;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * Moves the relative-label clock to the current time, invalidating every
+     * cached relative label. Meant to be called from a timer every half minute
+     * or so, followed by a repaint.
+     */
+    public static void tick() {
+        Clock current = clock;
+        clock = new Clock(System.currentTimeMillis(), current.tick + 1);
+    }
+
+    public static String absolute(long millis) {
+        return local(millis).format(ABSOLUTE);
+    }
+
+    public static String relative(long millis) {
+        Clock current = clock;
+        return relative(millis, current.now);
+    }
+
+    static String relative(long millis, long now) {
+        long age = now - millis;
+        if (age < MINUTE) {
+            return "Just now";
+        }
+        if (age < HOUR) {
+            return age / MINUTE + " min ago";
+        }
+        LocalDateTime then = local(millis);
+        LocalDate today = local(now).toLocalDate();
+        if (then.toLocalDate().equals(today)) {
+            return "Today at " + then.format(TIME);
+        }
+        if (then.toLocalDate().equals(today.minusDays(1))) {
+            return "Yesterday at " + then.format(TIME);
+        }
+        return then.format(SHORT_DATE);
+    }
+
+    /**
+     * Returns {@code cached} if it still describes {@code millis}, otherwise a
+     * freshly formatted absolute label.
+     */
+    static Label absolute(Label cached, long millis) {
+        if (cached != null && cached.millis == millis) {
+            return cached;
+        }
+        return new Label(millis, 0, absolute(millis));
+    }
+
+    /**
+     * Returns {@code cached} if it still describes {@code millis} at the
+     * current clock tick, otherwise a freshly formatted relative label.
+     */
+    static Label relative(Label cached, long millis) {
+        Clock current = clock;
+        if (cached != null && cached.millis == millis && cached.tick == current.tick) {
+            return cached;
+        }
+        return new Label(millis, current.tick, relative(millis, current.now));
+    }
+
+    /**
+     * The date groups of the note list, newest first: Today, Yesterday,
+     * Previous 7 Days, Previous 30 Days, the earlier months of this year and
+     * then one group per year back to {@code oldest}. Each label's time is
+     * where its group starts; a group runs up to the start of the one before
+     * it, and the first one has no upper end. Follows the same clock as the
+     * relative labels.
+     */
+    static List<Label> groups(long oldest) {
+        Clock current = clock;
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = local(current.now).toLocalDate();
+        List<Label> groups = new ArrayList<>();
+        groups.add(new Label(startOf(today, zone), current.tick, "Today"));
+        groups.add(new Label(startOf(today.minusDays(1), zone), current.tick, "Yesterday"));
+        groups.add(new Label(startOf(today.minusDays(7), zone), current.tick, "Previous 7 Days"));
+        long monthAgo = startOf(today.minusDays(30), zone);
+        groups.add(new Label(monthAgo, current.tick, "Previous 30 Days"));
+
+        for (LocalDate month = today.withDayOfMonth(1); month.getYear() == today.getYear();
+             month = month.minusMonths(1)) {
+            long start = startOf(month, zone);
+            if (start < monthAgo) {
+                groups.add(new Label(start, current.tick,
+                        month.getMonth().getDisplayName(TextStyle.FULL, Locale.getDefault())));
+            }
+        }
+        int oldestYear = local(Math.min(oldest, current.now)).getYear();
+        for (int year = today.getYear() - 1; year >= oldestYear; year--) {
+            groups.add(new Label(startOf(LocalDate.of(year, 1, 1), zone), current.tick, String.valueOf(year)));
+        }
+        return groups;
+    }
+
+    private static long startOf(LocalDate date, ZoneId zone) {
+        return date.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime local(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,74 @@
+package eng.veltic;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs {@link NotesStore#export} in the {@link TaskScheduler.Lane#EXPORT}
+ * lane. The number of notes written is reported on the EDT every
+ * {@link #PROGRESS_STEP} notes, and the finish callback runs on the EDT once
+ * the export is done, cancelled or failed. Cancelling stops between notes and
+ * removes the partial file.
+ */
+class NoteExporter {
+    private static final int PROGRESS_STEP = 256;
+
+    private final NotesStore store;
+    private final Path target;
+    private final ExportFormat format;
+    private final IntConsumer onProgress;
+    private final Consumer<NoteExporter> onFinished;
+    private TaskScheduler.Token token;
+    private volatile int written;
+    private volatile Exception error;
+
+    NoteExporter(NotesStore store, Path target, ExportFormat format,
+                 IntConsumer onProgress, Consumer<NoteExporter> onFinished) {
+        this.store = store;
+        this.target = target;
+        this.format = format;
+        this.onProgress = onProgress;
+        this.onFinished = onFinished;
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    /**
+     * Notes written, once finished.
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Why the export failed, or null.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isCancelled() {
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * EDT only.
+     */
+    public TaskScheduler.Token start(TaskScheduler scheduler) {
+        token = scheduler.submit(TaskScheduler.Lane.EXPORT, task -> {
+            long start = System.nanoTime();
+            try {
+                written = store.export(target, format, PROGRESS_STEP, scheduler.progress(task, onProgress), task);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                Metrics.EXPORT.record(start);
+                scheduler.publish(null, () -> onFinished.accept(this));
+            }
+        });
+        return token;
+    }
+}
@@ -0,0 +1,253 @@
+package eng.veltic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Imports a directory tree of Markdown and text files.
+ *
+ * A fork-join pool walks directories and parses files in parallel into a
+ * bounded queue; when the queue is full the parsers block. The worker thread
+ * drains the queue into batches, inserts each batch in one call and waits for
+ * the returned future (the storage sync) before taking the next batch, so the
+ * storage writer cannot fall behind. The drain runs in the
+ * {@link TaskScheduler.Lane#EXPORT} lane, which bulk work in either direction
+ * shares; progress and the finish callback are handed to the EDT.
+ */
+class NoteImporter {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BATCH_SIZE = 2000;
+    private static final long BATCH_WAIT_MS = 25;
+
+    private final Path root;
+    private final Function<List<NoteItem>, CompletableFuture<?>> insertBatch;
+    private final ObjIntConsumer<NoteImporter> onProgress;
+    private final Consumer<NoteImporter> onFinished;
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile TaskScheduler.Token token;
+    private volatile long startNanos;
+    private volatile int imported;
+    private volatile Exception error;
+
+    /**
+     * @param insertBatch runs on the import thread, adds the notes and returns
+     *                    a future that completes once they are stored
+     */
+    NoteImporter(Path root, Function<List<NoteItem>, CompletableFuture<?>> insertBatch,
+                 ObjIntConsumer<NoteImporter> onProgress, Consumer<NoteImporter> onFinished) {
+        this.root = root;
+        this.insertBatch = insertBatch;
+        this.onProgress = onProgress;
+        this.onFinished = onFinished;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Notes imported, once finished.
+     */
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * Why the import failed, or null.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isCancelled() {
+        TaskScheduler.Token running = token;
+        return running != null && running.isCancelled();
+    }
+
+    public double filesPerSecond(int imported) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? imported / seconds : 0;
+    }
+
+    /**
+     * EDT only.
+     */
+    public TaskScheduler.Token start(TaskScheduler scheduler) {
+        token = scheduler.submit(TaskScheduler.Lane.EXPORT, task -> {
+            token = task;
+            try {
+                imported = importAll(scheduler.progress(task, count -> onProgress.accept(this, count)));
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                scheduler.publish(null, () -> onFinished.accept(this));
+            }
+        });
+        return token;
+    }
+
+    private int importAll(IntConsumer progress) throws Exception {
+        startNanos = System.nanoTime();
+        BlockingQueue<NoteItem> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        int count = 0;
+        try {
+            ForkJoinTask<Void> walk = pool.submit(new DirectoryTask(root, queue));
+            List<NoteItem> batch = new ArrayList<>(BATCH_SIZE);
+            while (!isCancelled()) {
+                NoteItem first = queue.poll(BATCH_WAIT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (walk.isDone() && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                // Top the batch up for a moment so the EDT sees few large batches
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WAIT_MS);
+                while (true) {
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == BATCH_SIZE || remaining <= 0 || walk.isDone() && queue.isEmpty()) {
+                        break;
+                    }
+                    NoteItem next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                List<NoteItem> ready = new ArrayList<>(batch);
+                batch.clear();
+                insertBatch.apply(ready).join();
+                count += ready.size();
+                progress.accept(count);
+            }
+            if (!isCancelled()) {
+                walk.join();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    static boolean isImportable(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".md") || name.endsWith(".markdown") || name.endsWith(".txt");
+    }
+
+    /**
+     * Uses a leading "# " heading as the title, otherwise the file name.
+     */
+    static NoteItem parse(Path file, BasicFileAttributes attributes) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+
+        String name = file.getFileName().toString();
+        String title = name.substring(0, name.lastIndexOf('.'));
+        String content = text;
+
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        if (text.startsWith("# ", start)) {
+            int lineEnd = text.indexOf('\n', start);
+            String heading = text.substring(start + 2, lineEnd < 0 ? text.length() : lineEnd).trim();
+            if (!heading.isEmpty()) {
+                title = heading;
+                content = lineEnd < 0 ? "" : text.substring(lineEnd + 1).replaceFirst("^\\s*\\n", "");
+            }
+        }
+
+        return new NoteItem(title, content,
+                attributes.creationTime().toMillis(), attributes.lastModifiedTime().toMillis());
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final BlockingQueue<NoteItem> queue;
+
+        DirectoryTask(Path dir, BlockingQueue<NoteItem> queue) {
+            this.dir = dir;
+            this.queue = queue;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (NoteImporter.this.isCancelled()) {
+                        return;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(entry, queue);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else if (attributes.isRegularFile() && isImportable(entry)) {
+                        importFile(entry, attributes);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                failed.incrementAndGet();
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private void importFile(Path file, BasicFileAttributes attributes) {
+            try {
+                NoteItem note = parse(file, attributes);
+                // Blocks while the queue is full; that is the backpressure on the parsers
+                while (!queue.offer(note, 100, TimeUnit.MILLISECONDS)) {
+                    if (NoteImporter.this.isCancelled()) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                failed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,742 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Inverted n-gram index over note titles and contents.
+ *
+ * Every distinct 1-, 2- and 3-character gram of a note (lowercased) maps to a
+ * sorted posting list of dense document ids. Queries of up to three characters
+ * are answered straight from one posting list; longer queries intersect the
+ * posting lists of their trigrams and only verify the surviving candidates.
+ *
+ * The search box goes through {@link #filter}, which ranks whole-word, prefix
+ * and near-miss matches with a {@link TermIndex} and then lists the notes that
+ * only contain the query inside a word, as found here. Edits just mark a note
+ * stale in each index, and an index catches up on its stale notes before it
+ * next answers.
+ *
+ * Tags are indexed as one {@link NoteBitmap} of document ids per tag. They
+ * come from the note header, so they are kept current as changes are applied,
+ * and filtering by tags or counting facets never waits for the n-gram
+ * re-index.
+ *
+ * A removed note leaves its doc id unused. Once unused ids make up half of
+ * them, the live docs are renumbered in the order they were added, which
+ * keeps every posting list sorted as it is.
+ *
+ * add/update/remove only enqueue the change, so the EDT can call them while a
+ * search runs on a worker thread; changes are applied by whichever thread
+ * searches next. A writer that runs far ahead of any search applies the
+ * backlog itself, which keeps the queue bounded.
+ */
+class NoteIndex {
+    private static final int MAX_GRAM = 3;
+    private static final char FIELD_SEPARATOR = '\0';
+    private static final int MAX_PENDING_CHANGES = 1 << 16;
+    // Notes indexed per lock hold in catchUp, a few milliseconds' worth
+    private static final int CATCH_UP_SLICE = 256;
+    /** How many ranked matches {@link #filter} lists at most. */
+    static final int RESULT_LIMIT = 1000;
+
+    private final PostingsTable postings = new PostingsTable();
+    private final Map<Long, Integer> docIds = new HashMap<>();
+    private final List<NoteItem> docs = new ArrayList<>();
+    private final List<long[]> docGrams = new ArrayList<>();
+    private final List<List<String>> docTags = new ArrayList<>();
+    private final Map<String, NoteBitmap> tagDocs = new HashMap<>();
+    private final TermIndex terms = new TermIndex();
+    // Docs each index still has to (re)index
+    private final BitSet staleGrams = new BitSet();
+    private final BitSet staleTerms = new BitSet();
+    private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    // Doc ids of removed notes, not reused until compactDocs
+    private int removedDocs;
+
+    public void add(NoteItem note) {
+        enqueue(new Change(note, Change.ADD));
+    }
+
+    /**
+     * Adds many notes as a single queued change, so loading a large store
+     * costs nothing here until the first search.
+     */
+    public void addAll(List<NoteItem> notes) {
+        enqueue(new Change(notes));
+    }
+
+    public void update(NoteItem note) {
+        enqueue(new Change(note, Change.UPDATE));
+    }
+
+    public void remove(NoteItem note) {
+        enqueue(new Change(note, Change.REMOVE));
+    }
+
+    private void enqueue(Change change) {
+        changes.add(change);
+        if (pendingChanges.incrementAndGet() >= MAX_PENDING_CHANGES) {
+            synchronized (this) {
+                applyChanges();
+            }
+        }
+    }
+
+    /**
+     * Applies the queued changes and indexes stale notes ahead of the next
+     * query, a slice at a time so a search can take the lock in between.
+     * Returns early once {@code cancelled} reports true.
+     */
+    public void catchUp(BooleanSupplier cancelled) {
+        boolean more = true;
+        while (more && !cancelled.getAsBoolean()) {
+            synchronized (this) {
+                applyChanges();
+                int[] left = {CATCH_UP_SLICE};
+                BooleanSupplier sliceDone = () -> left[0]-- <= 0 || cancelled.getAsBoolean();
+                refreshTerms(sliceDone);
+                refreshGrams(sliceDone);
+                more = !staleTerms.isEmpty() || !staleGrams.isEmpty();
+            }
+        }
+    }
+
+    public List<NoteItem> search(String query) {
+        return search(query, () -> false);
+    }
+
+    /**
+     * Notes whose title or content contains the query, ignoring case, in the
+     * order they were added to the index. Returns early with a partial result
+     * once {@code cancelled} reports true.
+     */
+    public synchronized List<NoteItem> search(String query, BooleanSupplier cancelled) {
+        applyChanges();
+        refreshGrams(cancelled);
+        return notesOf(match(lowerCase(query), null, cancelled));
+    }
+
+    /**
+     * Notes that carry every one of {@code tags} and either match every word
+     * of the query or contain it, ignoring case, with a count per tag of how
+     * many of them carry it. The tags intersect as bitmaps and only notes
+     * inside that intersection are scored. With a query, up to
+     * {@link #RESULT_LIMIT} notes are listed: word matches best first, then
+     * notes that only contain the query, such as "ocer" in "grocery" or a
+     * single letter, in index order. With only tags, every tagged note is
+     * listed in index order. With neither no note is listed and the facets
+     * count every note.
+     */
+    public synchronized Result filter(String query, Collection<String> tags, BooleanSupplier cancelled) {
+        applyChanges();
+        NoteBitmap tagged = null;
+        for (String tag : tags) {
+            NoteBitmap docs = tagDocs.getOrDefault(tag, new NoteBitmap());
+            tagged = tagged == null ? docs : tagged.and(docs);
+        }
+
+        NoteBitmap matched = tagged;
+        List<NoteItem> results = new ArrayList<>();
+        int total = 0;
+        Set<String> words = Set.of();
+        String needle = lowerCase(query);
+        if (!needle.isEmpty()) {
+            TermIndex.Ranking ranking = TermIndex.Ranking.EMPTY;
+            if (!TermIndex.words(query).isEmpty()) {
+                refreshTerms(cancelled);
+                ranking = terms.rank(query, tagged, RESULT_LIMIT, cancelled);
+            }
+            refreshGrams(cancelled);
+            int[] contained = match(needle, tagged, cancelled);
+            int[] all = union(ranking.matched, contained);
+            matched = NoteBitmap.of(all, all.length);
+            results = notesOf(ranking.top);
+            // Listed after every word match, so only once those all fit
+            for (int i = 0, r = 0; i < contained.length && results.size() < RESULT_LIMIT; i++) {
+                while (r < ranking.matched.length && ranking.matched[r] < contained[i]) {
+                    r++;
+                }
+                if (r == ranking.matched.length || ranking.matched[r] != contained[i]) {
+                    results.add(docs.get(contained[i]));
+                }
+            }
+            total = all.length;
+            words = ranking.words;
+        } else if (tagged != null) {
+            List<NoteItem> notes = results;
+            tagged.forEach(doc -> notes.add(docs.get(doc)));
+            total = notes.size();
+        }
+
+        Map<String, Integer> facets = new TreeMap<>();
+        for (Map.Entry<String, NoteBitmap> entry : tagDocs.entrySet()) {
+            NoteBitmap docs = entry.getValue();
+            facets.put(entry.getKey(), matched == null ? docs.cardinality() : docs.andCardinality(matched));
+        }
+        return new Result(results, total, facets, words, Map.of());
+    }
+
+    // Ascending ids of the docs that contain needle and, if given, are in within
+    private int[] match(String needle, NoteBitmap within, BooleanSupplier cancelled) {
+        if (needle.isEmpty() || cancelled.getAsBoolean()) {
+            return new int[0];
+        }
+
+        if (needle.length() <= MAX_GRAM) {
+            Postings list = postings.get(gramKey(needle, 0, needle.length()));
+            if (list == null) {
+                return new int[0];
+            }
+            int[] hits = new int[list.size];
+            int count = 0;
+            for (int i = 0; i < list.size; i++) {
+                if (within == null || within.contains(list.docs[i])) {
+                    hits[count++] = list.docs[i];
+                }
+            }
+            return Arrays.copyOf(hits, count);
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + MAX_GRAM <= needle.length(); i++) {
+            Postings list = postings.get(gramKey(needle, i, MAX_GRAM));
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        int[] candidates = Arrays.copyOf(lists.get(0).docs, lists.get(0).size);
+        int count = candidates.length;
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            count = lists.get(i).retainAll(candidates, count);
+        }
+
+        int hits = 0;
+        for (int i = 0; i < count && !cancelled.getAsBoolean(); i++) {
+            if (within != null && !within.contains(candidates[i])) {
+                continue;
+            }
+            NoteItem note = docs.get(candidates[i]);
+            if (containsLowerCase(note.getTitle(), needle) || containsLowerCase(note.loadContent(), needle)) {
+                candidates[hits++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, hits);
+    }
+
+    // Both ascending, and so is the result
+    private static int[] union(int[] a, int[] b) {
+        int[] union = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                union[n++] = a[i++];
+            } else {
+                if (i < a.length && a[i] == b[j]) {
+                    i++;
+                }
+                union[n++] = b[j++];
+            }
+        }
+        return Arrays.copyOf(union, n);
+    }
+
+    private List<NoteItem> notesOf(int[] hits) {
+        List<NoteItem> notes = new ArrayList<>(hits.length);
+        for (int doc : hits) {
+            notes.add(docs.get(doc));
+        }
+        return notes;
+    }
+
+    private void applyChanges() {
+        Change change;
+        while ((change = changes.poll()) != null) {
+            pendingChanges.decrementAndGet();
+            if (change.notes != null) {
+                for (NoteItem note : change.notes) {
+                    addDoc(note);
+                }
+                continue;
+            }
+            NoteItem note = change.note;
+            Integer doc = docIds.get(note.getId());
+            if (change.kind == Change.ADD && doc == null) {
+                addDoc(note);
+            } else if (change.kind == Change.REMOVE && doc != null) {
+                docIds.remove(note.getId());
+                staleGrams.clear(doc);
+                staleTerms.clear(doc);
+                for (long gram : docGrams.get(doc)) {
+                    removePosting(gram, doc);
+                }
+                docGrams.set(doc, new long[0]);
+                terms.remove(doc);
+                retag(doc, List.of());
+                docs.set(doc, null);
+                removedDocs++;
+            } else if (doc != null) {
+                retag(doc, note.getTags());
+                staleGrams.set(doc);
+                staleTerms.set(doc);
+            }
+        }
+        if (removedDocs > 0 && removedDocs * 2 >= docs.size()) {
+            compactDocs();
+        }
+    }
+
+    // Moves the live docs down over the removed ones, keeping their order
+    private void compactDocs() {
+        int[] moved = new int[docs.size()];
+        int live = 0;
+        for (int doc = 0; doc < moved.length; doc++) {
+            NoteItem note = docs.get(doc);
+            if (note == null) {
+                moved[doc] = -1;
+                continue;
+            }
+            moved[doc] = live;
+            docs.set(live, note);
+            docGrams.set(live, docGrams.get(doc));
+            docTags.set(live, docTags.get(doc));
+            docIds.put(note.getId(), live);
+            live++;
+        }
+        docs.subList(live, moved.length).clear();
+        docGrams.subList(live, moved.length).clear();
+        docTags.subList(live, moved.length).clear();
+
+        postings.renumber(moved);
+        terms.renumber(moved, live);
+        tagDocs.clear();
+        for (int doc = 0; doc < live; doc++) {
+            for (String tag : docTags.get(doc)) {
+                tagDocs.computeIfAbsent(tag, t -> new NoteBitmap()).add(doc);
+            }
+        }
+        renumber(staleGrams, moved);
+        renumber(staleTerms, moved);
+        removedDocs = 0;
+    }
+
+    private static void renumber(BitSet docs, int[] moved) {
+        BitSet old = (BitSet) docs.clone();
+        docs.clear();
+        for (int doc = old.nextSetBit(0); doc >= 0; doc = old.nextSetBit(doc + 1)) {
+            docs.set(moved[doc]);
+        }
+    }
+
+    private void addDoc(NoteItem note) {
+        if (docIds.putIfAbsent(note.getId(), docs.size()) == null) {
+            docs.add(note);
+            docGrams.add(new long[0]);
+            docTags.add(List.of());
+            retag(docs.size() - 1, note.getTags());
+            staleGrams.set(docs.size() - 1);
+            staleTerms.set(docs.size() - 1);
+        }
+    }
+
+    private void retag(int doc, List<String> tags) {
+        List<String> oldTags = docTags.get(doc);
+        if (oldTags.equals(tags)) {
+            return;
+        }
+        for (String tag : oldTags) {
+            if (!tags.contains(tag)) {
+                NoteBitmap tagged = tagDocs.get(tag);
+                tagged.remove(doc);
+                if (tagged.isEmpty()) {
+                    tagDocs.remove(tag);
+                }
+            }
+        }
+        for (String tag : tags) {
+            if (!oldTags.contains(tag)) {
+                tagDocs.computeIfAbsent(tag, t -> new NoteBitmap()).add(doc);
+            }
+        }
+        docTags.set(doc, tags);
+    }
+
+    private void refreshGrams(BooleanSupplier cancelled) {
+        for (int doc = staleGrams.nextSetBit(0); doc >= 0 && !cancelled.getAsBoolean();
+             doc = staleGrams.nextSetBit(doc + 1)) {
+            reindex(doc, docs.get(doc));
+            staleGrams.clear(doc);
+        }
+    }
+
+    private void refreshTerms(BooleanSupplier cancelled) {
+        for (int doc = staleTerms.nextSetBit(0); doc >= 0 && !cancelled.getAsBoolean();
+             doc = staleTerms.nextSetBit(doc + 1)) {
+            NoteItem note = docs.get(doc);
+            terms.index(doc, note.getTitle(), note.loadContent());
+            staleTerms.clear(doc);
+        }
+    }
+
+    private void reindex(int doc, NoteItem note) {
+        long[] oldGrams = docGrams.get(doc);
+        long[] newGrams = extractGrams(note.getTitle(), note.loadContent());
+
+        // Both arrays are sorted, so a merge walk yields the added and removed grams
+        int i = 0;
+        int j = 0;
+        while (i < oldGrams.length || j < newGrams.length) {
+            if (j == newGrams.length || (i < oldGrams.length && oldGrams[i] < newGrams[j])) {
+                removePosting(oldGrams[i], doc);
+                i++;
+            } else if (i == oldGrams.length || newGrams[j] < oldGrams[i]) {
+                postings.getOrCreate(newGrams[j]).add(doc);
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        docGrams.set(doc, newGrams);
+    }
+
+    private void removePosting(long gram, int doc) {
+        Postings list = postings.get(gram);
+        list.remove(doc);
+        if (list.size == 0) {
+            postings.remove(gram);
+        }
+    }
+
+    private static long[] extractGrams(String title, String content) {
+        String text = lowerCase(title) + FIELD_SEPARATOR + lowerCase(content);
+        GramSet grams = new GramSet();
+        for (int start = 0; start < text.length(); start++) {
+            for (int length = 1; length <= MAX_GRAM && start + length <= text.length(); length++) {
+                if (text.charAt(start + length - 1) == FIELD_SEPARATOR) {
+                    break;
+                }
+                grams.add(gramKey(text, start, length));
+            }
+        }
+        return grams.toSortedArray();
+    }
+
+    // Packs up to three UTF-16 chars and the gram length into one long
+    private static long gramKey(String text, int start, int length) {
+        long key = length;
+        for (int i = 0; i < MAX_GRAM; i++) {
+            key <<= 16;
+            if (i < length) {
+                key |= text.charAt(start + i);
+            }
+        }
+        return key;
+    }
+
+    static String lowerCase(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(text.charAt(i));
+        }
+        return new String(chars).trim();
+    }
+
+    static boolean containsLowerCase(String text, String needle) {
+        int last = text.length() - needle.length();
+        char first = needle.charAt(0);
+        for (int i = 0; i <= last; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length() && Character.toLowerCase(text.charAt(i + j)) == needle.charAt(j)) {
+                j++;
+            }
+            if (j == needle.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Open-addressing set of gram keys; a gram key is never 0 because it carries its length
+    private static class GramSet {
+        private long[] slots = new long[256];
+        private int size;
+
+        void add(long key) {
+            int mask = slots.length - 1;
+            int slot = slotOf(key, mask);
+            while (slots[slot] != 0) {
+                if (slots[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = key;
+            if (++size * 2 > slots.length) {
+                long[] old = slots;
+                slots = new long[old.length * 2];
+                size = 0;
+                for (long existing : old) {
+                    if (existing != 0) {
+                        add(existing);
+                    }
+                }
+            }
+        }
+
+        long[] toSortedArray() {
+            long[] result = new long[size];
+            int i = 0;
+            for (long key : slots) {
+                if (key != 0) {
+                    result[i++] = key;
+                }
+            }
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * What {@link #filter} found: the listed notes, how many matched in all,
+     * per tag in name order how many of them carry it, the indexed words the
+     * query matched, for highlighting, and snippets of some listed notes.
+     */
+    static final class Result {
+        final List<NoteItem> notes;
+        final int total;
+        final Map<String, Integer> facets;
+        final Set<String> words;
+        final Map<NoteItem, Snippet> snippets;
+
+        Result(List<NoteItem> notes, int total, Map<String, Integer> facets, Set<String> words,
+               Map<NoteItem, Snippet> snippets) {
+            this.notes = notes;
+            this.total = total;
+            this.facets = facets;
+            this.words = words;
+            this.snippets = snippets;
+        }
+
+        Result withSnippets(Map<NoteItem, Snippet> snippets) {
+            return new Result(notes, total, facets, words, snippets);
+        }
+    }
+
+    /**
+     * A short one-line excerpt of a note around its first matched word, with
+     * start and end offsets of the matches in it, in pairs.
+     */
+    static final class Snippet {
+        private static final int LEAD = 24;
+
+        final String text;
+        final int[] highlights;
+
+        Snippet(String text, int[] highlights) {
+            this.text = text;
+            this.highlights = highlights;
+        }
+
+        static Snippet of(String content, Collection<String> words, int width) {
+            int[] matches = TermIndex.highlights(content, words);
+            int start = 0;
+            if (matches.length > 0 && matches[0] > LEAD) {
+                // Start at a word boundary a little before the first match
+                start = matches[0] - LEAD;
+                while (start < matches[0] && Character.isLetterOrDigit(content.charAt(start))) {
+                    start++;
+                }
+            }
+            int end = Math.min(content.length(), start + width);
+            if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end--;
+            }
+            String text = (start > 0 ? "\u2026" : "") + content.substring(start, end).replace('\n', ' ').replace('\t', ' ');
+            return new Snippet(text, TermIndex.highlights(text, words));
+        }
+    }
+
+    private static class Change {
+        static final int ADD = 0;
+        static final int UPDATE = 1;
+        static final int REMOVE = 2;
+
+        final NoteItem note;
+        final int kind;
+        // Set instead of note for a bulk add
+        final List<NoteItem> notes;
+
+        Change(NoteItem note, int kind) {
+            this.note = note;
+            this.kind = kind;
+            this.notes = null;
+        }
+
+        Change(List<NoteItem> notes) {
+            this.note = null;
+            this.kind = ADD;
+            this.notes = notes;
+        }
+    }
+
+    // Gram key to posting list map without boxing the keys
+    private static class PostingsTable {
+        private long[] keys = new long[1024];
+        private Postings[] values = new Postings[1024];
+        private int size;
+
+        Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slotOf(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return null;
+        }
+
+        Postings getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int slot = slotOf(key, mask);
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            Postings created = new Postings();
+            keys[slot] = key;
+            values[slot] = created;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return created;
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slotOf(key, mask);
+            while (keys[slot] != key) {
+                if (keys[slot] == 0) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Backward-shift deletion keeps probe chains intact without tombstones
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = slotOf(keys[next], mask);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+            size--;
+        }
+
+        // Renumbers the docs of every list; moved keeps them in order
+        void renumber(int[] moved) {
+            for (Postings list : values) {
+                if (list != null) {
+                    list.renumber(moved);
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slotOf(oldKeys[i], mask);
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    private static int slotOf(long key, int mask) {
+        return Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+    }
+
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        void add(int doc) {
+            int pos = size == 0 || docs[size - 1] < doc ? size : Arrays.binarySearch(docs, 0, size, doc);
+            if (pos >= 0 && pos < size) {
+                return;
+            }
+            int insertAt = pos < 0 ? -pos - 1 : pos;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            System.arraycopy(docs, insertAt, docs, insertAt + 1, size - insertAt);
+            docs[insertAt] = doc;
+            size++;
+        }
+
+        void remove(int doc) {
+            int pos = Arrays.binarySearch(docs, 0, size, doc);
+            if (pos >= 0) {
+                System.arraycopy(docs, pos + 1, docs, pos, size - pos - 1);
+                size--;
+            }
+        }
+
+        void renumber(int[] moved) {
+            for (int i = 0; i < size; i++) {
+                docs[i] = moved[docs[i]];
+            }
+        }
+
+        // Keeps only the candidates that are also in this list, returns the new count
+        int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                while (j < size && docs[j] < candidates[i]) {
+                    j++;
+                }
+                if (j == size) {
+                    break;
+                }
+                if (docs[j] == candidates[i]) {
+                    candidates[kept++] = candidates[i];
+                }
+            }
+            return kept;
+        }
+    }
+}
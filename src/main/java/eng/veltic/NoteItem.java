@@ -0,0 +1,192 @@
+package eng.veltic;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A note header that stays resident for every note. The body is either held
+ * here (notes that were never persisted) or fetched on demand through the
+ * shared {@link NoteBodies} cache.
+ */
+class NoteItem {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id;
+    // Read by the search worker while the EDT edits
+    private volatile String title;
+    private volatile String content;
+    private volatile NoteBodies bodies;
+    private final long created;
+    private volatile long modified;
+    private volatile boolean dirty;
+    // Normalized, sorted and immutable; see normalizeTags
+    private volatile List<String> tags = List.of();
+    // Each holds the label and the modified time it was made for, read by the EDT and export
+    private volatile NoteDates.Label absoluteDate;
+    private volatile NoteDates.Label relativeDate;
+
+    public NoteItem(String title, String content) {
+        this(title, content, System.currentTimeMillis());
+    }
+
+    private NoteItem(String title, String content, long now) {
+        this(title, content, now, now);
+    }
+
+    // Used by import to keep the source file's timestamps
+    NoteItem(String title, String content, long created, long modified) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.title = title;
+        this.content = content;
+        this.created = created;
+        this.modified = modified;
+    }
+
+    // Used when restoring a note from storage; the body stays on disk until asked for
+    NoteItem(long id, String title, List<String> tags, long created, long modified, NoteBodies bodies) {
+        this.id = id;
+        this.title = title;
+        this.tags = tags;
+        this.bodies = bodies;
+        this.created = created;
+        this.modified = modified;
+        NEXT_ID.accumulateAndGet(id + 1, Math::max);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+        this.modified = System.currentTimeMillis();
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(Collection<String> tags) {
+        this.tags = normalizeTags(tags);
+        this.modified = System.currentTimeMillis();
+    }
+
+    /**
+     * Tags as stored: lowercase, without a leading '#', inner whitespace turned
+     * into '-', deduplicated and sorted.
+     */
+    static List<String> normalizeTags(Collection<String> tags) {
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String tag : tags) {
+            String t = tag.strip();
+            while (t.startsWith("#")) {
+                t = t.substring(1).strip();
+            }
+            t = t.toLowerCase(Locale.ROOT).replaceAll("[\\s,]+", "-");
+            if (!t.isEmpty()) {
+                normalized.add(t);
+            }
+        }
+        return List.copyOf(normalized);
+    }
+
+    /**
+     * Tags typed as one line, separated by commas or spaces.
+     */
+    static List<String> parseTags(String text) {
+        return normalizeTags(List.of(text.split("[\\s,]+")));
+    }
+
+    public String getContent() {
+        String pinned = content;
+        return pinned != null ? pinned : bodies.get(id);
+    }
+
+    /**
+     * Reads the body without putting it in the cache, for one-pass readers such
+     * as export that would otherwise flush every open note out of it.
+     */
+    public String loadContent() {
+        String pinned = content;
+        return pinned != null ? pinned : bodies.peek(id);
+    }
+
+    public void setContent(String content) {
+        NoteBodies cache = bodies;
+        if (cache != null) {
+            cache.put(id, content);
+        } else {
+            this.content = content;
+        }
+    }
+
+    /**
+     * Hands the body over to the shared cache once the note has been queued
+     * for storage, so it no longer has to stay in heap.
+     */
+    public void attach(NoteBodies bodies) {
+        String pinned = content;
+        if (pinned != null) {
+            bodies.put(id, pinned);
+        }
+        this.bodies = bodies;
+        this.content = null;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public void setModified(long modified) {
+        this.modified = modified;
+    }
+
+    /**
+     * Whether the note has changes that the autosave has not made durable yet.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    public String getFormattedDate() {
+        NoteDates.Label cached = absoluteDate;
+        NoteDates.Label label = NoteDates.absolute(cached, modified);
+        if (label != cached) {
+            absoluteDate = label;
+        }
+        return label.text;
+    }
+
+    /**
+     * The modified time as "5 min ago", "Yesterday at 3:10 PM" and so on.
+     * Cached until the note changes or {@link NoteDates#tick()} moves the clock.
+     */
+    public String getRelativeDate() {
+        NoteDates.Label cached = relativeDate;
+        NoteDates.Label label = NoteDates.relative(cached, modified);
+        if (label != cached) {
+            relativeDate = label;
+        }
+        return label.text;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,274 @@
+package eng.veltic;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sidebar list: every note in the chosen sort order, optionally split into
+ * date groups by header rows. A header row's element is null; its label comes
+ * from {@link #headerAt(int)}.
+ *
+ * Notes live in a {@link NoteOrderIndex}, so adding, removing or moving one
+ * note costs O(log n), plus O(log n) per date group to place the headers, and
+ * fires a single event that covers only the rows that changed. A moved note
+ * is reported as changed rows rather than a remove and an add, so the list
+ * never drops its selection; callers re-select through {@link #indexOf}.
+ * EDT only, like any list model.
+ */
+class NoteListModel extends AbstractListModel<NoteItem> {
+    private static final long serialVersionUID = 1L;
+    private static final int[] NO_STARTS = new int[0];
+    private static final String[] NO_LABELS = new String[0];
+
+    private NoteOrderIndex index;
+    private boolean grouped;
+    // Rank of the first note of each non-empty group, and its label
+    private int[] groupStarts = NO_STARTS;
+    private String[] groupLabels = NO_LABELS;
+
+    NoteListModel(NoteOrderIndex.Order order, boolean grouped) {
+        this.index = new NoteOrderIndex(order, Collections.emptyList());
+        this.grouped = grouped;
+    }
+
+    public NoteOrderIndex.Order getOrder() {
+        return index.order();
+    }
+
+    public boolean isGrouped() {
+        return grouped;
+    }
+
+    /**
+     * Whether groups are shown right now; only dated orders are grouped.
+     */
+    public boolean showsGroups() {
+        return grouped && index.order().dated;
+    }
+
+    public void setOrder(NoteOrderIndex.Order order) {
+        if (order != index.order()) {
+            int oldSize = getSize();
+            index = new NoteOrderIndex(order, index.notes());
+            regroup();
+            fireReplaced(oldSize);
+        }
+    }
+
+    public void setGrouped(boolean grouped) {
+        if (grouped != this.grouped) {
+            this.grouped = grouped;
+            refreshGroups();
+        }
+    }
+
+    /**
+     * Re-places the group headers, for when the clock has moved on and notes
+     * may have aged into an older group.
+     */
+    public void refreshGroups() {
+        int oldSize = getSize();
+        int[] oldStarts = groupStarts;
+        String[] oldLabels = groupLabels;
+        regroup();
+        if (!Arrays.equals(oldStarts, groupStarts) || !Arrays.equals(oldLabels, groupLabels)) {
+            fireReplaced(oldSize);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return index.size() + groupStarts.length;
+    }
+
+    /**
+     * The note at {@code row}, or null for a group header.
+     */
+    @Override
+    public NoteItem getElementAt(int row) {
+        int group = groupOf(row);
+        if (group >= 0 && groupStarts[group] + group == row) {
+            return null;
+        }
+        return index.get(row - group - 1);
+    }
+
+    public boolean isHeader(int row) {
+        int group = groupOf(row);
+        return group >= 0 && groupStarts[group] + group == row;
+    }
+
+    /**
+     * The label of the group header at {@code row}, or null if it holds a note.
+     */
+    public String headerAt(int row) {
+        return isHeader(row) ? groupLabels[groupOf(row)] : null;
+    }
+
+    /**
+     * The row of the note, or -1 if it isn't listed.
+     */
+    public int indexOf(NoteItem note) {
+        int rank = index.rankOf(note);
+        return rank >= 0 ? rowOf(rank) : -1;
+    }
+
+    public void addAll(Collection<NoteItem> notes) {
+        if (notes.size() == 1) {
+            add(notes.iterator().next());
+            return;
+        }
+        int oldSize = getSize();
+        if (index.size() == 0) {
+            index = new NoteOrderIndex(index.order(), notes);
+            regroup();
+            fireReplaced(oldSize);
+            return;
+        }
+        int firstRank = Integer.MAX_VALUE;
+        List<NoteItem> added = new ArrayList<>(notes.size());
+        for (NoteItem note : notes) {
+            if (index.add(note)) {
+                added.add(note);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        for (NoteItem note : added) {
+            firstRank = Math.min(firstRank, index.rankOf(note));
+        }
+        regroup();
+        // Everything from the first new row down has shifted
+        int from = Math.max(0, rowOf(firstRank) - 1);
+        int newSize = getSize();
+        if (from < oldSize) {
+            fireContentsChanged(this, from, oldSize - 1);
+        }
+        fireIntervalAdded(this, Math.max(from, oldSize), newSize - 1);
+    }
+
+    public void add(NoteItem note) {
+        int groups = groupStarts.length;
+        if (!index.add(note)) {
+            return;
+        }
+        regroup();
+        int row = indexOf(note);
+        // A note that opens a new group brings its header along
+        fireIntervalAdded(this, groupStarts.length > groups ? row - 1 : row, row);
+    }
+
+    public void remove(NoteItem note) {
+        int row = indexOf(note);
+        if (row < 0) {
+            return;
+        }
+        int groups = groupStarts.length;
+        index.remove(note);
+        regroup();
+        fireIntervalRemoved(this, groupStarts.length < groups ? row - 1 : row, row);
+    }
+
+    /**
+     * Moves a note whose date or title changed to its new place, firing one
+     * event for the rows between its old and new position.
+     */
+    public void update(NoteItem note) {
+        int oldRow = indexOf(note);
+        if (oldRow < 0 || !index.move(note)) {
+            return;
+        }
+        int oldSize = getSize();
+        regroup();
+        int newRow = indexOf(note);
+        int newSize = getSize();
+        // One row up covers a group header that appeared or vanished next to the note
+        int low = Math.max(0, Math.min(oldRow, newRow) - 1);
+        if (newSize == oldSize) {
+            fireContentsChanged(this, low, Math.max(oldRow, newRow));
+        } else {
+            fireResized(low, oldSize);
+        }
+    }
+
+    private void fireReplaced(int oldSize) {
+        if (oldSize > 0 || getSize() > 0) {
+            fireResized(0, oldSize);
+        }
+    }
+
+    // Rows from low on may all have changed, and the list grew or shrank at the end
+    private void fireResized(int low, int oldSize) {
+        int newSize = getSize();
+        int common = Math.min(oldSize, newSize);
+        if (low < common) {
+            fireContentsChanged(this, low, common - 1);
+        }
+        if (newSize > oldSize) {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        } else if (newSize < oldSize) {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        }
+    }
+
+    private void regroup() {
+        if (!showsGroups() || index.size() == 0) {
+            groupStarts = NO_STARTS;
+            groupLabels = NO_LABELS;
+            return;
+        }
+        List<NoteDates.Label> groups = NoteDates.groups(index.oldestDate());
+        int[] starts = new int[groups.size()];
+        String[] labels = new String[groups.size()];
+        int count = 0;
+        int start = 0;
+        for (NoteDates.Label group : groups) {
+            int end = index.countSince(group.millis);
+            if (end > start) {
+                starts[count] = start;
+                labels[count] = group.text;
+                count++;
+            }
+            start = end;
+        }
+        groupStarts = Arrays.copyOf(starts, count);
+        groupLabels = Arrays.copyOf(labels, count);
+    }
+
+    // The last group whose header is at or above row, or -1
+    private int groupOf(int row) {
+        int low = 0;
+        int high = groupStarts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (groupStarts[mid] + mid <= row) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private int rowOf(int rank) {
+        // Headers above the note: every group starting at or before its rank
+        int low = 0;
+        int high = groupStarts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (groupStarts[mid] <= rank) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return rank + low;
+    }
+}
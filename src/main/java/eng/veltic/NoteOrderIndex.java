@@ -0,0 +1,346 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Notes kept in one {@link Order}, as a treap whose nodes also count their
+ * subtree, so adding, removing, ranking and selecting a note all take
+ * O(log n).
+ *
+ * Each node keeps the sort key the note had when it was inserted. A note whose
+ * date or title has since changed in place can therefore still be found, and
+ * {@link #move} puts it back where it belongs. Not thread-safe.
+ */
+class NoteOrderIndex {
+    enum Order {
+        ADDED("Order Added", false),
+        MODIFIED("Date Edited", true),
+        CREATED("Date Created", true),
+        TITLE("Title", false);
+
+        private final String label;
+        final boolean dated;
+
+        Order(String label, boolean dated) {
+            this.label = label;
+            this.dated = dated;
+        }
+
+        long date(NoteItem note) {
+            return this == CREATED ? note.getCreated() : note.getModified();
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final Order order;
+    private final Map<Long, Node> nodes;
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    /**
+     * Builds the index in one pass: the notes are sorted once and the treap
+     * is assembled from the sorted run in linear time.
+     */
+    NoteOrderIndex(Order order, Collection<NoteItem> notes) {
+        this.order = order;
+        this.nodes = new HashMap<>(Math.max(16, notes.size() * 4 / 3));
+        Node[] sorted = new Node[notes.size()];
+        int count = 0;
+        for (NoteItem note : notes) {
+            Node node = new Node(note, order);
+            if (nodes.putIfAbsent(note.getId(), node) == null) {
+                sorted[count++] = node;
+            }
+        }
+        Arrays.sort(sorted, 0, count, this::compare);
+        root = build(sorted, count);
+    }
+
+    public Order order() {
+        return order;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean contains(NoteItem note) {
+        return nodes.containsKey(note.getId());
+    }
+
+    /**
+     * @return false if the note was already present
+     */
+    public boolean add(NoteItem note) {
+        Node node = new Node(note, order);
+        if (nodes.putIfAbsent(note.getId(), node) != null) {
+            return false;
+        }
+        node.priority = random.nextInt();
+        root = insert(root, node);
+        return true;
+    }
+
+    public boolean remove(NoteItem note) {
+        Node node = nodes.remove(note.getId());
+        if (node == null) {
+            return false;
+        }
+        root = remove(root, node);
+        return true;
+    }
+
+    /**
+     * Re-sorts a note whose key changed since it was added.
+     *
+     * @return false if the note is absent or already in the right place
+     */
+    public boolean move(NoteItem note) {
+        Node node = nodes.get(note.getId());
+        if (node == null || node.matches(note, order)) {
+            return false;
+        }
+        root = remove(root, node);
+        nodes.remove(note.getId());
+        add(note);
+        return true;
+    }
+
+    /**
+     * The note's position in the order, or -1 if it is absent.
+     */
+    public int rankOf(NoteItem note) {
+        Node node = nodes.get(note.getId());
+        return node != null ? rank(node) : -1;
+    }
+
+    public NoteItem get(int rank) {
+        Node t = root;
+        while (t != null) {
+            int left = size(t.left);
+            if (rank < left) {
+                t = t.left;
+            } else if (rank > left) {
+                rank -= left + 1;
+                t = t.right;
+            } else {
+                return t.note;
+            }
+        }
+        throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds for size " + size());
+    }
+
+    /**
+     * For dated orders: how many notes are dated at or after {@code date},
+     * which is also the rank of the first note dated before it.
+     */
+    public int countSince(long date) {
+        Node probe = new Node(null, Long.MIN_VALUE, date, null);
+        return rank(probe);
+    }
+
+    /**
+     * For dated orders: the date the last note was sorted by.
+     */
+    public long oldestDate() {
+        Node t = root;
+        while (t != null && t.right != null) {
+            t = t.right;
+        }
+        return t != null ? t.date : 0;
+    }
+
+    /**
+     * All notes in order.
+     */
+    public List<NoteItem> notes() {
+        List<NoteItem> notes = new ArrayList<>(size());
+        collect(root, notes);
+        return notes;
+    }
+
+    private int compare(Node a, Node b) {
+        // Ids are handed out in the order notes are created, imported or loaded
+        if (order == Order.ADDED) {
+            return Long.compare(a.id, b.id);
+        }
+        if (order == Order.TITLE) {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(a.title, b.title);
+            if (c == 0) {
+                c = a.title.compareTo(b.title);
+            }
+            return c != 0 ? c : Long.compare(a.id, b.id);
+        }
+        // Newest first; ties keep the most recently created note on top
+        int c = Long.compare(b.date, a.date);
+        return c != 0 ? c : Long.compare(b.id, a.id);
+    }
+
+    // Number of nodes ordered before key
+    private int rank(Node key) {
+        int rank = 0;
+        Node t = root;
+        while (t != null) {
+            int c = compare(key, t);
+            if (c < 0) {
+                t = t.left;
+            } else if (c > 0) {
+                rank += size(t.left) + 1;
+                t = t.right;
+            } else {
+                return rank + size(t.left);
+            }
+        }
+        return rank;
+    }
+
+    private Node insert(Node t, Node node) {
+        if (t == null) {
+            return node;
+        }
+        if (compare(node, t) < 0) {
+            t.left = insert(t.left, node);
+            if (t.left.priority > t.priority) {
+                return rotateRight(t);
+            }
+        } else {
+            t.right = insert(t.right, node);
+            if (t.right.priority > t.priority) {
+                return rotateLeft(t);
+            }
+        }
+        t.size++;
+        return t;
+    }
+
+    private Node remove(Node t, Node node) {
+        int c = compare(node, t);
+        if (c == 0) {
+            return merge(t.left, t.right);
+        }
+        if (c < 0) {
+            t.left = remove(t.left, node);
+        } else {
+            t.right = remove(t.right, node);
+        }
+        t.size--;
+        return t;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.size = size(a.left) + size(a.right) + 1;
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.size = size(b.left) + size(b.right) + 1;
+        return b;
+    }
+
+    private static Node rotateRight(Node t) {
+        Node l = t.left;
+        t.left = l.right;
+        l.right = t;
+        t.size = size(t.left) + size(t.right) + 1;
+        l.size = size(l.left) + t.size + 1;
+        return l;
+    }
+
+    private static Node rotateLeft(Node t) {
+        Node r = t.right;
+        t.right = r.left;
+        r.left = t;
+        t.size = size(t.left) + size(t.right) + 1;
+        r.size = t.size + size(r.right) + 1;
+        return r;
+    }
+
+    // Cartesian tree of the sorted run on random priorities, built with a stack
+    private Node build(Node[] sorted, int count) {
+        Node[] spine = new Node[count];
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            Node node = sorted[i];
+            node.priority = random.nextInt();
+            Node last = null;
+            while (top > 0 && spine[top - 1].priority < node.priority) {
+                last = spine[--top];
+            }
+            node.left = last;
+            if (top > 0) {
+                spine[top - 1].right = node;
+            }
+            spine[top++] = node;
+        }
+        Node built = top > 0 ? spine[0] : null;
+        computeSizes(built);
+        return built;
+    }
+
+    private static int computeSizes(Node t) {
+        if (t == null) {
+            return 0;
+        }
+        t.size = computeSizes(t.left) + computeSizes(t.right) + 1;
+        return t.size;
+    }
+
+    private static void collect(Node t, List<NoteItem> out) {
+        if (t != null) {
+            collect(t.left, out);
+            out.add(t.note);
+            collect(t.right, out);
+        }
+    }
+
+    private static int size(Node t) {
+        return t != null ? t.size : 0;
+    }
+
+    private static final class Node {
+        final NoteItem note;
+        // The sort key as of insertion
+        final long id;
+        final long date;
+        final String title;
+        int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(NoteItem note, Order order) {
+            this(note, note.getId(), order.dated ? order.date(note) : 0, order == Order.TITLE ? note.getTitle() : null);
+        }
+
+        Node(NoteItem note, long id, long date, String title) {
+            this.note = note;
+            this.id = id;
+            this.date = date;
+            this.title = title;
+        }
+
+        boolean matches(NoteItem note, Order order) {
+            if (order == Order.ADDED) {
+                return true;
+            }
+            return order.dated ? date == order.date(note) : title.equals(note.getTitle());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package eng.veltic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a note as it is written to the log, so the writer thread
+ * never touches a NoteItem the EDT is still editing.
+ *
+ * Tags follow the content; records written before notes had tags simply end
+ * after it and decode with none.
+ */
+final class NoteRecord {
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    final byte type;
+    final long id;
+    final String title;
+    final List<String> tags;
+    final String content;
+    final long created;
+    final long modified;
+
+    private NoteRecord(byte type, long id, String title, List<String> tags, String content,
+                       long created, long modified) {
+        this.type = type;
+        this.id = id;
+        this.title = title;
+        this.tags = tags;
+        this.content = content;
+        this.created = created;
+        this.modified = modified;
+    }
+
+    static NoteRecord put(NoteItem note) {
+        return new NoteRecord(PUT, note.getId(), note.getTitle(), note.getTags(), note.getContent(),
+                note.getCreated(), note.getModified());
+    }
+
+    static NoteRecord delete(long id) {
+        return new NoteRecord(DELETE, id, "", List.of(), "", 0, 0);
+    }
+
+    static NoteRecord header(long id, String title, List<String> tags, long created, long modified) {
+        return new NoteRecord(PUT, id, title, tags, null, created, modified);
+    }
+
+    NoteItem toNoteItem(NoteBodies bodies) {
+        return new NoteItem(id, title, tags, created, modified, bodies);
+    }
+
+    byte[] encode() {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        byte[][] tagBytes = new byte[tags.size()][];
+        int tagsLength = 4;
+        for (int i = 0; i < tagBytes.length; i++) {
+            tagBytes[i] = tags.get(i).getBytes(StandardCharsets.UTF_8);
+            tagsLength += 4 + tagBytes[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 8 + 4 + titleBytes.length + 4 + contentBytes.length
+                + tagsLength);
+        buffer.put(type);
+        buffer.putLong(id);
+        buffer.putLong(created);
+        buffer.putLong(modified);
+        buffer.putInt(titleBytes.length);
+        buffer.put(titleBytes);
+        buffer.putInt(contentBytes.length);
+        buffer.put(contentBytes);
+        buffer.putInt(tagBytes.length);
+        for (byte[] tag : tagBytes) {
+            buffer.putInt(tag.length);
+            buffer.put(tag);
+        }
+        return buffer.array();
+    }
+
+    static NoteRecord decode(byte[] payload) {
+        return decode(payload, true);
+    }
+
+    /**
+     * Decodes everything but the body, which is left null.
+     */
+    static NoteRecord decodeHeader(byte[] payload) {
+        return decode(payload, false);
+    }
+
+    private static NoteRecord decode(byte[] payload, boolean withContent) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        byte type = buffer.get();
+        long id = buffer.getLong();
+        long created = buffer.getLong();
+        long modified = buffer.getLong();
+        String title = readString(buffer);
+        String content = null;
+        if (withContent) {
+            content = readString(buffer);
+        } else {
+            buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+        }
+        List<String> tags = List.of();
+        if (buffer.hasRemaining()) {
+            int count = buffer.getInt();
+            List<String> read = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                read.add(readString(buffer));
+            }
+            tags = List.copyOf(read);
+        }
+        return new NoteRecord(type, id, title, tags, content, created, modified);
+    }
+
+    static byte typeOf(byte[] payload) {
+        return payload[0];
+    }
+
+    static long idOf(byte[] payload) {
+        return ByteBuffer.wrap(payload, 1, 8).getLong();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
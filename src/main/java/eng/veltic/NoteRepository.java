@@ -0,0 +1,278 @@
+package eng.veltic;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent set of notes keyed by id that also keeps their insertion order.
+ *
+ * Lookups by id go to a concurrent map. The order lives in an immutable
+ * {@link Snapshot} of copy-on-write chunks: an append or removal copies only
+ * the chunk it touches plus the small chunk table, then publishes the new
+ * snapshot through a volatile field, so readers never lock and always see a
+ * consistent list.
+ *
+ * Structural changes serialize on one lock but only hold it for the chunk
+ * copy. Writers that change a note in place take {@link #stripe(long)} for
+ * its id instead, so edits to different notes run in parallel.
+ */
+class NoteRepository {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int STRIPES = 64;
+
+    private final ConcurrentHashMap<Long, Entry> byId;
+    private final Object[] stripes = new Object[STRIPES];
+    private final Object orderLock = new Object();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // Guarded by orderLock
+    private long nextSeq;
+
+    NoteRepository() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize how many notes are about to be added, so a large
+     *                     initial load doesn't rehash the id map over and over
+     */
+    NoteRepository(int expectedSize) {
+        byId = new ConcurrentHashMap<>(expectedSize);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * The lock for writers that change the note with this id in place.
+     */
+    public Object stripe(long id) {
+        return stripes[(int) (id ^ (id >>> 32)) & (STRIPES - 1)];
+    }
+
+    public NoteItem get(long id) {
+        Entry entry = byId.get(id);
+        return entry != null ? entry.note : null;
+    }
+
+    public boolean contains(long id) {
+        return byId.containsKey(id);
+    }
+
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * The notes in insertion order as of this call. Later changes never show
+     * through the returned list.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Appends the notes; ones whose id is already present are skipped.
+     */
+    public void addAll(Collection<NoteItem> notes) {
+        synchronized (orderLock) {
+            NoteItem[] added = new NoteItem[notes.size()];
+            long[] seqs = new long[added.length];
+            int count = 0;
+            for (NoteItem note : notes) {
+                Entry entry = new Entry(note, nextSeq);
+                if (byId.putIfAbsent(note.getId(), entry) == null) {
+                    added[count] = note;
+                    seqs[count] = nextSeq++;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                snapshot = snapshot.append(added, seqs, count);
+            }
+        }
+    }
+
+    public boolean remove(NoteItem note) {
+        synchronized (orderLock) {
+            Entry entry = byId.get(note.getId());
+            if (entry == null || entry.note != note) {
+                return false;
+            }
+            byId.remove(note.getId());
+            snapshot = snapshot.remove(entry.seq);
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        final NoteItem note;
+        final long seq;
+
+        Entry(NoteItem note, long seq) {
+            this.note = note;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Immutable note order. Every chunk holds its notes with their ascending
+     * insertion sequence numbers; {@code starts} is the list index of each
+     * chunk's first note.
+     */
+    static final class Snapshot extends AbstractList<NoteItem> implements RandomAccess {
+        static final Snapshot EMPTY = new Snapshot(new NoteItem[0][], new long[0][], new int[0], 0);
+
+        private final NoteItem[][] chunks;
+        private final long[][] seqs;
+        private final int[] starts;
+        private final int size;
+
+        private Snapshot(NoteItem[][] chunks, long[][] seqs, int[] starts, int size) {
+            this.chunks = chunks;
+            this.seqs = seqs;
+            this.starts = starts;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public NoteItem get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            }
+            int chunk = Arrays.binarySearch(starts, index);
+            if (chunk < 0) {
+                chunk = -chunk - 2;
+            }
+            return chunks[chunk][index - starts[chunk]];
+        }
+
+        @Override
+        public Iterator<NoteItem> iterator() {
+            return new Iterator<NoteItem>() {
+                private int chunk;
+                private int offset;
+
+                @Override
+                public boolean hasNext() {
+                    return chunk < chunks.length;
+                }
+
+                @Override
+                public NoteItem next() {
+                    if (chunk >= chunks.length) {
+                        throw new NoSuchElementException();
+                    }
+                    NoteItem note = chunks[chunk][offset];
+                    if (++offset == chunks[chunk].length) {
+                        chunk++;
+                        offset = 0;
+                    }
+                    return note;
+                }
+            };
+        }
+
+        Snapshot append(NoteItem[] notes, long[] noteSeqs, int count) {
+            int last = chunks.length - 1;
+            int room = last >= 0 ? CHUNK_SIZE - chunks[last].length : 0;
+            int intoLast = Math.min(room, count);
+            int newChunks = (count - intoLast + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+            NoteItem[][] nextChunks = Arrays.copyOf(chunks, chunks.length + newChunks);
+            long[][] nextSeqs = Arrays.copyOf(seqs, seqs.length + newChunks);
+            int[] nextStarts = Arrays.copyOf(starts, starts.length + newChunks);
+
+            if (intoLast > 0) {
+                int length = chunks[last].length;
+                nextChunks[last] = Arrays.copyOf(chunks[last], length + intoLast);
+                nextSeqs[last] = Arrays.copyOf(seqs[last], length + intoLast);
+                System.arraycopy(notes, 0, nextChunks[last], length, intoLast);
+                System.arraycopy(noteSeqs, 0, nextSeqs[last], length, intoLast);
+            }
+            int from = intoLast;
+            int start = size + intoLast;
+            for (int c = chunks.length; c < nextChunks.length; c++) {
+                int length = Math.min(CHUNK_SIZE, count - from);
+                nextChunks[c] = Arrays.copyOfRange(notes, from, from + length);
+                nextSeqs[c] = Arrays.copyOfRange(noteSeqs, from, from + length);
+                nextStarts[c] = start;
+                from += length;
+                start += length;
+            }
+            return new Snapshot(nextChunks, nextSeqs, nextStarts, size + count);
+        }
+
+        Snapshot remove(long seq) {
+            int chunk = chunkOf(seq);
+            int offset = Arrays.binarySearch(seqs[chunk], seq);
+            int length = chunks[chunk].length;
+
+            NoteItem[][] nextChunks;
+            long[][] nextSeqs;
+            int[] nextStarts;
+            if (length == 1) {
+                // Drop the emptied chunk rather than keep a zero-length one around
+                nextChunks = new NoteItem[chunks.length - 1][];
+                nextSeqs = new long[seqs.length - 1][];
+                nextStarts = new int[starts.length - 1];
+                System.arraycopy(chunks, 0, nextChunks, 0, chunk);
+                System.arraycopy(chunks, chunk + 1, nextChunks, chunk, chunks.length - chunk - 1);
+                System.arraycopy(seqs, 0, nextSeqs, 0, chunk);
+                System.arraycopy(seqs, chunk + 1, nextSeqs, chunk, seqs.length - chunk - 1);
+                System.arraycopy(starts, 0, nextStarts, 0, chunk);
+                System.arraycopy(starts, chunk + 1, nextStarts, chunk, starts.length - chunk - 1);
+            } else {
+                nextChunks = chunks.clone();
+                nextSeqs = seqs.clone();
+                nextStarts = starts.clone();
+                nextChunks[chunk] = without(chunks[chunk], offset);
+                nextSeqs[chunk] = without(seqs[chunk], offset);
+                chunk++;
+            }
+            for (int c = chunk; c < nextStarts.length; c++) {
+                nextStarts[c]--;
+            }
+            return new Snapshot(nextChunks, nextSeqs, nextStarts, size - 1);
+        }
+
+        // The last chunk whose first sequence number is not after seq
+        private int chunkOf(long seq) {
+            int low = 0;
+            int high = seqs.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (seqs[mid][0] <= seq) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private static NoteItem[] without(NoteItem[] array, int index) {
+            NoteItem[] copy = new NoteItem[array.length - 1];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 1, copy, index, array.length - index - 1);
+            return copy;
+        }
+
+        private static long[] without(long[] array, int index) {
+            long[] copy = new long[array.length - 1];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 1, copy, index, array.length - index - 1);
+            return copy;
+        }
+    }
+}
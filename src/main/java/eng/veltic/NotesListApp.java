@@ -4,13 +4,32 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.Highlighter;
 import java.awt.*;
 import java.awt.event.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author valkarinc
@@ -29,9 +48,25 @@ public class NotesListApp extends JFrame {
     private static final Color HOVER_BG = new Color(88, 88, 90);
     private static final Color SUCCESS_GREEN = new Color(48, 209, 88);
     private static final Color SEARCH_BG = new Color(38, 38, 40);
+    private static final Color MATCH_BG = new Color(255, 214, 10, 90);
+    // Past this many matches in the open note only the first ones are marked
+    private static final int MAX_CONTENT_HIGHLIGHTS = 500;
+
+    // Upper bound on note body text kept in heap
+    private static final long BODY_CACHE_CHARS = 8L << 20;
+    // Autosave after a pause in typing, and at least this often while typing continues
+    private static final int AUTOSAVE_IDLE_MS = 2000;
+    private static final int AUTOSAVE_MAX_LATENCY_MS = 10_000;
+    // The EDT going this long without taking an event counts as a hang
+    private static final int EDT_HANG_MS = 500;
+    private static final int METRICS_REFRESH_MS = 500;
+    private static final int SYNC_INTERVAL_MS = 15_000;
+    private static final String SYNC_STATE_FILE = "sync.state";
+    // Long enough after startup that the notes read first count as hot
+    private static final int COLD_COMPACTION_DELAY_MS = 5 * 60_000;
 
     // Components
-    private DefaultListModel<NoteItem> notesModel;
+    private NoteListModel notesModel;
     private DefaultListModel<NoteItem> filteredModel;
     private JList<NoteItem> notesList;
     private JTextArea contentArea;
@@ -40,16 +75,55 @@ public class NotesListApp extends JFrame {
     private JLabel statusLabel;
     private JButton newNoteButton;
     private JButton deleteButton;
+    private JButton historyButton;
     private JButton exportButton;
+    private JButton importButton;
     private JTextField searchField;
+    private JList<String> tagList;
+    private DefaultListModel<String> tagModel;
+    private JScrollPane tagScrollPane;
+    private JLabel tagsLabel;
     private JLabel wordCountLabel;
+    private JLabel notesCountLabel;
+    private JComboBox<NoteOrderIndex.Order> sortChooser;
+    private JCheckBox groupByDate;
     private JProgressBar saveIndicator;
-    private Timer saveTimer;
+    // Shared by export and import; only one of them runs at a time
+    private JProgressBar activityProgress;
+    private JButton cancelActivityButton;
+    private TaskScheduler.Token backgroundTask;
+    private FlushScheduler flushScheduler;
+    private Timer dateRefreshTimer;
+    // Live timings next to the status line, off unless toggled
+    private JLabel metricsLabel;
+    private Timer metricsTimer;
+    // Read in the background for the overlay's tooltip; null until then
+    private NotesStore.Footprint footprint;
+    private EdtWatchdog.Hang lastHang;
+    private EdtWatchdog edtWatchdog;
+    // Set when -Dnoted.sync names a sync server
+    private SyncClient syncClient;
+    private final WordCounter wordCounter = new WordCounter();
 
     // Data
-    private List<NoteItem> notes;
+    private NotesStore store;
+    // Everything that runs off the EDT
+    private final TaskScheduler scheduler = new TaskScheduler(this::showTaskFailure);
+    private SearchExecutor searchExecutor;
     private NoteItem currentNote;
     private boolean isSearching = false;
+    private boolean editorDirty = false;
+    // The open note's modified time before the edits the editor holds, which stamp it as they're typed
+    private long modifiedBeforeEdits;
+    private boolean switchingNotes = false;
+    // Tags picked in the sidebar and the latest count per tag
+    private final Set<String> selectedTags = new TreeSet<>();
+    private Map<String, Integer> facetCounts = Map.of();
+    private boolean updatingFacets = false;
+    // The search the filtered list shows, and the marks it put in the editor
+    private NoteIndex.Result searchResult;
+    private final List<Object> contentHighlights = new ArrayList<>();
+    private final Highlighter.HighlightPainter matchPainter = new DefaultHighlighter.DefaultHighlightPainter(MATCH_BG);
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -62,13 +136,32 @@ public class NotesListApp extends JFrame {
         setupUI();
         setupEventHandlers();
         setupAutoSave();
-        loadSampleNotes();
+        setupMetrics();
+        setupSync();
+        loadNotes();
     }
 
     private void initializeData() {
-        notes = new ArrayList<>();
-        notesModel = new DefaultListModel<>();
+        notesModel = new NoteListModel(NoteOrderIndex.Order.ADDED, true);
         filteredModel = new DefaultListModel<>();
+
+        try {
+            store = NotesStore.open(dataDirectory(), BODY_CACHE_CHARS);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not open notes storage: " + e.getMessage()
+                            + "\nChanges will not be saved.",
+                    "Storage Error", JOptionPane.ERROR_MESSAGE);
+            store = NotesStore.inMemory();
+        }
+        searchExecutor = new SearchExecutor(store, scheduler, this::showSearchResults);
+    }
+
+    private static Path dataDirectory() {
+        String dir = System.getProperty("noted.dir");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".noted");
     }
 
     private void setupUI() {
@@ -116,6 +209,17 @@ public class NotesListApp extends JFrame {
             }
         });
 
+        // Cmd/Ctrl + Shift + M toggles the performance overlay
+        KeyStroke metricsStroke = KeyStroke.getKeyStroke(KeyEvent.VK_M,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK);
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(metricsStroke, "toggleMetrics");
+        getRootPane().getActionMap().put("toggleMetrics", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setMetricsVisible(!metricsLabel.isVisible());
+            }
+        });
+
         // Delete key for delete note
         KeyStroke deleteStroke = KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0);
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(deleteStroke, "deleteNote");
@@ -148,7 +252,9 @@ public class NotesListApp extends JFrame {
         newNoteButton = createStyledButton("+ New");
         exportButton = createStyledButton("Export");
         exportButton.setBackground(SUCCESS_GREEN);
+        importButton = createStyledButton("Import");
 
+        buttonPanel.add(importButton);
         buttonPanel.add(exportButton);
         buttonPanel.add(newNoteButton);
 
@@ -173,10 +279,69 @@ public class NotesListApp extends JFrame {
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchIcon, BorderLayout.WEST);
 
-        JLabel notesCountLabel = new JLabel();
+        // Facet chips: clicking one toggles it, and the list shows notes carrying every selected tag
+        tagModel = new DefaultListModel<>();
+        tagList = new JList<>(tagModel);
+        tagList.setBackground(SIDEBAR_BG);
+        tagList.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        tagList.setVisibleRowCount(-1);
+        tagList.setFocusable(false);
+        tagList.setCellRenderer(new TagChipRenderer());
+        tagList.setSelectionModel(new DefaultListSelectionModel() {
+            @Override
+            public void setSelectionInterval(int index0, int index1) {
+                if (index0 == index1 && isSelectedIndex(index0)) {
+                    removeSelectionInterval(index0, index1);
+                } else {
+                    addSelectionInterval(index0, index1);
+                }
+            }
+        });
+        tagList.setToolTipText("Filter by tag");
+
+        tagScrollPane = new JScrollPane(tagList);
+        tagScrollPane.setBorder(new EmptyBorder(8, 0, 0, 0));
+        tagScrollPane.setBackground(SIDEBAR_BG);
+        tagScrollPane.getViewport().setBackground(SIDEBAR_BG);
+        tagScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        tagScrollPane.setPreferredSize(new Dimension(0, 64));
+        tagScrollPane.setVisible(false);
+
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.setBackground(SIDEBAR_BG);
+        filterPanel.add(searchPanel, BorderLayout.NORTH);
+        filterPanel.add(tagScrollPane, BorderLayout.CENTER);
+
+        notesCountLabel = new JLabel();
         notesCountLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
         notesCountLabel.setForeground(TEXT_SECONDARY);
-        updateNotesCount(notesCountLabel);
+        updateNotesCount();
+
+        sortChooser = new JComboBox<>(NoteOrderIndex.Order.values());
+        sortChooser.setSelectedItem(notesModel.getOrder());
+        sortChooser.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        sortChooser.setBackground(SEARCH_BG);
+        sortChooser.setForeground(TEXT_PRIMARY);
+        sortChooser.setFocusable(false);
+        sortChooser.setToolTipText("Sort notes by");
+
+        groupByDate = new JCheckBox("Group", notesModel.isGrouped());
+        groupByDate.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        groupByDate.setForeground(TEXT_SECONDARY);
+        groupByDate.setOpaque(false);
+        groupByDate.setFocusable(false);
+        groupByDate.setToolTipText("Group notes by date");
+        groupByDate.setEnabled(notesModel.getOrder().dated);
+
+        JPanel sortPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        sortPanel.setBackground(SIDEBAR_BG);
+        sortPanel.add(groupByDate);
+        sortPanel.add(sortChooser);
+
+        JPanel listHeaderPanel = new JPanel(new BorderLayout());
+        listHeaderPanel.setBackground(SIDEBAR_BG);
+        listHeaderPanel.add(notesCountLabel, BorderLayout.WEST);
+        listHeaderPanel.add(sortPanel, BorderLayout.EAST);
 
         notesList = new JList<>(notesModel);
         notesList.setBackground(SIDEBAR_BG);
@@ -184,7 +349,11 @@ public class NotesListApp extends JFrame {
         notesList.setSelectionBackground(ACCENT_YELLOW.darker());
         notesList.setSelectionForeground(Color.BLACK);
         notesList.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        notesList.setCellRenderer(new NotesListRenderer());
+        NotesListRenderer renderer = new NotesListRenderer();
+        notesList.setCellRenderer(renderer);
+        // Fixed cell sizes stop the list from measuring every row on layout
+        notesList.setFixedCellHeight(renderer.cellHeight());
+        notesList.setFixedCellWidth(240);
         notesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
         JPopupMenu contextMenu = createContextMenu();
@@ -201,9 +370,9 @@ public class NotesListApp extends JFrame {
         topPanel.setBackground(SIDEBAR_BG);
         topPanel.add(headerPanel, BorderLayout.NORTH);
         topPanel.add(Box.createVerticalStrut(15));
-        topPanel.add(searchPanel, BorderLayout.CENTER);
+        topPanel.add(filterPanel, BorderLayout.CENTER);
         topPanel.add(Box.createVerticalStrut(10));
-        topPanel.add(notesCountLabel, BorderLayout.SOUTH);
+        topPanel.add(listHeaderPanel, BorderLayout.SOUTH);
 
         sidebar.add(topPanel, BorderLayout.NORTH);
         sidebar.add(listScrollPane, BorderLayout.CENTER);
@@ -226,6 +395,16 @@ public class NotesListApp extends JFrame {
         renameItem.setForeground(TEXT_PRIMARY);
         renameItem.addActionListener(e -> renameCurrentNote());
 
+        JMenuItem historyItem = new JMenuItem("Show History...");
+        historyItem.setBackground(CONTENT_BG);
+        historyItem.setForeground(TEXT_PRIMARY);
+        historyItem.addActionListener(e -> showNoteHistory());
+
+        JMenuItem tagsItem = new JMenuItem("Edit Tags...");
+        tagsItem.setBackground(CONTENT_BG);
+        tagsItem.setForeground(TEXT_PRIMARY);
+        tagsItem.addActionListener(e -> editCurrentNoteTags());
+
         JMenuItem deleteItem = new JMenuItem("Delete Note");
         deleteItem.setBackground(CONTENT_BG);
         deleteItem.setForeground(new Color(255, 59, 48));
@@ -233,6 +412,8 @@ public class NotesListApp extends JFrame {
 
         menu.add(duplicateItem);
         menu.add(renameItem);
+        menu.add(tagsItem);
+        menu.add(historyItem);
         menu.addSeparator();
         menu.add(deleteItem);
 
@@ -262,7 +443,15 @@ public class NotesListApp extends JFrame {
         wordCountLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
         wordCountLabel.setForeground(TEXT_SECONDARY);
 
+        tagsLabel = new JLabel("");
+        tagsLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        tagsLabel.setForeground(ACCENT_YELLOW);
+        tagsLabel.setBorder(new EmptyBorder(0, 16, 0, 16));
+        tagsLabel.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        tagsLabel.setToolTipText("Edit tags");
+
         infoPanel.add(dateLabel, BorderLayout.WEST);
+        infoPanel.add(tagsLabel, BorderLayout.CENTER);
         infoPanel.add(wordCountLabel, BorderLayout.EAST);
 
         JPanel controlsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
@@ -273,6 +462,10 @@ public class NotesListApp extends JFrame {
         deleteButton.setForeground(Color.WHITE);
         deleteButton.setEnabled(false);
 
+        historyButton = createStyledButton("History");
+        historyButton.setEnabled(false);
+
+        controlsPanel.add(historyButton);
         controlsPanel.add(deleteButton);
 
         JPanel titlePanel = new JPanel(new BorderLayout());
@@ -316,6 +509,11 @@ public class NotesListApp extends JFrame {
         statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 11));
         statusLabel.setForeground(TEXT_SECONDARY);
 
+        metricsLabel = new JLabel();
+        metricsLabel.setFont(new Font("Monospaced", Font.PLAIN, 10));
+        metricsLabel.setForeground(ACCENT_YELLOW);
+        metricsLabel.setVisible(false);
+
         saveIndicator = new JProgressBar();
         saveIndicator.setIndeterminate(true);
         saveIndicator.setVisible(false);
@@ -323,11 +521,37 @@ public class NotesListApp extends JFrame {
         saveIndicator.setBackground(DARK_BG);
         saveIndicator.setForeground(SUCCESS_GREEN);
 
-        JLabel shortcutLabel = new JLabel("Ctrl+N: New • Ctrl+F: Search • Del: Delete");
+        activityProgress = new JProgressBar();
+        activityProgress.setVisible(false);
+        activityProgress.setPreferredSize(new Dimension(120, 6));
+        activityProgress.setBackground(DARK_BG);
+        activityProgress.setForeground(SUCCESS_GREEN);
+
+        cancelActivityButton = new JButton("Cancel");
+        cancelActivityButton.setFont(new Font("SansSerif", Font.PLAIN, 10));
+        cancelActivityButton.setBackground(BUTTON_BG);
+        cancelActivityButton.setForeground(TEXT_PRIMARY);
+        cancelActivityButton.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        cancelActivityButton.setFocusPainted(false);
+        cancelActivityButton.setVisible(false);
+        cancelActivityButton.addActionListener(e -> {
+            if (backgroundTask != null) {
+                backgroundTask.cancel();
+            }
+        });
+
+        JPanel activityPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        activityPanel.setBackground(DARK_BG);
+        activityPanel.add(statusLabel);
+        activityPanel.add(metricsLabel);
+        activityPanel.add(activityProgress);
+        activityPanel.add(cancelActivityButton);
+
+        JLabel shortcutLabel = new JLabel("Ctrl+N: New • Ctrl+F: Search • Del: Delete • Ctrl+Shift+M: Metrics");
         shortcutLabel.setFont(new Font("SansSerif", Font.PLAIN, 10));
         shortcutLabel.setForeground(TEXT_SECONDARY.darker());
 
-        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.add(activityPanel, BorderLayout.WEST);
         statusPanel.add(saveIndicator, BorderLayout.CENTER);
         statusPanel.add(shortcutLabel, BorderLayout.EAST);
 
@@ -372,10 +596,29 @@ public class NotesListApp extends JFrame {
     }
 
     private void setupEventHandlers() {
+        store.addListener(change -> {
+            if (SwingUtilities.isEventDispatchThread()) {
+                applyChange(change);
+            } else {
+                scheduler.publish(null, () -> {
+                    applyChange(change);
+                    reloadOpenNote(change);
+                });
+            }
+        });
+
         newNoteButton.addActionListener(e -> createNewNote());
 
         exportButton.addActionListener(e -> exportNotes());
+        importButton.addActionListener(e -> importNotes());
         deleteButton.addActionListener(e -> deleteCurrentNote());
+        historyButton.addActionListener(e -> showNoteHistory());
+
+        sortChooser.addActionListener(e -> changeSortOrder());
+        groupByDate.addActionListener(e -> {
+            notesModel.setGrouped(groupByDate.isSelected());
+            keepSelection();
+        });
 
         searchField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
@@ -386,6 +629,21 @@ public class NotesListApp extends JFrame {
             public void changedUpdate(DocumentEvent e) { filterNotes(); }
         });
 
+        tagList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && !updatingFacets) {
+                selectedTags.clear();
+                selectedTags.addAll(tagList.getSelectedValuesList());
+                filterNotes();
+            }
+        });
+
+        tagsLabel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                editCurrentNoteTags();
+            }
+        });
+
         notesList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 selectNote();
@@ -394,49 +652,403 @@ public class NotesListApp extends JFrame {
 
         contentArea.getDocument().addDocumentListener(new DocumentListener() {
             @Override
-            public void insertUpdate(DocumentEvent e) { handleContentChange(); }
+            public void insertUpdate(DocumentEvent e) {
+                wordCounter.inserted(e.getDocument(), e.getOffset(), e.getLength());
+                handleContentChange();
+            }
             @Override
             public void removeUpdate(DocumentEvent e) { handleContentChange(); }
             @Override
             public void changedUpdate(DocumentEvent e) { handleContentChange(); }
         });
 
+        // Removed text is gone by the time removeUpdate fires, so count it on the way out
+        ((AbstractDocument) contentArea.getDocument()).setDocumentFilter(new DocumentFilter() {
+            @Override
+            public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+                wordCounter.removing(fb.getDocument(), offset, length);
+                super.remove(fb, offset, length);
+            }
+
+            @Override
+            public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+                    throws BadLocationException {
+                if (length > 0) {
+                    wordCounter.removing(fb.getDocument(), offset, length);
+                }
+                super.replace(fb, offset, length, text, attrs);
+            }
+        });
+
         contentArea.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
                 handleContentKeyPress(e);
             }
         });
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                commitEditorContent();
+                flushScheduler.stop();
+                scheduler.shutdown(2000);
+                stopSync();
+                edtWatchdog.stop();
+                closeStorage();
+            }
+        });
     }
 
     private void setupAutoSave() {
-        saveTimer = new Timer(2000, e -> {
-            if (currentNote != null) {
-                showSaveIndicator();
-                statusLabel.setText("Auto-saved");
-                Timer hideTimer = new Timer(1500, hideEvent -> {
-                    statusLabel.setText("Ready");
-                    hideSaveIndicator();
-                });
-                hideTimer.setRepeats(false);
-                hideTimer.start();
+        flushScheduler = new FlushScheduler(store, scheduler, () -> {
+            showSaveIndicator();
+            commitEditorContent();
+        }, this::showFlushReport, AUTOSAVE_IDLE_MS, AUTOSAVE_MAX_LATENCY_MS);
+
+        // Relative dates in the list only move when this ticks, not on every paint
+        dateRefreshTimer = new Timer(30_000, e -> {
+            NoteDates.tick();
+            notesModel.refreshGroups();
+            keepSelection();
+            notesList.repaint();
+        });
+        dateRefreshTimer.start();
+    }
+
+    private void setupMetrics() {
+        edtWatchdog = new EdtWatchdog(EDT_HANG_MS, hang -> SwingUtilities.invokeLater(() -> showHang(hang)));
+        edtWatchdog.start();
+        metricsTimer = new Timer(METRICS_REFRESH_MS, e -> updateMetricsOverlay());
+        setMetricsVisible(Boolean.getBoolean("noted.metrics"));
+    }
+
+    // Always announced; the overlay's tooltip keeps the stack of the latest one
+    private void showHang(EdtWatchdog.Hang hang) {
+        lastHang = hang;
+        statusLabel.setText(String.format("The window froze for %,d ms; Ctrl+Shift+M shows where", hang.stalledMillis));
+        if (metricsLabel.isVisible()) {
+            updateMetricsOverlay();
+        }
+    }
+
+    // Tasks that expect to fail, like a sync with the server down, catch that themselves and say so
+    private void showTaskFailure(TaskScheduler.Failure failure) {
+        String message = failure.error.getMessage() != null ? failure.error.getMessage() : failure.error.toString();
+        statusLabel.setText("Background " + failure.lane.name().toLowerCase(Locale.ROOT) + " task failed: " + message);
+    }
+
+    private void setMetricsVisible(boolean visible) {
+        metricsLabel.setVisible(visible);
+        if (visible) {
+            updateMetricsOverlay();
+            metricsTimer.start();
+        } else {
+            metricsTimer.stop();
+        }
+    }
+
+    /**
+     * Shows median and 99th percentile of the main EDT operations and of the
+     * background search, with every recorder and counter in the tooltip.
+     */
+    private void updateMetricsOverlay() {
+        StringBuilder line = new StringBuilder();
+        StringBuilder table = new StringBuilder("<html><table>"
+                + "<tr><th align=left>ms</th><th>count</th><th>mean</th><th>p50</th><th>p99</th><th>max</th></tr>");
+        for (Metrics.Latency latency : Metrics.latencies()) {
+            Metrics.Snapshot snapshot = latency.snapshot();
+            long p50 = snapshot.percentile(0.5);
+            long p99 = snapshot.percentile(0.99);
+            if (latency != Metrics.EXPORT && latency != Metrics.WORD_COUNT) {
+                line.append(line.length() == 0 ? "" : "  ").append(latency.name).append(' ')
+                        .append(millis(p50)).append('/').append(millis(p99));
+            }
+            table.append("<tr><td>").append(latency.name).append("</td><td align=right>")
+                    .append(String.format("%,d", snapshot.count)).append("</td><td align=right>")
+                    .append(millis(snapshot.meanNanos())).append("</td><td align=right>")
+                    .append(millis(p50)).append("</td><td align=right>")
+                    .append(millis(p99)).append("</td><td align=right>")
+                    .append(millis(snapshot.maxNanos)).append("</td></tr>");
+        }
+        for (Metrics.Counter counter : Metrics.counters()) {
+            table.append("<tr><td>").append(counter.name).append("</td><td align=right>")
+                    .append(String.format("%,d", counter.get())).append("</td></tr>");
+        }
+        line.append("  hangs ").append(Metrics.EDT_HANGS.get());
+        metricsLabel.setText(line.toString());
+        table.append("</table>");
+        if (footprint != null) {
+            table.append(String.format("<br>%,d of %,d bodies in memory, %,d KB (%,d KB unshared)",
+                    footprint.bodiesInHeap, footprint.notes, footprint.heapBytes >> 10,
+                    footprint.referencedHeapBytes >> 10));
+            StorageEngine.Footprint disk = footprint.disk;
+            if (disk != null) {
+                table.append(String.format("<br>on disk: %,d KB snapshot (%,d KB of %,d KB text, dedup %.2fx,"
+                                + " %,d of %,d chunks compressed), %,d KB log", disk.snapshotBytes >> 10,
+                        disk.storedBodyBytes >> 10, disk.rawBodyBytes >> 10, disk.dedupRatio(),
+                        disk.compressedChunks, disk.chunks, disk.logBytes >> 10));
             }
+        }
+        if (lastHang != null) {
+            table.append(String.format("<br>last freeze %,d ms, stuck in:<pre>", lastHang.stalledMillis));
+            escape(lastHang.stack, 0, lastHang.stack.length(), table);
+            table.append("</pre>");
+        }
+        metricsLabel.setToolTipText(table.append("</html>").toString());
+        scheduler.submitOnce(TaskScheduler.Lane.INDEXING, "footprint", 0, token -> {
+            NotesStore.Footprint read = store.footprint();
+            scheduler.publish(token, () -> footprint = read);
         });
-        saveTimer.setRepeats(false);
+    }
+
+    private static void escape(String text, int from, int to, StringBuilder html) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                html.append("&lt;");
+            } else if (c == '>') {
+                html.append("&gt;");
+            } else if (c == '&') {
+                html.append("&amp;");
+            } else {
+                html.append(c);
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        double ms = nanos / 1e6;
+        return ms < 1 ? String.format("%.2f", ms) : ms < 10 ? String.format("%.1f", ms) : String.format("%.0f", ms);
+    }
+
+    /**
+     * Syncs with the server named by {@code -Dnoted.sync} (e.g.
+     * {@code http://localhost:8765}), sending it {@code -Dnoted.sync.secret},
+     * every few seconds in the indexing lane. Needs a persistent store, since
+     * the client's state lives next to it.
+     */
+    private void setupSync() {
+        String server = System.getProperty("noted.sync");
+        if (server == null || !store.isPersistent()) {
+            return;
+        }
+        String secret = System.getProperty("noted.sync.secret");
+        if (secret == null) {
+            statusLabel.setText("Sync unavailable: set -Dnoted.sync.secret to the server's secret");
+            return;
+        }
+        try {
+            syncClient = SyncClient.attach(store, URI.create(server), secret,
+                    dataDirectory().resolve(SYNC_STATE_FILE));
+        } catch (IOException | IllegalArgumentException e) {
+            statusLabel.setText("Sync unavailable: " + e.getMessage());
+            return;
+        }
+        scheduleSync(0);
+    }
+
+    private void scheduleSync(long delayMillis) {
+        scheduler.submit(TaskScheduler.Lane.INDEXING, SYNC_STATE_FILE, delayMillis, this::syncNow);
+    }
+
+    // Runs in the indexing lane, and schedules the next sync once done
+    private void syncNow(TaskScheduler.Token token) {
+        try {
+            SyncClient.Report report = syncClient.sync();
+            if (report.pulled + report.merged + report.conflicts > 0) {
+                scheduleIndexing();
+            }
+            if (report.pulled + report.pushed + report.merged + report.conflicts > 0) {
+                scheduler.publish(token, () -> statusLabel.setText(String.format(
+                        "Synced: %d received, %d sent%s%s (%.1f KB) in %d ms", report.pulled, report.pushed,
+                        report.merged > 0 ? ", " + report.merged + " merged" : "",
+                        report.conflicts > 0 ? ", " + report.conflicts + " conflicted" : "",
+                        (report.bytesSent + report.bytesReceived) / 1024.0, report.millis)));
+            }
+        } catch (IOException e) {
+            scheduler.publish(token, () -> statusLabel.setText("Sync failed: " + e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        scheduleSync(SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * Brings the search index up to date in the background, so the next
+     * search after a load, import or sync doesn't have to.
+     */
+    private void scheduleIndexing() {
+        scheduler.submitOnce(TaskScheduler.Lane.INDEXING, store, 0, store::catchUpIndex);
+    }
+
+    // The scheduler has stopped by now, so no sync is running; the window is still up to say so if it fails
+    private void stopSync() {
+        if (syncClient == null) {
+            return;
+        }
+        try {
+            syncClient.close();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Sync failed to save its state: " + e.getMessage()
+                    + "\nEdits made since the last sync may not reach the server.", "Sync",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    /**
+     * Shows what another thread, such as sync, did to the open note, unless
+     * the editor holds edits the note hasn't caught up with.
+     */
+    private void reloadOpenNote(NotesStore.Change change) {
+        if (currentNote == null || editorDirty || change.getKind() == NotesStore.Change.Kind.ADDED
+                || !change.getNotes().contains(currentNote)) {
+            return;
+        }
+        if (change.getKind() == NotesStore.Change.Kind.REMOVED) {
+            currentNote = null;
+            clearContentArea();
+            return;
+        }
+        NoteItem open = currentNote;
+        String content;
+        try {
+            content = open.getContent();
+        } catch (UncheckedIOException e) {
+            return;
+        }
+        if (!content.equals(contentArea.getText())) {
+            int caret = contentArea.getCaretPosition();
+            // Cleared while the text is swapped so loading isn't treated as an edit
+            currentNote = null;
+            contentArea.setText(content);
+            currentNote = open;
+            contentArea.setCaretPosition(Math.min(caret, content.length()));
+            recountWords();
+            highlightMatches(false);
+        }
+        titleLabel.setText(open.getTitle());
+        dateLabel.setText("Modified: " + open.getFormattedDate());
+        updateTagsLabel();
+        updateWordCount();
+    }
+
+    private void showFlushReport(FlushScheduler.Report report) {
+        if (report.error != null) {
+            statusLabel.setText("Save failed: " + report.error.getMessage());
+        } else if (store.isPersistent()) {
+            statusLabel.setText(String.format("Saved %d note%s (%.1f KB) in %d ms", report.notes,
+                    report.notes == 1 ? "" : "s", report.bytes / 1024.0, report.latencyMillis));
+        }
+        // Keyed, so a flush report that follows soon after moves the hide back
+        scheduler.submit(TaskScheduler.Lane.AUTOSAVE, saveIndicator, 1500, token -> scheduler.publish(token, () -> {
+            if (!flushScheduler.hasPending()) {
+                statusLabel.setText("Ready");
+            }
+            hideSaveIndicator();
+        }));
+    }
+
+    /**
+     * Copies the editor text into the open note, then re-indexes and stores it.
+     * Runs on auto-save and before anything that reads note contents, rather
+     * than on every keystroke.
+     */
+    private void commitEditorContent() {
+        if (editorDirty && currentNote != null) {
+            store.updateContent(currentNote, contentArea.getText(), modifiedBeforeEdits);
+        }
+        editorDirty = false;
+    }
+
+    private void closeStorage() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            // The window is still up; once this returns the app exits
+            JOptionPane.showMessageDialog(this, "Could not save every change before closing: " + e.getMessage()
+                    + "\nThe latest edits may be missing the next time the notes are opened.", "Storage Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Mirrors a store change into the list models. EDT only.
+     */
+    private void applyChange(NotesStore.Change change) {
+        switch (change.getKind()) {
+            case ADDED:
+                notesModel.addAll(change.getNotes());
+                break;
+            case REMOVED:
+                for (NoteItem note : change.getNotes()) {
+                    notesModel.remove(note);
+                    filteredModel.removeElement(note);
+                }
+                break;
+            case UPDATED:
+                for (NoteItem note : change.getNotes()) {
+                    notesModel.update(note);
+                }
+                notesList.repaint();
+                break;
+        }
+        keepSelection();
+        updateNotesCount();
+        updateTagsLabel();
+        refreshFilter();
+    }
+
+    /**
+     * Puts the selection back on the open note after the list moved it.
+     */
+    private void keepSelection() {
+        if (!switchingNotes && currentNote != null && notesList.getModel() == notesModel) {
+            int row = notesModel.indexOf(currentNote);
+            if (row >= 0 && row != notesList.getSelectedIndex()) {
+                notesList.setSelectedIndex(row);
+            }
+        }
+    }
+
+    private void changeSortOrder() {
+        NoteOrderIndex.Order order = (NoteOrderIndex.Order) sortChooser.getSelectedItem();
+        groupByDate.setEnabled(order.dated);
+        notesModel.setOrder(order);
+        keepSelection();
+        if (notesList.getSelectedIndex() >= 0) {
+            notesList.ensureIndexIsVisible(notesList.getSelectedIndex());
+        }
+    }
+
+    /**
+     * Selects the note and scrolls to it. Goes through the model's index,
+     * since JList.setSelectedValue would scan every row.
+     */
+    private void showInList(NoteItem note) {
+        int row = notesList.getModel() == notesModel ? notesModel.indexOf(note) : filteredModel.indexOf(note);
+        if (row >= 0) {
+            notesList.setSelectedIndex(row);
+            notesList.ensureIndexIsVisible(row);
+        }
     }
 
     private void handleContentChange() {
         if (currentNote != null) {
-            currentNote.setContent(contentArea.getText());
-            currentNote.setModified(LocalDateTime.now());
+            long start = System.nanoTime();
+            // The editor's Document is the live copy; the note catches up in commitEditorContent
+            if (!editorDirty) {
+                modifiedBeforeEdits = currentNote.getModified();
+            }
+            editorDirty = true;
+            currentNote.setModified(System.currentTimeMillis());
+            notesModel.update(currentNote);
+            keepSelection();
             updateNoteDisplay();
             updateWordCount();
-
-            if (saveTimer.isRunning()) {
-                saveTimer.restart();
-            } else {
-                saveTimer.start();
-            }
+            flushScheduler.markDirty(currentNote);
+            Metrics.CONTENT_CHANGE.record(start);
         }
     }
 
@@ -451,13 +1063,12 @@ public class NotesListApp extends JFrame {
     }
 
     private void handleEnterKey(KeyEvent e) {
-        String text = contentArea.getText();
         int caretPos = contentArea.getCaretPosition();
 
         try {
             int lineStart = contentArea.getLineStartOffset(contentArea.getLineOfOffset(caretPos));
             int lineEnd = contentArea.getLineEndOffset(contentArea.getLineOfOffset(caretPos));
-            String currentLine = text.substring(lineStart, lineEnd).trim();
+            String currentLine = contentArea.getText(lineStart, lineEnd - lineStart).trim();
 
             if (currentLine.startsWith("•") || currentLine.startsWith("-") || currentLine.startsWith("*")) {
                 e.consume();
@@ -470,12 +1081,15 @@ public class NotesListApp extends JFrame {
                 contentArea.insert("\n" + num + ". ", caretPos);
             }
         } catch (Exception ex) {
-            if (text.length() > 0 && caretPos > 0) {
-                String prevChar = text.substring(Math.max(0, caretPos - 2), caretPos);
-                if (prevChar.contains("•") || prevChar.contains("-")) {
-                    e.consume();
-                    contentArea.insert("\n• ", caretPos);
-                }
+            if (caretPos > 0) {
+                try {
+                    int from = Math.max(0, caretPos - 2);
+                    String prevChar = contentArea.getText(from, caretPos - from);
+                    if (prevChar.contains("•") || prevChar.contains("-")) {
+                        e.consume();
+                        contentArea.insert("\n• ", caretPos);
+                    }
+                } catch (BadLocationException ignored) {}
             }
         }
     }
@@ -485,9 +1099,8 @@ public class NotesListApp extends JFrame {
         int caretPos = contentArea.getCaretPosition();
         if (e.isShiftDown()) {
             try {
-                String text = contentArea.getText();
                 int lineStart = contentArea.getLineStartOffset(contentArea.getLineOfOffset(caretPos));
-                String lineText = text.substring(lineStart, caretPos);
+                String lineText = contentArea.getText(lineStart, caretPos - lineStart);
                 if (lineText.startsWith("    ")) {
                     contentArea.replaceRange("", lineStart, lineStart + 4);
                 }
@@ -498,26 +1111,146 @@ public class NotesListApp extends JFrame {
     }
 
     private void filterNotes() {
+        long start = System.nanoTime();
+        commitEditorContent();
         String searchText = searchField.getText().toLowerCase().trim();
 
-        if (searchText.isEmpty()) {
+        isSearching = !searchText.isEmpty() || !selectedTags.isEmpty();
+        searchExecutor.submit(searchText, selectedTags);
+        if (!isSearching) {
+            searchResult = null;
+            highlightMatches(false);
             notesList.setModel(notesModel);
-            isSearching = false;
+            keepSelection();
+        }
+
+        if (!searchText.isEmpty()) {
+            statusLabel.setText("Searching: " + searchText);
+        } else if (isSearching) {
+            statusLabel.setText("Filtering by " + hashTags(selectedTags));
         } else {
-            filteredModel.clear();
-            List<NoteItem> filtered = notes.stream()
-                    .filter(note -> note.getTitle().toLowerCase().contains(searchText) ||
-                            note.getContent().toLowerCase().contains(searchText))
-                    .collect(Collectors.toList());
+            statusLabel.setText("Ready");
+        }
+        Metrics.FILTER_NOTES.record(start);
+    }
+
+    /**
+     * Re-runs the current search after a store change, so the facet counts
+     * and any filtered list stay live. Nothing is committed or announced.
+     */
+    private void refreshFilter() {
+        searchExecutor.submit(searchField.getText().toLowerCase().trim(), selectedTags);
+    }
+
+    private void showSearchResults(NoteIndex.Result result) {
+        showFacets(result.facets);
+        if (!isSearching) {
+            return;
+        }
+        boolean rematched = searchResult == null || !searchResult.words.equals(result.words);
+        searchResult = result;
+        if (rematched) {
+            highlightMatches(false);
+        }
+        if (sameNotes(filteredModel, result.notes) && notesList.getModel() == filteredModel) {
+            // Same rows, but the words to highlight or the snippets may differ
+            notesList.repaint();
+            return;
+        }
+        // A fresh model filled in one addAll fires a single event instead of one per note
+        filteredModel = new DefaultListModel<>();
+        filteredModel.addAll(result.notes);
+        notesList.setModel(filteredModel);
+        int row = currentNote != null ? filteredModel.indexOf(currentNote) : -1;
+        if (row >= 0) {
+            notesList.setSelectedIndex(row);
+        }
+        if (!searchField.getText().trim().isEmpty()) {
+            statusLabel.setText(result.total > result.notes.size()
+                    ? String.format("Best %,d of %,d matches", result.notes.size(), result.total)
+                    : String.format("%,d match%s", result.total, result.total == 1 ? "" : "es"));
+        }
+    }
+
+    /**
+     * Marks the words the current search matched in the open note, replacing
+     * earlier marks, and optionally scrolls to the first one.
+     */
+    private void highlightMatches(boolean reveal) {
+        Highlighter highlighter = contentArea.getHighlighter();
+        for (Object mark : contentHighlights) {
+            highlighter.removeHighlight(mark);
+        }
+        contentHighlights.clear();
+        if (searchResult == null || searchResult.words.isEmpty() || currentNote == null) {
+            return;
+        }
+        int[] ranges = TermIndex.highlights(contentArea.getText(), searchResult.words);
+        try {
+            for (int i = 0; i < ranges.length && i < 2 * MAX_CONTENT_HIGHLIGHTS; i += 2) {
+                contentHighlights.add(highlighter.addHighlight(ranges[i], ranges[i + 1], matchPainter));
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        if (reveal && ranges.length > 0) {
+            contentArea.setCaretPosition(ranges[0]);
+        }
+    }
+
+    private static boolean sameNotes(DefaultListModel<NoteItem> model, List<NoteItem> notes) {
+        if (model.getSize() != notes.size()) {
+            return false;
+        }
+        for (int i = 0; i < notes.size(); i++) {
+            if (model.getElementAt(i) != notes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            for (NoteItem note : filtered) {
-                filteredModel.addElement(note);
+    /**
+     * Shows one chip per tag in use, plus any selected tag no note carries
+     * any more so it can still be cleared. The chips are only rebuilt when
+     * the set of tags changes; new counts are just repainted.
+     */
+    private void showFacets(Map<String, Integer> facets) {
+        Map<String, Integer> counts = new TreeMap<>(facets);
+        for (String tag : selectedTags) {
+            counts.putIfAbsent(tag, 0);
+        }
+        boolean sameTags = counts.keySet().equals(facetCounts.keySet());
+        facetCounts = counts;
+        if (sameTags) {
+            tagList.repaint();
+            return;
+        }
+        updatingFacets = true;
+        try {
+            tagModel.clear();
+            tagModel.addAll(counts.keySet());
+            for (int i = 0; i < tagModel.getSize(); i++) {
+                if (selectedTags.contains(tagModel.get(i))) {
+                    tagList.addSelectionInterval(i, i);
+                }
             }
-            notesList.setModel(filteredModel);
-            isSearching = true;
+        } finally {
+            updatingFacets = false;
         }
+        tagScrollPane.setVisible(!counts.isEmpty());
+        tagScrollPane.getParent().revalidate();
+    }
 
-        statusLabel.setText(isSearching ? "Searching: " + searchText : "Ready");
+    private static String hashTags(Iterable<String> tags) {
+        StringBuilder text = new StringBuilder();
+        for (String tag : tags) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append('#').append(tag);
+        }
+        return text.toString();
     }
 
     private void createNewNote() {
@@ -527,10 +1260,9 @@ public class NotesListApp extends JFrame {
                 JOptionPane.PLAIN_MESSAGE);
 
         if (title != null && !title.trim().isEmpty()) {
-            NoteItem newNote = new NoteItem(title.trim(), "• ");
-            notes.add(newNote);
-            notesModel.addElement(newNote);
-            notesList.setSelectedValue(newNote, true);
+            NoteItem newNote = store.create(title.trim(), "• ");
+            flushScheduler.markDirty(newNote);
+            showInList(newNote);
             contentArea.requestFocus();
             contentArea.setCaretPosition(contentArea.getText().length());
             statusLabel.setText("Created: " + title);
@@ -538,33 +1270,188 @@ public class NotesListApp extends JFrame {
     }
 
     private void duplicateCurrentNote() {
+        commitEditorContent();
         if (currentNote != null) {
-            NoteItem duplicate = new NoteItem(
-                    currentNote.getTitle() + " (Copy)",
-                    currentNote.getContent()
-            );
-            notes.add(duplicate);
-            notesModel.addElement(duplicate);
-            notesList.setSelectedValue(duplicate, true);
+            NoteItem duplicate = store.duplicate(currentNote);
+            flushScheduler.markDirty(duplicate);
+            showInList(duplicate);
             statusLabel.setText("Duplicated: " + currentNote.getTitle());
         }
     }
 
     private void renameCurrentNote() {
+        commitEditorContent();
         if (currentNote != null) {
             String newTitle = JOptionPane.showInputDialog(this,
                     "Enter new title:",
                     currentNote.getTitle());
 
             if (newTitle != null && !newTitle.trim().isEmpty()) {
-                currentNote.setTitle(newTitle.trim());
+                store.rename(currentNote, newTitle.trim());
+                flushScheduler.markDirty(currentNote);
                 titleLabel.setText(newTitle.trim());
-                notesList.repaint();
                 statusLabel.setText("Renamed to: " + newTitle);
             }
         }
     }
 
+    private void editCurrentNoteTags() {
+        commitEditorContent();
+        if (currentNote != null) {
+            String input = (String) JOptionPane.showInputDialog(this,
+                    "Tags, separated by commas or spaces:",
+                    "Edit Tags",
+                    JOptionPane.PLAIN_MESSAGE,
+                    null,
+                    null,
+                    String.join(", ", currentNote.getTags()));
+
+            if (input != null) {
+                store.setTags(currentNote, NoteItem.parseTags(input));
+                flushScheduler.markDirty(currentNote);
+                statusLabel.setText(currentNote.getTags().isEmpty()
+                        ? "Removed tags from: " + currentNote.getTitle()
+                        : "Tagged: " + currentNote.getTitle());
+            }
+        }
+    }
+
+    /**
+     * Timeline of the open note's saved revisions, newest first. Selecting one
+     * rebuilds its text in the background; Restore puts it back in the editor
+     * as a new edit, so the version being replaced stays in the history too.
+     */
+    private void showNoteHistory() {
+        commitEditorContent();
+        NoteItem note = currentNote;
+        if (note == null) {
+            return;
+        }
+        List<RevisionHistory.Revision> revisions = new ArrayList<>(store.revisions(note));
+        if (revisions.isEmpty()) {
+            JOptionPane.showMessageDialog(this, store.isPersistent()
+                            ? "No earlier versions of this note have been saved yet."
+                            : "History is not kept while notes are not being saved.",
+                    "History", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        Collections.reverse(revisions);
+
+        JDialog dialog = new JDialog(this, "History: " + note.getTitle(), true);
+        dialog.getContentPane().setBackground(CONTENT_BG);
+        dialog.setLayout(new BorderLayout());
+
+        JList<RevisionHistory.Revision> timeline = new JList<>(revisions.toArray(new RevisionHistory.Revision[0]));
+        timeline.setBackground(SIDEBAR_BG);
+        timeline.setForeground(TEXT_PRIMARY);
+        timeline.setSelectionBackground(ACCENT_YELLOW.darker());
+        timeline.setSelectionForeground(Color.BLACK);
+        timeline.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        timeline.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                RevisionHistory.Revision revision = (RevisionHistory.Revision) value;
+                super.getListCellRendererComponent(list, "<html>" + NoteDates.absolute(revision.time)
+                        + "<br><small>" + revision.length + " characters</small></html>",
+                        index, isSelected, cellHasFocus);
+                setBorder(new EmptyBorder(6, 8, 6, 8));
+                return this;
+            }
+        });
+
+        JTextArea preview = new JTextArea();
+        preview.setEditable(false);
+        preview.setLineWrap(true);
+        preview.setWrapStyleWord(true);
+        preview.setBackground(CONTENT_BG);
+        preview.setForeground(TEXT_PRIMARY);
+        preview.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        preview.setBorder(new EmptyBorder(10, 12, 10, 12));
+
+        long stored = 0;
+        long full = 0;
+        for (RevisionHistory.Revision revision : revisions) {
+            stored += revision.storedBytes;
+            full += revision.length;
+        }
+        JLabel statsLabel = new JLabel(String.format("%d revisions, %.1f KB stored (%.1f KB as full copies)",
+                revisions.size(), stored / 1024.0, full / 1024.0));
+        statsLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        statsLabel.setForeground(TEXT_SECONDARY);
+
+        JButton restoreButton = createStyledButton("Restore");
+        restoreButton.setEnabled(false);
+        JButton closeButton = createStyledButton("Close");
+        closeButton.addActionListener(e -> dialog.dispose());
+
+        timeline.addListSelectionListener(e -> {
+            RevisionHistory.Revision revision = timeline.getSelectedValue();
+            if (e.getValueIsAdjusting() || revision == null) {
+                return;
+            }
+            restoreButton.setEnabled(false);
+            store.revisionText(note, revision).whenComplete((text, error) -> scheduler.publish(null, () -> {
+                if (timeline.getSelectedValue() != revision) {
+                    return;
+                }
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    preview.setText("Could not load this revision: " + cause.getMessage());
+                    return;
+                }
+                preview.setText(text);
+                preview.setCaretPosition(0);
+                restoreButton.setEnabled(note == currentNote);
+            }));
+        });
+
+        restoreButton.addActionListener(e -> {
+            if (note == currentNote) {
+                // Goes through the editor, so it is saved and recorded like any other edit
+                contentArea.setText(preview.getText());
+                contentArea.setCaretPosition(0);
+                statusLabel.setText("Restored version from " + NoteDates.absolute(timeline.getSelectedValue().time));
+                dialog.dispose();
+            }
+        });
+
+        JScrollPane timelineScroll = new JScrollPane(timeline);
+        timelineScroll.setPreferredSize(new Dimension(240, 0));
+        timelineScroll.setBorder(BorderFactory.createEmptyBorder());
+        JScrollPane previewScroll = new JScrollPane(preview);
+        previewScroll.setBorder(BorderFactory.createEmptyBorder());
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.setBackground(CONTENT_BG);
+        buttons.add(restoreButton);
+        buttons.add(closeButton);
+
+        JPanel footer = new JPanel(new BorderLayout());
+        footer.setBackground(CONTENT_BG);
+        footer.setBorder(new EmptyBorder(10, 12, 10, 12));
+        footer.add(statsLabel, BorderLayout.WEST);
+        footer.add(buttons, BorderLayout.EAST);
+
+        dialog.add(timelineScroll, BorderLayout.WEST);
+        dialog.add(previewScroll, BorderLayout.CENTER);
+        dialog.add(footer, BorderLayout.SOUTH);
+        dialog.setSize(820, 560);
+        dialog.setLocationRelativeTo(this);
+        timeline.setSelectedIndex(0);
+        dialog.setVisible(true);
+    }
+
+    private void updateTagsLabel() {
+        if (currentNote == null) {
+            tagsLabel.setText("");
+        } else if (currentNote.getTags().isEmpty()) {
+            tagsLabel.setText("Add tags");
+        } else {
+            tagsLabel.setText(hashTags(currentNote.getTags()));
+        }
+    }
+
     private void deleteCurrentNote() {
         if (currentNote != null) {
             int result = JOptionPane.showConfirmDialog(this,
@@ -574,13 +1461,13 @@ public class NotesListApp extends JFrame {
                     JOptionPane.WARNING_MESSAGE);
 
             if (result == JOptionPane.YES_OPTION) {
-                String title = currentNote.getTitle();
-                notes.remove(currentNote);
-                notesModel.removeElement(currentNote);
-                if (isSearching) {
-                    filteredModel.removeElement(currentNote);
-                }
+                // Unsaved edits must not resurrect the note when the selection moves
+                editorDirty = false;
+                NoteItem deleted = currentNote;
                 currentNote = null;
+                flushScheduler.forget(deleted);
+                store.delete(deleted);
+                String title = deleted.getTitle();
                 clearContentArea();
                 statusLabel.setText("Deleted: " + title);
             }
@@ -588,79 +1475,225 @@ public class NotesListApp extends JFrame {
     }
 
     private void exportNotes() {
-        if (notes.isEmpty()) {
+        commitEditorContent();
+        if (backgroundTask != null) {
+            return;
+        }
+        if (store.size() == 0) {
             JOptionPane.showMessageDialog(this, "No notes to export.", "Export", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
 
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Export Notes");
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        Map<FileFilter, ExportFormat> formats = new LinkedHashMap<>();
+        for (ExportFormat format : ExportFormat.ALL) {
+            FileFilter filter = new FileNameExtensionFilter(format.description(), format.extension());
+            formats.put(filter, format);
+            fileChooser.addChoosableFileFilter(filter);
+        }
+        fileChooser.setFileFilter(formats.keySet().iterator().next());
         fileChooser.setSelectedFile(new java.io.File("notes_export.txt"));
 
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                java.io.File file = fileChooser.getSelectedFile();
-                java.io.PrintWriter writer = new java.io.PrintWriter(file);
+            ExportFormat format = formats.get(fileChooser.getFileFilter());
+            java.io.File file = fileChooser.getSelectedFile();
+            if (!file.getName().contains(".")) {
+                file = new java.io.File(file.getParentFile(), file.getName() + "." + format.extension());
+            }
 
-                for (NoteItem note : notes) {
-                    StringBuilder separator = new StringBuilder(50);
-                    for (int i = 0; i < 50; i++) {
-                        separator.append("=");
-                    }
+            int total = store.size();
+            NoteExporter exporter = new NoteExporter(store, file.toPath(), format,
+                    written -> showExportProgress(written, total), this::finishExport);
+            startBackgroundTask(exporter.start(scheduler), total);
+            statusLabel.setText("Exporting to " + file.getName() + "...");
+        }
+    }
 
-                    writer.println(separator.toString());
-                    writer.println("Title: " + note.getTitle());
-                    writer.println("Created: " + note.getFormattedDate());
-                    writer.println(separator.toString());
-                    writer.println(note.getContent());
-                }
+    private void showExportProgress(int written, int total) {
+        activityProgress.setValue(written);
+        statusLabel.setText("Exporting " + written + " / " + total + " notes...");
+    }
 
-                writer.close();
-                statusLabel.setText("Exported " + notes.size() + " notes to " + file.getName());
+    private void finishExport(NoteExporter worker) {
+        finishBackgroundTask();
 
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(this, "Error exporting notes: " + e.getMessage(),
-                        "Export Error", JOptionPane.ERROR_MESSAGE);
-            }
+        if (worker.isCancelled()) {
+            statusLabel.setText("Export cancelled");
+        } else if (worker.getError() != null) {
+            statusLabel.setText("Export failed");
+            JOptionPane.showMessageDialog(this, "Error exporting notes: " + worker.getError().getMessage(),
+                    "Export Error", JOptionPane.ERROR_MESSAGE);
+        } else {
+            statusLabel.setText("Exported " + worker.getWritten() + " notes to " + worker.getTarget().getFileName());
+        }
+    }
+
+    private void importNotes() {
+        commitEditorContent();
+        if (backgroundTask != null) {
+            return;
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import Notes");
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            NoteImporter importer = new NoteImporter(fileChooser.getSelectedFile().toPath(),
+                    this::insertImported, this::showImportProgress, this::finishImport);
+            startBackgroundTask(importer.start(scheduler), 0);
+            activityProgress.setIndeterminate(true);
+            statusLabel.setText("Importing from " + importer.getRoot().getFileName() + "...");
+        }
+    }
+
+    // Runs on the import thread; the store reports each batch as a single change
+    private CompletableFuture<Void> insertImported(List<NoteItem> batch) {
+        store.addAll(batch);
+        return store.sync();
+    }
+
+    private void showImportProgress(NoteImporter importer, int imported) {
+        statusLabel.setText(String.format("Imported %,d notes (%,.0f files/s)...",
+                imported, importer.filesPerSecond(imported)));
+    }
+
+    private void finishImport(NoteImporter worker) {
+        finishBackgroundTask();
+
+        scheduleIndexing();
+        if (worker.isCancelled()) {
+            statusLabel.setText("Import cancelled");
+        } else if (worker.getError() != null) {
+            statusLabel.setText("Import failed");
+            JOptionPane.showMessageDialog(this, "Error importing notes: " + worker.getError().getMessage(),
+                    "Import Error", JOptionPane.ERROR_MESSAGE);
+        } else {
+            int imported = worker.getImported();
+            String failed = worker.getFailedCount() > 0 ? ", " + worker.getFailedCount() + " unreadable" : "";
+            statusLabel.setText(String.format("Imported %,d notes (%,.0f files/s%s)",
+                    imported, worker.filesPerSecond(imported), failed));
         }
     }
 
+    private void startBackgroundTask(TaskScheduler.Token task, int total) {
+        backgroundTask = task;
+        exportButton.setEnabled(false);
+        importButton.setEnabled(false);
+        activityProgress.setMaximum(total);
+        activityProgress.setValue(0);
+        activityProgress.setVisible(true);
+        cancelActivityButton.setVisible(true);
+    }
+
+    private void finishBackgroundTask() {
+        backgroundTask = null;
+        activityProgress.setIndeterminate(false);
+        activityProgress.setVisible(false);
+        cancelActivityButton.setVisible(false);
+        exportButton.setEnabled(true);
+        importButton.setEnabled(true);
+    }
+
     private void selectNote() {
         NoteItem selected = notesList.getSelectedValue();
-        if (selected != null) {
-            currentNote = selected;
-            titleLabel.setText(selected.getTitle());
-            dateLabel.setText("Modified: " + selected.getFormattedDate());
-            contentArea.setText(selected.getContent());
-            contentArea.setEnabled(true);
-            deleteButton.setEnabled(true);
-            updateWordCount();
-            contentArea.requestFocus();
+        if (selected == null) {
+            skipGroupHeader();
+            return;
+        }
+        if (selected == currentNote) {
+            // Re-selected after the list moved it; the editor already shows it
+            return;
+        }
+        long start = System.nanoTime();
+        // Saving the note being left may move it; the selection must stay on the new one
+        switchingNotes = true;
+        try {
+            commitEditorContent();
+        } finally {
+            switchingNotes = false;
+        }
+        String content;
+        try {
+            content = selected.getContent();
+        } catch (UncheckedIOException e) {
+            statusLabel.setText("Could not load note: " + e.getCause().getMessage());
+            return;
+        }
+        // Cleared while the text is swapped so loading isn't treated as an edit
+        currentNote = null;
+        contentArea.setText(content);
+        currentNote = selected;
+        highlightMatches(true);
+        keepSelection();
+        recountWords();
+        titleLabel.setText(selected.getTitle());
+        dateLabel.setText("Modified: " + selected.getFormattedDate());
+        updateTagsLabel();
+        contentArea.setEnabled(true);
+        deleteButton.setEnabled(true);
+        historyButton.setEnabled(store.isPersistent());
+        updateWordCount();
+        contentArea.requestFocus();
+        Metrics.SELECT_NOTE.record(start);
+    }
+
+    /**
+     * Group headers can't be opened, so a selection that lands on one moves on
+     * to the next note in the direction it was travelling.
+     */
+    private void skipGroupHeader() {
+        int row = notesList.getSelectedIndex();
+        if (row < 0 || notesList.getModel() != notesModel || !notesModel.isHeader(row)) {
+            return;
+        }
+        int current = currentNote != null ? notesModel.indexOf(currentNote) : -1;
+        int next = current > row ? row - 1 : row + 1;
+        if (next < 0 || next >= notesModel.getSize()) {
+            next = current;
+        }
+        if (next >= 0) {
+            notesList.setSelectedIndex(next);
+        } else {
+            notesList.clearSelection();
         }
     }
 
     private void updateNoteDisplay() {
         if (currentNote != null) {
             dateLabel.setText("Modified: " + currentNote.getFormattedDate());
-            notesList.repaint();
+            int index = notesList.getSelectedIndex();
+            if (index >= 0) {
+                Rectangle cell = notesList.getCellBounds(index, index);
+                if (cell != null) {
+                    notesList.repaint(cell);
+                }
+            }
         }
     }
 
     private void updateWordCount() {
         if (currentNote != null) {
-            String text = contentArea.getText();
-            int words = text.trim().isEmpty() ? 0 : text.trim().split("\\s+").length;
-            int chars = text.length();
-            wordCountLabel.setText(words + " words, " + chars + " characters");
+            if (wordCounter.needsRecount()) {
+                recountWords();
+            }
+            int chars = contentArea.getDocument().getLength();
+            wordCountLabel.setText(wordCounter.getWords() + " words, " + chars + " characters");
         } else {
             wordCountLabel.setText("");
         }
     }
 
-    private void updateNotesCount(JLabel label) {
-        SwingUtilities.invokeLater(() -> {
-            label.setText(notes.size() + " notes");
-        });
+    private void recountWords() {
+        long start = System.nanoTime();
+        wordCounter.recount(contentArea.getDocument());
+        Metrics.WORD_COUNT.record(start);
+    }
+
+    private void updateNotesCount() {
+        notesCountLabel.setText(store.size() + " notes");
     }
 
     private void showSaveIndicator() {
@@ -674,10 +1707,33 @@ public class NotesListApp extends JFrame {
     private void clearContentArea() {
         titleLabel.setText("Select a note to edit");
         dateLabel.setText("");
+        tagsLabel.setText("");
         wordCountLabel.setText("");
         contentArea.setText("");
         contentArea.setEnabled(false);
         deleteButton.setEnabled(false);
+        historyButton.setEnabled(false);
+    }
+
+    private void loadNotes() {
+        // Restored notes come with the store; samples arrive through the change listener
+        notesModel.addAll(store.notes());
+
+        if (store.size() == 0) {
+            loadSampleNotes();
+        }
+        updateNotesCount();
+        refreshFilter();
+
+        if (notesModel.getSize() > 0) {
+            notesList.setSelectedIndex(notesModel.isHeader(0) ? 1 : 0);
+        }
+        scheduleIndexing();
+        scheduler.submit(TaskScheduler.Lane.INDEXING, "cold-compaction", COLD_COMPACTION_DELAY_MS, token -> {
+            if (store.hasColdBodiesStoredAsIs()) {
+                store.compactCold().join();
+            }
+        });
     }
 
     private void loadSampleNotes() {
@@ -693,105 +1749,156 @@ public class NotesListApp extends JFrame {
         NoteItem meeting = new NoteItem("📋 Meeting Notes - Q1 Planning",
                 "Date: March 15, 2024\nAttendees: Sarah, Mike, Jennifer\n\n• Key Discussion Points:\n    • Budget allocation for Q1\n    • New project timeline\n    • Team resource planning\n\n• Action Items:\n    1. Sarah: Review budget proposal by Friday\n    2. Mike: Update project roadmap\n    3. Jennifer: Schedule team meetings\n\n• Next Steps:\n    • Follow-up meeting scheduled for March 22\n    • Quarterly review preparation");
 
-        notes.add(groceries);
-        notes.add(todos);
-        notes.add(ideas);
-        notes.add(meeting);
+        groceries.setTags(List.of("personal", "shopping"));
+        todos.setTags(List.of("personal", "todo"));
+        ideas.setTags(List.of("ideas"));
+        meeting.setTags(List.of("work"));
+
+        store.addAll(Arrays.asList(groceries, todos, ideas, meeting));
+    }
 
-        for (NoteItem note : notes) {
-            notesModel.addElement(note);
+    /**
+     * Renders every cell with one reused component tree. Fonts, borders and
+     * colors are built once, and the labels skip the revalidate/repaint calls
+     * a setText would otherwise trigger, since a renderer is never displayed.
+     */
+    private class NotesListRenderer implements ListCellRenderer<NoteItem> {
+        private final Font titleFont = new Font("SansSerif", Font.BOLD, 15);
+        private final Font dateFont = new Font("SansSerif", Font.PLAIN, 11);
+        private final Font headerFont = new Font("SansSerif", Font.BOLD, 12);
+        private final Color selectedBg = ACCENT_YELLOW.darker();
+        private final Color selectedDateColor = Color.BLACK.brighter();
+
+        private final JPanel panel = new JPanel(new BorderLayout()) {
+            @Override
+            public void revalidate() {}
+            @Override
+            public void repaint(long tm, int x, int y, int width, int height) {}
+        };
+        private final JLabel titleLabel = new CellLabel();
+        private final JLabel dateLabel = new CellLabel();
+
+        NotesListRenderer() {
+            titleLabel.setFont(titleFont);
+            titleLabel.setOpaque(false);
+            dateLabel.setFont(dateFont);
+            dateLabel.setOpaque(false);
+
+            panel.add(titleLabel, BorderLayout.NORTH);
+            panel.add(dateLabel, BorderLayout.SOUTH);
+            panel.setBorder(BorderFactory.createCompoundBorder(
+                    new EmptyBorder(12, 8, 12, 8),
+                    BorderFactory.createMatteBorder(0, 0, 1, 0, BUTTON_BG)
+            ));
         }
 
-        if (!notes.isEmpty()) {
-            notesList.setSelectedIndex(0);
+        int cellHeight() {
+            titleLabel.setText("Title");
+            dateLabel.setText("January 1, 2000 at 12:00 AM");
+            return panel.getPreferredSize().height;
         }
-    }
 
-    private class NotesListRenderer extends DefaultListCellRenderer {
         @Override
-        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+        public Component getListCellRendererComponent(JList<? extends NoteItem> list, NoteItem note, int index,
                                                       boolean isSelected, boolean cellHasFocus) {
-
-            JPanel panel = new JPanel(new BorderLayout());
-            panel.setBorder(new EmptyBorder(12, 8, 12, 8));
-
-            Color bgColor = isSelected ? ACCENT_YELLOW.darker() : SIDEBAR_BG;
-            Color textColor = isSelected ? Color.BLACK : TEXT_PRIMARY;
-
-            panel.setBackground(bgColor);
-
-            if (value instanceof NoteItem) {
-                NoteItem note = (NoteItem) value;
-
-                JLabel titleLabel = new JLabel(note.getTitle());
-                titleLabel.setFont(new Font("SansSerif", Font.BOLD, 15));
-                titleLabel.setForeground(textColor);
-                titleLabel.setOpaque(false);
-
-                JLabel dateLabel = new JLabel(note.getFormattedDate());
-                dateLabel.setFont(new Font("SansSerif", Font.PLAIN, 11));
-                dateLabel.setForeground(isSelected ? Color.BLACK.brighter() : TEXT_SECONDARY);
-                dateLabel.setOpaque(false);
-
-                panel.add(titleLabel, BorderLayout.NORTH);
-                panel.add(dateLabel, BorderLayout.SOUTH);
-
-                panel.setBorder(BorderFactory.createCompoundBorder(
-                        new EmptyBorder(12, 8, 12, 8),
-                        BorderFactory.createMatteBorder(0, 0, 1, 0, BUTTON_BG)
-                ));
+            long start = System.nanoTime();
+            try {
+                return render(list, note, index, isSelected);
+            } finally {
+                Metrics.RENDER_CELL.record(start);
             }
-
-            return panel;
-        }
-    }
-
-    private static class NoteItem {
-        private String title;
-        private String content;
-        private LocalDateTime created;
-        private LocalDateTime modified;
-
-        public NoteItem(String title, String content) {
-            this.title = title;
-            this.content = content;
-            this.created = LocalDateTime.now();
-            this.modified = this.created;
-        }
-
-        public String getTitle() {
-            return title;
         }
 
-        public void setTitle(String title) {
-            this.title = title;
-            this.modified = LocalDateTime.now();
-        }
+        private Component render(JList<? extends NoteItem> list, NoteItem note, int index, boolean isSelected) {
+            String header = note == null && list.getModel() instanceof NoteListModel
+                    ? ((NoteListModel) list.getModel()).headerAt(index) : null;
+            if (header != null) {
+                panel.setBackground(SIDEBAR_BG);
+                titleLabel.setFont(headerFont);
+                titleLabel.setForeground(ACCENT_YELLOW);
+                titleLabel.setText(header);
+                dateLabel.setText("");
+                return panel;
+            }
 
-        public String getContent() {
-            return content;
+            panel.setBackground(isSelected ? selectedBg : SIDEBAR_BG);
+            titleLabel.setFont(titleFont);
+            titleLabel.setForeground(isSelected ? Color.BLACK : TEXT_PRIMARY);
+            dateLabel.setForeground(isSelected ? selectedDateColor : TEXT_SECONDARY);
+
+            NoteIndex.Result result = list.getModel() == filteredModel ? searchResult : null;
+            if (note != null && result != null && !result.words.isEmpty()) {
+                // Search hits are shown marked, with a snippet in place of the date where there is one
+                String title = note.getTitle();
+                titleLabel.setText(markup(title, TermIndex.highlights(title, result.words), isSelected));
+                NoteIndex.Snippet snippet = result.snippets.get(note);
+                dateLabel.setText(snippet != null
+                        ? markup(snippet.text, snippet.highlights, isSelected) : note.getRelativeDate());
+                return panel;
+            }
+            titleLabel.setText(note != null ? note.getTitle() : "");
+            dateLabel.setText(note != null ? note.getRelativeDate() : "");
+            return panel;
         }
 
-        public void setContent(String content) {
-            this.content = content;
+        // HTML for text with the given start/end ranges marked
+        private String markup(String text, int[] ranges, boolean isSelected) {
+            if (ranges.length == 0) {
+                return text;
+            }
+            String open = isSelected ? "<span style='background-color:#000000;color:#ffd60a'>"
+                    : "<span style='background-color:#ffd60a;color:#000000'>";
+            StringBuilder html = new StringBuilder("<html><nobr>");
+            int last = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                escape(text, last, ranges[i], html);
+                html.append(open);
+                escape(text, ranges[i], ranges[i + 1], html);
+                html.append("</span>");
+                last = ranges[i + 1];
+            }
+            escape(text, last, text.length(), html);
+            return html.append("</nobr></html>").toString();
         }
+    }
 
-        public LocalDateTime getModified() {
-            return modified;
+    /**
+     * Draws a facet as a "#tag count" chip, highlighted while selected and
+     * dimmed when no note in the current results carries it.
+     */
+    private class TagChipRenderer implements ListCellRenderer<String> {
+        private final JLabel chip = new CellLabel();
+
+        TagChipRenderer() {
+            chip.setOpaque(true);
+            chip.setFont(new Font("SansSerif", Font.PLAIN, 12));
+            chip.setBorder(BorderFactory.createCompoundBorder(
+                    BorderFactory.createMatteBorder(2, 2, 2, 2, SIDEBAR_BG),
+                    new EmptyBorder(3, 8, 3, 8)
+            ));
         }
 
-        public void setModified(LocalDateTime modified) {
-            this.modified = modified;
+        @Override
+        public Component getListCellRendererComponent(JList<? extends String> list, String tag, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            int count = facetCounts.getOrDefault(tag, 0);
+            chip.setText("#" + tag + "  " + count);
+            chip.setBackground(isSelected ? ACCENT_YELLOW : SEARCH_BG);
+            chip.setForeground(isSelected ? Color.BLACK : count > 0 ? TEXT_PRIMARY : TEXT_SECONDARY);
+            return chip;
         }
+    }
 
-        public String getFormattedDate() {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMMM d, yyyy 'at' h:mm a");
-            return modified.format(formatter);
-        }
+    private static class CellLabel extends JLabel {
+        private static final long serialVersionUID = 1L;
 
         @Override
-        public String toString() {
-            return title;
-        }
+        public void invalidate() {}
+        @Override
+        public void revalidate() {}
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {}
+        @Override
+        public void repaint(Rectangle r) {}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,491 @@
+package eng.veltic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * The notes engine without any UI: the note set, its search index and its
+ * storage behind one thread-safe API.
+ *
+ * Notes live in a {@link NoteRepository}: reads take lock-free snapshots,
+ * and edits to a note are applied and queued for storage under that note's
+ * stripe lock, so writers only contend when they touch nearby ids. Each
+ * mutation is then reported to the listeners on the calling thread; listeners
+ * that own a UI are expected to hop to their own thread.
+ *
+ * A persistent store also keeps a {@link RevisionHistory} of every note's
+ * content, fed by {@link #updateContent}.
+ */
+class NotesStore implements Closeable {
+    private static final String HISTORY_DIR = "history";
+    private static final int SNIPPET_WIDTH = 80;
+
+    interface Listener {
+        void notesChanged(Change change);
+    }
+
+    /**
+     * One mutation. ADDED may carry many notes (a bulk insert), the other
+     * kinds carry exactly one.
+     */
+    static final class Change {
+        enum Kind { ADDED, UPDATED, REMOVED }
+
+        private final Kind kind;
+        private final List<NoteItem> notes;
+        private final String previousContent;
+
+        Change(Kind kind, List<NoteItem> notes) {
+            this(kind, notes, null);
+        }
+
+        Change(Kind kind, List<NoteItem> notes, String previousContent) {
+            this.kind = kind;
+            this.notes = notes;
+            this.previousContent = previousContent;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public List<NoteItem> getNotes() {
+            return notes;
+        }
+
+        /**
+         * The content an UPDATED note had before, or null if the update left it alone.
+         */
+        public String getPreviousContent() {
+            return previousContent;
+        }
+    }
+
+    private final StorageEngine storage;
+    private final RevisionHistory history;
+    private final NoteBodies bodies;
+    private final NoteIndex index = new NoteIndex();
+    // Insertion order is the list order the UI shows
+    private final NoteRepository notes;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param storage where notes are persisted, or null to keep them in memory only
+     * @param history where past revisions are kept, or null to keep none
+     */
+    NotesStore(StorageEngine storage, RevisionHistory history, long bodyCacheChars) {
+        this.storage = storage;
+        this.history = history;
+        this.bodies = storage != null ? new NoteBodies(storage, bodyCacheChars) : null;
+        if (storage != null) {
+            storage.setRecentlyRead(bodies::isCached);
+        }
+        List<NoteItem> loaded = storage != null ? storage.loadedNotes(bodies) : Collections.emptyList();
+        this.notes = new NoteRepository(loaded.size());
+        index.addAll(loaded);
+        notes.addAll(loaded);
+    }
+
+    public static NotesStore open(Path dir, long bodyCacheChars) throws IOException {
+        StorageEngine storage = StorageEngine.open(dir);
+        RevisionHistory history;
+        try {
+            history = RevisionHistory.open(dir.resolve(HISTORY_DIR));
+        } catch (IOException e) {
+            storage.close();
+            throw e;
+        }
+        return new NotesStore(storage, history, bodyCacheChars);
+    }
+
+    public static NotesStore inMemory() {
+        return new NotesStore(null, null, 0);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public NoteItem create(String title, String content) {
+        NoteItem note = new NoteItem(title, content);
+        addAll(Collections.singletonList(note));
+        return note;
+    }
+
+    /**
+     * Adds the notes in order and reports them as one change.
+     */
+    public void addAll(Collection<NoteItem> added) {
+        checkOpen();
+        List<NoteItem> copy = new ArrayList<>(added);
+        // Stored before they become visible, so no one can delete a note ahead of its put
+        for (NoteItem note : copy) {
+            synchronized (notes.stripe(note.getId())) {
+                index.add(note);
+                persist(note);
+            }
+        }
+        notes.addAll(copy);
+        fire(new Change(Change.Kind.ADDED, copy));
+    }
+
+    public NoteItem duplicate(NoteItem note) {
+        NoteItem copy = new NoteItem(note.getTitle() + " (Copy)", note.getContent());
+        copy.setTags(note.getTags());
+        addAll(Collections.singletonList(copy));
+        return copy;
+    }
+
+    public boolean rename(NoteItem note, String title) {
+        checkOpen();
+        synchronized (notes.stripe(note.getId())) {
+            if (!notes.contains(note.getId())) {
+                return false;
+            }
+            note.setTitle(title);
+            index.update(note);
+            persist(note);
+        }
+        fire(new Change(Change.Kind.UPDATED, Collections.singletonList(note)));
+        return true;
+    }
+
+    public boolean setTags(NoteItem note, Collection<String> tags) {
+        checkOpen();
+        synchronized (notes.stripe(note.getId())) {
+            if (!notes.contains(note.getId())) {
+                return false;
+            }
+            note.setTags(tags);
+            index.update(note);
+            persist(note);
+        }
+        fire(new Change(Change.Kind.UPDATED, Collections.singletonList(note)));
+        return true;
+    }
+
+    public boolean updateContent(NoteItem note, String content) {
+        return updateContent(note, content, note.getModified());
+    }
+
+    /**
+     * Like {@link #updateContent(NoteItem, String)}, for a caller that has
+     * already stamped the note with the edit's time, as the editor does while
+     * typing.
+     *
+     * @param previousModified when the content being replaced was last modified
+     */
+    public boolean updateContent(NoteItem note, String content, long previousModified) {
+        checkOpen();
+        String previous;
+        synchronized (notes.stripe(note.getId())) {
+            if (!notes.contains(note.getId())) {
+                return false;
+            }
+            previous = note.getContent();
+            if (history != null && !history.hasRevisions(note.getId())) {
+                // The note's first edit also keeps the version it started from
+                history.record(note.getId(), previousModified, note.getTitle(), previous);
+            }
+            note.setContent(content);
+            note.setModified(System.currentTimeMillis());
+            index.update(note);
+            persist(note);
+            if (history != null) {
+                history.record(note.getId(), note.getModified(), note.getTitle(), content);
+            }
+        }
+        fire(new Change(Change.Kind.UPDATED, Collections.singletonList(note), previous));
+        return true;
+    }
+
+    /**
+     * Overwrites a note with a version made elsewhere, such as on another
+     * device, keeping that version's modified time. Its history records the
+     * overwritten version the way {@link #updateContent} would.
+     */
+    public boolean replace(NoteItem note, String title, List<String> tags, String content, long modified) {
+        checkOpen();
+        synchronized (notes.stripe(note.getId())) {
+            if (!notes.contains(note.getId())) {
+                return false;
+            }
+            if (history != null && !history.hasRevisions(note.getId())) {
+                history.record(note.getId(), note.getModified(), note.getTitle(), note.getContent());
+            }
+            note.setTitle(title);
+            note.setTags(tags);
+            note.setContent(content);
+            note.setModified(modified);
+            index.update(note);
+            persist(note);
+            if (history != null) {
+                history.record(note.getId(), modified, title, content);
+            }
+        }
+        fire(new Change(Change.Kind.UPDATED, Collections.singletonList(note)));
+        return true;
+    }
+
+    public boolean delete(NoteItem note) {
+        checkOpen();
+        synchronized (notes.stripe(note.getId())) {
+            if (!notes.remove(note)) {
+                return false;
+            }
+            index.remove(note);
+            if (storage != null) {
+                storage.delete(note.getId());
+                bodies.evict(note.getId());
+            }
+            if (history != null) {
+                history.forget(note.getId());
+            }
+        }
+        fire(new Change(Change.Kind.REMOVED, Collections.singletonList(note)));
+        return true;
+    }
+
+    public NoteItem get(long id) {
+        return notes.get(id);
+    }
+
+    public int size() {
+        return notes.size();
+    }
+
+    /**
+     * All notes in list order, as an immutable snapshot that costs nothing to
+     * take and is unaffected by later changes.
+     */
+    public List<NoteItem> notes() {
+        return notes.snapshot();
+    }
+
+    public List<NoteItem> search(String query) {
+        return index.search(query);
+    }
+
+    /**
+     * See {@link NoteIndex#search(String, BooleanSupplier)}. Writers are never
+     * held up by a long search.
+     */
+    public List<NoteItem> search(String query, BooleanSupplier cancelled) {
+        return index.search(query, cancelled);
+    }
+
+    /**
+     * See {@link NoteIndex#catchUp}; meant for a background thread while the
+     * app is otherwise idle.
+     */
+    public void catchUpIndex(BooleanSupplier cancelled) {
+        index.catchUp(cancelled);
+    }
+
+    /**
+     * The note's past versions, oldest first; always empty for an in-memory
+     * store.
+     */
+    public List<RevisionHistory.Revision> revisions(NoteItem note) {
+        return history != null ? history.revisions(note.getId()) : Collections.emptyList();
+    }
+
+    /**
+     * Rebuilds the text of one of the note's revisions in the background.
+     */
+    public CompletableFuture<String> revisionText(NoteItem note, RevisionHistory.Revision revision) {
+        if (history == null) {
+            return CompletableFuture.failedFuture(new IOException("This store keeps no history"));
+        }
+        return history.text(note.getId(), revision.number);
+    }
+
+    /**
+     * See {@link NoteIndex#filter(String, Collection, BooleanSupplier)}. For a
+     * text query the first {@code snippets} notes also get a snippet; their
+     * bodies are read after the index lock is released.
+     */
+    public NoteIndex.Result filter(String query, Collection<String> tags, int snippets, BooleanSupplier cancelled) {
+        NoteIndex.Result result = index.filter(query, tags, cancelled);
+        if (result.words.isEmpty() || snippets == 0) {
+            return result;
+        }
+        Map<NoteItem, NoteIndex.Snippet> excerpts = new HashMap<>();
+        for (NoteItem note : result.notes.subList(0, Math.min(snippets, result.notes.size()))) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            try {
+                excerpts.put(note, NoteIndex.Snippet.of(note.loadContent(), result.words, SNIPPET_WIDTH));
+            } catch (UncheckedIOException e) {
+                // Listed without a snippet
+            }
+        }
+        return result.withSnippets(excerpts);
+    }
+
+    /**
+     * Writes every note to {@code target}, reporting the running count to
+     * {@code progress} every {@code progressStep} notes. Stops between notes
+     * once {@code cancelled} reports true and removes the partial file.
+     */
+    public int export(Path target, ExportFormat format, int progressStep, IntConsumer progress,
+                      BooleanSupplier cancelled) throws IOException {
+        List<NoteItem> snapshot = notes();
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             ExportFormat.Sink sink = format.open(channel)) {
+            for (NoteItem note : snapshot) {
+                if (cancelled.getAsBoolean()) {
+                    break;
+                }
+                sink.write(note, note.loadContent());
+                written++;
+                if (written % progressStep == 0 || written == snapshot.size()) {
+                    progress.accept(written);
+                }
+            }
+        }
+        if (cancelled.getAsBoolean()) {
+            Files.deleteIfExists(target);
+        }
+        return written;
+    }
+
+    /**
+     * Completes once everything changed so far is durable; immediately for an
+     * in-memory store. Changes a failed sync left unwritten are written again
+     * first, so calling it again is how to retry.
+     */
+    public CompletableFuture<Void> sync() {
+        return storage != null ? storage.sync() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Bytes written to storage since the store was opened.
+     */
+    public long bytesWritten() {
+        return storage != null ? storage.bytesWritten() : 0;
+    }
+
+    public boolean isPersistent() {
+        return storage != null;
+    }
+
+    /**
+     * Where the note bodies are: how many are on the heap and roughly what
+     * they take there, with and without notes sharing equal bodies, and, for
+     * a persistent store, what they take on disk. Reads the snapshot's
+     * tables, so not for the EDT.
+     */
+    public Footprint footprint() throws IOException {
+        if (storage == null) {
+            Map<String, Boolean> seen = new IdentityHashMap<>();
+            long bytes = 0;
+            long referenced = 0;
+            for (NoteItem note : notes()) {
+                String content = note.getContent();
+                long size = NoteBodies.heapBytes(content);
+                referenced += size;
+                bytes += seen.put(content, Boolean.TRUE) == null ? size : 0;
+            }
+            return new Footprint(size(), size(), bytes, referenced, null);
+        }
+        return new Footprint(size(), bodies.cachedBodies(), bodies.residentBytes(), bodies.referencedBytes(),
+                storage.footprint());
+    }
+
+    static final class Footprint {
+        final int notes;
+        final int bodiesInHeap;
+        final long heapBytes;
+        // What the bodies on the heap would take if none were shared
+        final long referencedHeapBytes;
+        // Null for an in-memory store
+        final StorageEngine.Footprint disk;
+
+        Footprint(int notes, int bodiesInHeap, long heapBytes, long referencedHeapBytes,
+                  StorageEngine.Footprint disk) {
+            this.notes = notes;
+            this.bodiesInHeap = bodiesInHeap;
+            this.heapBytes = heapBytes;
+            this.referencedHeapBytes = referencedHeapBytes;
+            this.disk = disk;
+        }
+    }
+
+    /**
+     * See {@link StorageEngine#hasColdBodiesStoredAsIs}.
+     */
+    public boolean hasColdBodiesStoredAsIs() {
+        return storage != null && storage.hasColdBodiesStoredAsIs();
+    }
+
+    /**
+     * See {@link StorageEngine#compactCold}; completes at once for an
+     * in-memory store.
+     */
+    public CompletableFuture<Void> compactCold() {
+        return storage != null ? storage.compactCold() : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            if (history != null) {
+                history.close();
+            }
+        } finally {
+            if (storage != null) {
+                storage.close();
+            }
+        }
+    }
+
+    private void persist(NoteItem note) {
+        if (storage != null) {
+            storage.put(note);
+            note.attach(bodies);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Notes store is closed");
+        }
+    }
+
+    private void fire(Change change) {
+        for (Listener listener : listeners) {
+            listener.notesChanged(change);
+        }
+    }
+}
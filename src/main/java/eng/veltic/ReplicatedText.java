@@ -0,0 +1,626 @@
+package eng.veltic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A note body that several replicas can edit at once and merge without
+ * losing anyone's typing: a sequence CRDT in the style of YATA.
+ *
+ * Every char ever inserted has an id, its replica and a per-replica clock,
+ * and remembers the ids it was typed between. A remote insert goes back
+ * between the same two chars; concurrent inserts at one spot are ordered by
+ * the YATA rules, so all copies that saw the same edits hold the same text
+ * whatever order the edits arrived in. Deleted chars stay behind as
+ * tombstones, without their text, so later inserts can still refer to them.
+ *
+ * Storage is run-length encoded: a run is a stretch of chars one replica
+ * typed left to right, kept as a length and a slice of one append-only
+ * buffer, so typing a paragraph costs one run and memory stays close to the
+ * text's own size. Runs form a linked list; an index from id to run serves
+ * merges, and a cursor remembering the last run an offset fell in makes
+ * typing near the previous edit constant time.
+ *
+ * Every copy starts from the same base text, whose chars belong to replica
+ * 0, and {@link #encodeOps()} carries only what happened since. Not
+ * thread-safe.
+ */
+final class ReplicatedText {
+    private static final long BASE = 0;
+    private static final byte FORMAT = 1;
+    private static final int HAS_LEFT = 1;
+    private static final int HAS_RIGHT = 2;
+    private static final int DELETED = 4;
+    // An origin that is the start or end of the text
+    private static final int NONE = -1;
+
+    private final long replica;
+    private final String base;
+    private final int baseHash;
+    // Everything inserted here or merged in, in arrival order; runs point into it
+    private final StringBuilder added = new StringBuilder();
+    private final Map<Long, TreeMap<Integer, Run>> index = new HashMap<>();
+    private Run head;
+    private int length;
+    private int runs;
+    private int nextClock;
+    private int nextSeq;
+    // The run the last offset was found in, and the offset it starts at
+    private Run cursor;
+    private int cursorStart;
+    private String text;
+
+    private static final class Run {
+        final long replica;
+        final int clock;
+        int length;
+        boolean deleted;
+        // The ids the first char was inserted between, NONE for either end
+        final long leftReplica;
+        final int leftClock;
+        final long rightReplica;
+        final int rightClock;
+        final CharSequence chars;
+        final int from;
+        // Integration order here, which puts every run after the runs it refers to
+        final int seq;
+        Run prev;
+        Run next;
+
+        Run(long replica, int clock, int length, long leftReplica, int leftClock, long rightReplica, int rightClock,
+            CharSequence chars, int from, int seq) {
+            this.replica = replica;
+            this.clock = clock;
+            this.length = length;
+            this.leftReplica = leftReplica;
+            this.leftClock = leftClock;
+            this.rightReplica = rightReplica;
+            this.rightClock = rightClock;
+            this.chars = chars;
+            this.from = from;
+            this.seq = seq;
+        }
+
+        int visible() {
+            return deleted ? 0 : length;
+        }
+
+        int end() {
+            return clock + length;
+        }
+    }
+
+    private ReplicatedText(String base, long replica) {
+        this.base = base;
+        this.baseHash = base.hashCode();
+        this.replica = replica;
+        if (!base.isEmpty()) {
+            Run run = new Run(BASE, 0, base.length(), BASE, NONE, BASE, NONE, base, 0, nextSeq++);
+            linkAfter(null, run);
+            length = base.length();
+        }
+        text = base;
+    }
+
+    /**
+     * A copy of the base text that edits as the given replica, which must not be 0.
+     */
+    static ReplicatedText fromBase(String base, long replica) {
+        if (replica == BASE) {
+            throw new IllegalArgumentException("Replica id 0 is reserved for the base text");
+        }
+        return new ReplicatedText(base, replica);
+    }
+
+    String base() {
+        return base;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Runs held, tombstones included: the storage cost beyond the chars.
+     */
+    int runs() {
+        return runs;
+    }
+
+    @Override
+    public String toString() {
+        if (text == null) {
+            StringBuilder out = new StringBuilder(length);
+            for (Run run = head; run != null; run = run.next) {
+                if (!run.deleted) {
+                    out.append(run.chars, run.from, run.from + run.length);
+                }
+            }
+            text = out.toString();
+        }
+        return text;
+    }
+
+    void insert(int offset, String inserted) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of bounds for length " + length);
+        }
+        if (inserted.isEmpty()) {
+            return;
+        }
+        text = null;
+        Run left = null;
+        if (offset > 0) {
+            left = seek(offset - 1);
+            int at = offset - cursorStart;
+            if (at == left.length && appendable(left)) {
+                added.append(inserted);
+                left.length += inserted.length();
+                nextClock += inserted.length();
+                length += inserted.length();
+                return;
+            }
+            if (at < left.length) {
+                split(left, at);
+            }
+        }
+        Run right = left != null ? left.next : head;
+        Run run = new Run(replica, nextClock, inserted.length(),
+                left != null ? left.replica : BASE, left != null ? left.end() - 1 : NONE,
+                right != null ? right.replica : BASE, right != null ? right.clock : NONE,
+                added, added.length(), nextSeq++);
+        added.append(inserted);
+        nextClock += inserted.length();
+        length += inserted.length();
+        linkAfter(left, run);
+        cursor = run;
+        cursorStart = offset;
+    }
+
+    void delete(int offset, int count) {
+        if (offset < 0 || count < 0 || offset > length - count) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + count + " out of bounds for length "
+                    + length);
+        }
+        if (count == 0) {
+            return;
+        }
+        text = null;
+        Run run = seek(offset);
+        if (offset > cursorStart) {
+            run = split(run, offset - cursorStart);
+        }
+        Run anchor = run.prev;
+        int remaining = count;
+        while (remaining > 0) {
+            if (!run.deleted) {
+                if (run.length > remaining) {
+                    split(run, remaining);
+                }
+                run.deleted = true;
+                remaining -= run.length;
+                length -= run.length;
+            }
+            run = run.next;
+        }
+        // Pieces of one run on either side of a split come back together once both are gone
+        Run stop = run != null ? run.next : null;
+        for (Run r = anchor != null ? anchor : head; r != null && r.next != null && r.next != stop; ) {
+            if (continues(r, r.next) && r.deleted == r.next.deleted) {
+                absorbNext(r);
+            } else {
+                r = r.next;
+            }
+        }
+        cursor = anchor != null ? anchor : head;
+        cursorStart = anchor != null ? offset - anchor.visible() : 0;
+    }
+
+    /**
+     * Edits the text into {@code target} as one deletion and one insertion
+     * between their common prefix and suffix.
+     */
+    void update(String target) {
+        String current = toString();
+        int limit = Math.min(current.length(), target.length());
+        int prefix = 0;
+        while (prefix < limit && current.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && current.charAt(current.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+            suffix++;
+        }
+        delete(prefix, current.length() - prefix - suffix);
+        insert(prefix, target.substring(prefix, target.length() - suffix));
+        text = target;
+    }
+
+    // The run holding visible char pos, walking from the cursor or the head, whichever is nearer
+    private Run seek(int pos) {
+        Run run = cursor;
+        int start = cursorStart;
+        if (run == null || pos < start - pos) {
+            run = head;
+            start = 0;
+        }
+        while (pos < start) {
+            run = run.prev;
+            start -= run.visible();
+        }
+        while (run.deleted || pos >= start + run.length) {
+            start += run.visible();
+            run = run.next;
+        }
+        cursor = run;
+        cursorStart = start;
+        return run;
+    }
+
+    // Whether typing after the run's last char can extend it rather than start a new one
+    private boolean appendable(Run run) {
+        if (run.replica != replica || run.end() != nextClock || run.deleted || run.chars != added
+                || run.from + run.length != added.length()) {
+            return false;
+        }
+        Run next = run.next;
+        return next == null ? run.rightClock == NONE
+                : next.replica == run.rightReplica && next.clock == run.rightClock;
+    }
+
+    // Whether b holds the chars typed right after a's, so the two can be one run
+    private static boolean continues(Run a, Run b) {
+        return a.replica == b.replica && a.end() == b.clock && b.leftReplica == a.replica
+                && b.leftClock == a.end() - 1 && b.rightReplica == a.rightReplica && b.rightClock == a.rightClock
+                && a.chars == b.chars && a.from + a.length == b.from && a.seq == b.seq;
+    }
+
+    // Cuts the run before its char at, returning the second piece
+    private Run split(Run run, int at) {
+        Run right = new Run(run.replica, run.clock + at, run.length - at, run.replica, run.clock + at - 1,
+                run.rightReplica, run.rightClock, run.chars, run.from + at, run.seq);
+        right.deleted = run.deleted;
+        run.length = at;
+        linkAfter(run, right);
+        return right;
+    }
+
+    private void absorbNext(Run run) {
+        Run next = run.next;
+        run.length += next.length;
+        run.next = next.next;
+        if (next.next != null) {
+            next.next.prev = run;
+        }
+        index.get(next.replica).remove(next.clock);
+        runs--;
+        if (cursor == next) {
+            cursor = null;
+        }
+    }
+
+    private void linkAfter(Run left, Run run) {
+        run.prev = left;
+        run.next = left != null ? left.next : head;
+        if (run.next != null) {
+            run.next.prev = run;
+        }
+        if (left != null) {
+            left.next = run;
+        } else {
+            head = run;
+        }
+        index.computeIfAbsent(run.replica, r -> new TreeMap<>()).put(run.clock, run);
+        runs++;
+    }
+
+    private Run find(long replica, int clock) {
+        TreeMap<Integer, Run> runs = index.get(replica);
+        Map.Entry<Integer, Run> entry = runs != null ? runs.floorEntry(clock) : null;
+        return entry != null && clock < entry.getValue().end() ? entry.getValue() : null;
+    }
+
+    /**
+     * Everything inserted or deleted since the base, for another copy of the
+     * same base to {@link #merge}.
+     */
+    byte[] encodeOps() {
+        List<Run> inserted = new ArrayList<>();
+        List<Run> baseDeleted = new ArrayList<>();
+        for (Run run = head; run != null; run = run.next) {
+            if (run.replica != BASE) {
+                inserted.add(run);
+            } else if (run.deleted) {
+                baseDeleted.add(run);
+            }
+        }
+        inserted.sort(Comparator.comparingInt((Run run) -> run.seq).thenComparingInt(run -> run.clock));
+        Map<Long, Integer> replicas = new LinkedHashMap<>();
+        replicas.put(BASE, 0);
+        for (Run run : inserted) {
+            replicas.putIfAbsent(run.replica, replicas.size());
+            replicas.putIfAbsent(run.leftReplica, replicas.size());
+            replicas.putIfAbsent(run.rightReplica, replicas.size());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT);
+        writeVarint(out, base.length());
+        writeInt(out, baseHash);
+        writeVarint(out, replicas.size());
+        for (long id : replicas.keySet()) {
+            writeInt(out, (int) (id >>> 32));
+            writeInt(out, (int) id);
+        }
+        writeVarint(out, inserted.size());
+        for (Run run : inserted) {
+            writeVarint(out, replicas.get(run.replica));
+            writeVarint(out, run.clock);
+            writeVarint(out, run.length);
+            out.write((run.leftClock != NONE ? HAS_LEFT : 0) | (run.rightClock != NONE ? HAS_RIGHT : 0)
+                    | (run.deleted ? DELETED : 0));
+            if (run.leftClock != NONE) {
+                writeVarint(out, replicas.get(run.leftReplica));
+                writeVarint(out, run.leftClock);
+            }
+            if (run.rightClock != NONE) {
+                writeVarint(out, replicas.get(run.rightReplica));
+                writeVarint(out, run.rightClock);
+            }
+            if (!run.deleted) {
+                for (int i = 0; i < run.length; i++) {
+                    writeVarint(out, run.chars.charAt(run.from + i));
+                }
+            }
+        }
+        writeVarint(out, baseDeleted.size());
+        for (Run run : baseDeleted) {
+            writeVarint(out, run.clock);
+            writeVarint(out, run.length);
+        }
+        return out.toByteArray();
+    }
+
+    // One decoded insert
+    private static final class Insert {
+        long replica;
+        int clock;
+        int length;
+        long leftReplica = BASE;
+        int leftClock = NONE;
+        long rightReplica = BASE;
+        int rightClock = NONE;
+        boolean deleted;
+        String chars;
+    }
+
+    /**
+     * Applies another copy's {@link #encodeOps()}; what this copy already
+     * has is skipped, so merging the same ops twice is harmless.
+     *
+     * @return false, leaving this copy untouched, if the ops were made from a different base
+     * @throws IOException if they are malformed or refer to chars neither copy's base has
+     */
+    boolean merge(byte[] ops) throws IOException {
+        List<Insert> inserts = new ArrayList<>();
+        int[] deletes;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(ops);
+            if (in.get() != FORMAT) {
+                throw new IOException("Unknown text ops format");
+            }
+            if (readVarint(in) != base.length() || in.getInt() != baseHash) {
+                return false;
+            }
+            long[] replicas = new long[readVarint(in)];
+            for (int i = 0; i < replicas.length; i++) {
+                replicas[i] = in.getLong();
+            }
+            int count = readVarint(in);
+            for (int i = 0; i < count; i++) {
+                Insert insert = new Insert();
+                insert.replica = replica(replicas, readVarint(in));
+                insert.clock = readVarint(in);
+                insert.length = readVarint(in);
+                int flags = in.get();
+                if ((flags & HAS_LEFT) != 0) {
+                    insert.leftReplica = replica(replicas, readVarint(in));
+                    insert.leftClock = readVarint(in);
+                }
+                if ((flags & HAS_RIGHT) != 0) {
+                    insert.rightReplica = replica(replicas, readVarint(in));
+                    insert.rightClock = readVarint(in);
+                }
+                insert.deleted = (flags & DELETED) != 0;
+                if (insert.replica == BASE || insert.length <= 0
+                        || !insert.deleted && insert.length > in.remaining()) {
+                    throw new IOException("Bad insert in text ops");
+                }
+                if (!insert.deleted) {
+                    StringBuilder chars = new StringBuilder(insert.length);
+                    for (int c = 0; c < insert.length; c++) {
+                        chars.append((char) readVarint(in));
+                    }
+                    insert.chars = chars.toString();
+                }
+                inserts.add(insert);
+            }
+            deletes = new int[readVarint(in) * 2];
+            for (int i = 0; i < deletes.length; i += 2) {
+                deletes[i] = readVarint(in);
+                deletes[i + 1] = readVarint(in);
+                if (deletes[i] > base.length() - deletes[i + 1]) {
+                    throw new IOException("Text ops delete past the base");
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated text ops", e);
+        }
+
+        text = null;
+        cursor = null;
+        // In order each insert's neighbours come first; a copy merged out of order may need more passes
+        List<Insert> pending = inserts;
+        while (!pending.isEmpty()) {
+            List<Insert> waiting = new ArrayList<>();
+            for (Insert insert : pending) {
+                if (!integrate(insert)) {
+                    waiting.add(insert);
+                }
+            }
+            if (waiting.size() == pending.size()) {
+                throw new IOException("Text ops refer to " + waiting.size() + " inserts this copy never saw");
+            }
+            pending = waiting;
+        }
+        for (int i = 0; i < deletes.length; i += 2) {
+            deleteIds(BASE, deletes[i], deletes[i + 1]);
+        }
+        return true;
+    }
+
+    // False if a char the insert was typed next to has not arrived yet
+    private boolean integrate(Insert insert) throws IOException {
+        int known = 0;
+        while (known < insert.length) {
+            Run run = find(insert.replica, insert.clock + known);
+            if (run == null) {
+                break;
+            }
+            known = run.end() - insert.clock;
+        }
+        known = Math.min(known, insert.length);
+        if (known > 0 && insert.deleted) {
+            deleteIds(insert.replica, insert.clock, known);
+        }
+        if (known == insert.length) {
+            return true;
+        }
+
+        // What is already here stands in as the rest's left neighbour
+        long leftReplica = known > 0 ? insert.replica : insert.leftReplica;
+        int leftClock = known > 0 ? insert.clock + known - 1 : insert.leftClock;
+        Run left = leftClock != NONE ? find(leftReplica, leftClock) : null;
+        if (leftClock != NONE && left == null
+                || insert.rightClock != NONE && find(insert.rightReplica, insert.rightClock) == null) {
+            return false;
+        }
+        if (left != null && leftClock < left.end() - 1) {
+            split(left, leftClock - left.clock + 1);
+        }
+        // Found after cutting the left one, which may have been the same run
+        Run right = insert.rightClock != NONE ? find(insert.rightReplica, insert.rightClock) : null;
+        if (right != null && insert.rightClock > right.clock) {
+            right = split(right, insert.rightClock - right.clock);
+        }
+
+        // YATA: of the runs between the two neighbours, skip those that belong before this one
+        Set<Run> conflicting = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Run> passed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Run o = left != null ? left.next : head; o != null && o != right; o = o.next) {
+            passed.add(o);
+            conflicting.add(o);
+            if (o.leftReplica == leftReplica && o.leftClock == leftClock) {
+                if (o.replica < insert.replica) {
+                    left = o;
+                    conflicting.clear();
+                } else if (o.rightReplica == insert.rightReplica && o.rightClock == insert.rightClock) {
+                    break;
+                }
+            } else if (o.leftClock != NONE && passed.contains(find(o.leftReplica, o.leftClock))) {
+                if (!conflicting.contains(find(o.leftReplica, o.leftClock))) {
+                    left = o;
+                    conflicting.clear();
+                }
+            } else {
+                break;
+            }
+        }
+
+        int count = insert.length - known;
+        Run run = new Run(insert.replica, insert.clock + known, count, leftReplica, leftClock,
+                insert.rightReplica, insert.rightClock, added, added.length(), nextSeq++);
+        if (insert.deleted) {
+            run.deleted = true;
+        } else {
+            added.append(insert.chars, known, insert.length);
+            length += count;
+        }
+        linkAfter(left, run);
+        if (insert.replica == replica) {
+            nextClock = Math.max(nextClock, run.end());
+        }
+        return true;
+    }
+
+    private void deleteIds(long replica, int clock, int count) throws IOException {
+        int done = 0;
+        while (done < count) {
+            Run run = find(replica, clock + done);
+            if (run == null) {
+                throw new IOException("Text ops delete chars this copy never saw");
+            }
+            if (clock + done > run.clock) {
+                run = split(run, clock + done - run.clock);
+            }
+            if (run.length > count - done) {
+                split(run, count - done);
+            }
+            if (!run.deleted) {
+                run.deleted = true;
+                length -= run.length;
+            }
+            done += run.length;
+        }
+    }
+
+    private static long replica(long[] replicas, int index) throws IOException {
+        if (index >= replicas.length) {
+            throw new IOException("Text ops refer to replica " + index + " of " + replicas.length);
+        }
+        return replicas[index];
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in text ops");
+    }
+}
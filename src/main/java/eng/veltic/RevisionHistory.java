@@ -0,0 +1,465 @@
+package eng.veltic;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Past versions of every note's content, in an append-only log next to the
+ * notes.
+ *
+ * Each committed edit is recorded as a revision holding either the full text
+ * (a keyframe) or a {@link TextDelta} against the note's previous revision. A
+ * new keyframe starts once the chain since the last one reaches
+ * {@link #MAX_CHAIN} deltas or its deltas would outweigh a full copy, so any
+ * revision is rebuilt from one keyframe and a bounded number of deltas.
+ *
+ * Only revision metadata is held in memory. Every file access, whether
+ * appending, reading a revision for the timeline or pruning, runs on one
+ * background thread. The prune thins old revisions out, keeping everything
+ * from the last day, the newest per hour for a week and the newest per day
+ * after that, and rewrites the log without the rest.
+ */
+class RevisionHistory implements Closeable {
+    private static final String LOG_NAME = "revisions.log";
+    private static final int MAX_CHAIN = 32;
+    private static final int MAX_REVISIONS = 500;
+    private static final int CACHED_TEXTS = 32;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long WEEK = 7 * DAY;
+    private static final long PRUNE_DELAY_MINUTES = 1;
+    private static final long PRUNE_PERIOD_MINUTES = 60;
+
+    private static final byte KEYFRAME = 1;
+    private static final byte DELTA = 2;
+    private static final byte FORGET = 3;
+
+    /**
+     * One stored version of a note. Numbers count up per note and survive
+     * pruning, so they identify a revision even after the log is rewritten.
+     */
+    static final class Revision {
+        final int number;
+        final long time;
+        final String title;
+        // Length of the text in chars, and what the record costs on disk
+        final int length;
+        final int storedBytes;
+        final boolean keyframe;
+        private final long offset;
+
+        Revision(int number, long time, String title, int length, int storedBytes, boolean keyframe, long offset) {
+            this.number = number;
+            this.time = time;
+            this.title = title;
+            this.length = length;
+            this.storedBytes = storedBytes;
+            this.keyframe = keyframe;
+            this.offset = offset;
+        }
+    }
+
+    private final Path dir;
+    private final Path file;
+    // Oldest first; each list is immutable and replaced whole, so any thread may read it
+    private final Map<Long, List<Revision>> revisions;
+    private final ScheduledExecutorService worker;
+    // The rest is only touched on the worker thread
+    private final Map<Long, String> latestTexts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > CACHED_TEXTS;
+        }
+    };
+    private FileChannel log;
+    private long logSize;
+    // Bytes of forgotten notes still in the log, dropped by the next prune
+    private long deadBytes;
+    private volatile IOException lastError;
+
+    private RevisionHistory(Path dir, Path file, Map<Long, List<Revision>> revisions, FileChannel log,
+                            long logSize, long deadBytes) {
+        this.dir = dir;
+        this.file = file;
+        this.revisions = revisions;
+        this.log = log;
+        this.logSize = logSize;
+        this.deadBytes = deadBytes;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notes-history");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.scheduleWithFixedDelay(this::pruneQuietly, PRUNE_DELAY_MINUTES, PRUNE_PERIOD_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    public static RevisionHistory open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve(LOG_NAME + ".tmp"));
+        Path file = dir.resolve(LOG_NAME);
+
+        Map<Long, List<Revision>> chains = new HashMap<>();
+        long[] dead = new long[1];
+        long end = 0;
+        if (Files.exists(file)) {
+            end = StorageEngine.replay(file, (path, offset, payload) -> {
+                ByteBuffer in = ByteBuffer.wrap(payload);
+                byte type = in.get();
+                long id = in.getLong();
+                if (type == FORGET) {
+                    List<Revision> forgotten = chains.remove(id);
+                    dead[0] += StorageEngine.FRAME_HEADER + payload.length + storedBytes(forgotten);
+                } else {
+                    chains.computeIfAbsent(id, k -> new ArrayList<>()).add(decodeRevision(in, offset, payload));
+                }
+            });
+        }
+
+        Map<Long, List<Revision>> revisions = new ConcurrentHashMap<>(Math.max(16, chains.size() * 4 / 3));
+        for (Map.Entry<Long, List<Revision>> chain : chains.entrySet()) {
+            revisions.put(chain.getKey(), List.copyOf(chain.getValue()));
+        }
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (log.size() > end) {
+            // A torn record from a crash mid-append
+            log.truncate(end);
+        }
+        log.position(end);
+        return new RevisionHistory(dir, file, revisions, log, end, dead[0]);
+    }
+
+    /**
+     * The note's revisions, oldest first; empty if it has none.
+     */
+    public List<Revision> revisions(long noteId) {
+        return revisions.getOrDefault(noteId, List.of());
+    }
+
+    public boolean hasRevisions(long noteId) {
+        return revisions.containsKey(noteId);
+    }
+
+    /**
+     * Queues a new revision. Nothing is stored if the text equals the note's
+     * latest revision.
+     */
+    public void record(long noteId, long time, String title, String text) {
+        worker.execute(() -> {
+            try {
+                append(noteId, time, title, text);
+            } catch (IOException e) {
+                lastError = e;
+            }
+        });
+    }
+
+    /**
+     * Queues dropping a deleted note's history.
+     */
+    public void forget(long noteId) {
+        worker.execute(() -> {
+            try {
+                List<Revision> chain = revisions.remove(noteId);
+                if (chain != null) {
+                    latestTexts.remove(noteId);
+                    ByteBuffer payload = ByteBuffer.allocate(1 + 8).put(FORGET).putLong(noteId);
+                    int frame = StorageEngine.writeFrame(log, payload.array());
+                    logSize += frame;
+                    deadBytes += frame + storedBytes(chain);
+                }
+            } catch (IOException e) {
+                lastError = e;
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the text of one revision, completing exceptionally if it was
+     * pruned meanwhile or could not be read.
+     */
+    public CompletableFuture<String> text(long noteId, int number) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return reconstruct(noteId, number);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, worker);
+    }
+
+    /**
+     * Runs a prune now rather than waiting for the next scheduled one.
+     */
+    public CompletableFuture<Void> prune() {
+        return CompletableFuture.runAsync(this::pruneQuietly, worker);
+    }
+
+    /**
+     * Bytes the log takes on disk.
+     */
+    public long sizeOnDisk() {
+        return logSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.force(false);
+        log.close();
+        if (lastError != null) {
+            throw lastError;
+        }
+    }
+
+    private void append(long noteId, long time, String title, String text) throws IOException {
+        List<Revision> chain = revisions.getOrDefault(noteId, List.of());
+        String previous = chain.isEmpty() ? null : latestText(noteId, chain);
+        if (text.equals(previous)) {
+            return;
+        }
+        int number = chain.isEmpty() ? 1 : chain.get(chain.size() - 1).number + 1;
+        Revision revision = encode(log, logSize, noteId, number, time, title, chain, previous, text);
+        logSize += StorageEngine.FRAME_HEADER + revision.storedBytes;
+
+        List<Revision> grown = new ArrayList<>(chain.size() + 1);
+        grown.addAll(chain);
+        grown.add(revision);
+        revisions.put(noteId, List.copyOf(grown));
+        latestTexts.put(noteId, text);
+    }
+
+    private String latestText(long noteId, List<Revision> chain) throws IOException {
+        String text = latestTexts.get(noteId);
+        if (text == null) {
+            text = reconstruct(chain, chain.size() - 1);
+            latestTexts.put(noteId, text);
+        }
+        return text;
+    }
+
+    private String reconstruct(long noteId, int number) throws IOException {
+        List<Revision> chain = revisions(noteId);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            if (chain.get(i).number == number) {
+                return reconstruct(chain, i);
+            }
+        }
+        throw new IOException("Revision " + number + " of note " + noteId + " is no longer kept");
+    }
+
+    // Reads back to the nearest keyframe, then applies the deltas forward
+    private String reconstruct(List<Revision> chain, int index) throws IOException {
+        int start = index;
+        while (!chain.get(start).keyframe) {
+            start--;
+        }
+        String text = null;
+        for (int i = start; i <= index; i++) {
+            byte[] body = readBody(chain.get(i));
+            text = i == start ? new String(body, StandardCharsets.UTF_8) : TextDelta.apply(text, body);
+        }
+        return text;
+    }
+
+    private byte[] readBody(Revision revision) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(revision.storedBytes);
+        long position = revision.offset;
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Truncated revision in " + file);
+            }
+            position += read;
+        }
+        ByteBuffer payload = buffer.flip();
+        payload.position(1 + 8 + 4 + 8);
+        payload.position(payload.position() + 4 + payload.getInt());
+        payload.position(payload.position() + 4);
+        byte[] body = new byte[payload.remaining()];
+        payload.get(body);
+        return body;
+    }
+
+    private void pruneQuietly() {
+        try {
+            prune(System.currentTimeMillis());
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    /**
+     * Rewrites the log with only the revisions the retention policy keeps.
+     * Chains that lose a revision are re-encoded, since a delta only applies
+     * to the revision just before it; untouched chains are copied as they are.
+     */
+    private void prune(long now) throws IOException {
+        Map<Long, boolean[]> thinned = new HashMap<>();
+        for (Map.Entry<Long, List<Revision>> entry : revisions.entrySet()) {
+            boolean[] keep = retained(entry.getValue(), now);
+            for (boolean kept : keep) {
+                if (!kept) {
+                    thinned.put(entry.getKey(), keep);
+                    break;
+                }
+            }
+        }
+        if (thinned.isEmpty() && deadBytes == 0) {
+            return;
+        }
+
+        Path tmp = dir.resolve(LOG_NAME + ".tmp");
+        Map<Long, List<Revision>> rewritten = new HashMap<>();
+        long size = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<Long, List<Revision>> entry : revisions.entrySet()) {
+                long id = entry.getKey();
+                List<Revision> chain = entry.getValue();
+                boolean[] keep = thinned.get(id);
+                List<Revision> kept = new ArrayList<>();
+                String previous = null;
+                String text = null;
+                for (int i = 0; i < chain.size(); i++) {
+                    Revision revision = chain.get(i);
+                    byte[] body = readBody(revision);
+                    Revision copy;
+                    if (keep == null) {
+                        copy = write(out, size, id, revision.number, revision.time, revision.title,
+                                revision.length, revision.keyframe, body);
+                    } else {
+                        text = revision.keyframe ? new String(body, StandardCharsets.UTF_8)
+                                : TextDelta.apply(text, body);
+                        if (!keep[i]) {
+                            continue;
+                        }
+                        copy = encode(out, size, id, revision.number, revision.time, revision.title, kept,
+                                previous, text);
+                        previous = text;
+                    }
+                    kept.add(copy);
+                    size += StorageEngine.FRAME_HEADER + copy.storedBytes;
+                }
+                rewritten.put(id, List.copyOf(kept));
+            }
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        log.close();
+        log = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log.position(size);
+        logSize = size;
+        deadBytes = 0;
+        revisions.putAll(rewritten);
+    }
+
+    // Everything from the last day, the newest per hour for a week, the newest per day after that
+    private static boolean[] retained(List<Revision> chain, long now) {
+        boolean[] keep = new boolean[chain.size()];
+        long lastBucket = Long.MIN_VALUE;
+        int kept = 0;
+        for (int i = chain.size() - 1; i >= 0 && kept < MAX_REVISIONS; i--) {
+            long age = now - chain.get(i).time;
+            long bucket = age < WEEK ? chain.get(i).time / HOUR : -(chain.get(i).time / DAY) - 1;
+            if (i == chain.size() - 1 || age < DAY || bucket != lastBucket) {
+                keep[i] = true;
+                kept++;
+            }
+            lastBucket = bucket;
+        }
+        return keep;
+    }
+
+    /**
+     * Writes text as the revision following {@code chain}, whose last text is
+     * {@code previous}: a delta against it, unless the chain is due a keyframe.
+     */
+    private static Revision encode(FileChannel channel, long position, long noteId, int number, long time,
+                                   String title, List<Revision> chain, String previous, String text)
+            throws IOException {
+        byte[] full = text.getBytes(StandardCharsets.UTF_8);
+        if (previous != null && deltasSinceKeyframe(chain, chain.size()) < MAX_CHAIN) {
+            byte[] delta = TextDelta.encode(previous, text);
+            if (deltaBytesSinceKeyframe(chain, chain.size()) + delta.length <= full.length) {
+                return write(channel, position, noteId, number, time, title, text.length(), false, delta);
+            }
+        }
+        return write(channel, position, noteId, number, time, title, text.length(), true, full);
+    }
+
+    private static int deltasSinceKeyframe(List<Revision> chain, int end) {
+        int count = 0;
+        for (int i = end - 1; i >= 0 && !chain.get(i).keyframe; i--) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long deltaBytesSinceKeyframe(List<Revision> chain, int end) {
+        long bytes = 0;
+        for (int i = end - 1; i >= 0 && !chain.get(i).keyframe; i--) {
+            bytes += chain.get(i).storedBytes;
+        }
+        return bytes;
+    }
+
+    private static long storedBytes(List<Revision> chain) {
+        long bytes = 0;
+        if (chain != null) {
+            for (Revision revision : chain) {
+                bytes += StorageEngine.FRAME_HEADER + revision.storedBytes;
+            }
+        }
+        return bytes;
+    }
+
+    // Payload: type, note id, number, time, title, text length in chars, then the text or delta
+    private static Revision write(FileChannel channel, long position, long noteId, int number, long time,
+                                  String title, int length, boolean keyframe, byte[] body) throws IOException {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 4 + 8 + 4 + titleBytes.length + 4 + body.length);
+        payload.put(keyframe ? KEYFRAME : DELTA).putLong(noteId).putInt(number).putLong(time)
+                .putInt(titleBytes.length).put(titleBytes).putInt(length).put(body);
+        StorageEngine.writeFrame(channel, payload.array());
+        return new Revision(number, time, title, length, payload.capacity(), keyframe,
+                position + StorageEngine.FRAME_HEADER);
+    }
+
+    private static Revision decodeRevision(ByteBuffer in, long offset, byte[] payload) {
+        byte type = payload[0];
+        int number = in.getInt();
+        long time = in.getLong();
+        byte[] titleBytes = new byte[in.getInt()];
+        in.get(titleBytes);
+        int length = in.getInt();
+        return new Revision(number, time, new String(titleBytes, StandardCharsets.UTF_8), length, payload.length,
+                type == KEYFRAME, offset);
+    }
+}
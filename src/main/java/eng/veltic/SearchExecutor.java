@@ -0,0 +1,63 @@
+package eng.veltic;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs searches off the EDT, in the {@link TaskScheduler.Lane#SEARCH} lane. A
+ * search is a text query plus the tags selected in the sidebar, and its result
+ * carries the facet counts and, for the first rows of the list, snippets along
+ * with the ranked matching notes.
+ *
+ * Keystrokes are coalesced by a short debounce: every search is submitted
+ * under the same key, so a new query replaces the one still waiting and
+ * cancels whatever search is still running for an older one. Only results for
+ * a search nothing has superseded are handed back on the EDT.
+ */
+class SearchExecutor {
+    private static final int DEBOUNCE_MS = 120;
+    private static final int SNIPPETS = 100;
+
+    private final NotesStore store;
+    private final TaskScheduler scheduler;
+    private final Consumer<NoteIndex.Result> publisher;
+    private final Object key = new Object();
+    private TaskScheduler.Token pending;
+
+    SearchExecutor(NotesStore store, TaskScheduler scheduler, Consumer<NoteIndex.Result> publisher) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Schedules a search for the query within the tags, superseding any
+     * earlier one. EDT only.
+     */
+    public void submit(String query, Collection<String> tags) {
+        List<String> selected = List.copyOf(tags);
+        pending = scheduler.submit(TaskScheduler.Lane.SEARCH, key, DEBOUNCE_MS, token -> run(query, selected, token));
+    }
+
+    /**
+     * Drops the pending and any in-flight search. EDT only.
+     */
+    public void cancel() {
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+    }
+
+    private void run(String query, List<String> tags, TaskScheduler.Token token) {
+        long start = System.nanoTime();
+        NoteIndex.Result results = store.filter(query, tags, SNIPPETS, token);
+        if (token.isCancelled()) {
+            Metrics.SEARCHES_CANCELLED.increment();
+            return;
+        }
+        Metrics.SEARCH.record(start);
+        scheduler.publish(token, () -> publisher.accept(results));
+    }
+}
@@ -0,0 +1,880 @@
+package eng.veltic;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only note storage.
+ *
+ * Every change is appended to the active log segment as a length-prefixed,
+ * CRC32-checked record. A single writer thread drains whatever has queued up,
+ * writes it and fsyncs once per batch (group commit). Full segments are rolled
+ * and a background compactor folds closed segments into a snapshot, a
+ * memory-mapped {@link NoteDatabase}. On open the snapshot is mapped and the
+ * remaining segments are replayed. Only the newest segment can end in a
+ * record torn by a crash, which is dropped and the file truncated; a record
+ * that fails its check anywhere else is corruption, and opening fails rather
+ * than drop the edits committed after it. A batch that fails to write is
+ * cut off the segment again and written first by the next batch, so the
+ * next {@link #sync} only completes once it is on disk.
+ *
+ * Only note headers are kept in memory, and notes in the snapshot cost nothing
+ * until they are listed. The engine remembers where each note's log record
+ * lives if it changed since the snapshot, so {@link #loadBody} can read a
+ * single body back from either place.
+ *
+ * Snapshots store each distinct chunk of body text once, so a duplicated
+ * note or a template's boilerplate costs a reference per note rather than a
+ * copy; see {@link NoteDatabase}.
+ *
+ * Compaction also tiers the chunks it writes: a note neither edited for
+ * {@link #COLD_AFTER_MS} nor in the body cache (so not read lately either)
+ * is cold, and its chunks are stored deflated under a dictionary trained on
+ * the snapshot's cold notes, carried over from one snapshot to the next. A
+ * store that is mostly read never fills enough segments to compact, so
+ * {@link #hasColdBodiesStoredAsIs} tells the owner when a
+ * {@link #compactCold} would be worth its while.
+ */
+class StorageEngine implements Closeable, NoteBodies.Source {
+    private static final long SEGMENT_LIMIT = 16L << 20;
+    private static final int COMPACT_AFTER_SEGMENTS = 4;
+    private static final int MAX_RECORD_SIZE = 1 << 30;
+    static final long COLD_AFTER_MS = 14L * 24 * 60 * 60 * 1000;
+    // Cold bodies stored as is that make compacting for their sake worth it
+    private static final long RETIER_MIN_BYTES = 1 << 20;
+    // A dictionary is trained once a snapshot has this many cold notes, from at most as many samples
+    private static final int DICTIONARY_MIN_NOTES = 1000;
+    private static final int DICTIONARY_SAMPLES = 4000;
+    static final int FRAME_HEADER = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".db";
+    // Framed snapshots written before the database format; still read, never written
+    private static final String LEGACY_SNAPSHOT_SUFFIX = ".snap";
+
+    private static final Object SHUTDOWN = new Object();
+
+    private final Path dir;
+    private final Map<Long, NoteRecord> recovered;
+    // Snapshot entries that the replayed log changed or deleted, until loadedNotes
+    private BitSet superseded;
+    private NoteDatabase recoveredDatabase;
+    // Log records newer than the snapshot; deletes are kept so they hide the snapshot's copy
+    private final Map<Long, Location> locations;
+    // Records queued but not yet written, so their bodies can still be read
+    private final Map<Long, NoteRecord> unwritten = new ConcurrentHashMap<>();
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // Records of a batch that failed to write, which the next batch writes first; writer thread only
+    private final List<NoteRecord> failed = new ArrayList<>();
+    private final List<Long> closedSegments = new ArrayList<>();
+    private final ExecutorService compactor;
+    private final Thread writer;
+
+    private FileChannel active;
+    private long activeSeq;
+    private long activeSize;
+    // The active segment may hold part of a failed batch past activeSize, to cut off before appending
+    private boolean torn;
+    private long snapshotSeq;
+    private Path snapshotFile;
+    private volatile NoteDatabase database;
+    private volatile IOException lastError;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    // Notes read lately, which stay uncompressed
+    private volatile LongPredicate recentlyRead = id -> false;
+
+    /**
+     * Asks for a compaction that folds the active segment too, so the
+     * snapshot's cold bodies get compressed now.
+     */
+    private static final class Retier {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    /**
+     * What the notes take on disk: the snapshot file, its bodies as text, as
+     * distinct chunks and as stored, its titles, and the log segments not
+     * yet folded into it.
+     */
+    static final class Footprint {
+        long snapshotBytes;
+        long logBytes;
+        int bodies;
+        int chunks;
+        int sharedChunks;
+        int compressedChunks;
+        long storedBodyBytes;
+        long rawBodyBytes;
+        long distinctBodyBytes;
+        // The chunk table and the references from bodies to chunks
+        long chunkTableBytes;
+        int dictionaryBytes;
+        long titleBytes;
+        long storedTitleBytes;
+
+        /**
+         * How many times over the bodies would take the space of their
+         * distinct chunks, if every note stored its own.
+         */
+        double dedupRatio() {
+            return distinctBodyBytes == 0 ? 1 : (double) rawBodyBytes / distinctBodyBytes;
+        }
+    }
+
+    private StorageEngine(Path dir, Map<Long, NoteRecord> recovered, BitSet superseded,
+                          Map<Long, Location> locations, long snapshotSeq, Path snapshotFile,
+                          NoteDatabase database, List<Long> segments) throws IOException {
+        this.dir = dir;
+        this.recovered = recovered;
+        this.superseded = superseded;
+        this.recoveredDatabase = database;
+        this.locations = locations;
+        this.snapshotSeq = snapshotSeq;
+        this.snapshotFile = snapshotFile;
+        this.database = database;
+        this.closedSegments.addAll(segments);
+
+        long lastSeq = segments.isEmpty() ? snapshotSeq : segments.get(segments.size() - 1);
+        openSegment(lastSeq + 1);
+
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "notes-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        writer = new Thread(this::writeLoop, "notes-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        maybeCompact();
+    }
+
+    public static StorageEngine open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.delete(file);
+                } else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)) {
+                    snapshots.put(parseSeq(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX), file);
+                } else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(LEGACY_SNAPSHOT_SUFFIX)) {
+                    snapshots.put(parseSeq(name, SNAPSHOT_PREFIX, LEGACY_SNAPSHOT_SUFFIX), file);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.put(parseSeq(name, SEGMENT_PREFIX, SEGMENT_SUFFIX), file);
+                }
+            }
+        }
+
+        long snapshotSeq = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        Path snapshot = snapshots.isEmpty() ? null : snapshots.lastEntry().getValue();
+        NoteDatabase database = snapshot != null && snapshot.getFileName().toString().endsWith(SNAPSHOT_SUFFIX)
+                ? NoteDatabase.open(snapshot) : null;
+        for (Path older : snapshots.headMap(snapshotSeq).values()) {
+            deleteSnapshot(older);
+        }
+
+        Map<Long, NoteRecord> headers = new LinkedHashMap<>();
+        BitSet superseded = new BitSet();
+        Map<Long, Location> locations = new ConcurrentHashMap<>();
+        FrameConsumer recover = (file, offset, payload) -> {
+            NoteRecord header = NoteRecord.decodeHeader(payload);
+            int entry = database != null ? database.find(header.id) : -1;
+            if (entry >= 0) {
+                superseded.set(entry);
+            }
+            if (header.type == NoteRecord.DELETE) {
+                headers.remove(header.id);
+                locations.put(header.id, Location.deleted(file, offset, payload.length));
+            } else {
+                headers.put(header.id, header);
+                locations.put(header.id, new Location(file, offset, payload.length));
+            }
+        };
+        if (database == null && snapshot != null && replay(snapshot, recover) != Files.size(snapshot)) {
+            throw new IOException("Corrupt snapshot " + snapshot);
+        }
+
+        List<Long> liveSegments = new ArrayList<>();
+        long newest = segments.isEmpty() ? 0 : segments.lastKey();
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            if (entry.getKey() <= snapshotSeq) {
+                // Already folded into the snapshot; the compactor died before deleting it
+                Files.deleteIfExists(entry.getValue());
+                continue;
+            }
+            Path segment = entry.getValue();
+            long end = replay(segment, recover);
+            long size = Files.size(segment);
+            if (end < size && entry.getKey() != newest) {
+                // Closed segments were fsynced whole before the next one was opened
+                throw new IOException("Corrupt log segment " + segment + " at offset " + end);
+            }
+            if (end == 0) {
+                Files.delete(segment);
+                continue;
+            }
+            if (end < size) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+            }
+            liveSegments.add(entry.getKey());
+        }
+
+        return new StorageEngine(dir, headers, superseded, locations, snapshotSeq, snapshot, database,
+                liveSegments);
+    }
+
+    /**
+     * Headers of the notes recovered when the engine was opened, in creation
+     * order. Their bodies are read through {@code bodies} when first needed.
+     */
+    public List<NoteItem> loadedNotes(NoteBodies bodies) {
+        NoteDatabase snapshot = recoveredDatabase;
+        int entries = snapshot != null ? snapshot.size() : 0;
+        List<NoteItem> notes = new ArrayList<>(entries - superseded.cardinality() + recovered.size());
+        // Notes with the same title and tags share them on the heap as they do on disk
+        NoteItem[] sharedTitles = new NoteItem[64];
+        for (int entry = 0; entry < entries; entry++) {
+            if (superseded.get(entry)) {
+                continue;
+            }
+            int sharedTitle = snapshot.sharedTitle(entry);
+            if (sharedTitle >= sharedTitles.length) {
+                sharedTitles = Arrays.copyOf(sharedTitles, Math.max(sharedTitle + 1, sharedTitles.length * 2));
+            }
+            NoteItem shared = sharedTitle >= 0 ? sharedTitles[sharedTitle] : null;
+            String title = shared != null ? shared.getTitle() : snapshot.title(entry);
+            List<String> tags = shared != null ? shared.getTags() : snapshot.tags(entry);
+            NoteItem note = new NoteItem(snapshot.id(entry), title, tags, snapshot.created(entry),
+                    snapshot.modified(entry), bodies);
+            if (sharedTitle >= 0 && shared == null) {
+                sharedTitles[sharedTitle] = note;
+            }
+            notes.add(note);
+        }
+        for (NoteRecord record : recovered.values()) {
+            notes.add(record.toNoteItem(bodies));
+        }
+        // Both parts are already in id order, so this is a single merge
+        notes.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        recovered.clear();
+        recoveredDatabase = null;
+        superseded = null;
+        return notes;
+    }
+
+    public void put(NoteItem note) {
+        NoteRecord record = NoteRecord.put(note);
+        unwritten.put(record.id, record);
+        queue.add(record);
+    }
+
+    public void delete(long id) {
+        unwritten.remove(id);
+        queue.add(NoteRecord.delete(id));
+    }
+
+    @Override
+    public String loadBody(long id) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            NoteRecord pending = unwritten.get(id);
+            if (pending != null) {
+                return pending.content;
+            }
+            Location location = locations.get(id);
+            if (location == null) {
+                NoteDatabase snapshot = database;
+                int entry = snapshot != null ? snapshot.find(id) : -1;
+                if (entry >= 0) {
+                    return snapshot.body(entry);
+                }
+            }
+            if (location == null || location.deleted) {
+                throw new IOException("No stored body for note " + id);
+            }
+            try {
+                return NoteRecord.decode(readPayload(location)).content;
+            } catch (NoSuchFileException e) {
+                // The compactor moved the record between our lookup and the read
+                if (attempt > 0 || Objects.equals(location, locations.get(id))) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells compaction which notes were read lately, so their bodies are not
+     * compressed however long ago they were edited.
+     */
+    public void setRecentlyRead(LongPredicate recentlyRead) {
+        this.recentlyRead = recentlyRead;
+    }
+
+    /**
+     * Whether the snapshot holds enough cold bodies that are not compressed
+     * yet, such as after an upgrade or notes going unedited for a while, for
+     * {@link #compactCold} to be worth it.
+     */
+    public boolean hasColdBodiesStoredAsIs() {
+        NoteDatabase snapshot = database;
+        return snapshot != null && coldBytesStoredAsIs(snapshot) >= RETIER_MIN_BYTES;
+    }
+
+    /**
+     * Folds everything written so far into a new snapshot with the cold
+     * bodies compressed, without waiting for the log to fill up.
+     */
+    public CompletableFuture<Void> compactCold() {
+        Retier retier = new Retier();
+        queue.add(retier);
+        return retier.done;
+    }
+
+    public Footprint footprint() throws IOException {
+        Footprint footprint = new Footprint();
+        NoteDatabase snapshot = database;
+        Path snapshotPath = snapshotFile;
+        if (snapshotPath != null) {
+            try {
+                footprint.snapshotBytes = Files.size(snapshotPath);
+            } catch (NoSuchFileException e) {
+                // Replaced by a compaction just now
+            }
+        }
+        if (snapshot != null) {
+            footprint.bodies = snapshot.size();
+            footprint.chunks = snapshot.chunkCount();
+            footprint.dictionaryBytes = snapshot.dictionary().length;
+            footprint.storedTitleBytes = snapshot.titleRegionLength();
+            footprint.chunkTableBytes = snapshot.chunkTableLength();
+            for (int entry = 0; entry < snapshot.size(); entry++) {
+                footprint.rawBodyBytes += snapshot.bodyLength(entry);
+                footprint.titleBytes += snapshot.titleRunLength(entry);
+            }
+            for (int chunk = 0; chunk < snapshot.chunkCount(); chunk++) {
+                int stored = snapshot.chunkStoredLength(chunk);
+                int rawLength = snapshot.chunkRawLength(chunk);
+                footprint.storedBodyBytes += stored;
+                footprint.distinctBodyBytes += rawLength > 0 ? rawLength : stored;
+                footprint.compressedChunks += rawLength > 0 ? 1 : 0;
+                footprint.sharedChunks += snapshot.chunkReferences(chunk) > 1 ? 1 : 0;
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    footprint.logBytes += Files.size(file);
+                } catch (NoSuchFileException e) {
+                    // Folded and deleted meanwhile
+                }
+            }
+        }
+        return footprint;
+    }
+
+    /**
+     * Completes once everything queued before this call is on disk.
+     */
+    public CompletableFuture<Void> sync() {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        queue.add(barrier);
+        return barrier;
+    }
+
+    /**
+     * Total bytes appended to the log since the engine was opened.
+     */
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        queue.add(SHUTDOWN);
+        try {
+            writer.join();
+            compactor.shutdown();
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        active.close();
+        if (lastError != null) {
+            throw lastError;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        boolean running = true;
+        // The error the records in failed were lost to, until they are written
+        IOException writeFailure = null;
+        while (running) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+
+            // Later edits of the same note supersede earlier ones in the batch, and the failed ones in turn
+            Map<Long, NoteRecord> records = new LinkedHashMap<>();
+            for (NoteRecord record : failed) {
+                records.put(record.id, record);
+            }
+            failed.clear();
+            List<CompletableFuture<Void>> waiters = new ArrayList<>();
+            List<Retier> retiers = new ArrayList<>();
+            for (Object item : batch) {
+                if (item instanceof NoteRecord) {
+                    NoteRecord record = (NoteRecord) item;
+                    records.remove(record.id);
+                    records.put(record.id, record);
+                } else if (item instanceof CompletableFuture) {
+                    waiters.add((CompletableFuture<Void>) item);
+                } else if (item instanceof Retier) {
+                    retiers.add((Retier) item);
+                } else if (item == SHUTDOWN) {
+                    running = false;
+                }
+            }
+
+            try {
+                writeBatch(records.values());
+                if (writeFailure != null && lastError == writeFailure) {
+                    lastError = null;
+                }
+                writeFailure = null;
+                for (CompletableFuture<Void> waiter : waiters) {
+                    waiter.complete(null);
+                }
+                if (!retiers.isEmpty()) {
+                    rollSegment();
+                    compactor.execute(() -> {
+                        try {
+                            compact(true);
+                            retiers.forEach(retier -> retier.done.complete(null));
+                        } catch (IOException e) {
+                            lastError = e;
+                            retiers.forEach(retier -> retier.done.completeExceptionally(e));
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                lastError = e;
+                writeFailure = failed.isEmpty() ? null : e;
+                for (CompletableFuture<Void> waiter : waiters) {
+                    waiter.completeExceptionally(e);
+                }
+                retiers.forEach(retier -> retier.done.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void writeBatch(Collection<NoteRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (torn) {
+            active.truncate(activeSize);
+            torn = false;
+        }
+        Path segment = segmentPath(activeSeq);
+        long start = activeSize;
+        List<Location> written = new ArrayList<>(records.size());
+        try {
+            for (NoteRecord record : records) {
+                byte[] payload = record.encode();
+                long offset = activeSize + FRAME_HEADER;
+                activeSize += writeFrame(active, payload);
+                written.add(record.type == NoteRecord.DELETE ? Location.deleted(segment, offset, payload.length)
+                        : new Location(segment, offset, payload.length));
+            }
+            active.force(false);
+        } catch (IOException e) {
+            // Part of a frame may be on disk, which replay would take for corruption once the segment is closed
+            activeSize = start;
+            failed.addAll(records);
+            try {
+                active.truncate(start);
+            } catch (IOException truncateFailed) {
+                e.addSuppressed(truncateFailed);
+                torn = true;
+            }
+            throw e;
+        }
+        bytesWritten.addAndGet(activeSize - start);
+        int i = 0;
+        for (NoteRecord record : records) {
+            locations.put(record.id, written.get(i++));
+            if (record.type != NoteRecord.DELETE) {
+                unwritten.remove(record.id, record);
+            }
+        }
+
+        if (activeSize >= SEGMENT_LIMIT) {
+            rollSegment();
+            maybeCompact();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        active.close();
+        synchronized (closedSegments) {
+            closedSegments.add(activeSeq);
+        }
+        openSegment(activeSeq + 1);
+    }
+
+    private void openSegment(long seq) throws IOException {
+        activeSeq = seq;
+        active = FileChannel.open(segmentPath(seq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = active.size();
+    }
+
+    private void maybeCompact() {
+        synchronized (closedSegments) {
+            if (closedSegments.size() < COMPACT_AFTER_SEGMENTS) {
+                return;
+            }
+        }
+        compactor.execute(() -> {
+            try {
+                compact(false);
+            } catch (IOException e) {
+                lastError = e;
+            }
+        });
+    }
+
+    /**
+     * Folds the previous snapshot and all closed segments into a new snapshot.
+     * Only record locations are held in memory; bodies are copied one at a
+     * time in a merge of the old snapshot's id order with the log's. A folded
+     * record is only dropped from {@code locations} if the writer hasn't
+     * stored a newer version meanwhile. With {@code force} any closed segment
+     * is enough to go ahead.
+     */
+    private void compact(boolean force) throws IOException {
+        List<Long> segments;
+        synchronized (closedSegments) {
+            if (closedSegments.size() < (force ? 1 : COMPACT_AFTER_SEGMENTS)) {
+                return;
+            }
+            segments = new ArrayList<>(closedSegments);
+        }
+
+        Map<Long, Location> folded = new HashMap<>();
+        FrameConsumer fold = (file, offset, payload) -> {
+            long id = NoteRecord.idOf(payload);
+            folded.put(id, NoteRecord.typeOf(payload) == NoteRecord.DELETE
+                    ? Location.deleted(file, offset, payload.length)
+                    : new Location(file, offset, payload.length));
+        };
+        NoteDatabase base = database;
+        if (base == null && snapshotFile != null) {
+            replay(snapshotFile, fold);
+        }
+        for (long seq : segments) {
+            Path segment = segmentPath(seq);
+            long end = replay(segment, fold);
+            if (end < Files.size(segment)) {
+                throw new IOException("Corrupt log segment " + segment + " at offset " + end);
+            }
+        }
+
+        long[] ids = new long[folded.size()];
+        int count = base != null ? base.size() : 0;
+        int i = 0;
+        for (Map.Entry<Long, Location> entry : folded.entrySet()) {
+            ids[i++] = entry.getKey();
+            boolean inBase = base != null && base.find(entry.getKey()) >= 0;
+            if (inBase && entry.getValue().deleted) {
+                count--;
+            } else if (!inBase && !entry.getValue().deleted) {
+                count++;
+            }
+        }
+        Arrays.sort(ids);
+
+        long newSeq = segments.get(segments.size() - 1);
+        Path snapshot = snapshotPath(newSeq);
+        Path tmp = dir.resolve(snapshot.getFileName() + ".tmp");
+        long cutoff = System.currentTimeMillis() - COLD_AFTER_MS;
+        LongPredicate read = recentlyRead;
+        byte[] dictionary = dictionary(base, cutoff, read);
+        try (NoteDatabase.Writer out = new NoteDatabase.Writer(tmp, count, dictionary)) {
+            int baseSize = base != null ? base.size() : 0;
+            int entry = 0;
+            int next = 0;
+            while (entry < baseSize || next < ids.length) {
+                long baseId = entry < baseSize ? base.id(entry) : Long.MAX_VALUE;
+                if (next == ids.length || baseId < ids[next]) {
+                    out.copy(base, entry, base.modified(entry) < cutoff && !read.test(baseId));
+                    entry++;
+                    continue;
+                }
+                if (baseId == ids[next]) {
+                    entry++;
+                }
+                Location location = folded.get(ids[next++]);
+                if (!location.deleted) {
+                    NoteRecord record = NoteRecord.decode(readPayload(location));
+                    byte[] title = record.title.getBytes(StandardCharsets.UTF_8);
+                    byte[] tags = String.join("\n", record.tags).getBytes(StandardCharsets.UTF_8);
+                    byte[] body = record.content.getBytes(StandardCharsets.UTF_8);
+                    out.add(record.id, record.created, record.modified, title, tags, body,
+                            record.modified < cutoff && !read.test(record.id));
+                }
+            }
+            out.finish();
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Published first, so a reader that no longer finds a location finds the new snapshot
+        database = NoteDatabase.open(snapshot);
+        for (Map.Entry<Long, Location> entry : folded.entrySet()) {
+            locations.remove(entry.getKey(), entry.getValue());
+        }
+
+        Path previous = snapshotFile;
+        snapshotSeq = newSeq;
+        snapshotFile = snapshot;
+        synchronized (closedSegments) {
+            closedSegments.removeAll(segments);
+        }
+        if (previous != null) {
+            deleteSnapshot(previous);
+        }
+        for (long seq : segments) {
+            Files.deleteIfExists(segmentPath(seq));
+        }
+    }
+
+    /**
+     * The dictionary the new snapshot compresses with: the previous
+     * snapshot's, or one trained on an even sample of its cold bodies once
+     * there are enough of them. Empty until then.
+     */
+    private static byte[] dictionary(NoteDatabase base, long cutoff, LongPredicate read) throws IOException {
+        if (base == null || base.dictionary().length > 0) {
+            return base != null ? base.dictionary() : new byte[0];
+        }
+        BitSet cold = new BitSet(base.size());
+        for (int entry = 0; entry < base.size(); entry++) {
+            if (base.modified(entry) < cutoff && !read.test(base.id(entry))) {
+                cold.set(entry);
+            }
+        }
+        int coldNotes = cold.cardinality();
+        if (coldNotes < DICTIONARY_MIN_NOTES) {
+            return new byte[0];
+        }
+        List<String> samples = new ArrayList<>(Math.min(coldNotes, DICTIONARY_SAMPLES));
+        int stride = Math.max(1, coldNotes / DICTIONARY_SAMPLES);
+        int seen = 0;
+        for (int entry = cold.nextSetBit(0); entry >= 0 && samples.size() < DICTIONARY_SAMPLES;
+             entry = cold.nextSetBit(entry + 1)) {
+            if (seen++ % stride == 0) {
+                samples.add(base.body(entry));
+            }
+        }
+        return BodyCodec.train(samples);
+    }
+
+    private long coldBytesStoredAsIs(NoteDatabase snapshot) {
+        long cutoff = System.currentTimeMillis() - COLD_AFTER_MS;
+        LongPredicate read = recentlyRead;
+        long bytes = 0;
+        for (int entry = 0; entry < snapshot.size(); entry++) {
+            if (snapshot.modified(entry) >= cutoff || read.test(snapshot.id(entry))) {
+                continue;
+            }
+            // A shared chunk stays as the note that stored it first left it
+            for (int i = 0; i < snapshot.chunks(entry); i++) {
+                int chunk = snapshot.chunk(entry, i);
+                int stored = snapshot.chunkStoredLength(chunk);
+                if (snapshot.chunkRawLength(chunk) == 0 && stored >= BodyCodec.MIN_BODY
+                        && snapshot.chunkReferences(chunk) == 1) {
+                    bytes += stored;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Deletes a superseded snapshot. Readers may still hold its mapping, and
+     * some platforms refuse to delete a mapped file; it is then left for the
+     * next open to remove.
+     */
+    private static void deleteSnapshot(Path snapshot) {
+        try {
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            // Removed on the next open instead
+        }
+    }
+
+    static int writeFrame(FileChannel channel, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        return FRAME_HEADER + payload.length;
+    }
+
+    private static byte[] readPayload(Location location) throws IOException {
+        try (FileChannel channel = FileChannel.open(location.file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            long position = location.offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Truncated record in " + location.file);
+                }
+                position += read;
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Feeds every intact record to the consumer and returns the offset just past
+     * the last one. Anything after that offset is a torn or corrupt tail.
+     */
+    static long replay(Path file, FrameConsumer consumer) throws IOException {
+        long position = 0;
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                consumer.accept(file, position + FRAME_HEADER, payload);
+                position += FRAME_HEADER + length;
+            }
+        }
+        return position;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private Path snapshotPath(long seq) {
+        return dir.resolve(String.format("%s%08d%s", SNAPSHOT_PREFIX, seq, SNAPSHOT_SUFFIX));
+    }
+
+    private static long parseSeq(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    interface FrameConsumer {
+        void accept(Path file, long payloadOffset, byte[] payload) throws IOException;
+    }
+
+    private static final class Location {
+        final Path file;
+        final long offset;
+        final int length;
+        // A delete record, which has no body
+        final boolean deleted;
+
+        Location(Path file, long offset, int length) {
+            this(file, offset, length, false);
+        }
+
+        private Location(Path file, long offset, int length, boolean deleted) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.deleted = deleted;
+        }
+
+        static Location deleted(Path file, long offset, int length) {
+            return new Location(file, offset, length, true);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Location)) {
+                return false;
+            }
+            Location other = (Location) o;
+            return offset == other.offset && length == other.length && deleted == other.deleted
+                    && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, offset, length, deleted);
+        }
+    }
+}
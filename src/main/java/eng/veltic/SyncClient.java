@@ -0,0 +1,611 @@
+package eng.veltic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a {@link NotesStore} in sync with other replicas through a
+ * {@link SyncServer}.
+ *
+ * The client gives this replica a random id and every note a key that is
+ * unique across replicas, and listens to the store: each local change stamps
+ * the note with the {@link HybridClock} and marks it dirty. A {@link #sync}
+ * first pulls what other replicas changed since the last one, then pushes
+ * only the dirty notes, both in gzipped batches.
+ *
+ * A pulled version of a note that was also edited here since the last sync
+ * is a conflict. Body edits made here are recorded as {@link ReplicatedText}
+ * ops on the version last synced and pushed along with the note, so when
+ * both sides edited the same version their bodies are merged, and a title
+ * or tags changed on one side only keep that change. Otherwise the later of
+ * the two edits stays in the note and the other is kept as a new
+ * "conflicted copy" note, which then syncs like any other, so no edit is
+ * lost and every replica ends up with the same notes.
+ *
+ * What the client knows (keys, stamps, dirty flags, body edits not yet
+ * synced, the server cursor) is saved to a state file after each sync, once
+ * the store has made the pulled notes durable, so a crash can at worst
+ * duplicate a note, never delete one.
+ */
+class SyncClient implements NotesStore.Listener, Closeable {
+    private static final int STATE_MAGIC = 0x4e53594e;
+    private static final int STATE_VERSION = 2;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    static final String CONFLICT_SUFFIX = " (conflicted copy)";
+
+    /**
+     * What one sync moved and what it cost on the wire.
+     */
+    static final class Report {
+        int pulled;
+        int pushed;
+        int merged;
+        int conflicts;
+        long bytesSent;
+        long bytesReceived;
+        long millis;
+    }
+
+    // This replica's view of one note
+    private static final class Meta {
+        final String key;
+        // The local note id, 0 once the note is deleted
+        long note;
+        // The server's number for the version last synced, 0 if none
+        long version;
+        // When and where the version held here was made
+        long stamp;
+        long replica;
+        boolean deleted;
+        boolean dirty;
+        // Body edits since version, and the title and tags it had (null if unknown); null until edited here
+        ReplicatedText body;
+        String baseTitle;
+        List<String> baseTags;
+
+        Meta(String key) {
+            this.key = key;
+        }
+    }
+
+    private final NotesStore store;
+    private final URI server;
+    private final String secret;
+    private final Path stateFile;
+    private final HttpClient http;
+    private final long replica;
+    private final HybridClock clock;
+    private final Map<String, Meta> byKey = new HashMap<>();
+    private final Map<Long, Meta> byNote = new HashMap<>();
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private long cursor;
+    private boolean stateChanged;
+    // The thread applying pulled versions, whose store changes are not local edits
+    private volatile Thread applying;
+    private final Object syncLock = new Object();
+
+    private SyncClient(NotesStore store, URI server, String secret, Path stateFile, long replica, long clock,
+            long cursor) {
+        this.store = store;
+        this.server = server;
+        this.secret = secret;
+        this.stateFile = stateFile;
+        this.replica = replica;
+        this.clock = new HybridClock(clock);
+        this.cursor = cursor;
+        this.http = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    /**
+     * Starts tracking the store's changes for the server at the given base URI.
+     * Notes the state file doesn't know are treated as new, and notes it knows
+     * that are gone from the store as deleted, so edits made while the client
+     * was not attached still sync.
+     *
+     * @param secret the one the server was started with
+     * @param stateFile where the client keeps what it knows, or null to start afresh each time
+     */
+    static SyncClient attach(NotesStore store, URI server, String secret, Path stateFile) throws IOException {
+        SyncClient client = stateFile != null && Files.exists(stateFile)
+                ? load(store, server, secret, stateFile)
+                : new SyncClient(store, server, secret, stateFile, new SecureRandom().nextLong(), 0, 0);
+        synchronized (client) {
+            store.addListener(client);
+            for (NoteItem note : store.notes()) {
+                if (!client.byNote.containsKey(note.getId())) {
+                    client.localChange(note, false);
+                }
+            }
+            for (Meta meta : new ArrayList<>(client.byNote.values())) {
+                if (store.get(meta.note) == null) {
+                    client.localDelete(meta);
+                }
+            }
+        }
+        return client;
+    }
+
+    long replica() {
+        return replica;
+    }
+
+    synchronized int pending() {
+        return dirty.size();
+    }
+
+    /**
+     * Pulls remote changes into the store, then pushes local ones. Only one
+     * sync runs at a time; it blocks on the network, so keep it off the EDT.
+     */
+    Report sync() throws IOException, InterruptedException {
+        synchronized (syncLock) {
+            long began = System.nanoTime();
+            Report report = new Report();
+            pull(report);
+            push(report);
+            saveState();
+            report.millis = (System.nanoTime() - began) / 1_000_000;
+            return report;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        synchronized (syncLock) {
+            saveState();
+        }
+    }
+
+    @Override
+    public void notesChanged(NotesStore.Change change) {
+        if (applying == Thread.currentThread()) {
+            return;
+        }
+        synchronized (this) {
+            for (NoteItem note : change.getNotes()) {
+                if (change.getKind() == NotesStore.Change.Kind.REMOVED) {
+                    Meta meta = byNote.get(note.getId());
+                    if (meta != null) {
+                        localDelete(meta);
+                    }
+                } else if (change.getKind() == NotesStore.Change.Kind.UPDATED) {
+                    Meta meta = byNote.get(note.getId());
+                    boolean clean = meta != null && !meta.dirty;
+                    track(localChange(note, true), note, change.getPreviousContent(), clean);
+                } else {
+                    localChange(note, false);
+                }
+            }
+        }
+    }
+
+    private Meta localChange(NoteItem note, boolean known) {
+        Meta meta = known ? byNote.get(note.getId()) : null;
+        if (meta == null) {
+            meta = new Meta(Long.toHexString(replica) + ":" + Long.toHexString(note.getId()));
+            meta.note = note.getId();
+            byKey.put(meta.key, meta);
+            byNote.put(note.getId(), meta);
+        }
+        stamp(meta);
+        return meta;
+    }
+
+    /**
+     * Records a local update as body edits on the version last synced. A note
+     * that was clean until this update still held that version, so its
+     * previous content is the base; a rename or retag leaves the content alone
+     * but the old title and tags are gone.
+     */
+    private void track(Meta meta, NoteItem note, String previousContent, boolean clean) {
+        if (meta.body == null && clean && meta.version != 0) {
+            String base = previousContent != null ? previousContent : note.getContent();
+            meta.body = ReplicatedText.fromBase(base, replica);
+            meta.baseTitle = previousContent != null ? note.getTitle() : null;
+            meta.baseTags = previousContent != null ? note.getTags() : null;
+        }
+        if (meta.body != null) {
+            meta.body.update(note.getContent());
+        }
+    }
+
+    private void localDelete(Meta meta) {
+        byNote.remove(meta.note);
+        meta.note = 0;
+        meta.deleted = true;
+        untrack(meta);
+        stamp(meta);
+    }
+
+    private static void untrack(Meta meta) {
+        meta.body = null;
+        meta.baseTitle = null;
+        meta.baseTags = null;
+    }
+
+    // Edits made here go on top of the given version from now on
+    private void rebase(Meta meta, SyncProtocol.Entry onto, NoteItem local) {
+        meta.version = onto.version;
+        untrack(meta);
+        if (!onto.deleted && local != null) {
+            meta.body = ReplicatedText.fromBase(onto.content, replica);
+            meta.body.update(local.getContent());
+            meta.baseTitle = onto.title;
+            meta.baseTags = onto.tags;
+        }
+    }
+
+    private void stamp(Meta meta) {
+        meta.stamp = clock.now();
+        meta.replica = replica;
+        meta.dirty = true;
+        dirty.add(meta.key);
+        stateChanged = true;
+    }
+
+    private void pull(Report report) throws IOException, InterruptedException {
+        boolean more = true;
+        while (more) {
+            URI uri = server.resolve(SyncProtocol.CHANGES_PATH + "?since=" + cursor + "&limit=" + SyncProtocol.BATCH
+                    + "&replica=" + Long.toHexString(replica));
+            byte[] body = send(uri, null, report);
+            SyncProtocol.Changes changes = SyncProtocol.decodeChanges(body);
+            synchronized (this) {
+                applyRemote(changes.entries, report);
+            }
+            // The cursor only moves once what it covers is durable
+            store.sync().join();
+            synchronized (this) {
+                cursor = changes.next;
+                stateChanged = true;
+            }
+            more = changes.more;
+        }
+    }
+
+    // Caller holds this
+    private void applyRemote(List<SyncProtocol.Entry> entries, Report report) {
+        List<NoteItem> added = new ArrayList<>();
+        for (SyncProtocol.Entry entry : entries) {
+            clock.observe(entry.stamp);
+            Meta meta = byKey.get(entry.key);
+            if (meta != null && meta.version >= entry.version) {
+                continue;
+            }
+            NoteItem local = meta != null && !meta.deleted ? store.get(meta.note) : null;
+            if (meta != null && meta.dirty) {
+                if (local != null && !sameNote(local, entry) && merge(meta, local, entry)) {
+                    report.merged++;
+                    continue;
+                }
+                // Edited here and elsewhere since the last sync: the earlier edit becomes a copy
+                if (!entry.supersedes(meta.stamp, meta.replica)) {
+                    if (!entry.deleted && (local == null || !sameNote(local, entry))) {
+                        keepCopy(entry.title, entry.tags, entry.content, report);
+                    }
+                    // Ours goes on top of theirs, so the next push is accepted
+                    rebase(meta, entry, local);
+                    stateChanged = true;
+                    continue;
+                }
+                if (local != null && !sameNote(local, entry)) {
+                    keepCopy(local.getTitle(), local.getTags(), local.getContent(), report);
+                }
+            }
+            if (meta == null) {
+                meta = new Meta(entry.key);
+                byKey.put(entry.key, meta);
+            }
+            applying = Thread.currentThread();
+            try {
+                if (entry.deleted) {
+                    if (local != null) {
+                        store.delete(local);
+                    }
+                    byNote.remove(meta.note);
+                    meta.note = 0;
+                } else if (local != null) {
+                    store.replace(local, entry.title, entry.tags, entry.content, entry.modified);
+                } else {
+                    NoteItem note = new NoteItem(entry.title, entry.content, entry.created, entry.modified);
+                    note.setTags(entry.tags);
+                    note.setModified(entry.modified);
+                    added.add(note);
+                    meta.note = note.getId();
+                    byNote.put(note.getId(), meta);
+                }
+            } finally {
+                applying = null;
+            }
+            meta.version = entry.version;
+            meta.stamp = entry.stamp;
+            meta.replica = entry.replica;
+            meta.deleted = entry.deleted;
+            meta.dirty = false;
+            untrack(meta);
+            dirty.remove(meta.key);
+            stateChanged = true;
+            report.pulled++;
+        }
+        if (!added.isEmpty()) {
+            applying = Thread.currentThread();
+            try {
+                store.addAll(added);
+            } finally {
+                applying = null;
+            }
+        }
+    }
+
+    /**
+     * Merges a version edited from the one this replica's edits are on: the
+     * bodies' edits go together, and the title and tags keep the change of
+     * the side that made one, or the later edit's if both did. Caller holds
+     * this.
+     *
+     * @return false if the two can't be merged, and nothing was changed
+     */
+    private boolean merge(Meta meta, NoteItem local, SyncProtocol.Entry entry) {
+        if (entry.deleted || meta.body == null || entry.ops.length == 0 || entry.base != meta.version) {
+            return false;
+        }
+        try {
+            meta.body.update(local.getContent());
+            if (!meta.body.merge(entry.ops)) {
+                return false;
+            }
+        } catch (IOException e) {
+            // Half merged, it no longer records what was edited here
+            untrack(meta);
+            return false;
+        }
+        boolean theirs = entry.supersedes(meta.stamp, meta.replica);
+        String title = changed(meta.baseTitle, local.getTitle(), entry.title, theirs);
+        List<String> tags = changed(meta.baseTags, local.getTags(), entry.tags, theirs);
+        String merged = meta.body.toString();
+        applying = Thread.currentThread();
+        try {
+            store.replace(local, title, tags, merged, Math.max(local.getModified(), entry.modified));
+        } finally {
+            applying = null;
+        }
+        // The merge is a local edit on top of theirs, for the next push
+        rebase(meta, entry, local);
+        stamp(meta);
+        return true;
+    }
+
+    // The side that changed a field since the base; the later one if both did or the base is unknown
+    private static <T> T changed(T base, T ours, T theirs, boolean theirsLater) {
+        if (base != null && ours.equals(base)) {
+            return theirs;
+        }
+        if (base != null && theirs.equals(base)) {
+            return ours;
+        }
+        return theirsLater ? theirs : ours;
+    }
+
+    // A new local note, which the listener stamps and the next push sends
+    private void keepCopy(String title, List<String> tags, String content, Report report) {
+        NoteItem copy = new NoteItem(title + CONFLICT_SUFFIX, content);
+        copy.setTags(tags);
+        store.addAll(List.of(copy));
+        report.conflicts++;
+    }
+
+    private static boolean sameNote(NoteItem note, SyncProtocol.Entry entry) {
+        return !entry.deleted && note.getTitle().equals(entry.title) && note.getTags().equals(entry.tags)
+                && note.getContent().equals(entry.content);
+    }
+
+    private void push(Report report) throws IOException, InterruptedException {
+        Set<String> tried = new HashSet<>();
+        while (true) {
+            List<SyncProtocol.Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                for (String key : dirty) {
+                    if (batch.size() == SyncProtocol.BATCH) {
+                        break;
+                    }
+                    if (!tried.add(key)) {
+                        continue;
+                    }
+                    Meta meta = byKey.get(key);
+                    if (meta.deleted) {
+                        batch.add(SyncProtocol.Entry.tombstone(key, meta.version, meta.stamp, replica));
+                        continue;
+                    }
+                    NoteItem note = store.get(meta.note);
+                    if (note != null) {
+                        if (meta.body != null) {
+                            meta.body.update(note.loadContent());
+                        }
+                        batch.add(SyncProtocol.Entry.of(key, meta.version, meta.stamp, replica, note, meta.body));
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            byte[] body = send(server.resolve(SyncProtocol.PUSH_PATH), SyncProtocol.encodePush(batch), report);
+            long[] versions = SyncProtocol.decodeAccepted(body);
+            if (versions.length != batch.size()) {
+                throw new IOException("Sync server answered " + versions.length + " of " + batch.size() + " notes");
+            }
+            synchronized (this) {
+                for (int i = 0; i < versions.length; i++) {
+                    // Turned down ones conflict with a version the next pull brings
+                    if (versions[i] == 0) {
+                        continue;
+                    }
+                    SyncProtocol.Entry entry = batch.get(i);
+                    Meta meta = byKey.get(entry.key);
+                    meta.version = versions[i];
+                    // Edited again while this was in flight; it goes again next time
+                    if (meta.stamp == entry.stamp) {
+                        meta.dirty = false;
+                        untrack(meta);
+                        dirty.remove(entry.key);
+                    } else {
+                        rebase(meta, entry.accepted(versions[i]), meta.deleted ? null : store.get(meta.note));
+                    }
+                    stateChanged = true;
+                    report.pushed++;
+                }
+            }
+        }
+    }
+
+    // POSTs the body, or GETs without one
+    private byte[] send(URI uri, byte[] body, Report report) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT)
+                .header(SyncProtocol.SECRET_HEADER, secret);
+        if (body != null) {
+            request.header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+            report.bytesSent += body.length;
+        }
+        HttpResponse<byte[]> response = http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        report.bytesReceived += response.body().length;
+        if (response.statusCode() == 401) {
+            throw new IOException("Sync server turned down the secret");
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Sync server answered " + response.statusCode() + " for " + uri.getPath());
+        }
+        return response.body();
+    }
+
+    private void saveState() throws IOException {
+        if (stateFile == null) {
+            return;
+        }
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        synchronized (this) {
+            if (!stateChanged) {
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temp), 1 << 16)))) {
+                out.writeInt(STATE_MAGIC);
+                out.writeByte(STATE_VERSION);
+                out.writeLong(replica);
+                out.writeLong(clock.last());
+                out.writeLong(cursor);
+                out.writeInt(byKey.size());
+                for (Meta meta : byKey.values()) {
+                    out.writeUTF(meta.key);
+                    out.writeLong(meta.note);
+                    out.writeLong(meta.version);
+                    out.writeLong(meta.stamp);
+                    out.writeLong(meta.replica);
+                    out.writeByte((meta.deleted ? 1 : 0) | (meta.dirty ? 2 : 0) | (meta.body != null ? 4 : 0));
+                    if (meta.body != null) {
+                        writeTracked(out, meta);
+                    }
+                }
+            }
+            stateChanged = false;
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static SyncClient load(NotesStore store, URI server, String secret, Path stateFile)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(stateFile), 1 << 16)))) {
+            if (in.readInt() != STATE_MAGIC) {
+                throw new IOException("Not a sync state file: " + stateFile);
+            }
+            int version = in.readUnsignedByte();
+            // Version 1 had no body edits
+            if (version != 1 && version != STATE_VERSION) {
+                throw new IOException("Unsupported sync state version " + version);
+            }
+            SyncClient client = new SyncClient(store, server, secret, stateFile, in.readLong(), in.readLong(),
+                    in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Meta meta = new Meta(in.readUTF());
+                meta.note = in.readLong();
+                meta.version = in.readLong();
+                meta.stamp = in.readLong();
+                meta.replica = in.readLong();
+                int flags = in.readUnsignedByte();
+                meta.deleted = (flags & 1) != 0;
+                meta.dirty = (flags & 2) != 0;
+                if ((flags & 4) != 0) {
+                    client.readTracked(in, meta);
+                }
+                client.byKey.put(meta.key, meta);
+                if (!meta.deleted) {
+                    client.byNote.put(meta.note, meta);
+                }
+                if (meta.dirty) {
+                    client.dirty.add(meta.key);
+                }
+            }
+            return client;
+        }
+    }
+
+    private static void writeTracked(DataOutputStream out, Meta meta) throws IOException {
+        SyncProtocol.writeString(out, meta.body.base());
+        byte[] ops = meta.body.encodeOps();
+        out.writeInt(ops.length);
+        out.write(ops);
+        out.writeBoolean(meta.baseTitle != null);
+        if (meta.baseTitle != null) {
+            SyncProtocol.writeString(out, meta.baseTitle);
+        }
+        out.writeInt(meta.baseTags != null ? meta.baseTags.size() : -1);
+        if (meta.baseTags != null) {
+            for (String tag : meta.baseTags) {
+                out.writeUTF(tag);
+            }
+        }
+    }
+
+    private void readTracked(DataInputStream in, Meta meta) throws IOException {
+        String base = SyncProtocol.readString(in);
+        byte[] ops = new byte[in.readInt()];
+        in.readFully(ops);
+        meta.baseTitle = in.readBoolean() ? SyncProtocol.readString(in) : null;
+        int tagCount = in.readInt();
+        if (tagCount >= 0) {
+            List<String> tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                tags.add(in.readUTF());
+            }
+            meta.baseTags = List.copyOf(tags);
+        }
+        meta.body = ReplicatedText.fromBase(base, replica);
+        if (!meta.body.merge(ops)) {
+            throw new IOException("Body edits in the sync state don't match their base");
+        }
+    }
+}
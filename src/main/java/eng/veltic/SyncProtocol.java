@@ -0,0 +1,318 @@
+package eng.veltic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The wire format shared by {@link SyncServer} and {@link SyncClient}.
+ *
+ * Replicas exchange {@link Entry}s: one version of a note, or its tombstone,
+ * stamped with the {@link HybridClock} time of the edit and the replica that
+ * made it. The server numbers every version it accepts, and takes a pushed
+ * version only if it was edited from the one the server holds now, so no
+ * edit silently overwrites another it never saw.
+ *
+ * A push the server turns down is resolved by the client on its next pull,
+ * which brings the version it lost to. When both were edited from the same
+ * version and carry their body edits as {@link ReplicatedText} ops, the
+ * bodies are merged. Otherwise, of the two, the one with the later stamp
+ * wins (the higher replica id breaks a tie) and the other is kept as a
+ * separate note, so every replica ends up with the same notes whichever of
+ * them noticed the conflict.
+ *
+ * Requests and responses are gzipped binary batches:
+ * <pre>
+ *   POST /sync/push                   body: entries     reply: the number each got, 0 if turned down
+ *   GET  /sync/changes?since=&amp;limit=&amp;replica=
+ *                                     reply: next cursor, more flag, entries
+ * </pre>
+ * A client pulls the versions numbered after its cursor, leaving out the
+ * ones it pushed itself. Every request carries the secret shared by the
+ * server and its clients in {@link #SECRET_HEADER}.
+ */
+final class SyncProtocol {
+    static final String PUSH_PATH = "/sync/push";
+    static final String CHANGES_PATH = "/sync/changes";
+    static final String SECRET_HEADER = "X-Noted-Secret";
+    static final int VERSION = 2;
+    // Notes per request either way
+    static final int BATCH = 1000;
+    private static final int MAX_STRING = 64 << 20;
+    private static final byte[] NO_OPS = new byte[0];
+    // A third of the default level's CPU for about a sixth more bytes on note text
+    private static final int DEFLATE_LEVEL = 3;
+
+    private SyncProtocol() {}
+
+    /**
+     * One version of a note, identified across replicas by its key.
+     */
+    static final class Entry {
+        final String key;
+        // The server's number for this version; in a push, for the version it was edited from (0 if none)
+        final long version;
+        final long stamp;
+        final long replica;
+        final boolean deleted;
+        final String title;
+        final List<String> tags;
+        final String content;
+        final long created;
+        final long modified;
+        // The version this one was edited from, and its body edits since then; no ops if unknown
+        final long base;
+        final byte[] ops;
+
+        Entry(String key, long version, long stamp, long replica, boolean deleted, String title, List<String> tags,
+              String content, long created, long modified, long base, byte[] ops) {
+            this.key = key;
+            this.version = version;
+            this.stamp = stamp;
+            this.replica = replica;
+            this.deleted = deleted;
+            this.title = title;
+            this.tags = tags;
+            this.content = content;
+            this.created = created;
+            this.modified = modified;
+            this.base = base;
+            this.ops = ops;
+        }
+
+        /**
+         * A version to push, edited from {@code version}, with the body as the
+         * given ops made it or as the note holds it if there are none.
+         */
+        static Entry of(String key, long version, long stamp, long replica, NoteItem note, ReplicatedText body) {
+            return new Entry(key, version, stamp, replica, false, note.getTitle(), note.getTags(),
+                    body != null ? body.toString() : note.loadContent(), note.getCreated(), note.getModified(),
+                    version, body != null ? body.encodeOps() : NO_OPS);
+        }
+
+        static Entry tombstone(String key, long version, long stamp, long replica) {
+            return new Entry(key, version, stamp, replica, true, "", List.of(), "", 0, 0, version, NO_OPS);
+        }
+
+        /**
+         * This pushed version under the number the server gave it.
+         */
+        Entry accepted(long number) {
+            return new Entry(key, number, stamp, replica, deleted, title, tags, content, created, modified, version,
+                    ops);
+        }
+
+        boolean sameVersion(Entry other) {
+            return stamp == other.stamp && replica == other.replica;
+        }
+
+        /**
+         * Whether this version wins a conflict with one with the given stamp
+         * and replica.
+         */
+        boolean supersedes(long otherStamp, long otherReplica) {
+            return stamp != otherStamp ? stamp > otherStamp : replica > otherReplica;
+        }
+    }
+
+    static byte[] encodePush(List<Entry> entries) {
+        return gzip(out -> writeEntries(out, entries));
+    }
+
+    static List<Entry> decodePush(byte[] body) throws IOException {
+        DataInputStream in = gunzip(body);
+        checkVersion(in);
+        return readEntries(in);
+    }
+
+    static byte[] encodeAccepted(long[] versions) {
+        return gzip(out -> {
+            out.writeInt(versions.length);
+            for (long version : versions) {
+                out.writeLong(version);
+            }
+        });
+    }
+
+    static long[] decodeAccepted(byte[] body) throws IOException {
+        DataInputStream in = gunzip(body);
+        checkVersion(in);
+        long[] versions = new long[in.readInt()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = in.readLong();
+        }
+        return versions;
+    }
+
+    /**
+     * A page of changes: the versions after the client's cursor, where to
+     * continue from, and whether there is more.
+     */
+    static final class Changes {
+        final long next;
+        final boolean more;
+        final List<Entry> entries;
+
+        Changes(long next, boolean more, List<Entry> entries) {
+            this.next = next;
+            this.more = more;
+            this.entries = entries;
+        }
+    }
+
+    static byte[] encodeChanges(Changes changes) {
+        return gzip(out -> {
+            out.writeLong(changes.next);
+            out.writeBoolean(changes.more);
+            writeEntries(out, changes.entries);
+        });
+    }
+
+    static Changes decodeChanges(byte[] body) throws IOException {
+        DataInputStream in = gunzip(body);
+        checkVersion(in);
+        long next = in.readLong();
+        boolean more = in.readBoolean();
+        return new Changes(next, more, readEntries(in));
+    }
+
+    /**
+     * Entries without compression, as the server keeps them in its log,
+     * each carrying the number it was given.
+     */
+    static byte[] encodeEntries(List<Entry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeEntries(out, entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Entry> decodeEntries(byte[] payload) throws IOException {
+        return readEntries(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private static void writeEntries(DataOutputStream out, List<Entry> entries) throws IOException {
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.key);
+            out.writeLong(entry.version);
+            out.writeLong(entry.stamp);
+            out.writeLong(entry.replica);
+            out.writeBoolean(entry.deleted);
+            if (entry.deleted) {
+                continue;
+            }
+            writeString(out, entry.title);
+            out.writeShort(entry.tags.size());
+            for (String tag : entry.tags) {
+                out.writeUTF(tag);
+            }
+            writeString(out, entry.content);
+            out.writeLong(entry.created);
+            out.writeLong(entry.modified);
+            out.writeInt(entry.ops.length);
+            if (entry.ops.length > 0) {
+                out.writeLong(entry.base);
+                out.write(entry.ops);
+            }
+        }
+    }
+
+    private static List<Entry> readEntries(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative entry count in sync batch");
+        }
+        List<Entry> entries = new ArrayList<>(Math.min(count, BATCH));
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long version = in.readLong();
+            long stamp = in.readLong();
+            long replica = in.readLong();
+            if (in.readBoolean()) {
+                entries.add(Entry.tombstone(key, version, stamp, replica));
+                continue;
+            }
+            String title = readString(in);
+            int tagCount = in.readUnsignedShort();
+            List<String> tags = new ArrayList<>(tagCount);
+            for (int t = 0; t < tagCount; t++) {
+                tags.add(in.readUTF());
+            }
+            String content = readString(in);
+            long created = in.readLong();
+            long modified = in.readLong();
+            int opsLength = in.readInt();
+            if (opsLength < 0 || opsLength > MAX_STRING) {
+                throw new IOException("Bad ops length " + opsLength + " in sync batch");
+            }
+            long base = opsLength > 0 ? in.readLong() : version;
+            byte[] ops = opsLength > 0 ? new byte[opsLength] : NO_OPS;
+            in.readFully(ops);
+            entries.add(new Entry(key, version, stamp, replica, false, title, List.copyOf(tags), content,
+                    created, modified, base, ops));
+        }
+        return entries;
+    }
+
+    // writeUTF stops at 64 KB, which a note body easily passes
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING) {
+            throw new IOException("Bad string length " + length + " in sync batch");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] gzip(Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(DEFLATE_LEVEL);
+            }
+        }, 1 << 16))) {
+            out.writeByte(VERSION);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream gunzip(byte[] body) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(body)), 1 << 16));
+    }
+
+    private static void checkVersion(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported sync protocol version " + version);
+        }
+    }
+}
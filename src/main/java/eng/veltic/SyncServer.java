@@ -0,0 +1,339 @@
+package eng.veltic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The hub replicas sync through, on the JDK's built-in HTTP server.
+ *
+ * It holds the latest version of every note any replica has pushed and
+ * numbers each version it accepts, so a client can ask for everything after
+ * the last number it saw. A pushed version is accepted only if it was edited
+ * from the latest one (see {@link SyncProtocol}). Tombstones are kept for
+ * good, so a replica that was offline for a long time still learns about
+ * deletions.
+ *
+ * With a directory, accepted versions are appended to a framed, checksummed
+ * log there and fsynced before the push is answered; on start the log is
+ * replayed, its torn tail dropped, and rewritten without superseded versions
+ * once those make up most of it. Without one the server forgets everything
+ * when it stops, which is what tests want.
+ *
+ * Requests without the shared secret are turned away with 401. The secret
+ * and the notes cross the network as they are, so beyond one computer the
+ * server belongs behind a TLS proxy or on a network only its replicas reach.
+ */
+class SyncServer implements Closeable {
+    private static final String LOG_FILE = "sync.log";
+    private static final int THREADS = 4;
+    private static final int MAX_BODY = 256 << 20;
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+    private final Path logPath;
+    private final byte[] secret;
+    private FileChannel log;
+    // The latest version of each note, and the same versions by number
+    private final Map<String, SyncProtocol.Entry> byKey = new HashMap<>();
+    private final TreeMap<Long, SyncProtocol.Entry> bySeq = new TreeMap<>();
+    private long lastSeq;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private SyncServer(InetSocketAddress address, Path dir, String secret) throws IOException {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.logPath = dir != null ? dir.resolve(LOG_FILE) : null;
+        if (logPath != null) {
+            Files.createDirectories(dir);
+            recover();
+        }
+        http = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "sync-server");
+            t.setDaemon(true);
+            return t;
+        });
+        http.setExecutor(executor);
+        http.createContext(SyncProtocol.PUSH_PATH, this::handlePush);
+        http.createContext(SyncProtocol.CHANGES_PATH, this::handleChanges);
+        http.start();
+    }
+
+    /**
+     * Starts serving on the address; port 0 picks a free one.
+     *
+     * @param dir where the server keeps its log, or null to keep versions in memory only
+     * @param secret what clients must send in {@link SyncProtocol#SECRET_HEADER}
+     */
+    static SyncServer start(InetSocketAddress address, Path dir, String secret) throws IOException {
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("The sync secret is empty");
+        }
+        return new SyncServer(address, dir, secret);
+    }
+
+    int port() {
+        return http.getAddress().getPort();
+    }
+
+    synchronized int size() {
+        return byKey.size();
+    }
+
+    long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    long bytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        http.stop(0);
+        executor.shutdownNow();
+        synchronized (this) {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * Takes each pushed version that was edited from the latest one and
+     * returns the numbers they were given, in order, with 0 for those turned
+     * down. Re-pushing the latest version gets its number again.
+     */
+    long[] push(List<SyncProtocol.Entry> entries) throws IOException {
+        synchronized (this) {
+            long[] versions = new long[entries.size()];
+            List<SyncProtocol.Entry> accepted = new ArrayList<>();
+            Map<String, SyncProtocol.Entry> batch = new HashMap<>();
+            long seq = lastSeq;
+            for (int i = 0; i < versions.length; i++) {
+                SyncProtocol.Entry entry = entries.get(i);
+                SyncProtocol.Entry latest = batch.getOrDefault(entry.key, byKey.get(entry.key));
+                if (latest != null && latest.sameVersion(entry)) {
+                    versions[i] = latest.version;
+                } else if (latest == null || latest.version == entry.version) {
+                    SyncProtocol.Entry numbered = entry.accepted(++seq);
+                    accepted.add(numbered);
+                    batch.put(entry.key, numbered);
+                    versions[i] = seq;
+                }
+            }
+            // Durable before anyone can pull them
+            if (log != null && !accepted.isEmpty()) {
+                StorageEngine.writeFrame(log, SyncProtocol.encodeEntries(accepted));
+                log.force(false);
+            }
+            for (SyncProtocol.Entry entry : accepted) {
+                apply(entry);
+            }
+            return versions;
+        }
+    }
+
+    /**
+     * Up to {@code limit} versions numbered after {@code since}, leaving out
+     * those made by {@code replica}.
+     */
+    synchronized SyncProtocol.Changes changes(long since, int limit, long replica) {
+        List<SyncProtocol.Entry> entries = new ArrayList<>();
+        long next = since;
+        for (SyncProtocol.Entry entry : bySeq.tailMap(since, false).values()) {
+            if (entries.size() == limit) {
+                return new SyncProtocol.Changes(next, true, entries);
+            }
+            if (entry.replica != replica) {
+                entries.add(entry);
+            }
+            next = entry.version;
+        }
+        return new SyncProtocol.Changes(next, false, entries);
+    }
+
+    private void apply(SyncProtocol.Entry entry) {
+        SyncProtocol.Entry previous = byKey.put(entry.key, entry);
+        if (previous != null) {
+            bySeq.remove(previous.version);
+        }
+        bySeq.put(entry.version, entry);
+        lastSeq = Math.max(lastSeq, entry.version);
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!authorized(exchange)) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            List<SyncProtocol.Entry> entries;
+            try {
+                entries = SyncProtocol.decodePush(readBody(exchange));
+            } catch (IOException e) {
+                reply(exchange, 400, e.getMessage().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            reply(exchange, 200, SyncProtocol.encodeAccepted(push(entries)));
+        }
+    }
+
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!authorized(exchange)) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, String> query = query(exchange.getRequestURI());
+            long since;
+            int limit;
+            long replica;
+            try {
+                since = Long.parseLong(query.getOrDefault("since", "0"));
+                limit = Math.max(1, Math.min(SyncProtocol.BATCH,
+                        Integer.parseInt(query.getOrDefault("limit", String.valueOf(SyncProtocol.BATCH)))));
+                replica = Long.parseUnsignedLong(query.getOrDefault("replica", "0"), 16);
+            } catch (NumberFormatException e) {
+                reply(exchange, 400, ("Bad query: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            reply(exchange, 200, SyncProtocol.encodeChanges(changes(since, limit, replica)));
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        String sent = exchange.getRequestHeaders().getFirst(SyncProtocol.SECRET_HEADER);
+        return sent != null && MessageDigest.isEqual(secret, sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_BODY) {
+                    throw new IOException("Sync batch over " + (MAX_BODY >> 20) + " MB");
+                }
+            }
+        }
+        bytesReceived.addAndGet(body.size());
+        return body.toByteArray();
+    }
+
+    private void reply(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        bytesSent.addAndGet(body.length);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    private void recover() throws IOException {
+        long[] replayed = {0};
+        if (Files.exists(logPath)) {
+            long end = StorageEngine.replay(logPath, (file, offset, payload) -> {
+                for (SyncProtocol.Entry entry : SyncProtocol.decodeEntries(payload)) {
+                    apply(entry);
+                    replayed[0]++;
+                }
+            });
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                if (channel.size() > end) {
+                    channel.truncate(end);
+                }
+            }
+        }
+        if (replayed[0] > 2L * byKey.size() + SyncProtocol.BATCH) {
+            rewriteLog();
+        }
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // Keeps each note's latest version under its number, nothing else
+    private void rewriteLog() throws IOException {
+        Path temp = logPath.resolveSibling(LOG_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<SyncProtocol.Entry> live = new ArrayList<>(bySeq.values());
+            for (int from = 0; from < live.size(); from += SyncProtocol.BATCH) {
+                StorageEngine.writeFrame(out, SyncProtocol.encodeEntries(
+                        live.subList(from, Math.min(from + SyncProtocol.BATCH, live.size()))));
+            }
+            out.force(true);
+        }
+        Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Runs a standalone server: {@code SyncServer [port [dir [host]]]}. The
+     * directory defaults to {@code ~/.noted-sync} and the host to loopback,
+     * so other computers reach it only when given an address of theirs or
+     * {@code 0.0.0.0}. The secret comes from {@code -Dnoted.sync.secret}. It
+     * serves until the process is stopped; a missing secret, or failing to
+     * bind the port or read the log, ends it with the exception.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8765;
+        Path dir = args.length > 1 ? Paths.get(args[1]) : Paths.get(System.getProperty("user.home"), ".noted-sync");
+        InetSocketAddress address = args.length > 2 ? new InetSocketAddress(args[2], port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        String secret = System.getProperty("noted.sync.secret");
+        if (secret == null) {
+            throw new IllegalArgumentException("Set -Dnoted.sync.secret to the secret the clients send");
+        }
+        start(address, dir, secret);
+    }
+}
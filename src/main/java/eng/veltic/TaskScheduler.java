@@ -0,0 +1,409 @@
+package eng.veltic;
+
+import javax.swing.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs all of the app's non-UI work on virtual threads when the runtime has
+ * them, otherwise on pooled daemon threads.
+ *
+ * Every task belongs to a {@link Lane}. At most {@link #BACKGROUND_SLOTS}
+ * tasks from the lanes below {@link Lane#SEARCH} run at once, and a free slot
+ * goes to the highest lane with work queued, so a long export waits behind
+ * autosave rather than the other way round. Search never takes one of those
+ * slots, so however much background work is queued or running, the next
+ * search starts at once.
+ *
+ * A task submitted under a key replaces the task with that key that is still
+ * waiting, and cancels the one still running: the search for the previous
+ * keystroke, or an autosave the next edit pushes back. {@link #submitOnce}
+ * instead keeps the one already waiting. Each task gets a {@link Token} it
+ * polls to stop early; cancelling never interrupts, since the store's channels
+ * would close under an interrupted thread.
+ *
+ * {@link #publish} is the one way results get back to the EDT. Updates queue
+ * up and are run by a single event at a time, for at most
+ * {@link #PUBLISH_BUDGET_NANOS} before the rest are left to the next one, and
+ * the updates of a task cancelled by then are dropped. A task that throws
+ * without having been cancelled is reported the same way, as a
+ * {@link Failure}.
+ */
+class TaskScheduler implements AutoCloseable {
+    private static final int BACKGROUND_SLOTS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long PUBLISH_BUDGET_NANOS = 8_000_000;
+
+    /**
+     * Highest priority first.
+     */
+    enum Lane {
+        SEARCH,
+        AUTOSAVE,
+        INDEXING,
+        EXPORT
+    }
+
+    @FunctionalInterface
+    interface Job {
+        void run(Token token) throws Exception;
+    }
+
+    /**
+     * Cancels one task, whether it is waiting, delayed or running.
+     */
+    static final class Token implements BooleanSupplier {
+        private final Lane lane;
+        private final Object key;
+        private final Job job;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile ScheduledFuture<?> delay;
+        private volatile long queuedAt;
+
+        private Token(Lane lane, Object key, Job job) {
+            this.lane = lane;
+            this.key = key;
+            this.job = job;
+        }
+
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                ScheduledFuture<?> pending = delay;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        public boolean isStarted() {
+            return started;
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            return cancelled.get();
+        }
+    }
+
+    /**
+     * A task that threw: its lane and what it threw.
+     */
+    static final class Failure {
+        final Lane lane;
+        final Throwable error;
+
+        Failure(Lane lane, Throwable error) {
+            this.lane = lane;
+            this.error = error;
+        }
+    }
+
+    private final ExecutorService threads;
+    private final ScheduledExecutorService timer;
+    // Called on the EDT
+    private final Consumer<Failure> onFailure;
+    private final Map<Lane, ArrayDeque<Token>> queues = new EnumMap<>(Lane.class);
+    // The latest task per key, until it finishes
+    private final Map<Object, Token> keyed = new HashMap<>();
+    private final Set<Token> running = ConcurrentHashMap.newKeySet();
+    private int backgroundRunning;
+    private boolean closed;
+    private final ConcurrentLinkedQueue<Update> updates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private static final class Update {
+        final Token token;
+        final Runnable action;
+
+        Update(Token token, Runnable action) {
+            this.token = token;
+            this.action = action;
+        }
+    }
+
+    TaskScheduler(Consumer<Failure> onFailure) {
+        this.onFailure = onFailure;
+        this.threads = Executors.newCachedThreadPool(threadFactory("notes-task-"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notes-task-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    public Token submit(Lane lane, Job job) {
+        return submit(lane, null, 0, job);
+    }
+
+    /**
+     * Runs the job once {@code delayMillis} have passed, in place of the task
+     * already holding {@code key} (if any), which is cancelled.
+     */
+    public Token submit(Lane lane, Object key, long delayMillis, Job job) {
+        return submit(lane, key, delayMillis, job, true);
+    }
+
+    /**
+     * Runs the job unless a task with {@code key} is still waiting to start,
+     * in which case that one's token is returned and the job dropped. One
+     * already running is left to finish.
+     */
+    public Token submitOnce(Lane lane, Object key, long delayMillis, Job job) {
+        return submit(lane, key, delayMillis, job, false);
+    }
+
+    private Token submit(Lane lane, Object key, long delayMillis, Job job, boolean replace) {
+        Token token = new Token(lane, key, job);
+        synchronized (this) {
+            if (closed) {
+                token.cancel();
+                return token;
+            }
+            if (key != null) {
+                Token previous = keyed.get(key);
+                if (previous != null && !replace && !previous.started && !previous.isCancelled()) {
+                    Metrics.TASKS_COALESCED.increment();
+                    return previous;
+                }
+                keyed.put(key, token);
+                if (previous != null && (replace || !previous.started)) {
+                    previous.cancel();
+                    queues.get(previous.lane).remove(previous);
+                    Metrics.TASKS_COALESCED.increment();
+                }
+            }
+        }
+        schedule(token, delayMillis);
+        return token;
+    }
+
+    /**
+     * Runs {@code action} on the EDT unless {@code token} is cancelled by
+     * then. A null token always runs.
+     */
+    public void publish(Token token, Runnable action) {
+        updates.add(new Update(token, action));
+        if (draining.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    /**
+     * A consumer a task can call as often as it likes; the EDT gets only the
+     * latest value each time it gets to run, as with SwingWorker's publish.
+     */
+    public IntConsumer progress(Token token, IntConsumer action) {
+        AtomicInteger latest = new AtomicInteger();
+        AtomicBoolean posted = new AtomicBoolean();
+        return value -> {
+            latest.set(value);
+            if (posted.compareAndSet(false, true)) {
+                publish(token, () -> {
+                    posted.set(false);
+                    action.accept(latest.get());
+                });
+            }
+        };
+    }
+
+    public synchronized int queued() {
+        int count = 0;
+        for (ArrayDeque<Token> queue : queues.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Cancels every task and stops taking new ones. Running tasks see their
+     * tokens cancelled, not an interrupt, and are given up to
+     * {@code waitMillis} to finish.
+     */
+    public void shutdown(long waitMillis) {
+        synchronized (this) {
+            closed = true;
+            for (ArrayDeque<Token> queue : queues.values()) {
+                queue.forEach(Token::cancel);
+                queue.clear();
+            }
+            keyed.values().forEach(Token::cancel);
+            keyed.clear();
+        }
+        running.forEach(Token::cancel);
+        // The timer only queues delayed tasks, so dropping its pending ones interrupts no task
+        timer.shutdownNow();
+        threads.shutdown();
+        try {
+            threads.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown(2000);
+    }
+
+    private void schedule(Token token, long delayMillis) {
+        if (delayMillis <= 0) {
+            enqueue(token);
+            return;
+        }
+        try {
+            token.delay = timer.schedule(() -> enqueue(token), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            token.cancel();
+            return;
+        }
+        // A cancel that raced the assignment above missed the delay
+        if (token.isCancelled()) {
+            token.delay.cancel(false);
+        }
+    }
+
+    private void enqueue(Token token) {
+        synchronized (this) {
+            if (token.isCancelled() || closed) {
+                return;
+            }
+            token.queuedAt = System.nanoTime();
+            queues.get(token.lane).add(token);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (true) {
+            Token next;
+            synchronized (this) {
+                next = queues.get(Lane.SEARCH).poll();
+                if (next == null && backgroundRunning < BACKGROUND_SLOTS) {
+                    for (Lane lane : Lane.values()) {
+                        if (lane != Lane.SEARCH && (next = queues.get(lane).poll()) != null) {
+                            backgroundRunning++;
+                            break;
+                        }
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                next.started = true;
+            }
+            Token task = next;
+            try {
+                threads.execute(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                task.cancel();
+                finished(task);
+            }
+        }
+    }
+
+    private void run(Token token) {
+        running.add(token);
+        try {
+            if (!token.isCancelled()) {
+                Metrics.TASK_WAIT.record(token.queuedAt);
+                token.job.run(token);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception | Error e) {
+            if (!token.isCancelled()) {
+                Metrics.TASKS_FAILED.increment();
+                Failure failure = new Failure(token.lane, e);
+                publish(null, () -> onFailure.accept(failure));
+            }
+        } finally {
+            running.remove(token);
+            finished(token);
+            dispatch();
+        }
+    }
+
+    private synchronized void finished(Token token) {
+        if (token.lane != Lane.SEARCH) {
+            backgroundRunning--;
+        }
+        if (token.key != null) {
+            keyed.remove(token.key, token);
+        }
+    }
+
+    private void drain() {
+        long deadline = System.nanoTime() + PUBLISH_BUDGET_NANOS;
+        Update update;
+        while ((update = updates.poll()) != null) {
+            if (update.token == null || !update.token.isCancelled()) {
+                update.action.run();
+            }
+            if (System.nanoTime() > deadline && !updates.isEmpty()) {
+                // Let input events in before the rest
+                SwingUtilities.invokeLater(this::drain);
+                return;
+            }
+        }
+        draining.set(false);
+        // An update added after the poll above but before the flag cleared
+        if (!updates.isEmpty() && draining.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    /**
+     * Virtual threads where the runtime has them (Java 21 on), looked up
+     * reflectively so the app still builds and runs on 17.
+     */
+    static ThreadFactory threadFactory(String prefix) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualClass));
+            MethodHandle name = lookup.findVirtual(virtualClass, "name",
+                    MethodType.methodType(virtualClass, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+            return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(), prefix, 0L));
+        } catch (Throwable e) {
+            AtomicInteger count = new AtomicInteger();
+            return r -> {
+                Thread t = new Thread(r, prefix + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    static boolean virtualThreads() {
+        return threadFactory("probe-").newThread(() -> {}).getClass().getName().contains("Virtual");
+    }
+}
@@ -0,0 +1,711 @@
+package eng.veltic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Word index for ranked search, owned by {@link NoteIndex} and used under its
+ * lock. Not thread-safe.
+ *
+ * Titles and contents are split into lowercase words. Every word keeps a
+ * posting list of the docs that contain it, sorted by doc, with how often it
+ * occurs in the title and in the content. A query matches the notes that
+ * contain each of its words, either exactly, as a prefix, or within one or two
+ * edits; the near misses come from walking the sorted vocabulary as a trie,
+ * which skips every word under a prefix already too far off. Matches are
+ * ranked by BM25 with a title occurrence counting {@link #TITLE_BOOST} times.
+ *
+ * A query walks the postings of its rarest word and skips ahead in the
+ * others; words common enough to be in one note in {@link #DENSE_RATIO} also
+ * keep a bitset, which rules most docs out with a bit test before any skip.
+ * Only the best {@code limit} matches are ever sorted.
+ */
+final class TermIndex {
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int TITLE_BOOST = 3;
+    private static final float PREFIX_WEIGHT = 0.7f;
+    private static final float FUZZY_WEIGHT = 0.5f;
+    // Per query word: prefix expansions scanned, and the most common of them kept
+    private static final int PREFIX_SCAN = 512;
+    private static final int MAX_PREFIXES = 32;
+    private static final int MAX_QUERY_WORDS = 16;
+    // A term in at least one doc in this many is common enough to keep a bitset for
+    private static final int DENSE_RATIO = 16;
+    // Postings of the leading word between checks for cancellation
+    private static final int CHECK_INTERVAL = 1 << 16;
+    // Longer words (hashes, URLs) are indexed but not offered as fuzzy matches
+    private static final int MAX_FUZZY_LENGTH = 32;
+    private static final int[] NO_TERMS = new int[0];
+
+    private final TreeMap<String, Term> vocabulary = new TreeMap<>();
+    private final List<Term> terms = new ArrayList<>();
+    // Per doc: sorted ids of its terms, and its length in title-weighted words
+    private int[][] docTerms = new int[16][];
+    private int[] docLengths = new int[16];
+    private long totalLength;
+    private int docCount;
+
+    // BM25's length normalization for the current query: base + scale * length
+    private float normBase;
+    private float normScale;
+
+    /**
+     * Indexes the note as doc, replacing whatever the doc held before.
+     */
+    void index(int doc, String title, String content) {
+        Map<String, int[]> counts = new HashMap<>();
+        int length = TITLE_BOOST * countWords(title, counts, 0) + countWords(content, counts, 1);
+
+        // Term id above its packed counts, so sorting orders by term
+        long[] entries = new long[counts.size()];
+        int n = 0;
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int[] count = entry.getValue();
+            entries[n++] = (long) term(entry.getKey()).id << 16 | Math.min(count[0], 255) << 8 | Math.min(count[1], 255);
+        }
+        Arrays.sort(entries);
+        int[] newTerms = new int[entries.length];
+        for (int e = 0; e < entries.length; e++) {
+            newTerms[e] = (int) (entries[e] >>> 16);
+        }
+
+        ensureDoc(doc);
+        int[] oldTerms = docTerms[doc] != null ? docTerms[doc] : NO_TERMS;
+        // Both sorted: a merge walk finds the removed, kept and added terms
+        int i = 0;
+        int j = 0;
+        while (i < oldTerms.length || j < newTerms.length) {
+            if (j == newTerms.length || (i < oldTerms.length && oldTerms[i] < newTerms[j])) {
+                terms.get(oldTerms[i++]).remove(doc);
+            } else {
+                if (i < oldTerms.length && oldTerms[i] == newTerms[j]) {
+                    i++;
+                }
+                terms.get(newTerms[j]).put(doc, (char) entries[j]);
+                j++;
+            }
+        }
+        if (docTerms[doc] == null) {
+            docCount++;
+        }
+        totalLength += length - docLengths[doc];
+        docTerms[doc] = newTerms;
+        docLengths[doc] = length;
+    }
+
+    void remove(int doc) {
+        if (doc >= docTerms.length || docTerms[doc] == null) {
+            return;
+        }
+        for (int id : docTerms[doc]) {
+            terms.get(id).remove(doc);
+        }
+        totalLength -= docLengths[doc];
+        docTerms[doc] = null;
+        docLengths[doc] = 0;
+        docCount--;
+    }
+
+    /**
+     * Moves every doc to {@code moved[doc]}, for {@code docs} docs in all.
+     * The moves must keep docs in order; removed docs have nothing to move.
+     */
+    void renumber(int[] moved, int docs) {
+        for (Term term : terms) {
+            for (int p = 0; p < term.size; p++) {
+                term.docs[p] = moved[term.docs[p]];
+            }
+            term.bits = null;
+        }
+        int[][] movedTerms = new int[Math.max(16, docs)][];
+        int[] movedLengths = new int[movedTerms.length];
+        for (int doc = 0; doc < Math.min(docTerms.length, moved.length); doc++) {
+            if (docTerms[doc] != null) {
+                movedTerms[moved[doc]] = docTerms[doc];
+                movedLengths[moved[doc]] = docLengths[doc];
+            }
+        }
+        docTerms = movedTerms;
+        docLengths = movedLengths;
+    }
+
+    /**
+     * The docs that match every word of the query and, if given, are in
+     * {@code within}, best first. Returns an empty ranking once
+     * {@code cancelled} reports true.
+     *
+     * Matching runs a document at a time: one sorted cursor per query word,
+     * led by the shortest, and a doc the lead visits is only scored once
+     * every other cursor has skipped ahead to it. When a query word stands
+     * for several terms, a doc that has more than one of them scores for each.
+     */
+    Ranking rank(String query, NoteBitmap within, int limit, BooleanSupplier cancelled) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(words(query)));
+        if (words.size() > MAX_QUERY_WORDS) {
+            words = words.subList(0, MAX_QUERY_WORDS);
+        }
+        Set<String> matchedWords = new LinkedHashSet<>();
+        List<List<Expansion>> expansions = new ArrayList<>();
+        for (String word : words) {
+            List<Expansion> expanded = expand(word);
+            if (expanded.isEmpty()) {
+                return Ranking.EMPTY;
+            }
+            for (Expansion expansion : expanded) {
+                matchedWords.add(expansion.term.word);
+            }
+            expansions.add(expanded);
+        }
+        if (expansions.isEmpty()) {
+            return Ranking.EMPTY;
+        }
+
+        float averageLength = docCount > 0 ? Math.max(1, (float) totalLength / docCount) : 1;
+        normBase = K1 * (1 - B);
+        normScale = K1 * B / averageLength;
+        List<Cursor> cursors = new ArrayList<>();
+        for (List<Expansion> expanded : expansions) {
+            cursors.add(cursor(expanded));
+        }
+        if (within != null) {
+            int[] docs = new int[within.cardinality()];
+            int[] n = {0};
+            within.forEach(doc -> docs[n[0]++] = doc);
+            cursors.add(new Cursor(docs, docs.length, null, null, null, 0));
+        }
+        cursors.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        Cursor lead = cursors.get(0);
+        Cursor[] others = cursors.subList(1, cursors.size()).toArray(new Cursor[0]);
+        int[] hits = new int[lead.size];
+        float[] hitScores = new float[lead.size];
+        int matched = 0;
+        for (int from = 0; from < lead.size; from += CHECK_INTERVAL) {
+            if (cancelled.getAsBoolean()) {
+                return Ranking.EMPTY;
+            }
+            int to = Math.min(lead.size, from + CHECK_INTERVAL);
+            matched = others.length == 0
+                    ? lead.scoreAll(from, to, hits, hitScores, matched)
+                    : match(lead, from, to, others, hits, hitScores, matched);
+        }
+
+        int[] best = top(hitScores, matched, limit);
+        int[] top = new int[best.length];
+        float[] topScores = new float[best.length];
+        for (int t = 0; t < best.length; t++) {
+            top[t] = hits[best[t]];
+            topScores[t] = hitScores[best[t]];
+        }
+        return new Ranking(top, topScores, Arrays.copyOf(hits, matched), matchedWords);
+    }
+
+    // Scores the lead's docs from..to that every other cursor also has into
+    // hits, returns the new hit count
+    private static int match(Cursor lead, int from, int to, Cursor[] others, int[] hits, float[] hitScores,
+                             int matched) {
+        next:
+        for (int p = from; p < to; p++) {
+            int doc = lead.docs[p];
+            // Bit tests are cheaper than skips; only a doc every common term has is skipped to
+            for (Cursor other : others) {
+                if (!other.mayContain(doc)) {
+                    continue next;
+                }
+            }
+            for (Cursor other : others) {
+                if (!other.advance(doc)) {
+                    continue next;
+                }
+            }
+            float score = lead.score(p, doc);
+            for (Cursor other : others) {
+                score += other.score(other.pos, doc);
+            }
+            hits[matched] = doc;
+            hitScores[matched++] = score;
+        }
+        return matched;
+    }
+
+    // A word that stands for one term reads its postings in place; several
+    // terms are merged up front into one list of docs with summed scores
+    private Cursor cursor(List<Expansion> expanded) {
+        if (expanded.size() == 1) {
+            Expansion expansion = expanded.get(0);
+            Term term = expansion.term;
+            long[] bits = (long) term.size * DENSE_RATIO >= docCount ? term.bits() : null;
+            return new Cursor(term.docs, term.size, term.freqs, null, bits, weight(expansion));
+        }
+        // Doc above the score's bits, so sorting orders by doc
+        long[] entries = new long[(int) postings(expanded)];
+        int n = 0;
+        for (Expansion expansion : expanded) {
+            Term term = expansion.term;
+            float weight = weight(expansion);
+            for (int p = 0; p < term.size; p++) {
+                float score = weight * saturate(term.freqs[p], docLengths[term.docs[p]]);
+                entries[n++] = (long) term.docs[p] << 32 | Float.floatToRawIntBits(score) & 0xFFFFFFFFL;
+            }
+        }
+        Arrays.sort(entries);
+        int[] docs = new int[n];
+        float[] scores = new float[n];
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            int doc = (int) (entries[i] >>> 32);
+            float score = Float.intBitsToFloat((int) entries[i]);
+            if (distinct > 0 && docs[distinct - 1] == doc) {
+                scores[distinct - 1] += score;
+            } else {
+                docs[distinct] = doc;
+                scores[distinct++] = score;
+            }
+        }
+        return new Cursor(docs, distinct, null, scores, null, 0);
+    }
+
+    private float weight(Expansion expansion) {
+        Term term = expansion.term;
+        // BM25's idf, with the (k1 + 1) numerator folded in
+        double idf = Math.log(1 + (docCount - term.size + 0.5) / (term.size + 0.5));
+        return (float) (expansion.weight * idf * (K1 + 1));
+    }
+
+    private float saturate(char freq, int length) {
+        float tf = TITLE_BOOST * (freq >>> 8) + (freq & 0xFF);
+        return tf / (tf + normBase + normScale * length);
+    }
+
+    // Indexes of the best limit of count scores, best first; ties go to the later index, the newer doc
+    private static int[] top(float[] scores, int count, int limit) {
+        int k = Math.min(limit, count);
+        int[] heap = new int[k];
+        int size = 0;
+        // Latest first, so an index that only ties the worst kept one never displaces it
+        for (int i = count - 1; i >= 0; i--) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(scores, heap, size++);
+            } else if (k > 0 && better(scores, i, heap[0])) {
+                heap[0] = i;
+                siftDown(scores, heap, 0, size);
+            }
+        }
+        // Pop the worst to the back, leaving the array best first
+        for (int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(scores, heap, 0, end);
+        }
+        return heap;
+    }
+
+    private static boolean better(float[] scores, int a, int b) {
+        return scores[a] > scores[b] || scores[a] == scores[b] && a > b;
+    }
+
+    // Min-heap on score, so the root is the worst of the kept indexes
+    private static void siftUp(float[] scores, int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(scores, heap[parent], heap[i])) {
+                return;
+            }
+            int swap = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = swap;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(float[] scores, int[] heap, int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && better(scores, heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(scores, heap[i], heap[child])) {
+                return;
+            }
+            int swap = heap[child];
+            heap[child] = heap[i];
+            heap[i] = swap;
+            i = child;
+        }
+    }
+
+    // The vocabulary words a query word stands for: itself, longer words it
+    // starts, and words a few edits away
+    private List<Expansion> expand(String word) {
+        Map<Term, Expansion> found = new HashMap<>();
+        Term exact = vocabulary.get(word);
+        if (exact != null && exact.size > 0) {
+            found.put(exact, new Expansion(exact, 1));
+        }
+        if (word.length() >= 2) {
+            List<Term> prefixed = new ArrayList<>();
+            int scanned = 0;
+            for (Term term : vocabulary.tailMap(word, false).values()) {
+                if (!term.word.startsWith(word) || scanned++ == PREFIX_SCAN) {
+                    break;
+                }
+                if (term.size > 0) {
+                    prefixed.add(term);
+                }
+            }
+            prefixed.sort((a, b) -> Integer.compare(b.size, a.size));
+            for (Term term : prefixed.subList(0, Math.min(MAX_PREFIXES, prefixed.size()))) {
+                found.put(term, new Expansion(term, PREFIX_WEIGHT));
+            }
+        }
+        int edits = maxEdits(word);
+        if (edits > 0) {
+            for (Term term : near(word, edits)) {
+                found.putIfAbsent(term, new Expansion(term, FUZZY_WEIGHT));
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    // Vocabulary words within max edits of word that are in some doc. The
+    // sorted vocabulary is walked as a trie: a word reuses the edit distance
+    // rows of the prefix it shares with the one before, and once a prefix's
+    // row is all over max, every word that starts with it is skipped.
+    private List<Term> near(String word, int max) {
+        List<Term> found = new ArrayList<>();
+        int m = word.length();
+        // A row's minimum is at least its depth minus m, so no row past this one is in reach
+        int[][] rows = new int[m + max + 2][m + 2];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        String previous = "";
+        // Rows 0..valid hold the prefixes of previous
+        int valid = 0;
+        Map.Entry<String, Term> entry = vocabulary.firstEntry();
+        while (entry != null) {
+            String candidate = entry.getKey();
+            int depth = 0;
+            int limit = Math.min(valid, Math.min(previous.length(), candidate.length()));
+            while (depth < limit && previous.charAt(depth) == candidate.charAt(depth)) {
+                depth++;
+            }
+            int dead = -1;
+            for (; depth < candidate.length(); depth++) {
+                int[] above = rows[depth];
+                int[] row = rows[depth + 1];
+                char c = candidate.charAt(depth);
+                // Only cells within max of the diagonal can be in reach; the ones
+                // just outside the band are marked over max for the next row
+                int from = Math.max(1, depth + 1 - max);
+                int to = Math.min(m, depth + 1 + max);
+                row[from - 1] = from == 1 ? depth + 1 : max + 1;
+                int best = row[from - 1];
+                for (int j = from; j <= to; j++) {
+                    int cost = word.charAt(j - 1) == c ? 0 : 1;
+                    row[j] = Math.min(Math.min(row[j - 1], above[j]) + 1, above[j - 1] + cost);
+                    best = Math.min(best, row[j]);
+                }
+                if (to < m) {
+                    row[to + 1] = max + 1;
+                }
+                if (best > max) {
+                    dead = depth + 1;
+                    break;
+                }
+            }
+            previous = candidate;
+            if (dead < 0) {
+                valid = candidate.length();
+                Term term = entry.getValue();
+                // Outside the band the last cell is stale, and that far off anyway
+                if (m - valid <= max && rows[valid][m] <= max && term.size > 0 && valid <= MAX_FUZZY_LENGTH) {
+                    found.add(term);
+                }
+                entry = vocabulary.higherEntry(candidate);
+                continue;
+            }
+            valid = dead - 1;
+            char last = candidate.charAt(dead - 1);
+            entry = last == Character.MAX_VALUE ? vocabulary.higherEntry(candidate)
+                    : vocabulary.ceilingEntry(candidate.substring(0, dead - 1) + (char) (last + 1));
+        }
+        return found;
+    }
+
+    // Short words have too many neighbours one edit away to be worth fuzzing
+    private static int maxEdits(String word) {
+        return word.length() < 4 ? 0 : word.length() < 8 ? 1 : 2;
+    }
+
+    private static long postings(List<Expansion> expanded) {
+        long total = 0;
+        for (Expansion expansion : expanded) {
+            total += expansion.term.size;
+        }
+        return total;
+    }
+
+    private Term term(String word) {
+        Term term = vocabulary.get(word);
+        if (term == null) {
+            term = new Term(word, terms.size());
+            vocabulary.put(word, term);
+            terms.add(term);
+        }
+        return term;
+    }
+
+    private void ensureDoc(int doc) {
+        if (doc >= docTerms.length) {
+            int capacity = Math.max(doc + 1, docTerms.length * 2);
+            docTerms = Arrays.copyOf(docTerms, capacity);
+            docLengths = Arrays.copyOf(docLengths, capacity);
+        }
+    }
+
+    // Counts the words of text into counts[word][field], returns how many there were
+    private static int countWords(String text, Map<String, int[]> counts, int field) {
+        int total = 0;
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                counts.computeIfAbsent(NoteIndex.lowerCase(text.substring(start, i)), w -> new int[2])[field]++;
+                total++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The lowercase words of text, in order, as the index splits them.
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                words.add(NoteIndex.lowerCase(text.substring(start, i)));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Start and end offsets, in pairs, of the words of text that are in
+     * {@code matched}, such as the words a {@link Ranking} matched.
+     */
+    static int[] highlights(String text, Collection<String> matched) {
+        int[] ranges = new int[16];
+        int n = 0;
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start && matched.contains(NoteIndex.lowerCase(text.substring(start, i)))) {
+                if (n + 2 > ranges.length) {
+                    ranges = Arrays.copyOf(ranges, n * 2);
+                }
+                ranges[n++] = start;
+                ranges[n++] = i;
+            }
+        }
+        return Arrays.copyOf(ranges, n);
+    }
+
+    /**
+     * Matching docs of one query: the best ones in rank order with their
+     * scores, every match in doc order, and the vocabulary words that matched.
+     */
+    static final class Ranking {
+        static final Ranking EMPTY = new Ranking(new int[0], new float[0], new int[0], Set.of());
+
+        final int[] top;
+        final float[] scores;
+        final int[] matched;
+        final Set<String> words;
+
+        Ranking(int[] top, float[] scores, int[] matched, Set<String> words) {
+            this.top = top;
+            this.scores = scores;
+            this.matched = matched;
+            this.words = words;
+        }
+    }
+
+    private static final class Term {
+        final String word;
+        final int id;
+        int[] docs = new int[2];
+        // Title count in the high byte, content count in the low byte, both capped at 255
+        char[] freqs = new char[2];
+        int size;
+        // Membership bit per doc, built the first time the term is queried as a common one
+        long[] bits;
+
+        Term(String word, int id) {
+            this.word = word;
+            this.id = id;
+        }
+
+        void put(int doc, char freq) {
+            int pos = size == 0 || docs[size - 1] < doc ? -size - 1 : Arrays.binarySearch(docs, 0, size, doc);
+            if (pos >= 0) {
+                freqs[pos] = freq;
+                return;
+            }
+            int insertAt = -pos - 1;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            System.arraycopy(docs, insertAt, docs, insertAt + 1, size - insertAt);
+            System.arraycopy(freqs, insertAt, freqs, insertAt + 1, size - insertAt);
+            docs[insertAt] = doc;
+            freqs[insertAt] = freq;
+            size++;
+            if (bits != null) {
+                if (doc >>> 6 >= bits.length) {
+                    bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (doc >>> 6) + 1));
+                }
+                bits[doc >>> 6] |= 1L << doc;
+            }
+        }
+
+        void remove(int doc) {
+            int pos = Arrays.binarySearch(docs, 0, size, doc);
+            if (pos >= 0) {
+                System.arraycopy(docs, pos + 1, docs, pos, size - pos - 1);
+                System.arraycopy(freqs, pos + 1, freqs, pos, size - pos - 1);
+                size--;
+                if (bits != null) {
+                    bits[doc >>> 6] &= ~(1L << doc);
+                }
+            }
+        }
+
+        long[] bits() {
+            if (bits == null) {
+                long[] built = new long[size > 0 ? (docs[size - 1] >>> 6) + 1 : 1];
+                for (int p = 0; p < size; p++) {
+                    built[docs[p] >>> 6] |= 1L << docs[p];
+                }
+                bits = built;
+            }
+            return bits;
+        }
+    }
+
+    // Walks one sorted list of docs, scored from term counts, from precomputed
+    // scores, or not at all
+    private final class Cursor {
+        final int[] docs;
+        final int size;
+        final char[] freqs;
+        final float[] scores;
+        // Set for a common term, to rule docs out without walking its postings
+        final long[] bits;
+        final float weight;
+        int pos;
+
+        Cursor(int[] docs, int size, char[] freqs, float[] scores, long[] bits, float weight) {
+            this.docs = docs;
+            this.size = size;
+            this.freqs = freqs;
+            this.scores = scores;
+            this.bits = bits;
+            this.weight = weight;
+        }
+
+        boolean mayContain(int doc) {
+            return bits == null || doc >>> 6 < bits.length && (bits[doc >>> 6] & 1L << doc) != 0;
+        }
+
+        // Moves to the first doc at or after target, galloping over long gaps;
+        // true if that doc is target
+        boolean advance(int target) {
+            if (pos == size || docs[pos] >= target) {
+                return pos < size && docs[pos] == target;
+            }
+            // docs[low] < target, and the first doc at or after it is at most high
+            int low = pos;
+            int step = 1;
+            int high = pos + 1;
+            while (high < size && docs[high] < target) {
+                low = high;
+                step <<= 1;
+                high = low + step;
+            }
+            high = Math.min(high, size);
+            while (low + 1 < high) {
+                int mid = (low + high) >>> 1;
+                if (docs[mid] < target) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            pos = high;
+            return pos < size && docs[pos] == target;
+        }
+
+        // Copies docs from..to with their scores into hits, returns the new hit count
+        int scoreAll(int from, int to, int[] hits, float[] hitScores, int matched) {
+            System.arraycopy(docs, from, hits, matched, to - from);
+            for (int p = from; p < to; p++) {
+                hitScores[matched++] = score(p, docs[p]);
+            }
+            return matched;
+        }
+
+        float score(int p, int doc) {
+            if (freqs != null) {
+                return weight * saturate(freqs[p], docLengths[doc]);
+            }
+            return scores != null ? scores[p] : 0;
+        }
+    }
+
+    private static final class Expansion {
+        final Term term;
+        final float weight;
+
+        Expansion(Term term, float weight) {
+            this.term = term;
+            this.weight = weight;
+        }
+    }
+}
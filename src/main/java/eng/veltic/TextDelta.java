@@ -0,0 +1,263 @@
+package eng.veltic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Edit scripts between two versions of a text, for revision history.
+ *
+ * A delta is a run of COPY ops, which reuse a stretch of the base text, and
+ * INSERT ops, which carry new characters. The common prefix and suffix become
+ * one COPY each. In between, the base is cut into {@link #BLOCK}-char blocks
+ * indexed by hash and the target is scanned with a rolling hash, so text that
+ * survived several scattered edits or moved is still copied rather than
+ * stored again. Encoding and applying are linear in the length of the texts.
+ *
+ * Lengths and offsets are varints, and inserted chars are varints of their
+ * UTF-16 value, so surrogate pairs split across ops survive intact.
+ */
+final class TextDelta {
+    private static final int BLOCK = 16;
+    private static final int HASH_BASE = 31;
+    // HASH_BASE to the power BLOCK - 1, to drop the outgoing char from a rolling hash
+    private static final int HASH_OUT;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= HASH_BASE;
+        }
+        HASH_OUT = power;
+    }
+
+    private TextDelta() {}
+
+    static byte[] encode(String base, String target) {
+        int limit = Math.min(base.length(), target.length());
+        int prefix = 0;
+        while (prefix < limit && base.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && base.charAt(base.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        Script script = new Script(base.length(), target.length());
+        script.copy(0, prefix);
+        matchBlocks(base, prefix, base.length() - suffix, target, prefix, target.length() - suffix, script);
+        script.copy(base.length() - suffix, suffix);
+        return script.finish();
+    }
+
+    /**
+     * Rebuilds the target text from the base the delta was encoded against.
+     */
+    static String apply(String base, byte[] delta) throws IOException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(delta);
+            int baseLength = readVarint(in);
+            int targetLength = readVarint(in);
+            if (baseLength != base.length()) {
+                throw new IOException("Delta expects a base of " + baseLength + " chars, got " + base.length());
+            }
+            StringBuilder text = new StringBuilder(targetLength);
+            while (in.hasRemaining()) {
+                byte op = in.get();
+                if (op == COPY) {
+                    int offset = readVarint(in);
+                    int length = readVarint(in);
+                    if (offset < 0 || length < 0 || offset > baseLength - length) {
+                        throw new IOException("Delta copies outside its base");
+                    }
+                    text.append(base, offset, offset + length);
+                } else if (op == INSERT) {
+                    int length = readVarint(in);
+                    for (int i = 0; i < length; i++) {
+                        text.append((char) readVarint(in));
+                    }
+                } else {
+                    throw new IOException("Unknown delta op " + op);
+                }
+            }
+            if (text.length() != targetLength) {
+                throw new IOException("Delta produced " + text.length() + " chars, expected " + targetLength);
+            }
+            return text.toString();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated delta", e);
+        }
+    }
+
+    private static void matchBlocks(String base, int baseStart, int baseEnd, String target, int start, int end,
+                                    Script script) {
+        if (baseEnd - baseStart < BLOCK || end - start < BLOCK) {
+            script.insert(target, start, end);
+            return;
+        }
+        BlockTable blocks = new BlockTable((baseEnd - baseStart) / BLOCK);
+        for (int p = baseStart; p + BLOCK <= baseEnd; p += BLOCK) {
+            blocks.put(hash(base, p), p);
+        }
+
+        int pending = start;
+        int i = start;
+        int h = hash(target, i);
+        while (i + BLOCK <= end) {
+            int match = blocks.find(h, base, target, i);
+            if (match < 0) {
+                if (i + BLOCK == end) {
+                    break;
+                }
+                h = (h - target.charAt(i) * HASH_OUT) * HASH_BASE + target.charAt(i + BLOCK);
+                i++;
+                continue;
+            }
+            // Grow the match backwards over unmatched text, then forwards as far as it goes
+            int back = 0;
+            while (i - back > pending && match - back > baseStart
+                    && base.charAt(match - back - 1) == target.charAt(i - back - 1)) {
+                back++;
+            }
+            int from = i - back;
+            int baseFrom = match - back;
+            int length = BLOCK + back;
+            while (from + length < end && baseFrom + length < baseEnd
+                    && base.charAt(baseFrom + length) == target.charAt(from + length)) {
+                length++;
+            }
+            script.insert(target, pending, from);
+            script.copy(baseFrom, length);
+            i = from + length;
+            pending = i;
+            if (i + BLOCK <= end) {
+                h = hash(target, i);
+            }
+        }
+        script.insert(target, pending, end);
+    }
+
+    private static int hash(String text, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            h = h * HASH_BASE + text.charAt(i);
+        }
+        return h;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in delta");
+    }
+
+    // Collects ops, merging a copy that continues the previous one
+    private static final class Script {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int copyOffset;
+        private int copyLength;
+
+        Script(int baseLength, int targetLength) {
+            writeVarint(out, baseLength);
+            writeVarint(out, targetLength);
+        }
+
+        void copy(int offset, int length) {
+            if (length == 0) {
+                return;
+            }
+            if (copyLength > 0 && copyOffset + copyLength == offset) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        void insert(String text, int from, int to) {
+            if (from == to) {
+                return;
+            }
+            flushCopy();
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            for (int i = from; i < to; i++) {
+                writeVarint(out, text.charAt(i));
+            }
+        }
+
+        byte[] finish() {
+            flushCopy();
+            return out.toByteArray();
+        }
+
+        private void flushCopy() {
+            if (copyLength > 0) {
+                out.write(COPY);
+                writeVarint(out, copyOffset);
+                writeVarint(out, copyLength);
+                copyLength = 0;
+            }
+        }
+    }
+
+    // Block hash to the first base offset with that hash, open addressing
+    private static final class BlockTable {
+        private final int[] hashes;
+        private final int[] offsets;
+
+        BlockTable(int blocks) {
+            int capacity = Integer.highestOneBit(Math.max(4, blocks) * 2 - 1) << 1;
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+        }
+
+        void put(int hash, int offset) {
+            int mask = offsets.length - 1;
+            int slot = mix(hash) & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            offsets[slot] = offset + 1;
+        }
+
+        // Base offset of a block equal to target's BLOCK chars at start, or -1
+        int find(int hash, String base, String target, int start) {
+            int mask = offsets.length - 1;
+            for (int slot = mix(hash) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && base.regionMatches(offsets[slot] - 1, target, start, BLOCK)) {
+                    return offsets[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        private static int mix(int hash) {
+            return hash * 0x9E3779B9 >>> 7 ^ hash;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package eng.veltic;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Keeps a running word count for a document by looking only at the region an
+ * edit touches. A word starts at every non-whitespace character whose
+ * predecessor is whitespace (or the document start), which gives the same
+ * count as {@code text.trim().split("\\s+")}.
+ *
+ * Inserts are applied after the fact; removals have to be reported before the
+ * text disappears. A full recount runs every {@link #RECOUNT_INTERVAL} edits to
+ * catch any drift.
+ */
+class WordCounter {
+    private static final int RECOUNT_INTERVAL = 1000;
+
+    private final Segment segment = new Segment();
+    private int words;
+    private int editsSinceRecount;
+
+    public int getWords() {
+        return words;
+    }
+
+    public boolean needsRecount() {
+        return editsSinceRecount >= RECOUNT_INTERVAL;
+    }
+
+    public void recount(Document doc) {
+        words = countStarts(doc, 0, doc.getLength());
+        editsSinceRecount = 0;
+    }
+
+    /**
+     * Call after {@code length} characters were inserted at {@code offset}.
+     */
+    public void inserted(Document doc, int offset, int length) {
+        int end = offset + length;
+        // The character after the insert used to follow the one before it
+        boolean nextWasStart = end < doc.getLength()
+                && !isWhitespace(charAt(doc, end))
+                && (offset == 0 || isWhitespace(charAt(doc, offset - 1)));
+        words += countStarts(doc, offset, Math.min(end + 1, doc.getLength())) - (nextWasStart ? 1 : 0);
+        editsSinceRecount++;
+    }
+
+    /**
+     * Call before {@code length} characters are removed at {@code offset}.
+     */
+    public void removing(Document doc, int offset, int length) {
+        int end = offset + length;
+        // Afterwards the character after the removed range follows the one before it
+        boolean nextWillStart = end < doc.getLength()
+                && !isWhitespace(charAt(doc, end))
+                && (offset == 0 || isWhitespace(charAt(doc, offset - 1)));
+        words += (nextWillStart ? 1 : 0) - countStarts(doc, offset, Math.min(end + 1, doc.getLength()));
+        editsSinceRecount++;
+    }
+
+    // Word starts at positions [from, to), judging the first one by the character before it
+    private int countStarts(Document doc, int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        try {
+            segment.setPartialReturn(true);
+            int count = 0;
+            boolean previousWhitespace = from == 0 || isWhitespace(charAt(doc, from - 1));
+            int position = from;
+            while (position < to) {
+                doc.getText(position, to - position, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    boolean whitespace = isWhitespace(segment.array[segment.offset + i]);
+                    if (!whitespace && previousWhitespace) {
+                        count++;
+                    }
+                    previousWhitespace = whitespace;
+                }
+                position += segment.count;
+            }
+            return count;
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Bad word count region " + from + ".." + to, e);
+        }
+    }
+
+    private char charAt(Document doc, int position) {
+        try {
+            doc.getText(position, 1, segment);
+            return segment.array[segment.offset];
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Bad word count position " + position, e);
+        }
+    }
+
+    // The same set as the regex \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,97 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class BodyChunkerTest {
+    @Test
+    void keepsChunksBetweenTheMinimumAndMaximum() {
+        SplittableRandom random = new SplittableRandom(25);
+        for (int round = 0; round < 20; round++) {
+            byte[] body = text(random, random.nextInt(100_000));
+            List<Integer> ends = ends(body);
+            int start = 0;
+            for (int i = 0; i < ends.size(); i++) {
+                int length = ends.get(i) - start;
+                assertTrue(length <= BodyChunker.MAX_CHUNK, "chunk " + i + " of " + length + " bytes");
+                // Only the last chunk can come up short
+                assertTrue(length >= BodyChunker.MIN_CHUNK || i == ends.size() - 1,
+                        "chunk " + i + " of " + length + " bytes");
+                start = ends.get(i);
+            }
+            assertEquals(body.length, start);
+        }
+    }
+
+    @Test
+    void keepsShortBodiesWhole() {
+        assertEquals(0, BodyChunker.end(new byte[0], 0));
+        byte[] body = text(new SplittableRandom(1), BodyChunker.MIN_CHUNK);
+        assertEquals(body.length, BodyChunker.end(body, 0));
+        assertEquals(body.length, BodyChunker.end(body, body.length - 10));
+    }
+
+    @Test
+    void cutsTextWithoutBoundariesAtTheMaximum() {
+        byte[] body = new byte[3 * BodyChunker.MAX_CHUNK + 100];
+        Arrays.fill(body, (byte) ' ');
+        assertEquals(List.of(BodyChunker.MAX_CHUNK, 2 * BodyChunker.MAX_CHUNK, 3 * BodyChunker.MAX_CHUNK,
+                body.length), ends(body));
+    }
+
+    @Test
+    void linesChunksUpAgainAfterAnEdit() {
+        byte[] body = text(new SplittableRandom(8), 60_000);
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        byte[] edited = (text.substring(0, 1000) + "a few words typed in " + text.substring(1000))
+                .getBytes(StandardCharsets.ISO_8859_1);
+        List<Integer> before = ends(body);
+        List<Integer> after = ends(edited);
+        int shift = edited.length - body.length;
+        int kept = 0;
+        for (int end : before) {
+            if (end > 1000 + BodyChunker.MAX_CHUNK && after.contains(end + shift)) {
+                kept++;
+            }
+        }
+        int past = (int) before.stream().filter(end -> end > 1000 + BodyChunker.MAX_CHUNK).count();
+        assertEquals(past, kept, "boundaries well past the edit that moved");
+    }
+
+    @Test
+    void addressesChunksByContent() {
+        MessageDigest sha256 = BodyChunker.sha256();
+        byte[] body = "the same words, then the same words".getBytes(StandardCharsets.UTF_8);
+        long[] first = BodyChunker.address(sha256, body, 0, 14);
+        assertArrayEquals(first, BodyChunker.address(sha256, body, 21, 14));
+        assertFalse(Arrays.equals(first, BodyChunker.address(sha256, body, 0, 15)));
+    }
+
+    private static List<Integer> ends(byte[] body) {
+        List<Integer> ends = new ArrayList<>();
+        int start = 0;
+        do {
+            start = BodyChunker.end(body, start);
+            ends.add(start);
+        } while (start < body.length);
+        return ends;
+    }
+
+    private static byte[] text(SplittableRandom random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append("word").append(random.nextInt(5000)).append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
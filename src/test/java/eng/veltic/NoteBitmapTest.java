@@ -0,0 +1,96 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class NoteBitmapTest {
+    @Test
+    void addsAndRemovesAcrossTheArrayLimit() {
+        NoteBitmap bitmap = new NoteBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // Fills one chunk well past 4096 values so it turns into bits, then empties it again
+        for (int value = 0; value < 10_000; value += 2) {
+            assertTrue(bitmap.add(value));
+            expected.add(value);
+        }
+        assertFalse(bitmap.add(42));
+        assertContents(expected, bitmap);
+        for (int value = 0; value < 10_000; value += 4) {
+            assertTrue(bitmap.remove(value));
+            expected.remove(value);
+        }
+        assertFalse(bitmap.remove(4));
+        assertContents(expected, bitmap);
+        for (int value : new ArrayList<>(expected)) {
+            bitmap.remove(value);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.cardinality());
+    }
+
+    @Test
+    void intersectsEveryMixOfChunks() {
+        SplittableRandom random = new SplittableRandom(17);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> a = randomSet(random);
+            TreeSet<Integer> b = randomSet(random);
+            NoteBitmap left = round % 2 == 0 ? of(a) : added(a);
+            NoteBitmap right = round % 2 == 0 ? added(b) : of(b);
+
+            TreeSet<Integer> both = new TreeSet<>(a);
+            both.retainAll(b);
+            assertContents(both, left.and(right));
+            assertContents(both, right.and(left));
+            assertEquals(both.size(), left.andCardinality(right));
+            assertEquals(both.size(), right.andCardinality(left));
+            // Neither operand changes
+            assertContents(a, left);
+            assertContents(b, right);
+        }
+    }
+
+    // Chunks of every shape: empty, a few values, a dense run, and a full one
+    private static TreeSet<Integer> randomSet(SplittableRandom random) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int chunk = 0; chunk < 6; chunk++) {
+            int base = chunk << 16;
+            int shape = random.nextInt(4);
+            int count = shape == 0 ? 0 : shape == 1 ? random.nextInt(100) : shape == 2 ? 5000 + random.nextInt(20_000) : 65536;
+            for (int i = 0; i < count; i++) {
+                set.add(base + (shape == 3 ? i : random.nextInt(65536)));
+            }
+        }
+        return set;
+    }
+
+    private static NoteBitmap of(TreeSet<Integer> set) {
+        int[] sorted = set.stream().mapToInt(Integer::intValue).toArray();
+        return NoteBitmap.of(sorted, sorted.length);
+    }
+
+    private static NoteBitmap added(TreeSet<Integer> set) {
+        NoteBitmap bitmap = new NoteBitmap();
+        for (int value : set.descendingSet()) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    private static void assertContents(TreeSet<Integer> expected, NoteBitmap bitmap) {
+        assertEquals(expected.size(), bitmap.cardinality());
+        assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        List<Integer> values = new ArrayList<>();
+        bitmap.forEach(values::add);
+        assertEquals(new ArrayList<>(expected), values);
+        for (int probe = 0; probe < 6 << 16; probe += 97) {
+            assertEquals(expected.contains(probe), bitmap.contains(probe), "contains " + probe);
+        }
+    }
+}
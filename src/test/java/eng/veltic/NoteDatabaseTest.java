@@ -0,0 +1,205 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteDatabaseTest {
+    private static final long MAGIC = 0x4E4F544544423031L;
+    private static final String TEMPLATE = "- [ ] Review the goals for this week\n- [ ] Share notes with the team\n"
+            .repeat(40);
+
+    @TempDir
+    Path dir;
+
+    // One note as the tests write and expect it back
+    private static final class Note {
+        final long id;
+        final String title;
+        final List<String> tags;
+        final String body;
+        final boolean cold;
+
+        Note(long id, String title, List<String> tags, String body, boolean cold) {
+            this.id = id;
+            this.title = title;
+            this.tags = tags;
+            this.body = body;
+            this.cold = cold;
+        }
+    }
+
+    private static final List<Note> NOTES = List.of(
+            new Note(3, "Groceries", List.of("home"), "eggs, flour, été 🌱", false),
+            new Note(7, "Weekly report", List.of("work", "weekly"), TEMPLATE + "Shipped the importer.", true),
+            new Note(8, "Weekly report", List.of("work", "weekly"), TEMPLATE + "Fixed the search box.", false),
+            new Note(12, "Empty", List.of(), "", false),
+            new Note(40, "Weekly report", List.of("work", "weekly"), TEMPLATE + "Shipped the importer.", true));
+
+    @Test
+    void readsBackWhatItWrote() throws IOException {
+        Path file = dir.resolve("v4.db");
+        byte[] dictionary = BodyCodec.train(List.of(TEMPLATE));
+        try (NoteDatabase.Writer writer = new NoteDatabase.Writer(file, NOTES.size(), dictionary)) {
+            for (Note note : NOTES) {
+                writer.add(note.id, note.id * 10, note.id * 20, bytes(note.title),
+                        bytes(String.join("\n", note.tags)), bytes(note.body), note.cold);
+            }
+            writer.finish();
+        }
+        NoteDatabase database = NoteDatabase.open(file);
+        assertTrue(database.isChunked());
+        assertNotes(database, true);
+
+        // The template is stored once for the three reports, and the whole of the first and last
+        int references = 0;
+        for (int entry = 0; entry < database.size(); entry++) {
+            references += database.chunks(entry);
+        }
+        assertTrue(database.chunkCount() < references, database.chunkCount() + " chunks, " + references + " used");
+        assertEquals(database.sharedTitle(1), database.sharedTitle(2));
+        assertEquals(database.sharedTitle(1), database.sharedTitle(4));
+        assertEquals(-1, database.sharedTitle(0));
+        assertEquals(-1, database.find(5));
+        assertEquals(4, database.find(40));
+    }
+
+    @Test
+    void readsAndUpgradesEveryOlderVersion() throws IOException {
+        for (int version = 1; version <= 3; version++) {
+            Path file = dir.resolve("v" + version + ".db");
+            byte[] dictionary = version == 3 ? BodyCodec.train(List.of(TEMPLATE)) : new byte[0];
+            writeLegacy(file, version, dictionary);
+            NoteDatabase database = NoteDatabase.open(file);
+            assertFalse(database.isChunked());
+            assertNotes(database, version > 1);
+            assertEquals(version == 3, database.chunkRawLength(1) > 0, "version " + version);
+
+            Path upgraded = dir.resolve("v" + version + "-upgraded.db");
+            try (NoteDatabase.Writer writer = new NoteDatabase.Writer(upgraded, database.size(), dictionary)) {
+                for (int entry = 0; entry < database.size(); entry++) {
+                    writer.copy(database, entry, false);
+                }
+                writer.finish();
+            }
+            NoteDatabase copy = NoteDatabase.open(upgraded);
+            assertTrue(copy.isChunked());
+            assertNotes(copy, version > 1);
+        }
+    }
+
+    @Test
+    void compressesChunksOnceTheirNotesGoCold() throws IOException {
+        Path file = dir.resolve("base.db");
+        byte[] dictionary = BodyCodec.train(List.of(TEMPLATE));
+        try (NoteDatabase.Writer writer = new NoteDatabase.Writer(file, NOTES.size(), dictionary)) {
+            for (Note note : NOTES) {
+                writer.add(note.id, note.id * 10, note.id * 20, note.title, note.tags, note.body);
+            }
+            writer.finish();
+        }
+        NoteDatabase base = NoteDatabase.open(file);
+        Path cold = dir.resolve("cold.db");
+        try (NoteDatabase.Writer writer = new NoteDatabase.Writer(cold, base.size(), dictionary)) {
+            for (int entry = 0; entry < base.size(); entry++) {
+                writer.copy(base, entry, true);
+            }
+            writer.finish();
+        }
+        NoteDatabase copy = NoteDatabase.open(cold);
+        assertNotes(copy, true);
+        assertTrue(copy.chunkRawLength(copy.chunk(1, 0)) > 0, "the template's first chunk compressed once cold");
+    }
+
+    @Test
+    void rejectsCorruptFiles() throws IOException {
+        Path file = dir.resolve("corrupt.db");
+        writeLegacy(file, 2, new byte[0]);
+        byte[] bytes = Files.readAllBytes(file);
+        // A byte of the first title, then one of the first body
+        int titles = bytes.length - titleRegion(true).length;
+        bytes[titles] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> NoteDatabase.open(file));
+
+        bytes[titles] ^= 1;
+        bytes[32 + NOTES.size() * 56] ^= 1;
+        Files.write(file, bytes);
+        NoteDatabase database = NoteDatabase.open(file);
+        assertThrows(IOException.class, () -> database.body(0));
+        assertEquals(NOTES.get(1).body, database.body(1));
+    }
+
+    private static void assertNotes(NoteDatabase database, boolean tags) throws IOException {
+        assertEquals(NOTES.size(), database.size());
+        for (int entry = 0; entry < NOTES.size(); entry++) {
+            Note note = NOTES.get(entry);
+            assertEquals(note.id, database.id(entry));
+            assertEquals(note.id * 10, database.created(entry));
+            assertEquals(note.id * 20, database.modified(entry));
+            assertEquals(note.title, database.title(entry));
+            assertEquals(tags ? note.tags : List.of(), database.tags(entry));
+            assertEquals(note.body, database.body(entry), "note " + note.id);
+            assertEquals(bytes(note.body).length, database.bodyLength(entry));
+        }
+    }
+
+    // A database as versions 1 to 3 wrote it: each body whole, the cold ones compressed from version 3
+    private static void writeLegacy(Path file, int version, byte[] dictionary) throws IOException {
+        int entrySize = version == 1 ? 48 : 56;
+        boolean withTags = version > 1;
+        ByteBuffer table = ByteBuffer.allocate(NOTES.size() * entrySize);
+        ByteBuffer bodies = ByteBuffer.allocate(1 << 16);
+        int titleOffset = 0;
+        for (Note note : NOTES) {
+            byte[] raw = bytes(note.body);
+            byte[] compressed = version == 3 && note.cold ? BodyCodec.deflate(raw, dictionary) : null;
+            byte[] stored = compressed != null ? compressed : raw;
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            int tagsLength = withTags ? bytes(String.join("\n", note.tags)).length : 0;
+            table.putLong(note.id).putLong(note.id * 10).putLong(note.id * 20).putLong(bodies.position())
+                    .putInt(titleOffset).putInt(bytes(note.title).length).putInt(stored.length)
+                    .putInt((int) crc.getValue());
+            if (withTags) {
+                table.putInt(tagsLength).putInt(compressed != null ? raw.length : 0);
+            }
+            bodies.put(stored);
+            titleOffset += bytes(note.title).length + tagsLength;
+        }
+        byte[] titles = titleRegion(withTags);
+        CRC32 crc = new CRC32();
+        crc.update(table.array());
+        crc.update(dictionary);
+        crc.update(titles);
+        ByteBuffer out = ByteBuffer.allocate(32 + table.capacity() + bodies.position() + dictionary.length
+                + titles.length);
+        out.putLong(MAGIC).putInt(version).putInt(NOTES.size()).putLong(titles.length).putInt((int) crc.getValue())
+                .putInt(dictionary.length);
+        out.put(table.array()).put(bodies.array(), 0, bodies.position()).put(dictionary).put(titles);
+        Files.write(file, out.array());
+    }
+
+    private static byte[] titleRegion(boolean withTags) {
+        StringBuilder titles = new StringBuilder();
+        for (Note note : NOTES) {
+            titles.append(note.title).append(withTags ? String.join("\n", note.tags) : "");
+        }
+        return bytes(titles.toString());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
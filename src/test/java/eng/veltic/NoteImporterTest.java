@@ -0,0 +1,119 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteImporterTest {
+    @TempDir
+    Path dir;
+
+    private TaskScheduler scheduler;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    @BeforeEach
+    void startScheduler() {
+        scheduler = new TaskScheduler(failure -> {});
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdown(2000);
+    }
+
+    @Test
+    void importsEveryNoteInTheTree() throws Exception {
+        write(5, 40);
+        Files.writeString(dir.resolve("folder0").resolve("picture.png"), "not a note");
+        List<NoteItem> stored = new CopyOnWriteArrayList<>();
+        NoteImporter importer = importer(batch -> stored.addAll(batch));
+        start(importer);
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertNull(importer.getError());
+        assertEquals(200, importer.getImported());
+        assertEquals(200, stored.size());
+        assertEquals(0, importer.getFailedCount());
+        assertTrue(stored.stream().anyMatch(note -> note.getTitle().equals("Note 39")
+                && note.getContent().equals("body\n")));
+    }
+
+    @Test
+    void stopsWalkingTheTreeOnceCancelled() throws Exception {
+        // Notes at the top, found first, then folders of links to nothing, each of which counts as a failed file
+        for (int f = 0; f < 10; f++) {
+            Files.writeString(dir.resolve("note" + f + ".md"), "# Note " + f + "\n\nbody\n");
+        }
+        int links = 0;
+        for (int d = 0; d < 40; d++) {
+            Path folder = Files.createDirectory(dir.resolve("folder" + d));
+            for (int f = 0; f < 1000; f++, links++) {
+                Files.createSymbolicLink(folder.resolve("note" + f + ".md"), dir.resolve("missing"));
+            }
+        }
+        AtomicReference<TaskScheduler.Token> token = new AtomicReference<>();
+        AtomicInteger atCancel = new AtomicInteger();
+        AtomicInteger afterCancel = new AtomicInteger();
+        AtomicReference<NoteImporter> importer = new AtomicReference<>();
+        importer.set(importer(batch -> {
+            while (token.get() == null) {
+                Thread.onSpinWait();
+            }
+            token.get().cancel();
+            atCancel.set(importer.get().getFailedCount());
+            // The storage sync of a batch, during which the walk should have stopped
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            afterCancel.set(importer.get().getFailedCount());
+        }));
+        token.set(start(importer.get()));
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertTrue(importer.get().isCancelled());
+        assertTrue(atCancel.get() < links, "the walk was over before the cancel");
+        assertTrue(afterCancel.get() - atCancel.get() <= Runtime.getRuntime().availableProcessors(),
+                afterCancel.get() - atCancel.get() + " more files visited after the cancel");
+    }
+
+    private NoteImporter importer(Consumer<List<NoteItem>> insert) {
+        return new NoteImporter(dir, batch -> {
+            insert.accept(batch);
+            return CompletableFuture.completedFuture(null);
+        }, (importer, count) -> {}, importer -> finished.countDown());
+    }
+
+    // As the app does, from the EDT
+    private TaskScheduler.Token start(NoteImporter importer) throws Exception {
+        AtomicReference<TaskScheduler.Token> token = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> token.set(importer.start(scheduler)));
+        return token.get();
+    }
+
+    private void write(int folders, int files) throws Exception {
+        for (int d = 0; d < folders; d++) {
+            Path folder = Files.createDirectory(dir.resolve("folder" + d));
+            for (int f = 0; f < files; f++) {
+                Files.writeString(folder.resolve("note" + f + ".md"), "# Note " + f + "\n\nbody\n");
+            }
+        }
+    }
+}
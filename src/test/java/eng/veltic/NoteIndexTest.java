@@ -0,0 +1,104 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void filterListsWordMatchesFirstThenNotesContainingTheQuery() {
+        NoteIndex index = new NoteIndex();
+        NoteItem grocery = new NoteItem("Grocery list", "milk, eggs and bread");
+        NoteItem over = new NoteItem("Over budget", "the move went over");
+        NoteItem plan = new NoteItem("Plan", "agenda for the week");
+        for (NoteItem note : List.of(grocery, over, plan)) {
+            index.add(note);
+        }
+
+        // "ocer" is one edit from "over" and inside "grocery"
+        NoteIndex.Result ocer = index.filter("ocer", Set.of(), () -> false);
+        assertEquals(List.of(over, grocery), ocer.notes);
+        assertEquals(2, ocer.total);
+        assertEquals(Set.of("over"), ocer.words);
+
+        NoteIndex.Result g = index.filter("g", Set.of(), () -> false);
+        assertEquals(List.of(grocery, over, plan), g.notes);
+        assertEquals(List.of(grocery), index.filter("k, e", Set.of(), () -> false).notes);
+        assertEquals(List.of(), index.filter("zzz", Set.of(), () -> false).notes);
+    }
+
+    @Test
+    void searchesKeepWorkingAfterRemovedDocsAreRenumbered() {
+        NoteIndex index = new NoteIndex();
+        List<NoteItem> notes = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            NoteItem note = new NoteItem("Note " + i, i % 2 == 0 ? "even grocery list" : "odd meeting notes");
+            note.setTags(List.of(i % 4 == 0 ? "home" : "work"));
+            notes.add(note);
+            index.add(note);
+        }
+        index.search("x");
+        // Removes more than half, so the next search renumbers what is left
+        List<NoteItem> kept = new ArrayList<>();
+        for (int i = 0; i < notes.size(); i++) {
+            if (i % 3 == 0) {
+                kept.add(notes.get(i));
+            } else {
+                index.remove(notes.get(i));
+            }
+        }
+        NoteItem added = new NoteItem("Late", "even later grocery");
+        added.setTags(List.of("home"));
+        index.add(added);
+
+        List<NoteItem> grocery = new ArrayList<>();
+        for (NoteItem note : kept) {
+            if (note.getContent().contains("grocery")) {
+                grocery.add(note);
+            }
+        }
+        grocery.add(added);
+        assertEquals(grocery, index.search("grocery"));
+
+        NoteIndex.Result home = index.filter("", Set.of("home"), () -> false);
+        List<NoteItem> expected = new ArrayList<>();
+        for (NoteItem note : kept) {
+            if (note.getTags().contains("home")) {
+                expected.add(note);
+            }
+        }
+        expected.add(added);
+        assertEquals(expected, home.notes);
+        assertEquals(Map.of("home", expected.size(), "work", kept.size() + 1 - expected.size()),
+                index.filter("", Set.of(), () -> false).facets);
+        assertEquals(grocery.size(), index.filter("grocery", Set.of(), () -> false).total);
+    }
+
+    @Test
+    void indexingAndSearchingLeaveTheBodyCacheAlone() throws IOException {
+        try (NotesStore store = NotesStore.open(dir, 1 << 20)) {
+            for (int i = 0; i < 50; i++) {
+                store.create("Note " + i, i % 2 == 0 ? "even grocery list" : "odd meeting notes");
+            }
+        }
+        try (NotesStore store = NotesStore.open(dir, 1 << 20)) {
+            store.catchUpIndex(() -> false);
+            NoteIndex.Result result = store.filter("grocery", Set.of(), 10, () -> false);
+            assertEquals(25, result.total);
+            assertEquals(10, result.snippets.size());
+            assertEquals(25, store.search("grocer").size());
+            // Bodies read only to index, match or excerpt them stay on disk, so the cold tier still sees them as cold
+            assertEquals(0, store.footprint().bodiesInHeap);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class NoteOrderIndexTest {
+    @Test
+    void ranksAndSelectsLikeASortedList() {
+        for (NoteOrderIndex.Order order : NoteOrderIndex.Order.values()) {
+            SplittableRandom random = new SplittableRandom(16);
+            List<NoteItem> notes = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                notes.add(note(random));
+            }
+            NoteOrderIndex index = new NoteOrderIndex(order, notes.subList(0, 100));
+            List<NoteItem> listed = new ArrayList<>(notes.subList(0, 100));
+            check(order, index, listed);
+
+            for (int step = 0; step < 2000; step++) {
+                NoteItem note = notes.get(random.nextInt(notes.size()));
+                int action = random.nextInt(3);
+                if (action == 0) {
+                    assertEquals(!listed.contains(note), index.add(note));
+                    if (!listed.contains(note)) {
+                        listed.add(note);
+                    }
+                } else if (action == 1) {
+                    assertEquals(listed.remove(note), index.remove(note));
+                } else {
+                    // Changed in place, then moved to where the new key belongs
+                    note.setTitle("Title " + random.nextInt(50));
+                    note.setModified(random.nextLong(1_000_000));
+                    index.move(note);
+                }
+                if (step % 100 == 0) {
+                    check(order, index, listed);
+                }
+            }
+            check(order, index, listed);
+        }
+    }
+
+    @Test
+    void addedOrderIgnoresEdits() {
+        NoteItem first = new NoteItem("B", "", 10, 10);
+        NoteItem second = new NoteItem("A", "", 5, 5);
+        NoteOrderIndex index = new NoteOrderIndex(NoteOrderIndex.Order.ADDED, List.of(second, first));
+        assertEquals(List.of(first, second), index.notes());
+        first.setModified(100);
+        first.setTitle("Z");
+        assertFalse(index.move(first));
+        assertEquals(0, index.rankOf(first));
+    }
+
+    @Test
+    void countsNotesSinceADate() {
+        List<NoteItem> notes = new ArrayList<>();
+        for (int day = 1; day <= 10; day++) {
+            notes.add(new NoteItem("Day " + day, "", day * 100L, day * 100L));
+        }
+        NoteOrderIndex index = new NoteOrderIndex(NoteOrderIndex.Order.CREATED, notes);
+        assertEquals(3, index.countSince(800));
+        assertEquals(3, index.countSince(750));
+        assertEquals(10, index.countSince(0));
+        assertEquals(100, index.oldestDate());
+        assertTrue(index.contains(notes.get(0)));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.get(10));
+    }
+
+    private static NoteItem note(SplittableRandom random) {
+        long created = random.nextLong(1_000_000);
+        return new NoteItem("Title " + random.nextInt(50), "", created, created + random.nextLong(1000));
+    }
+
+    private static void check(NoteOrderIndex.Order order, NoteOrderIndex index, List<NoteItem> listed) {
+        List<NoteItem> sorted = new ArrayList<>(listed);
+        sorted.sort(comparator(order));
+        assertEquals(sorted.size(), index.size());
+        assertEquals(sorted, index.notes());
+        for (int rank = 0; rank < sorted.size(); rank++) {
+            assertEquals(sorted.get(rank), index.get(rank), order + " rank " + rank);
+            assertEquals(rank, index.rankOf(sorted.get(rank)), order + " note " + sorted.get(rank).getId());
+        }
+    }
+
+    private static Comparator<NoteItem> comparator(NoteOrderIndex.Order order) {
+        switch (order) {
+            case ADDED:
+                return Comparator.comparingLong(NoteItem::getId);
+            case TITLE:
+                return Comparator.comparing(NoteItem::getTitle, String.CASE_INSENSITIVE_ORDER)
+                        .thenComparing(NoteItem::getTitle).thenComparingLong(NoteItem::getId);
+            default:
+                return Comparator.comparingLong(order::date).reversed()
+                        .thenComparing(Comparator.comparingLong(NoteItem::getId).reversed());
+        }
+    }
+}
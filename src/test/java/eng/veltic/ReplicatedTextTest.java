@@ -0,0 +1,151 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class ReplicatedTextTest {
+    private static final String BASE = "The quick brown fox jumps over the lazy dog.\nSecond line of the note.\n";
+
+    @Test
+    void editsLocallyLikeAString() {
+        SplittableRandom random = new SplittableRandom(22);
+        ReplicatedText text = ReplicatedText.fromBase(BASE, 1);
+        StringBuilder expected = new StringBuilder(BASE);
+        for (int edit = 0; edit < 2000; edit++) {
+            edit(text, expected, random);
+            assertEquals(expected.toString(), text.toString(), "edit " + edit);
+            assertEquals(expected.length(), text.length());
+        }
+    }
+
+    @Test
+    void copiesConvergeWhateverOrderTheyMergeIn() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int round = 0; round < 50; round++) {
+            ReplicatedText[] copies = copies(3);
+            for (ReplicatedText copy : copies) {
+                int edits = 1 + random.nextInt(30);
+                for (int e = 0; e < edits; e++) {
+                    edit(copy, new StringBuilder(copy.toString()), random);
+                }
+            }
+            byte[][] ops = ops(copies);
+            assertTrue(copies[0].merge(ops[1]));
+            assertTrue(copies[0].merge(ops[2]));
+            assertTrue(copies[1].merge(ops[2]));
+            assertTrue(copies[1].merge(ops[0]));
+            // The third copy gets the first copy's edits only by way of the second
+            assertTrue(copies[2].merge(copies[1].encodeOps()));
+            assertEquals(copies[0].toString(), copies[1].toString(), "round " + round);
+            assertEquals(copies[0].toString(), copies[2].toString(), "round " + round);
+        }
+    }
+
+    @Test
+    void keepsEveryonesTypingAtTheSameSpot() throws IOException {
+        ReplicatedText[] copies = copies(3);
+        int at = BASE.indexOf("fox");
+        copies[0].insert(at, "red ");
+        copies[1].insert(at, "sly ");
+        copies[2].delete(BASE.indexOf("lazy") + 4, 5);
+        copies[2].insert(at, "old ");
+        byte[][] ops = ops(copies);
+        for (int i = 0; i < copies.length; i++) {
+            for (int j = copies.length - 1; j >= 0; j--) {
+                copies[i].merge(ops[j]);
+            }
+        }
+        String merged = copies[0].toString();
+        assertEquals(merged, copies[1].toString());
+        assertEquals(merged, copies[2].toString());
+        assertTrue(merged.contains("red ") && merged.contains("sly ") && merged.contains("old "), merged);
+        assertTrue(merged.contains("the lazy\nSecond"), merged);
+        // Each word went in whole, not interleaved with the others
+        assertEquals(BASE.length() + 12 - 5, merged.length());
+        assertTrue(merged.substring(at, at + 12).matches("((red|sly|old) ){3}"), merged);
+    }
+
+    @Test
+    void keepsMergingAsCopiesGoOnEditing() throws IOException {
+        SplittableRandom random = new SplittableRandom(13);
+        ReplicatedText[] copies = copies(2);
+        for (int round = 0; round < 100; round++) {
+            for (ReplicatedText copy : copies) {
+                edit(copy, new StringBuilder(copy.toString()), random);
+            }
+            byte[][] ops = ops(copies);
+            copies[0].merge(ops[1]);
+            copies[1].merge(ops[0]);
+            assertEquals(copies[0].toString(), copies[1].toString(), "round " + round);
+        }
+        // Merging what a copy already has changes nothing
+        String text = copies[0].toString();
+        int runs = copies[0].runs();
+        assertTrue(copies[0].merge(copies[1].encodeOps()));
+        assertTrue(copies[0].merge(copies[0].encodeOps()));
+        assertEquals(text, copies[0].toString());
+        assertEquals(runs, copies[0].runs());
+    }
+
+    @Test
+    void storesTypingAsOneRun() {
+        ReplicatedText text = ReplicatedText.fromBase("", 1);
+        for (int i = 0; i < 1000; i++) {
+            text.insert(text.length(), "x");
+        }
+        assertEquals(1, text.runs());
+    }
+
+    @Test
+    void rejectsOpsForAnotherBase() throws IOException {
+        ReplicatedText other = ReplicatedText.fromBase("another base", 2);
+        other.insert(0, "typed ");
+        ReplicatedText text = ReplicatedText.fromBase(BASE, 1);
+        assertFalse(text.merge(other.encodeOps()));
+        assertEquals(BASE, text.toString());
+
+        ReplicatedText copy = ReplicatedText.fromBase(BASE, 2);
+        copy.insert(4, "very ");
+        byte[] ops = copy.encodeOps();
+        assertThrows(IOException.class, () -> text.merge(Arrays.copyOf(ops, ops.length - 3)));
+        assertThrows(IllegalArgumentException.class, () -> ReplicatedText.fromBase(BASE, 0));
+    }
+
+    private static ReplicatedText[] copies(int count) {
+        ReplicatedText[] copies = new ReplicatedText[count];
+        for (int i = 0; i < count; i++) {
+            copies[i] = ReplicatedText.fromBase(BASE, i + 1);
+        }
+        return copies;
+    }
+
+    private static byte[][] ops(ReplicatedText[] copies) {
+        byte[][] ops = new byte[copies.length][];
+        for (int i = 0; i < copies.length; i++) {
+            ops[i] = copies[i].encodeOps();
+        }
+        return ops;
+    }
+
+    // Types a word or deletes a few chars at a random offset, applying the same edit to expected
+    private static void edit(ReplicatedText text, StringBuilder expected, SplittableRandom random) {
+        if (expected.length() > 0 && random.nextInt(3) == 0) {
+            int at = random.nextInt(expected.length());
+            int count = 1 + random.nextInt(Math.min(8, expected.length() - at));
+            text.delete(at, count);
+            expected.delete(at, at + count);
+        } else {
+            int at = random.nextInt(expected.length() + 1);
+            String typed = random.nextInt(6) == 0 ? "été " : "w" + random.nextInt(100) + ' ';
+            text.insert(at, typed);
+            expected.insert(at, typed);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RevisionHistoryTest {
+    private static final long NOTE = 7;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rebuildsEveryRevisionFromItsKeyframe() throws IOException {
+        Map<Integer, String> texts = record(200, System.currentTimeMillis(), 1);
+        try (RevisionHistory history = RevisionHistory.open(dir)) {
+            List<RevisionHistory.Revision> revisions = history.revisions(NOTE);
+            assertEquals(texts.size(), revisions.size());
+            assertTrue(revisions.get(0).keyframe);
+            int deltas = 0;
+            int keyframes = 0;
+            for (RevisionHistory.Revision revision : revisions) {
+                deltas = revision.keyframe ? 0 : deltas + 1;
+                keyframes += revision.keyframe ? 1 : 0;
+                assertTrue(deltas <= 32, "revision " + revision.number + " is " + deltas + " deltas from a keyframe");
+                assertEquals(texts.get(revision.number), history.text(NOTE, revision.number).join());
+                assertEquals(texts.get(revision.number).length(), revision.length);
+            }
+            assertTrue(keyframes > 1, keyframes + " keyframes");
+        }
+    }
+
+    @Test
+    void firstEditKeepsTheOriginalWithItsOwnTime() throws IOException {
+        long id;
+        long saved;
+        try (NotesStore store = NotesStore.open(dir, 1 << 20)) {
+            NoteItem note = store.create("Plan", "original");
+            id = note.getId();
+            saved = note.getModified();
+            // The editor stamps the note as it types, before the text reaches the store
+            note.setModified(saved + 60_000);
+            store.updateContent(note, "edited", saved);
+        }
+        // Revisions are written in the background; closing waits for them
+        try (NotesStore store = NotesStore.open(dir, 1 << 20)) {
+            NoteItem note = store.get(id);
+            List<RevisionHistory.Revision> revisions = store.revisions(note);
+            assertEquals(2, revisions.size());
+            assertEquals(saved, revisions.get(0).time);
+            assertEquals("original", store.revisionText(note, revisions.get(0)).join());
+            assertEquals("edited", store.revisionText(note, revisions.get(1)).join());
+        }
+    }
+
+    @Test
+    void rebuildsWhatPruningKeeps() throws IOException {
+        // Hourly edits from three weeks ago, so a prune thins out most of them
+        long start = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(21);
+        Map<Integer, String> texts = record(150, start, TimeUnit.HOURS.toMillis(3));
+        try (RevisionHistory history = RevisionHistory.open(dir)) {
+            long before = history.sizeOnDisk();
+            history.prune().join();
+            List<RevisionHistory.Revision> revisions = history.revisions(NOTE);
+            assertTrue(revisions.size() < texts.size(), revisions.size() + " revisions kept");
+            assertTrue(history.sizeOnDisk() < before);
+            assertTrue(revisions.get(0).keyframe);
+            for (RevisionHistory.Revision revision : revisions) {
+                assertEquals(texts.get(revision.number), history.text(NOTE, revision.number).join());
+            }
+        }
+        // And after reopening the rewritten log
+        try (RevisionHistory history = RevisionHistory.open(dir)) {
+            for (RevisionHistory.Revision revision : history.revisions(NOTE)) {
+                assertEquals(texts.get(revision.number), history.text(NOTE, revision.number).join());
+            }
+        }
+    }
+
+    private Map<Integer, String> record(int count, long start, long step) throws IOException {
+        SplittableRandom random = new SplittableRandom(18);
+        Map<Integer, String> texts = new HashMap<>();
+        String text = "";
+        try (RevisionHistory history = RevisionHistory.open(dir)) {
+            for (int number = 1; number <= count; number++) {
+                // An unchanged text isn't recorded and would not get a number
+                String previous = text;
+                while (text.equals(previous)) {
+                    text = TextDeltaTest.edit(previous, random);
+                }
+                history.record(NOTE, start + number * step, "Note", text);
+                texts.put(number, text);
+            }
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,87 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StorageEngineRecoveryTest {
+    private static final long BODY_CACHE_CHARS = 1 << 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tornTailOfNewestSegmentIsTruncated() throws IOException {
+        write("First", "kept");
+        write("Second", "also kept");
+        Path newest = segments().get(segments().size() - 1);
+        long intact = Files.size(newest);
+        // A frame header promising more bytes than the crash left behind
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(12).putInt(100).putInt(7).putInt(42).flip());
+        }
+
+        try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+            assertEquals(List.of("kept", "also kept"), contents(store));
+        }
+        assertEquals(intact, Files.size(newest));
+    }
+
+    @Test
+    void corruptClosedSegmentFailsToOpen() throws IOException {
+        write("First", "in the closed segment");
+        write("Second", "in the newest segment");
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        Path closed = segments.get(0);
+        // Flip a payload byte of the only record, so the check fails at offset 0
+        try (FileChannel channel = FileChannel.open(closed, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, StorageEngine.FRAME_HEADER + 2);
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) ~b.get(0)}), StorageEngine.FRAME_HEADER + 2);
+        }
+        long size = Files.size(closed);
+
+        IOException e = assertThrows(IOException.class, () -> NotesStore.open(dir, BODY_CACHE_CHARS).close());
+        assertTrue(e.getMessage().contains(closed.toString()), e.getMessage());
+        assertTrue(e.getMessage().contains("offset 0"), e.getMessage());
+        assertEquals(size, Files.size(closed));
+    }
+
+    // Each session ends its segment, so every call leaves one more closed one behind
+    private void write(String title, String content) throws IOException {
+        try (NotesStore store = NotesStore.open(dir, BODY_CACHE_CHARS)) {
+            store.create(title, content);
+            store.sync().join();
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = new ArrayList<>();
+            files.filter(f -> f.getFileName().toString().startsWith("segment-"))
+                    .sorted().forEach(segments::add);
+            return segments;
+        }
+    }
+
+    private static List<String> contents(NotesStore store) {
+        List<String> contents = new ArrayList<>();
+        for (NoteItem note : store.notes()) {
+            contents.add(note.getContent());
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,155 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SyncClientTest {
+    private static final String SECRET = "shared by the replicas";
+
+    @TempDir
+    Path dir;
+
+    private SyncServer server;
+    private NotesStore first;
+    private NotesStore second;
+    private SyncClient a;
+    private SyncClient b;
+    private URI uri;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = SyncServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), dir, SECRET);
+        uri = URI.create("http://127.0.0.1:" + server.port() + "/");
+        first = NotesStore.inMemory();
+        second = NotesStore.inMemory();
+        a = SyncClient.attach(first, uri, SECRET, null);
+        b = SyncClient.attach(second, uri, SECRET, null);
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        a.close();
+        b.close();
+        server.close();
+    }
+
+    @Test
+    void storesConverge() throws Exception {
+        first.create("Groceries", "eggs, flour");
+        first.create("Weekly report", "Shipped the importer.");
+        second.create("Ideas", "a sync test");
+        syncAll();
+
+        assertEquals(view(first), view(second));
+        assertEquals(3, second.size());
+        assertEquals(3, server.size());
+        // Nothing left to move once both have everything
+        SyncClient.Report report = a.sync();
+        assertEquals(0, report.pulled);
+        assertEquals(0, report.pushed);
+    }
+
+    @Test
+    void mergesConcurrentEditsToOneNote() throws Exception {
+        first.create("Plan", "first line\nsecond line\n");
+        syncAll();
+        first.updateContent(find(first, "Plan"), "first line, edited on the first\nsecond line\n");
+        second.updateContent(find(second, "Plan"), "first line\nsecond line, edited on the second\n");
+        a.sync();
+        assertEquals(1, b.sync().merged);
+        a.sync();
+
+        assertEquals(view(first), view(second));
+        assertEquals("first line, edited on the first\nsecond line, edited on the second\n",
+                find(second, "Plan").getContent());
+        assertEquals(find(first, "Plan").getContent(), find(second, "Plan").getContent());
+    }
+
+    @Test
+    void keepsTheSameConflictCopyOnBothSides() throws Exception {
+        first.create("Plan", "the base\n");
+        syncAll();
+        // Two versions on from the one the second replica edited, so the edits can't merge
+        first.updateContent(find(first, "Plan"), "the base\nedited once\n");
+        a.sync();
+        first.updateContent(find(first, "Plan"), "the base\nedited twice\n");
+        a.sync();
+        second.updateContent(find(second, "Plan"), "edited on the second\n");
+        assertEquals(1, b.sync().conflicts);
+        a.sync();
+
+        assertEquals(view(first), view(second));
+        assertEquals(2, first.size());
+        NoteItem copy = find(first, "Plan" + SyncClient.CONFLICT_SUFFIX);
+        List<String> bodies = List.of(find(first, "Plan").getContent(), copy.getContent());
+        assertTrue(bodies.contains("the base\nedited twice\n"), bodies.toString());
+        assertTrue(bodies.contains("edited on the second\n"), bodies.toString());
+    }
+
+    @Test
+    void propagatesDeletes() throws Exception {
+        first.create("Keep", "stays");
+        first.create("Drop", "goes");
+        syncAll();
+        assertEquals(2, second.size());
+
+        second.delete(find(second, "Drop"));
+        b.sync();
+        a.sync();
+
+        assertNull(find(first, "Drop"));
+        assertEquals(view(first), view(second));
+        assertEquals(1, first.size());
+        // The tombstone stays on the server for replicas that come later
+        NotesStore third = NotesStore.inMemory();
+        try (SyncClient c = SyncClient.attach(third, uri, SECRET, null)) {
+            c.sync();
+        }
+        assertEquals(view(first), view(third));
+    }
+
+    @Test
+    void turnsAwayClientsWithoutTheSecret() throws Exception {
+        first.create("Private", "not for everyone");
+        a.sync();
+        NotesStore other = NotesStore.inMemory();
+        other.create("Pushed", "should not arrive");
+        try (SyncClient c = SyncClient.attach(other, uri, "a guess", null)) {
+            IOException e = assertThrows(IOException.class, c::sync);
+            assertTrue(e.getMessage().contains("secret"), e.getMessage());
+        }
+        assertEquals(1, other.size());
+        assertEquals(1, server.size());
+    }
+
+    private void syncAll() throws Exception {
+        a.sync();
+        b.sync();
+        a.sync();
+    }
+
+    private static NoteItem find(NotesStore store, String title) {
+        return store.notes().stream().filter(note -> note.getTitle().equals(title)).findFirst().orElse(null);
+    }
+
+    private static List<String> view(NotesStore store) {
+        return store.notes().stream()
+                .map(note -> note.getTitle() + '\0' + note.getTags() + '\0' + note.getContent())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,74 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class TermIndexTest {
+    private static final String LETTERS = "abcdeé";
+
+    @Test
+    void fuzzyMatchesAreExactlyTheWordsWithinReach() {
+        SplittableRandom random = new SplittableRandom(19);
+        TermIndex index = new TermIndex();
+        List<String> vocabulary = new ArrayList<>();
+        for (int doc = 0; doc < 3000; doc++) {
+            String word = word(random, 2 + random.nextInt(9));
+            vocabulary.add(word);
+            index.index(doc, "", word);
+        }
+        for (int q = 0; q < 300; q++) {
+            String query = word(random, 4 + random.nextInt(8));
+            int edits = query.length() < 8 ? 1 : 2;
+            Set<String> words = index.rank(query, null, 10, () -> false).words;
+            Set<String> near = new HashSet<>();
+            for (String word : vocabulary) {
+                if (distance(query, word) <= edits) {
+                    near.add(word);
+                }
+            }
+            assertTrue(words.containsAll(near), query + ": " + words + " misses some of " + near);
+            for (String word : words) {
+                assertTrue(word.startsWith(query) || near.contains(word), query + " matched " + word);
+            }
+        }
+    }
+
+    @Test
+    void ranksTitleMatchesAboveBodyMatches() {
+        TermIndex index = new TermIndex();
+        index.index(0, "Notes", "garden plans for spring");
+        index.index(1, "Garden", "plans for spring");
+        index.index(2, "Recipes", "bread and soup");
+        TermIndex.Ranking ranking = index.rank("garden", null, 10, () -> false);
+        assertEquals(2, ranking.matched.length);
+        assertEquals(1, ranking.top[0]);
+        index.remove(1);
+        assertEquals(1, index.rank("garden", null, 10, () -> false).matched.length);
+    }
+
+    private static String word(SplittableRandom random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                d[i][j] = i == 0 ? j : j == 0 ? i : Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+                        d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
@@ -0,0 +1,76 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class TextDeltaTest {
+    @Test
+    void rebuildsTheTargetFromItsBase() throws IOException {
+        SplittableRandom random = new SplittableRandom(18);
+        String text = "";
+        for (int edit = 0; edit < 500; edit++) {
+            String next = edit(text, random);
+            assertEquals(next, TextDelta.apply(text, TextDelta.encode(text, next)), "edit " + edit);
+            text = next;
+        }
+    }
+
+    @Test
+    void copiesMovedAndScatteredTextInsteadOfStoringIt() throws IOException {
+        StringBuilder base = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            base.append("Line ").append(i).append(" of a note that keeps most of its text\n");
+        }
+        String original = base.toString();
+        int half = original.length() / 2;
+        // The halves swapped, with a few words changed in each
+        String moved = (original.substring(half) + original.substring(0, half))
+                .replace("Line 20 ", "Row 20 ").replace("Line 150 ", "Row 150 ");
+        byte[] delta = TextDelta.encode(original, moved);
+        assertEquals(moved, TextDelta.apply(original, delta));
+        assertTrue(delta.length < original.length() / 20, delta.length + " bytes");
+    }
+
+    @Test
+    void keepsSurrogatePairsSplitAcrossOps() throws IOException {
+        String base = "notes 📝 and more notes 📝 and yet more text to copy from";
+        // Inserted between the halves of the first pair, and the second pair replaced by another
+        String target = base.substring(0, 7) + "x" + base.substring(7, 24) + "📞" + base.substring(26);
+        assertEquals(target, TextDelta.apply(base, TextDelta.encode(base, target)));
+    }
+
+    @Test
+    void rejectsADeltaForAnotherBase() {
+        byte[] delta = TextDelta.encode("some base text", "some target text");
+        assertThrows(IOException.class, () -> TextDelta.apply("another base", delta));
+        assertThrows(IOException.class, () -> TextDelta.apply("some base text", Arrays.copyOf(delta, delta.length - 1)));
+    }
+
+    // Inserts, deletes, or moves a random stretch of the text
+    static String edit(String text, SplittableRandom random) {
+        int at = random.nextInt(text.length() + 1);
+        int length = random.nextInt(Math.min(64, text.length() - at) + 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                return text.substring(0, at) + text.substring(at + length);
+            case 1:
+                String cut = text.substring(at, at + length);
+                String rest = text.substring(0, at) + text.substring(at + length);
+                int to = random.nextInt(rest.length() + 1);
+                return rest.substring(0, to) + cut + rest.substring(to);
+            default:
+                StringBuilder inserted = new StringBuilder();
+                int words = 1 + random.nextInt(20);
+                for (int w = 0; w < words; w++) {
+                    inserted.append(random.nextInt(8) == 0 ? "été " : "word" + random.nextInt(100) + ' ');
+                }
+                return text.substring(0, at) + inserted + text.substring(at);
+        }
+    }
+}
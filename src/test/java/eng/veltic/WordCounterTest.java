@@ -0,0 +1,66 @@
+package eng.veltic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.SplittableRandom;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import org.junit.jupiter.api.Test;
+
+class WordCounterTest {
+    private static final String[] PIECES = {"word", " ", "a b", "\n", "  ", "x", "\tend ", "two words"};
+
+    @Test
+    void countsEditsAtWordBoundaries() throws BadLocationException {
+        Document doc = new PlainDocument();
+        WordCounter counter = new WordCounter();
+        insert(doc, counter, 0, "hello world");
+        assertEquals(2, counter.getWords());
+        // Splitting a word, joining two, and trimming a leading space
+        insert(doc, counter, 3, " ");
+        assertEquals(3, counter.getWords());
+        remove(doc, counter, 3, 1);
+        assertEquals(2, counter.getWords());
+        remove(doc, counter, 5, 1);
+        assertEquals(1, counter.getWords());
+        insert(doc, counter, 0, " ");
+        assertEquals(1, counter.getWords());
+        remove(doc, counter, 0, doc.getLength());
+        assertEquals(0, counter.getWords());
+    }
+
+    @Test
+    void matchesAFullCountAfterRandomEdits() throws BadLocationException {
+        SplittableRandom random = new SplittableRandom(6);
+        Document doc = new PlainDocument();
+        WordCounter counter = new WordCounter();
+        for (int edit = 0; edit < 5000; edit++) {
+            int length = doc.getLength();
+            if (length > 0 && random.nextInt(3) == 0) {
+                int offset = random.nextInt(length);
+                remove(doc, counter, offset, 1 + random.nextInt(Math.min(8, length - offset)));
+            } else {
+                insert(doc, counter, random.nextInt(length + 1), PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertEquals(count(doc.getText(0, doc.getLength())), counter.getWords(), "after edit " + edit);
+        }
+    }
+
+    private static void insert(Document doc, WordCounter counter, int offset, String text)
+            throws BadLocationException {
+        doc.insertString(offset, text, null);
+        counter.inserted(doc, offset, text.length());
+    }
+
+    private static void remove(Document doc, WordCounter counter, int offset, int length)
+            throws BadLocationException {
+        counter.removing(doc, offset, length);
+        doc.remove(offset, length);
+    }
+
+    private static int count(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+    }
+}